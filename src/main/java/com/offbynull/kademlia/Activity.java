@@ -28,7 +28,7 @@ import org.apache.commons.lang3.Validate;
  */
 public final class Activity {
     private final Node node;
-    private final Instant time;
+    private final long time; // nanos since epoch (see InternalTime)
 
     /**
      * Constructs a {@link Activity} object.
@@ -37,8 +37,17 @@ public final class Activity {
      * @throws NullPointerException if any argument is {@code null}
      */
     Activity(Node node, Instant time) {
+        this(node, InternalTime.toNanos(time));
+    }
+
+    /**
+     * Constructs a {@link Activity} object.
+     * @param node node
+     * @param time time in nanoseconds since the epoch
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    Activity(Node node, long time) {
         Validate.notNull(node);
-        Validate.notNull(time);
         this.node = node;
         this.time = time;
     }
@@ -52,10 +61,19 @@ public final class Activity {
     }
 
     /**
-     * Get the time action was performed.
+     * Get the time action was performed. Equivalent to converting {@link #getTimeNanos() } to an {@link Instant} (times outside of the
+     * range of {@link #getTimeNanos() } come back as {@link Instant#MIN} / {@link Instant#MAX}).
      * @return time
      */
     public Instant getTime() {
+        return InternalTime.toInstant(time);
+    }
+
+    /**
+     * Get the time action was performed, in nanoseconds since the epoch.
+     * @return time in nanoseconds since the epoch
+     */
+    public long getTimeNanos() {
         return time;
     }
 
@@ -63,7 +81,7 @@ public final class Activity {
     public int hashCode() {
         int hash = 3;
         hash = 31 * hash + Objects.hashCode(this.node);
-        hash = 31 * hash + Objects.hashCode(this.time);
+        hash = 31 * hash + Long.hashCode(this.time);
         return hash;
     }
 
@@ -79,7 +97,7 @@ public final class Activity {
         if (!Objects.equals(this.node, other.node)) {
             return false;
         }
-        if (!Objects.equals(this.time, other.time)) {
+        if (this.time != other.time) {
             return false;
         }
         return true;
@@ -87,7 +105,7 @@ public final class Activity {
 
     @Override
     public String toString() {
-        return "Activity{" + "node=" + node + ", time=" + time + '}';
+        return "Activity{" + "node=" + node + ", time=" + getTime() + '}';
     }
     
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Duration;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Parameters that dictate how a {@link Router} handles unresponsive nodes (see
+ * {@link Router#unresponsive(java.time.Instant, com.offbynull.kademlia.Node) }).
+ * <p>
+ * Each time a node is unresponsive, it's locked for an exponentially increasing backoff interval ({@code initialLockDuration},
+ * {@code initialLockDuration * 2}, {@code initialLockDuration * 4}, ... up to {@code maxLockDuration}). Once a node has been unresponsive
+ * {@code staleThreshold} times in a row, it's marked as stale instead.
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class BackoffParameters {
+
+    private final Duration initialLockDuration;
+    private final Duration maxLockDuration;
+    private final int staleThreshold;
+
+    /**
+     * Construct a {@link BackoffParameters} object.
+     *
+     * @param initialLockDuration amount of time to lock a node for the first time it's unresponsive
+     * @param maxLockDuration maximum amount of time to lock a node for
+     * @param staleThreshold number of times in a row a node has to be unresponsive before it's marked as stale ({@code 1} means nodes are
+     * marked as stale the first time they're unresponsive, without ever being locked)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any duration is {@code 0} or less, or if {@code maxLockDuration < initialLockDuration}, or if
+     * {@code staleThreshold <= 0}
+     */
+    public BackoffParameters(Duration initialLockDuration, Duration maxLockDuration, int staleThreshold) {
+        Validate.notNull(initialLockDuration);
+        Validate.notNull(maxLockDuration);
+        Validate.isTrue(!initialLockDuration.isNegative() && !initialLockDuration.isZero());
+        Validate.isTrue(maxLockDuration.compareTo(initialLockDuration) >= 0);
+        Validate.isTrue(staleThreshold > 0);
+        this.initialLockDuration = initialLockDuration;
+        this.maxLockDuration = maxLockDuration;
+        this.staleThreshold = staleThreshold;
+    }
+
+    Duration getInitialLockDuration() {
+        return initialLockDuration;
+    }
+
+    Duration getMaxLockDuration() {
+        return maxLockDuration;
+    }
+
+    int getStaleThreshold() {
+        return staleThreshold;
+    }
+
+    // Lock duration for the nth time in a row a node is unresponsive (starts at 1)
+    Duration getLockDuration(int failureCount) {
+        Validate.isTrue(failureCount > 0);
+        
+        Duration duration = initialLockDuration;
+        for (int i = 1; i < failureCount && duration.compareTo(maxLockDuration) < 0; i++) {
+            duration = duration.multipliedBy(2L);
+        }
+        return duration.compareTo(maxLockDuration) > 0 ? maxLockDuration : duration;
+    }
+}
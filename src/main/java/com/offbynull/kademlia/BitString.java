@@ -17,6 +17,10 @@
 package com.offbynull.kademlia;
 
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import org.apache.commons.lang3.Validate;
 
@@ -27,17 +31,25 @@ import org.apache.commons.lang3.Validate;
  * @author Kasra Faghihi
  */
 public final class BitString implements Serializable {
-    private static final long serialVersionUID = 1L;
-    
-    private final byte[] data; // treated as an array of bit starting from bit 0
+    private static final long serialVersionUID = 2L;
+
+    // Bits are packed in to 64-bit words, starting from bit 0 of the bitstring going in to the most significant bit of word 0. So for
+    // example, bit 0 of the bitstring is bit 63 of word 0, bit 63 of the bitstring is bit 0 of word 0, and bit 64 of the bitstring is bit
+    // 63 of word 1. Any bits in the last word that go beyond bitLength MUST ALWAYS BE 0 (equals()/hashCode()/getSharedPrefixLength()
+    // rely on this).
+    //
+    // Why pack like this? Because the bits of a word are ordered the same way as the bits of the bitstring, reading any 64 bits from an
+    // arbitrary offset spans at most 2 words and is just a pair of shifts. It also means that comparing words as unsigned longs is the same
+    // as comparing the bitstrings bit-by-bit from the start.
+    private final long[] data;
     private final int bitLength;
-    
+
     // make sure that whatever you pass in as data is a copy / not-shared.
-    private BitString(byte[] data, int bitLength) {
+    private BitString(long[] data, int bitLength) {
         Validate.notNull(data);
         Validate.isTrue(bitLength >= 0);
         
-        int minLength = calculateRequiredByteArraySize(bitLength);
+        int minLength = calculateRequiredLongArraySize(bitLength);
         Validate.isTrue(data.length == minLength);
         
         this.data = data;
@@ -55,37 +67,22 @@ public final class BitString implements Serializable {
     public static BitString createFromString(String data) {
         Validate.notNull(data);
         
-        int offset = 0;
         int len = data.length();
+        long[] arr = new long[calculateRequiredLongArraySize(len)];
         
-        int arrLen = calculateRequiredByteArraySize(len);
-        int arrIdx = 0;
-        byte[] arr = new byte[arrLen];
-        
-        int end = offset + len;
-        int currOffset = offset;
-        byte[] temp = new byte[1];
-        while (currOffset < end) {
-            int nextOffset = Math.min(currOffset + 8, end);
-            int currLen = nextOffset - currOffset;
-            
-            try {
-                temp[0] = (byte) (Integer.valueOf(data.substring(currOffset, currOffset + currLen), 2) & 0xFF);
-            } catch (NumberFormatException nfe) {
-                throw new IllegalArgumentException(nfe);
-            }
-            
-            if (currLen < 8) {
-                temp[0] = (byte) ((temp[0] << (8 - currLen)) & 0xFF);
+        for (int i = 0; i < len; i++) {
+            char ch = data.charAt(i);
+            switch (ch) {
+                case '0':
+                    break;
+                case '1':
+                    arr[i >>> 6] |= 1L << (63 - (i & 63));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad character at position " + i + ": " + ch);
             }
-            
-            byte b = readBitsFromByteArrayInReadOrder(temp, 0, currLen);
-            arr[arrIdx] = b;
-
-            arrIdx++;
-            currOffset = nextOffset;
         }
-        
+
         return new BitString(arr, len);
     }
 
@@ -129,24 +126,7 @@ public final class BitString implements Serializable {
         Validate.isTrue(len >= 0);
         Validate.isTrue(offset + len <= data.length * 8);
         
-        int arrLen = calculateRequiredByteArraySize(len);
-        int arrIdx = 0;
-        byte[] arr = new byte[arrLen];
-        
-        int end = offset + len;
-        int currOffset = offset;
-        while (currOffset < end) {
-            int nextOffset = Math.min(currOffset + 8, end);
-            int currLen = nextOffset - currOffset;
-            
-            byte b = readBitsFromByteArrayInLogicalOrder(data, currOffset, currLen);
-            arr[arrIdx] = b;
-
-            arrIdx++;
-            currOffset = nextOffset;
-        }
-        
-        return new BitString(arr, len);
+        return createFromByteArray(data, offset, len, true);
     }
 
     /**
@@ -188,117 +168,113 @@ public final class BitString implements Serializable {
         Validate.isTrue(len >= 0);
         Validate.isTrue(offset + len <= data.length * 8);
         
-        int arrLen = calculateRequiredByteArraySize(len);
-        int arrIdx = 0;
-        byte[] arr = new byte[arrLen];
+        return createFromByteArray(data, offset, len, false);
+    }
+
+    private static BitString createFromByteArray(byte[] data, int offset, int len, boolean logicalOrder) {
+        long[] arr = new long[calculateRequiredLongArraySize(len)];
         
+        // Fill a word at a time
         int end = offset + len;
         int currOffset = offset;
+        int arrIdx = 0;
         while (currOffset < end) {
-            int nextOffset = Math.min(currOffset + 8, end);
-            int currLen = nextOffset - currOffset;
+            int currLen = Math.min(64, end - currOffset);
+            arr[arrIdx] = readWordFromByteArray(data, currOffset, logicalOrder) & topBitsMask(currLen);
             
-            byte b = readBitsFromByteArrayInReadOrder(data, currOffset, currLen);
-            arr[arrIdx] = b;
-
             arrIdx++;
-            currOffset = nextOffset;
+            currOffset += currLen;
         }
-        
+
         return new BitString(arr, len);
     }
-    
-    // Why work on longs? It may be more efficient to have the byte[] containing the bitstring be a long[].
-    private static byte readBitsFromByteArrayInLogicalOrder(byte[] container, int offset, int len) {
-        Validate.isTrue(len <= 8);
-        Validate.isTrue(offset + len <= container.length * 8);
-        
-        int byteOffset = offset / 8;
-        int bitOffset = offset % 8;
-        
-        int idx = byteOffset;
-        
-        int lenOfBitsRemainingInByte = 8 - bitOffset;
-        
-        byte ret;
-        if (len <= lenOfBitsRemainingInByte) {
-            ret = (byte) (isolateBitsToBottom(container[idx], bitOffset, len) & 0xFFL);
-        } else {
-            long byte1 = container[idx] & 0xFFL;
-            long byte2 = container[idx + 1] & 0xFFL;
-            int byte1BitOffset = bitOffset;
-            int byte1BitLen = Math.min(8 - bitOffset, len);
-            int byte2BitOffset = 0;
-            int byte2BitLen = len - byte1BitLen;
-            
-            long portion1 = isolateBitsToBottom(byte1, byte1BitOffset, byte1BitLen);
-            long portion2 = isolateBitsToBottom(byte2, byte2BitOffset, byte2BitLen);
-            
-            long combined = (portion1 << byte2BitLen) | portion2;
-            
-            ret = (byte) (combined & 0xFF);
+
+    // Reads 64 bits starting at the bit offset of a byte array and puts them in to a word (bit at offset goes in to the most significant
+    // bit of the word). Bits past the end of the byte array are read as 0.
+    //
+    // In read-order, the bits of each byte are read from most significant to least significant, which is the same ordering used by words.
+    // In logical-order, the bits of each byte are read from least significant to most significant, so each byte needs to be reversed
+    // before being placed in to the word.
+    private static long readWordFromByteArray(byte[] container, int offset, boolean logicalOrder) {
+        int byteOffset = offset >>> 3;
+        int bitOffset = offset & 7;
+        
+        long ret = 0L;
+        for (int i = 0; i < 8; i++) {
+            int idx = byteOffset + i;
+            if (idx >= container.length) {
+                break;
+            }
+            ret |= readByte(container, idx, logicalOrder) << (56 - (i * 8));
         }
-        
-        return ret;
-    }
-    
-    // Why work on longs? It may be more efficient to have the byte[] containing the bitstring be a long[].
-    private static byte readBitsFromByteArrayInReadOrder(byte[] container, int offset, int len) {
-        Validate.isTrue(len <= 8);
-        Validate.isTrue(offset + len <= container.length * 8);
-        
-        int byteOffset = offset / 8;
-        int bitOffset = offset % 8;
-        
-        int idx = byteOffset;
-        
-        int lenOfBitsRemainingInByte = 8 - bitOffset;
-        
-        byte ret;
-        if (len <= lenOfBitsRemainingInByte) {
-            long byte1 = Long.reverse(container[idx] & 0xFFL) >>> 56;
-            ret = (byte) (isolateBitsToBottom(byte1, bitOffset, len) & 0xFFL);
-        } else {
-            long byte1 = Long.reverse(container[idx] & 0xFFL) >>> 56;
-            long byte2 = Long.reverse(container[idx + 1] & 0xFFL) >>> 56;
-            int byte1BitOffset = bitOffset;
-            int byte1BitLen = Math.min(8 - bitOffset, len);
-            int byte2BitOffset = 0;
-            int byte2BitLen = len - byte1BitLen;
-            
-            long portion1 = isolateBitsToBottom(byte1, byte1BitOffset, byte1BitLen);
-            long portion2 = isolateBitsToBottom(byte2, byte2BitOffset, byte2BitLen);
-            
-            long combined = (portion1 << byte2BitLen) | portion2;
-            
-            ret = (byte) (combined & 0xFF);
+
+        if (bitOffset != 0) {
+            ret <<= bitOffset;
+            int idx = byteOffset + 8;
+            if (idx < container.length) {
+                ret |= readByte(container, idx, logicalOrder) >>> (8 - bitOffset);
+            }
         }
-        
+
         return ret;
     }
 
-    // Why work on longs? It may be more efficient to have the byte[] containing the bitstring be a long[].
-    private static long isolateBitsToBottom(long data, int offset, int len) {
-        Validate.isTrue(offset >= 0);
-        Validate.isTrue(len >= 0);
-        Validate.isTrue(offset + len <= 64);
-        
-        long mask = (1L << len) - 1L;
-        
-        return (data >>> offset) & mask;
+    private static long readByte(byte[] container, int idx, boolean logicalOrder) {
+        int value = container[idx] & 0xFF;
+        if (logicalOrder) {
+            value = Integer.reverse(value) >>> 24;
+        }
+        return value;
     }
-    
-    private static int calculateRequiredByteArraySize(int bitLength) {
+
+    private static int calculateRequiredLongArraySize(int bitLength) {
         Validate.inclusiveBetween(0, Integer.MAX_VALUE, bitLength);
         
-        int fullByteCount = bitLength / 8;
-        int remainingBits = bitLength % 8;
+        int fullLongCount = bitLength >>> 6;
+        int remainingBits = bitLength & 63;
         
-        int byteLength = fullByteCount + (remainingBits == 0 ? 0 : 1);
+        int longLength = fullLongCount + (remainingBits == 0 ? 0 : 1);
         
-        return byteLength;
+        return longLength;
+    }
+
+    // mask where the top len bits are 1 (e.g. len = 4 gives 0xF000000000000000L)
+    private static long topBitsMask(int len) {
+        return len == 0 ? 0L : -1L << (64 - len);
     }
-    
+
+    // Reads 64 bits starting at offset (bit at offset goes in to the most significant bit of the returned word). Spans at most 2 words.
+    // Bits past bitLength are read as 0.
+    private long readWord(int offset) {
+        int wordOffset = offset >>> 6;
+        int bitOffset = offset & 63;
+        
+        if (wordOffset >= data.length) {
+            return 0L;
+        }
+
+        long ret = data[wordOffset] << bitOffset;
+        if (bitOffset != 0 && wordOffset + 1 < data.length) {
+            ret |= data[wordOffset + 1] >>> (64 - bitOffset);
+        }
+        return ret;
+    }
+
+    // Writes the top len bits of value in to dest starting at offset. Spans at most 2 words.
+    private static void writeWord(long[] dest, int offset, long value, int len) {
+        long mask = topBitsMask(len);
+        value &= mask;
+        
+        int wordOffset = offset >>> 6;
+        int bitOffset = offset & 63;
+        
+        dest[wordOffset] = (dest[wordOffset] & ~(mask >>> bitOffset)) | (value >>> bitOffset);
+        if (bitOffset + len > 64) {
+            int shift = 64 - bitOffset;
+            dest[wordOffset + 1] = (dest[wordOffset + 1] & ~(mask << shift)) | (value << shift);
+        }
+    }
+
     /**
      * Get the number of bits that are that this bitstring's prefix shares with another bitstring.
      * @param other other bitstring to test against
@@ -309,41 +285,20 @@ public final class BitString implements Serializable {
         Validate.notNull(other);
         
         int maxCompareLenAsBits = Math.min(bitLength, other.bitLength);
-        int maxCompareLenAsBytes = calculateRequiredByteArraySize(maxCompareLenAsBits);
-        
+        int maxCompareLenAsLongs = calculateRequiredLongArraySize(maxCompareLenAsBits);
         
-        int nextByteIdx = 0;
-        for (int i = 0; i < maxCompareLenAsBytes; i++) {
-            if (other.data[i] != data[i]) {
-                break;
+        for (int i = 0; i < maxCompareLenAsLongs; i++) {
+            long xor = data[i] ^ other.data[i];
+            if (xor != 0L) {
+                int matchCount = (i << 6) + Long.numberOfLeadingZeros(xor);
+                return Math.min(matchCount, maxCompareLenAsBits); // differing bit may be past the end of the shorter bitstring
             }
-            nextByteIdx++;
-        }
-        
-        if (nextByteIdx == maxCompareLenAsBytes) {
-            // All bytes matched, both string prefixes match entirely
-            return maxCompareLenAsBits;
         }
-        
-        int thisLastByte = data[nextByteIdx] & 0xFF;
-        int otherLastByte = other.data[nextByteIdx] & 0xFF;
-      
-        int bitMatchCount = 0;
-        int remainingBits = maxCompareLenAsBits - (nextByteIdx * 8);
-        for (int i = 0; i < remainingBits; i++) {
-            int thisBit = (thisLastByte >> i) & 0x01;
-            int otherBit = (otherLastByte >> i) & 0x01;
-            if (thisBit != otherBit) {
-                break;
-            }
-            bitMatchCount++;
-        }
-        
-        int finalBitMatchCount = (nextByteIdx * 8) + bitMatchCount;
-        
-        return finalBitMatchCount;
+
+        // All words matched, both string prefixes match entirely
+        return maxCompareLenAsBits;
     }
-    
+
     /**
      * Get the number of bits that are that this bitstring's suffix shares with another bitstring.
      * @param other other bitstring to test against
@@ -353,25 +308,25 @@ public final class BitString implements Serializable {
     public int getSharedSuffixLength(BitString other) {
         Validate.notNull(other);
         
-        // You can make this more efficient by doing something similar to getSharedPrefixLength()
+        int maxCompareLenAsBits = Math.min(bitLength, other.bitLength);
         
-        int thisBitOffset = bitLength - 1;
-        int otherBitOffset = other.bitLength - 1;
         int bitMatchCount = 0;
-        while (thisBitOffset >= 0 && otherBitOffset >= 0) {
-            boolean thisBit = getBit(thisBitOffset);
-            boolean otherBit = other.getBit(otherBitOffset);
-            if (thisBit != otherBit) {
-                break;
+        while (bitMatchCount < maxCompareLenAsBits) {
+            int readLen = Math.min(64, maxCompareLenAsBits - bitMatchCount);
+            long thisBits = getBitsAsLong(bitLength - bitMatchCount - readLen, readLen);
+            long otherBits = other.getBitsAsLong(other.bitLength - bitMatchCount - readLen, readLen);
+            
+            long xor = thisBits ^ otherBits;
+            if (xor != 0L) {
+                return bitMatchCount + Long.numberOfTrailingZeros(xor);
             }
-            bitMatchCount++;
-            thisBitOffset--;
-            otherBitOffset--;
+
+            bitMatchCount += readLen;
         }
-        
+
         return bitMatchCount;
     }
-    
+
     /**
      * Get bit from this bitstring.
      * @param offset offset of bit
@@ -382,11 +337,8 @@ public final class BitString implements Serializable {
         Validate.isTrue(offset >= 0);
         Validate.isTrue(offset < bitLength);
         
-        int bitPos = offset % 8;
-        int bytePos = offset / 8;
-        
-        int bitMask = 1 << bitPos;
-        return (data[bytePos] & bitMask) != 0;
+        long bitMask = 1L << (63 - (offset & 63));
+        return (data[offset >>> 6] & bitMask) != 0L;
     }
 
     /**
@@ -400,19 +352,15 @@ public final class BitString implements Serializable {
         Validate.isTrue(offset >= 0);
         Validate.isTrue(offset < bitLength);
         
-        byte[] dataCopy = Arrays.copyOf(data, data.length);
-        
-        int bitPos = offset % 8;
-        int bytePos = offset / 8;
+        long[] dataCopy = Arrays.copyOf(data, data.length);
         
+        long bitMask = 1L << (63 - (offset & 63));
         if (bit) {
-            int bitMask = 1 << bitPos;
-            dataCopy[bytePos] |= bitMask;
+            dataCopy[offset >>> 6] |= bitMask;
         } else {
-            int bitMask = ~(1 << bitPos);
-            dataCopy[bytePos] &= bitMask;
+            dataCopy[offset >>> 6] &= ~bitMask;
         }
-        
+
         return new BitString(dataCopy, bitLength);
     }
 
@@ -426,8 +374,10 @@ public final class BitString implements Serializable {
         Validate.isTrue(offset >= 0);
         Validate.isTrue(offset < bitLength);
         
-        boolean bit = getBit(offset);
-        return setBit(offset, !bit);
+        long[] dataCopy = Arrays.copyOf(data, data.length);
+        dataCopy[offset >>> 6] ^= 1L << (63 - (offset & 63));
+        
+        return new BitString(dataCopy, bitLength);
     }
 
     /**
@@ -444,31 +394,18 @@ public final class BitString implements Serializable {
         int end = offset + len;
         Validate.isTrue(end <= this.bitLength);
         
-        int lenAsBytes = calculateRequiredByteArraySize(len);
-        byte[] dataCopy = new byte[lenAsBytes];
+        long[] dataCopy = new long[calculateRequiredLongArraySize(len)];
         
-        // TODO: You can make this much more efficient
-        for (int i = 0; i < len; i++) {
-            int readIdx = offset + i;
-            int readBitPos = readIdx % 8;
-            int readBytePos = readIdx / 8;
+        for (int i = 0; i < dataCopy.length; i++) {
+            dataCopy[i] = readWord(offset + (i << 6));
+        }
 
-            int readBitMask = 1 << readBitPos;
-            boolean bit = (data[readBytePos] & readBitMask) != 0;
-            
-            int writeIdx = i;
-            int writeBitPos = writeIdx % 8;
-            int writeBytePos = writeIdx / 8;
-            
-            if (bit) {
-                int bitMask = 1 << writeBitPos;
-                dataCopy[writeBytePos] |= bitMask;
-            } else {
-                int bitMask = ~(1 << writeBitPos);
-                dataCopy[writeBytePos] &= bitMask;
-            }
+        // zero out any bits in the last word past len
+        int remainingBits = len & 63;
+        if (remainingBits != 0) {
+            dataCopy[dataCopy.length - 1] &= topBitsMask(remainingBits);
         }
-        
+
         return new BitString(dataCopy, len);
     }
 
@@ -490,31 +427,13 @@ public final class BitString implements Serializable {
         Validate.isTrue(end <= this.bitLength);
         Validate.isTrue(len <= 64);
         
-        long dataCopy = 0;
-        
-        // TODO: You can make this much more efficient
-        for (int i = 0; i < len; i++) {
-            int readIdx = offset + i;
-            int readBitPos = readIdx % 8;
-            int readBytePos = readIdx / 8;
-
-            int readBitMask = 1 << readBitPos;
-            boolean bit = (data[readBytePos] & readBitMask) != 0;
-            
-            int writeBitPos = (len - i) - 1;
-            
-            if (bit) {
-                long bitMask = 1L << writeBitPos;
-                dataCopy |= bitMask;
-            } else {
-                long bitMask = ~(1L << writeBitPos);
-                dataCopy &= bitMask;
-            }
+        if (len == 0) {
+            return 0L;
         }
-        
-        return dataCopy;
+
+        return readWord(offset) >>> (64 - len);
     }
-    
+
     /**
      * Set multiple bits within a copy of this bitstring.
      * @param offset offset of bit within this bitstring to write to
@@ -531,25 +450,12 @@ public final class BitString implements Serializable {
         int end = offset + other.bitLength;
         Validate.isTrue(end <= bitLength);
         
-        byte[] dataCopy = Arrays.copyOf(data, data.length);
-        
-        // TODO: You can make this much more efficient
-        for (int i = offset; i < end; i++)  {
-            int bitPos = i % 8;
-            int bytePos = i / 8;
-
-            if (other.getBit(i - offset)) {
-                int bitMask = 1 << bitPos;
-                dataCopy[bytePos] |= bitMask;
-            } else {
-                int bitMask = ~(1 << bitPos);
-                dataCopy[bytePos] &= bitMask;
-            }
-        }
+        long[] dataCopy = Arrays.copyOf(data, data.length);
+        copyBits(other, dataCopy, offset);
         
         return new BitString(dataCopy, bitLength);
     }
-    
+
     /**
      * Append bits to a copy of this bitstring.
      * @param other bits to append
@@ -562,25 +468,151 @@ public final class BitString implements Serializable {
         int offset = bitLength;
         int end = offset + other.bitLength;
         
-        int arrLen = calculateRequiredByteArraySize(end);
+        long[] dataCopy = Arrays.copyOf(data, calculateRequiredLongArraySize(end));
+        copyBits(other, dataCopy, offset);
         
-        byte[] dataCopy = Arrays.copyOf(data, arrLen);
+        return new BitString(dataCopy, end);
+    }
+
+    private static void copyBits(BitString src, long[] dest, int destOffset) {
+        for (int i = 0; i < src.data.length; i++) {
+            int len = Math.min(64, src.bitLength - (i << 6));
+            writeWord(dest, destOffset + (i << 6), src.data[i], len);
+        }
+    }
+
+    // number of 64-bit words backing this bitstring
+    int getWordCount() {
+        return data.length;
+    }
+
+    // word at idx backing this bitstring (bit 0 of the bitstring is the most significant bit of word 0, bits past bitLength are 0)
+    long getWord(int idx) {
+        return data[idx];
+    }
+
+    // number of bytes that writeBytes() writes / readBytes() reads for a bitstring of bitLength
+    static int getByteLength(int bitLength) {
+        return (bitLength + 7) >>> 3;
+    }
+
+    // writes this bitstring to buffer as bytes in read-order, padded with 0s to a whole number of bytes (the bit length isn't written)
+    void writeBytes(ByteBuffer buffer) {
+        int byteLen = getByteLength(bitLength);
+        if (buffer.remaining() < byteLen) {
+            throw new BufferOverflowException();
+        }
+
+        int position = buffer.position();
+        writeBytes(buffer, position);
+        buffer.position(position + byteLen);
+    }
+
+    // same as writeBytes(buffer), but writes starting at index and leaves buffer's position alone
+    //
+    // Each whole word goes in as a single putLong() rather than 8 put()s, since the word layout is the same as big endian (most
+    // significant byte of word 0 is byte 0). Only the trailing partial word (if any) is written byte-by-byte.
+    void writeBytes(ByteBuffer buffer, int index) {
+        int byteLen = getByteLength(bitLength);
+        checkIndex(buffer, index, byteLen);
+        
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int fullWordCount = byteLen >>> 3;
+        for (int i = 0; i < fullWordCount; i++) {
+            long word = data[i];
+            buffer.putLong(index + (i << 3), bigEndian ? word : Long.reverseBytes(word));
+        }
+
+        // trailing partial word, written as an int / short / byte (whichever are needed) from its most significant bytes down
+        int i = fullWordCount << 3;
+        if (i == byteLen) {
+            return;
+        }
+        long word = data[fullWordCount];
+        if (byteLen - i >= 4) {
+            int value = (int) (word >>> 32);
+            buffer.putInt(index + i, bigEndian ? value : Integer.reverseBytes(value));
+            word <<= 32;
+            i += 4;
+        }
+        if (byteLen - i >= 2) {
+            short value = (short) (word >>> 48);
+            buffer.putShort(index + i, bigEndian ? value : Short.reverseBytes(value));
+            word <<= 16;
+            i += 2;
+        }
+        if (i < byteLen) {
+            buffer.put(index + i, (byte) (word >>> 56));
+        }
+    }
+
+    // reads a bitstring of bitLength from buffer, as written by writeBytes()
+    static BitString readBytes(ByteBuffer buffer, int bitLength) {
+        Validate.isTrue(bitLength >= 0);
         
-        // TODO: You can make this much more efficient
-        for (int i = offset; i < end; i++)  {
-            int bitPos = i % 8;
-            int bytePos = i / 8;
+        int byteLen = getByteLength(bitLength);
+        if (buffer.remaining() < byteLen) {
+            throw new BufferUnderflowException();
+        }
+
+        int position = buffer.position();
+        BitString ret = readBytes(buffer, position, bitLength);
+        buffer.position(position + byteLen);
+        return ret;
+    }
 
-            if (other.getBit(i - offset)) {
-                int bitMask = 1 << bitPos;
-                dataCopy[bytePos] |= bitMask;
-            } else {
-                int bitMask = ~(1 << bitPos);
-                dataCopy[bytePos] &= bitMask;
+    // same as readBytes(buffer, bitLength), but reads starting at index and leaves buffer's position alone (see writeBytes(buffer, index))
+    static BitString readBytes(ByteBuffer buffer, int index, int bitLength) {
+        Validate.isTrue(bitLength >= 0);
+        
+        int byteLen = getByteLength(bitLength);
+        checkIndex(buffer, index, byteLen);
+        
+        long[] arr = new long[calculateRequiredLongArraySize(bitLength)];
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int fullWordCount = byteLen >>> 3;
+        for (int i = 0; i < fullWordCount; i++) {
+            long word = buffer.getLong(index + (i << 3));
+            arr[i] = bigEndian ? word : Long.reverseBytes(word);
+        }
+
+        // trailing partial word, read the same way that writeBytes(buffer, index) writes it
+        int i = fullWordCount << 3;
+        if (i < byteLen) {
+            long word = 0L;
+            int shift = 64;
+            if (byteLen - i >= 4) {
+                int value = buffer.getInt(index + i);
+                shift -= 32;
+                word |= ((bigEndian ? value : Integer.reverseBytes(value)) & 0xFFFFFFFFL) << shift;
+                i += 4;
+            }
+            if (byteLen - i >= 2) {
+                short value = buffer.getShort(index + i);
+                shift -= 16;
+                word |= ((bigEndian ? value : Short.reverseBytes(value)) & 0xFFFFL) << shift;
+                i += 2;
+            }
+            if (i < byteLen) {
+                shift -= 8;
+                word |= (buffer.get(index + i) & 0xFFL) << shift;
             }
+            arr[fullWordCount] = word;
         }
         
-        return new BitString(dataCopy, end);
+        // padding bits must be 0
+        if (arr.length > 0) {
+            arr[arr.length - 1] &= topBitsMask(bitLength - ((arr.length - 1) << 6));
+        }
+        
+        return new BitString(arr, bitLength);
+    }
+
+    // checked up front so that a write that doesn't fit doesn't end up partially written
+    private static void checkIndex(ByteBuffer buffer, int index, int len) {
+        if (index < 0 || index > buffer.limit() - len) {
+            throw new IndexOutOfBoundsException("Index " + index + " with length " + len + " out of bounds for limit " + buffer.limit());
+        }
     }
 
     /**
@@ -608,10 +640,10 @@ public final class BitString implements Serializable {
             return false;
         }
         final BitString other = (BitString) obj;
-        if (!Arrays.equals(this.data, other.data)) {
+        if (this.bitLength != other.bitLength) {
             return false;
         }
-        if (this.bitLength != other.bitLength) {
+        if (!Arrays.equals(this.data, other.data)) {
             return false;
         }
         return true;
@@ -629,4 +661,4 @@ public final class BitString implements Serializable {
         }
         return sb.toString();
     }
-}
\ No newline at end of file
+}
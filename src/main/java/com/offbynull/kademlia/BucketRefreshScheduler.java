@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Schedules k-bucket refreshes for a {@link Router}. A k-bucket needs to be refreshed if it hasn't been updated (see
+ * {@link RouteTree#getStagnantBuckets(java.time.Instant) }) or refreshed for some amount of time. Refreshing a k-bucket means doing a
+ * lookup (e.g. using {@link NodeLookup}) on a random ID within that k-bucket's prefix, which is what this class hands out.
+ * <p>
+ * K-buckets are tracked in a timing wheel inside the router, so polling does work proportional to the number of k-buckets that need to be
+ * refreshed (not the total number of k-buckets) and allocates nothing if no k-buckets need to be refreshed. Once a k-bucket is handed
+ * out by {@link #poll(java.time.Instant, java.util.function.Consumer) }, it's considered refreshed as of the time polled for and won't
+ * be handed out again until it goes another {@code refreshInterval} without being updated.
+ * <p>
+ * This class is not thread-safe. It accesses the router, so it must be synchronized the same way as the router.
+ * @author Kasra Faghihi
+ */
+public final class BucketRefreshScheduler {
+    private static final Duration MAX_INTERVAL = Duration.ofNanos(Long.MAX_VALUE);
+
+    private final RouteTree routeTree;
+    private final int bitLength;
+    private final long refreshInterval; // nanos
+    private final Random random;
+    private final byte[] randomBytes;
+
+    /**
+     * Constructs a {@link BucketRefreshScheduler} object. Only one scheduler should be created per router (schedulers for the same router
+     * share refresh times).
+     * @param router router to refresh the k-buckets of
+     * @param refreshInterval amount of time a k-bucket has to go without being updated or refreshed before it needs to be refreshed
+     * @param random random number generator to generate target IDs with
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code refreshInterval} is {@code 0} or less
+     */
+    public BucketRefreshScheduler(Router router, Duration refreshInterval, Random random) {
+        Validate.notNull(router);
+        Validate.notNull(refreshInterval);
+        Validate.notNull(random);
+        Validate.isTrue(!refreshInterval.isNegative() && !refreshInterval.isZero());
+        
+        this.routeTree = router.getRouteTree();
+        this.bitLength = router.getBaseId().getBitLength();
+        this.refreshInterval = refreshInterval.compareTo(MAX_INTERVAL) > 0 ? Long.MAX_VALUE : refreshInterval.toNanos();
+        this.random = random;
+        this.randomBytes = new byte[(bitLength + 7) / 8];
+    }
+
+    /**
+     * Finds k-buckets that need to be refreshed and generates a random ID within each one's prefix. Every k-bucket needs to be refreshed
+     * the first time this method is called (k-buckets that have never been updated are treated as being updated at {@link Instant#MIN}).
+     * @param time current time
+     * @param targets called with a random ID for each k-bucket that needs to be refreshed (in no particular order)
+     * @return number of IDs passed to {@code targets}
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public int poll(Instant time, Consumer<Id> targets) {
+        Validate.notNull(time);
+        Validate.notNull(targets);
+        
+        long now = InternalTime.toNanos(time);
+        long threshold = now < Long.MIN_VALUE + refreshInterval ? Long.MIN_VALUE : now - refreshInterval;
+        int count = routeTree.pollRefreshes(threshold, now);
+        for (int i = 0; i < count; i++) {
+            BitString prefix = routeTree.getPolledRefresh(i).getPrefix();
+            random.nextBytes(randomBytes);
+            Id target = Id.create(randomBytes, bitLength).setBits(0, prefix);
+            targets.accept(target);
+        }
+        return count;
+    }
+}
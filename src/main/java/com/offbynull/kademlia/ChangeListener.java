@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+/**
+ * Receives the changes resulting from an operation performed on a {@link Router} / {@link RouteTree} / {@link KBucket}, as they happen.
+ * This is an alternative to getting back a change set (e.g. {@link RouterChangeSet}) -- nothing gets allocated to report changes, so it's
+ * suitable for hot paths such as {@link Router#touch(long, com.offbynull.kademlia.Node, com.offbynull.kademlia.ChangeListener) }.
+ * <p>
+ * Callbacks are invoked in the same order that the corresponding entries would appear in the change set, while the operation is running.
+ * Implementations must not access the router / route tree / k-bucket that invoked them. Activities passed in are immutable, so they can be
+ * held on to. All callbacks do nothing by default, so implementations only need to override the ones they care about.
+ * @author Kasra Faghihi
+ */
+public interface ChangeListener {
+    /**
+     * A node was added to a k-bucket (see {@link ActivityChangeSet#viewAdded() } for {@link KBucketChangeSet#getBucketChangeSet() }).
+     * @param kBucketPrefix prefix of k-bucket
+     * @param activity node and the time it was added
+     */
+    default void bucketAdded(BitString kBucketPrefix, Activity activity) {
+        // do nothing
+    }
+
+    /**
+     * A node was removed from a k-bucket (see {@link ActivityChangeSet#viewRemoved() } for {@link KBucketChangeSet#getBucketChangeSet() }).
+     * @param kBucketPrefix prefix of k-bucket
+     * @param activity node and the time it was last touched
+     */
+    default void bucketRemoved(BitString kBucketPrefix, Activity activity) {
+        // do nothing
+    }
+
+    /**
+     * A node in a k-bucket was updated (see {@link ActivityChangeSet#viewUpdated() } for {@link KBucketChangeSet#getBucketChangeSet() }).
+     * @param kBucketPrefix prefix of k-bucket
+     * @param activity node and the time it was updated
+     */
+    default void bucketUpdated(BitString kBucketPrefix, Activity activity) {
+        // do nothing
+    }
+
+    /**
+     * A node was added to a k-bucket's replacement cache (see {@link ActivityChangeSet#viewAdded() } for
+     * {@link KBucketChangeSet#getCacheChangeSet() }).
+     * @param kBucketPrefix prefix of k-bucket
+     * @param activity node and the time it was added
+     */
+    default void cacheAdded(BitString kBucketPrefix, Activity activity) {
+        // do nothing
+    }
+
+    /**
+     * A node was removed from a k-bucket's replacement cache (see {@link ActivityChangeSet#viewRemoved() } for
+     * {@link KBucketChangeSet#getCacheChangeSet() }).
+     * @param kBucketPrefix prefix of k-bucket
+     * @param activity node and the time it was last touched
+     */
+    default void cacheRemoved(BitString kBucketPrefix, Activity activity) {
+        // do nothing
+    }
+
+    /**
+     * A node in a k-bucket's replacement cache was updated (see {@link ActivityChangeSet#viewUpdated() } for
+     * {@link KBucketChangeSet#getCacheChangeSet() }).
+     * @param kBucketPrefix prefix of k-bucket
+     * @param activity node and the time it was updated
+     */
+    default void cacheUpdated(BitString kBucketPrefix, Activity activity) {
+        // do nothing
+    }
+}
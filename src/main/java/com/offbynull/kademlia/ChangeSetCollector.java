@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.ArrayList;
+import static java.util.Collections.emptyList;
+import java.util.List;
+
+// Collects changes reported to a ChangeListener back in to change sets. Used to implement the change set returning versions of methods on
+// top of the listener versions.
+final class ChangeSetCollector implements ChangeListener {
+    private List<Activity> bucketAdded = emptyList();
+    private List<Activity> bucketRemoved = emptyList();
+    private List<Activity> bucketUpdated = emptyList();
+    private List<Activity> cacheAdded = emptyList();
+    private List<Activity> cacheRemoved = emptyList();
+    private List<Activity> cacheUpdated = emptyList();
+
+    @Override
+    public void bucketAdded(BitString kBucketPrefix, Activity activity) {
+        bucketAdded = add(bucketAdded, activity);
+    }
+
+    @Override
+    public void bucketRemoved(BitString kBucketPrefix, Activity activity) {
+        bucketRemoved = add(bucketRemoved, activity);
+    }
+
+    @Override
+    public void bucketUpdated(BitString kBucketPrefix, Activity activity) {
+        bucketUpdated = add(bucketUpdated, activity);
+    }
+
+    @Override
+    public void cacheAdded(BitString kBucketPrefix, Activity activity) {
+        cacheAdded = add(cacheAdded, activity);
+    }
+
+    @Override
+    public void cacheRemoved(BitString kBucketPrefix, Activity activity) {
+        cacheRemoved = add(cacheRemoved, activity);
+    }
+
+    @Override
+    public void cacheUpdated(BitString kBucketPrefix, Activity activity) {
+        cacheUpdated = add(cacheUpdated, activity);
+    }
+
+    ActivityChangeSet getBucketChangeSet() {
+        return toChangeSet(bucketAdded, bucketRemoved, bucketUpdated);
+    }
+
+    ActivityChangeSet getCacheChangeSet() {
+        return toChangeSet(cacheAdded, cacheRemoved, cacheUpdated);
+    }
+
+    KBucketChangeSet getKBucketChangeSet() {
+        return new KBucketChangeSet(getBucketChangeSet(), getCacheChangeSet());
+    }
+
+    private static List<Activity> add(List<Activity> list, Activity activity) {
+        List<Activity> ret = list.isEmpty() ? new ArrayList<>(1) : list;
+        ret.add(activity);
+        return ret;
+    }
+
+    private static ActivityChangeSet toChangeSet(List<Activity> added, List<Activity> removed, List<Activity> updated) {
+        if (added.isEmpty() && removed.isEmpty() && updated.isEmpty()) {
+            return ActivityChangeSet.NO_CHANGE;
+        }
+        return new ActivityChangeSet(added, removed, updated);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Churn parameters for {@link NetworkSimulator}. Once all nodes have joined, each node alternates between being online and offline,
+ * where the time spent in each state is exponentially distributed around {@code meanOnlineTime} and {@code meanOfflineTime}. All times
+ * are in virtual milliseconds.
+ * <p>
+ * Nodes keep their routing tables while offline (as if they had persisted them before going down).
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class ChurnModel {
+
+    /**
+     * No churn (nodes stay online for the entire simulation).
+     */
+    public static final ChurnModel NONE = new ChurnModel(1L, 0L);
+
+    private final long meanOnlineTime;
+    private final long meanOfflineTime;
+
+    /**
+     * Construct a {@link ChurnModel} object.
+     *
+     * @param meanOnlineTime mean time a node stays online for
+     * @param meanOfflineTime mean time a node stays offline for ({@code 0} for no churn)
+     * @throws IllegalArgumentException if {@code meanOnlineTime <= 0} or if {@code meanOfflineTime < 0}
+     */
+    public ChurnModel(long meanOnlineTime, long meanOfflineTime) {
+        Validate.isTrue(meanOnlineTime > 0L);
+        Validate.isTrue(meanOfflineTime >= 0L);
+        this.meanOnlineTime = meanOnlineTime;
+        this.meanOfflineTime = meanOfflineTime;
+    }
+
+    long getMeanOnlineTime() {
+        return meanOnlineTime;
+    }
+
+    long getMeanOfflineTime() {
+        return meanOfflineTime;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Writes/reads lists of nodes to/from BitTorrent's "compact node info" format (BEP-5 for IPv4, BEP-32 for IPv6), which is what the
+ * {@code nodes} / {@code nodes6} fields of a {@code find_node} / {@code get_peers} response contain. Each node is written as its 160-bit
+ * ID followed by its address and port (see {@link InetLink#write(java.nio.ByteBuffer) }), with no separators or counts. IPv4 and IPv6
+ * nodes are never mixed within a list.
+ * <p>
+ * Nodes being written should have {@link InetLink}s (nodes with other types of links are written only if the link's string form is an
+ * {@link InetLink}'s string form, which means parsing it). Nodes are written directly in to the buffer passed in, so a single buffer can
+ * be reused for every response.
+ * @author Kasra Faghihi
+ */
+public final class CompactNodeCodec {
+
+    /**
+     * Bit length of node IDs in compact node info.
+     */
+    public static final int ID_BIT_LENGTH = 160;
+    /**
+     * Number of bytes each IPv4 node takes up.
+     */
+    public static final int IPV4_ENTRY_BYTE_LENGTH = ID_BIT_LENGTH / 8 + InetLink.IPV4_BYTE_LENGTH;
+    /**
+     * Number of bytes each IPv6 node takes up.
+     */
+    public static final int IPV6_ENTRY_BYTE_LENGTH = ID_BIT_LENGTH / 8 + InetLink.IPV6_BYTE_LENGTH;
+
+    private CompactNodeCodec() {
+        // do nothing
+    }
+
+    /**
+     * Writes nodes to a buffer in compact node info format, advancing the buffer's position past them. Nodes that don't have a link of
+     * the address family being written (including nodes with links that aren't {@link InetLink}s or in {@link InetLink}'s string form)
+     * are skipped.
+     * @param buffer buffer to write to
+     * @param nodes nodes to write (e.g. the output of {@link Router#find(com.offbynull.kademlia.Id, int, boolean) })
+     * @param ipv6 {@code true} to write IPv6 nodes ({@code nodes6}), {@code false} to write IPv4 nodes ({@code nodes})
+     * @return number of nodes written
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a node being written doesn't have a 160-bit ID
+     * @throws BufferOverflowException if {@code buffer} runs out of room (nodes before the one that didn't fit are left written)
+     */
+    public static int writeNodes(ByteBuffer buffer, Iterable<Node> nodes, boolean ipv6) {
+        Validate.notNull(buffer);
+        Validate.notNull(nodes);
+        
+        int count = 0;
+        for (Node node : nodes) {
+            Validate.notNull(node);
+            if (write(buffer, node, ipv6)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Equivalent to {@link #writeNodes(java.nio.ByteBuffer, java.lang.Iterable, boolean) }, but writes the nodes out of activities (e.g.
+     * the output of {@link RouteTree#find(com.offbynull.kademlia.Id, int, boolean) }).
+     * @param buffer buffer to write to
+     * @param activities activities to write nodes from
+     * @param ipv6 {@code true} to write IPv6 nodes ({@code nodes6}), {@code false} to write IPv4 nodes ({@code nodes})
+     * @return number of nodes written
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a node being written doesn't have a 160-bit ID
+     * @throws BufferOverflowException if {@code buffer} runs out of room (nodes before the one that didn't fit are left written)
+     */
+    public static int writeActivities(ByteBuffer buffer, Iterable<Activity> activities, boolean ipv6) {
+        Validate.notNull(buffer);
+        Validate.notNull(activities);
+        
+        int count = 0;
+        for (Activity activity : activities) {
+            Validate.notNull(activity);
+            if (write(buffer, activity.getNode(), ipv6)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean write(ByteBuffer buffer, Node node, boolean ipv6) {
+        Link typedLink = node.getTypedLink();
+        InetLink link = typedLink instanceof InetLink ? (InetLink) typedLink : InetLink.tryParse(typedLink.toString());
+        if (link == null || link.isIpv6() != ipv6) {
+            return false;
+        }
+
+        Id id = node.getId();
+        Validate.isTrue(id.getBitLength() == ID_BIT_LENGTH);
+        if (buffer.remaining() < (ipv6 ? IPV6_ENTRY_BYTE_LENGTH : IPV4_ENTRY_BYTE_LENGTH)) {
+            throw new BufferOverflowException();
+        }
+
+        id.write(buffer);
+        link.write(buffer);
+        return true;
+    }
+
+    /**
+     * Reads all nodes remaining in a buffer in compact node info format, advancing the buffer's position to its limit. Links of the nodes
+     * returned are {@link InetLink}s.
+     * @param buffer buffer to read from
+     * @param ipv6 {@code true} to read IPv6 nodes ({@code nodes6}), {@code false} to read IPv4 nodes ({@code nodes})
+     * @return nodes read
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if the number of bytes remaining in {@code buffer} isn't a multiple of the size of a node (nothing
+     * is read)
+     */
+    public static List<Node> readNodes(ByteBuffer buffer, boolean ipv6) {
+        Validate.notNull(buffer);
+        
+        int entryByteLength = ipv6 ? IPV6_ENTRY_BYTE_LENGTH : IPV4_ENTRY_BYTE_LENGTH;
+        int remaining = buffer.remaining();
+        Validate.isTrue(remaining % entryByteLength == 0, "Compact node info length not a multiple of %d: %d", entryByteLength, remaining);
+        
+        int count = remaining / entryByteLength;
+        List<Node> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Id id = Id.create(buffer, ID_BIT_LENGTH);
+            InetLink link = InetLink.read(buffer, ipv6);
+            ret.add(new Node(id, link));
+        }
+        return ret;
+    }
+}
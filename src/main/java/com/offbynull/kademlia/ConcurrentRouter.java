@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Thread-safe version of {@link Router}. Encapsulates a {@link RouteTree} where each k-bucket is guarded by its own lock, meaning that
+ * calls to {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } / {@link #stale(com.offbynull.kademlia.Node) } that hit
+ * different k-buckets can run in parallel. Calls to {@link #find(com.offbynull.kademlia.Id, int, boolean) } read-lock each k-bucket
+ * they walk, so they run in parallel with each other and only wait on touches/stales that hit the same k-bucket.
+ * <p>
+ * Optionally, a {@link ConcurrentRouter} can publish an immutable {@link RouterSnapshot} after each touch/stale (see
+ * {@link #getSnapshot() }). In this mode, {@link #find(com.offbynull.kademlia.Id, int, boolean) } reads from the latest snapshot instead
+ * of the k-buckets, meaning that searches never lock and always see a consistent view of the entire routing table. The trade-off is that
+ * each touch/stale has to copy the nodes of the k-bucket it changed.
+ * <p>
+ * Unlike {@link Router}, the requirement that touch times must never go backwards is enforced per k-bucket rather than for the entire
+ * router. Threads that receive messages from nodes in different k-buckets don't need to coordinate their clocks with each other.
+ * @author Kasra Faghihi
+ */
+public final class ConcurrentRouter {
+    private final Id baseId;
+    private final RouteTree routeTree;
+
+    // Maps each k-bucket in routeTree to its lock. The structure of routeTree never changes after construction, so this map is populated
+    // once and only ever read from after that.
+    private final Map<KBucket, Stripe> stripes;
+
+    // routeTree tracks when each k-bucket was last updated in a single shared structure, so updates to it need to be serialized
+    private final Object bucketUpdateTimesLock;
+
+    // latest snapshot, or null if snapshots aren't being published
+    private final AtomicReference<RouterSnapshot> snapshot;
+
+    /**
+     * Constructs a {@link ConcurrentRouter} object.
+     * @param baseId ID of the node that this router is for
+     * @param branchStrategy branching strategy for the route tree to be created by this router (dictates how many branches to create at
+     * each depth)
+     * @param bucketStrategy bucket strategy for the route tree to be created by this router (dictates k-bucket parameters for each
+     * k-bucket)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if either {@code branchStrategy} or {@code bucketStrategy} generates invalid data (see interfaces for
+     * restrictions)
+     */
+    public ConcurrentRouter(Id baseId,
+            RouteTreeBranchStrategy branchStrategy,
+            RouteTreeBucketStrategy bucketStrategy) {
+        this(baseId, branchStrategy, bucketStrategy, false);
+    }
+
+    /**
+     * Constructs a {@link ConcurrentRouter} object.
+     * @param baseId ID of the node that this router is for
+     * @param branchStrategy branching strategy for the route tree to be created by this router (dictates how many branches to create at
+     * each depth)
+     * @param bucketStrategy bucket strategy for the route tree to be created by this router (dictates k-bucket parameters for each
+     * k-bucket)
+     * @param publishSnapshots if {@code true}, an immutable snapshot of this router is published after each change and searches are
+     * performed against that snapshot
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if either {@code branchStrategy} or {@code bucketStrategy} generates invalid data (see interfaces for
+     * restrictions)
+     */
+    public ConcurrentRouter(Id baseId,
+            RouteTreeBranchStrategy branchStrategy,
+            RouteTreeBucketStrategy bucketStrategy,
+            boolean publishSnapshots) {
+        Validate.notNull(baseId);
+        Validate.notNull(branchStrategy);
+        Validate.notNull(bucketStrategy);
+        
+        this.baseId = baseId;
+        this.routeTree = new RouteTree(baseId, branchStrategy, bucketStrategy);
+        this.stripes = new IdentityHashMap<>();
+        List<KBucket> buckets = routeTree.dumpBuckets();
+        for (int i = 0; i < buckets.size(); i++) {
+            KBucket bucket = buckets.get(i);
+            stripes.put(bucket, new Stripe(i));
+        }
+        this.bucketUpdateTimesLock = new Object();
+        this.snapshot = publishSnapshots
+                ? new AtomicReference<>(new RouterSnapshot(baseId, routeTree, x -> stripes.get(x).slot, buckets.size()))
+                : null;
+    }
+
+    /**
+     * Constructs a {@link ConcurrentRouter} object where the route tree created by this router uses a {@link SimpleRouteTreeStrategy} for
+     * the branching strategy and the bucket strategy.
+     * @param baseId ID of the node that this router is for
+     * @param branchesPerLevel number of branches to generate whenever a k-bucket splits
+     * @param maxNodesPerBucket maximum number of nodes allowed in each k-bucket
+     * @param maxCacheNodesPerBucket maximum number of cache nodes allowed in each k-bucket
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is {@code 0} or less, or if
+     * {@code branchesPerLevel < 2 || !isPowerOfTwo(branchesPerLevel)}, or if {@code baseId.getBitLength() % branchesPerLevel != 0} (if the
+     * number of branches per level doesn't divide evenly in to bit length, the routing tree will have too many branches at the last level)
+     */
+    public ConcurrentRouter(Id baseId, int branchesPerLevel, int maxNodesPerBucket, int maxCacheNodesPerBucket) {
+        this(baseId, branchesPerLevel, maxNodesPerBucket, maxCacheNodesPerBucket, false);
+    }
+
+    /**
+     * Constructs a {@link ConcurrentRouter} object where the route tree created by this router uses a {@link SimpleRouteTreeStrategy} for
+     * the branching strategy and the bucket strategy.
+     * @param baseId ID of the node that this router is for
+     * @param branchesPerLevel number of branches to generate whenever a k-bucket splits
+     * @param maxNodesPerBucket maximum number of nodes allowed in each k-bucket
+     * @param maxCacheNodesPerBucket maximum number of cache nodes allowed in each k-bucket
+     * @param publishSnapshots if {@code true}, an immutable snapshot of this router is published after each change and searches are
+     * performed against that snapshot
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is {@code 0} or less, or if
+     * {@code branchesPerLevel < 2 || !isPowerOfTwo(branchesPerLevel)}, or if {@code baseId.getBitLength() % branchesPerLevel != 0} (if the
+     * number of branches per level doesn't divide evenly in to bit length, the routing tree will have too many branches at the last level)
+     */
+    public ConcurrentRouter(Id baseId, int branchesPerLevel, int maxNodesPerBucket, int maxCacheNodesPerBucket,
+            boolean publishSnapshots) {
+        this(baseId,
+                new SimpleRouteTreeStrategy(baseId, branchesPerLevel, maxNodesPerBucket, maxCacheNodesPerBucket),
+                new SimpleRouteTreeStrategy(baseId, branchesPerLevel, maxNodesPerBucket, maxCacheNodesPerBucket),
+                publishSnapshots);
+    }
+
+    /**
+     * Updates the appropriate k-bucket in the route tree associated with this router router by touching it. When the Kademlia node that
+     * this router is for receives a request or response from some other node in the network, this method should be called.
+     * <p>
+     * See {@link KBucket#touch(java.time.Instant, com.offbynull.kademlia.Node) } for more information.
+     * @param time time which request or response came in
+     * @param node node which issued the request or response
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this router is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method for the same
+     * k-bucket
+     * @throws LinkMismatchException if this router already contains a node with {@code node}'s ID but with a different link (SPECIAL
+     * CASE: If the contained node is marked as stale, this exception will not be thrown. Since the node is marked as stale, it means it
+     * should have been replaced but the replacement cache was empty. As such, this case is treated as if this were a new node replacing
+     * a stale node, not a stale node being reverted to normal status -- the fact that the IDs are the same but the links don't match
+     * doesn't matter)
+     * @see KBucket#touch(java.time.Instant, com.offbynull.kademlia.Node)
+     */
+    public RouterChangeSet touch(Instant time, Node node) {
+        Validate.notNull(time);
+        return touch(InternalTime.toNanos(time), node);
+    }
+
+    /**
+     * Equivalent to {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) }, but with the time as nanoseconds since the epoch
+     * rather than an {@link Instant} (nothing is allocated for the time).
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this router is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method for the same
+     * k-bucket
+     * @throws LinkMismatchException if this router already contains a node with {@code node}'s ID but with a different link (see
+     * {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see KBucket#touch(long, com.offbynull.kademlia.Node)
+     */
+    public RouterChangeSet touch(long time, Node node) {
+        Validate.notNull(node);
+        
+        Id nodeId = node.getId();
+        InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
+        InternalValidate.notMatchesBase(baseId, nodeId);
+        
+        KBucket bucket = routeTree.getBucketFor(nodeId);
+        Stripe stripe = stripes.get(bucket);
+        StampedLock lock = stripe.lock;
+        
+        long stamp = lock.writeLock();
+        try {
+            // KBucket's touch makes sure that time is >= the time of the last touch to that k-bucket
+            KBucketChangeSet kBucketChangeSet = bucket.touch(time, node);
+            synchronized (bucketUpdateTimesLock) {
+                routeTree.updateBucketUpdateTime(bucket);
+            }
+            // only need to publish if the k-bucket changed -- snapshots don't include replacement caches
+            if (snapshot != null && !isEmpty(kBucketChangeSet.getBucketChangeSet())) {
+                publishSnapshot(stripe.slot, bucket);
+            }
+
+            return new RouterChangeSet(new RouteTreeChangeSet(bucket.getPrefix(), kBucketChangeSet));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get all k-bucket prefixes in the route tree associated with this router.
+     * @return all k-bucket prefixes in the route tree associated with this router
+     */
+    public List<BitString> dumpBucketPrefixes() {
+        return routeTree.dumpBucketPrefixes(); // structure of route tree never changes, so no locking required
+    }
+
+    /**
+     * Searches the route tree associated with this router for the closest nodes to some ID. Node closeness is determined by the XOR metric
+     * -- Kademlia's notion of distance.
+     * <p>
+     * If snapshots are being published, the search is performed against the latest snapshot. Otherwise, each k-bucket is read
+     * individually, meaning that results are consistent per k-bucket but may reflect touches/stales that happen to other k-buckets while
+     * this method is running.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for).
+     * @param id ID to search for
+     * @param max maximum number of results to give back
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return up to {@code max} closest nodes to {@code id} (less are returned if this route table contains less than {@code max} nodes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * (the ID of the node this router belongs to)
+     */
+    public List<Node> find(Id id, int max, boolean includeStale) {
+        Validate.notNull(id);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        // do not stop from finding self (base) -- you may want to update closest
+        
+        if (snapshot != null) {
+            return snapshot.get().find(id, max, includeStale);
+        }
+
+        List<Activity> closestNodesInRoutingTree = routeTree.find(id, max, (bucket, output) -> readBucket(bucket, includeStale, output));
+        
+        ArrayList<Node> res = new ArrayList<>(closestNodesInRoutingTree.size());
+        closestNodesInRoutingTree.stream()
+                .map(x -> x.getNode())
+                .forEachOrdered(res::add);
+        
+        return res;
+    }
+
+    /**
+     * Searches the route tree associated with this router for the closest nodes to each ID in a collection. Equivalent to calling
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) } for each ID, except that each k-bucket is read only once (up front) and
+     * all searches run against what was read. This is cheaper than calling {@link #find(com.offbynull.kademlia.Id, int, boolean) }
+     * in a loop when there are a large number of IDs (e.g. when republishing stored keys), and the results are consistent with each
+     * other.
+     * <p>
+     * If snapshots are being published, the searches are performed against the latest snapshot. Otherwise, each k-bucket is read
+     * individually, meaning that results are consistent per k-bucket but may reflect touches/stales that happen to other k-buckets while
+     * the k-buckets are being read.
+     * @param ids IDs to search for
+     * @param max maximum number of results to give back for each ID
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return closest nodes to each ID in {@code ids}, in the order that {@code ids} iterates in (see
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) })
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of any ID in {@code ids} doesn't match the bitlength of the ID that
+     * this router is for (the ID of the node this router belongs to)
+     */
+    public List<List<Node>> findAll(Collection<Id> ids, int max, boolean includeStale) {
+        return findAll(toIdArray(ids, max), max, includeStale, null);
+    }
+
+    /**
+     * Equivalent to {@link #findAll(java.util.Collection, int, boolean) }, but the searches are split up and run in parallel on
+     * {@code pool}. The calling thread blocks until all searches are done.
+     * @param ids IDs to search for
+     * @param max maximum number of results to give back for each ID
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @param pool pool to run searches on
+     * @return closest nodes to each ID in {@code ids}, in the order that {@code ids} iterates in (see
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) })
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of any ID in {@code ids} doesn't match the bitlength of the ID that
+     * this router is for (the ID of the node this router belongs to)
+     */
+    public List<List<Node>> findAll(Collection<Id> ids, int max, boolean includeStale, ForkJoinPool pool) {
+        Validate.notNull(pool);
+        return findAll(toIdArray(ids, max), max, includeStale, pool);
+    }
+
+    private Id[] toIdArray(Collection<Id> ids, int max) {
+        Validate.notNull(ids);
+        Validate.noNullElements(ids);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        Id[] ret = ids.toArray(new Id[ids.size()]);
+        for (Id id : ret) {
+            InternalValidate.matchesLength(baseId.getBitLength(), id);
+            // do not stop from finding self (base) -- you may want to update closest
+        }
+        return ret;
+    }
+
+    // pool is null if searches should run on the calling thread
+    private List<List<Node>> findAll(Id[] ids, int max, boolean includeStale, ForkJoinPool pool) {
+        if (snapshot != null) {
+            return snapshot.get().findAll(ids, max, includeStale, pool);
+        }
+
+        List<List<Activity>> closestNodesInRoutingTree = routeTree.findAll(ids, max,
+                (bucket, output) -> readBucket(bucket, includeStale, output), pool);
+        
+        List<List<Node>> res = new ArrayList<>(closestNodesInRoutingTree.size());
+        for (List<Activity> closestNodes : closestNodesInRoutingTree) {
+            ArrayList<Node> nodes = new ArrayList<>(closestNodes.size());
+            closestNodes.forEach(x -> nodes.add(x.getNode()));
+            res.add(nodes);
+        }
+
+        return res;
+    }
+
+    /**
+     * Marks a node within the route tree associated with this router as stale (meaning that you're no longer able to communicate with it),
+     * evicting it and replacing it with the most recent node in the effected k-bucket's replacement cache.
+     * <p>
+     * See {@link KBucket#stale(com.offbynull.kademlia.Node) } for more information.
+     * @param node node to mark as stale
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this router is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws NodeNotFoundException if this router doesn't contain {@code node}
+     * @throws LinkMismatchException if this router contains a node with {@code node}'s ID but with a different link
+     * @throws BadNodeStateException if this router contains {@code node} but {@code node} is marked as locked
+     * @see KBucket#stale(com.offbynull.kademlia.Node)
+     */
+    public RouterChangeSet stale(Node node) {
+        Validate.notNull(node);
+        
+        Id nodeId = node.getId();
+        InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
+        InternalValidate.notMatchesBase(baseId, nodeId);
+        
+        KBucket bucket = routeTree.getBucketFor(nodeId);
+        Stripe stripe = stripes.get(bucket);
+        StampedLock lock = stripe.lock;
+        
+        long stamp = lock.writeLock();
+        try {
+            KBucketChangeSet kBucketChangeSet = bucket.stale(node);
+            synchronized (bucketUpdateTimesLock) {
+                routeTree.updateBucketUpdateTime(bucket);
+            }
+            if (snapshot != null) {
+                publishSnapshot(stripe.slot, bucket);
+            }
+
+            return new RouterChangeSet(new RouteTreeChangeSet(bucket.getPrefix(), kBucketChangeSet));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get the latest snapshot published by this router.
+     * @return latest snapshot
+     * @throws IllegalStateException if this router wasn't constructed to publish snapshots
+     */
+    public RouterSnapshot getSnapshot() {
+        Validate.validState(snapshot != null, "Router not publishing snapshots");
+        return snapshot.get();
+    }
+
+    private void publishSnapshot(int slot, KBucket bucket) {
+        // Called while holding the k-bucket's write lock, so the snapshot of this k-bucket can't be replaced by an older one. Other
+        // k-buckets may be publishing at the same time, which is why the swap needs to be atomic.
+        KBucketSnapshot bucketSnapshot = KBucketSnapshot.create(bucket);
+        snapshot.updateAndGet(x -> x.withBucket(slot, bucketSnapshot));
+    }
+
+    private static boolean isEmpty(ActivityChangeSet changeSet) {
+        return changeSet.viewAdded().isEmpty() && changeSet.viewRemoved().isEmpty() && changeSet.viewUpdated().isEmpty();
+    }
+
+    private void readBucket(KBucket bucket, boolean includeStale, Consumer<Activity> output) {
+        // The sets backing KBucket aren't thread-safe, so they can only be walked while holding the lock. Any number of finds can hold the
+        // read lock at once, so finds only ever wait on touches/stales that hit the same k-bucket.
+        StampedLock lock = stripes.get(bucket).lock;
+        long stamp = lock.readLock();
+        try {
+            // don't bother with locked nodes for now, we're not supporting them
+            bucket.dumpBucket(true, includeStale, false, output);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static final class Stripe {
+        private final int slot; // position of k-bucket in snapshot
+        private final StampedLock lock;
+        
+        Stripe(int slot) {
+            this.slot = slot;
+            this.lock = new StampedLock();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.offbynull.kademlia;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import org.apache.commons.lang3.Validate;
 
@@ -122,6 +123,80 @@ public final class Id implements Serializable {
         return bytes;
     }
 
+    /**
+     * Constructs an {@link Id} from the bytes remaining in a buffer (heap or direct), advancing the buffer's position past it. Bytes are
+     * read in read-order (same as {@link #create(byte[], int)}), and any padding bits in the last byte are ignored. The buffer's byte order
+     * has no effect on how the ID is read.
+     * @param buffer buffer to read id value from
+     * @param bitLength number of bits in this id
+     * @return created id
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code bitLength <= 0}
+     * @throws java.nio.BufferUnderflowException if {@code buffer} has less than {@code getByteLength()} bytes remaining
+     */
+    public static Id create(ByteBuffer buffer, int bitLength) {
+        Validate.notNull(buffer);
+        Validate.isTrue(bitLength > 0);
+        
+        return new Id(BitString.readBytes(buffer, bitLength));
+    }
+
+    /**
+     * Constructs an {@link Id} from the bytes at some index of a buffer (heap or direct). Equivalent to
+     * {@link #create(java.nio.ByteBuffer, int)}, except that the buffer's position is neither used nor modified.
+     * @param buffer buffer to read id value from
+     * @param index index in {@code buffer} to read from
+     * @param bitLength number of bits in this id
+     * @return created id
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code bitLength <= 0}
+     * @throws IndexOutOfBoundsException if {@code index} is negative or if {@code buffer} doesn't have {@code getByteLength()} bytes
+     * between {@code index} and its limit
+     */
+    public static Id create(ByteBuffer buffer, int index, int bitLength) {
+        Validate.notNull(buffer);
+        Validate.isTrue(bitLength > 0);
+        
+        return new Id(BitString.readBytes(buffer, index, bitLength));
+    }
+
+    /**
+     * Writes this ID to a buffer (heap or direct), advancing the buffer's position past it. Bytes are written in read-order, with the
+     * last byte padded with 0s if the bit length isn't a multiple of 8 (see {@link #create(java.nio.ByteBuffer, int)}). The bit length
+     * itself isn't written.
+     * @param buffer buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws java.nio.BufferOverflowException if {@code buffer} has less than {@code getByteLength()} bytes remaining
+     * @throws java.nio.ReadOnlyBufferException if {@code buffer} is read-only
+     */
+    public void write(ByteBuffer buffer) {
+        Validate.notNull(buffer);
+        bitString.writeBytes(buffer);
+    }
+
+    /**
+     * Writes this ID to some index of a buffer (heap or direct). Equivalent to {@link #write(java.nio.ByteBuffer)}, except that the
+     * buffer's position is neither used nor modified.
+     * @param buffer buffer to write to
+     * @param index index in {@code buffer} to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IndexOutOfBoundsException if {@code index} is negative or if {@code buffer} doesn't have {@code getByteLength()} bytes
+     * between {@code index} and its limit
+     * @throws java.nio.ReadOnlyBufferException if {@code buffer} is read-only
+     */
+    public void write(ByteBuffer buffer, int index) {
+        Validate.notNull(buffer);
+        bitString.writeBytes(buffer, index);
+    }
+
+    /**
+     * Gets the number of bytes that this ID takes up when written to a buffer.
+     * @return number of bytes written by {@link #write(java.nio.ByteBuffer)}
+     */
+    public int getByteLength() {
+        return BitString.getByteLength(bitString.getBitLength());
+    }
+
     /**
      * Equivalent to {@link BitString#getSharedPrefixLength(com.offbynull.kademlia.BitString) }.
      * @param other other ID to test against
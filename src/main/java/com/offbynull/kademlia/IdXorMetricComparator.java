@@ -51,6 +51,7 @@ public final class IdXorMetricComparator implements Comparator<Id>, Serializable
     private static final long serialVersionUID = 1L;
     
     private final Id baseId;
+    private final long[] baseWords; // baseId's bits, packed the same way as BitString packs them (see BitString.getWord())
 
     /**
      * Constructs a {@link IdXorMetricComparator} object.
@@ -60,6 +61,12 @@ public final class IdXorMetricComparator implements Comparator<Id>, Serializable
     public IdXorMetricComparator(Id baseId) {
         Validate.notNull(baseId);
         this.baseId = baseId;
+        
+        BitString baseBitString = baseId.getBitString();
+        this.baseWords = new long[baseBitString.getWordCount()];
+        for (int i = 0; i < baseWords.length; i++) {
+            baseWords[i] = baseBitString.getWord(i);
+        }
     }
 
 
@@ -89,6 +96,12 @@ public final class IdXorMetricComparator implements Comparator<Id>, Serializable
     // Remember how < works... go compare each single bit from the beginning until you come across a pair of bits that aren't equal (one is
     // 0 and the other is 1). The ID with 0 at that position is less than the other one. So in the example above, after the XORs, offset
     // 3 contains the first differing bit.
+    //
+    //
+    // BitString packs bits in to 64-bit words such that the first bit is the most significant bit of the first word, and any unused bits
+    // at the end of the last word are always 0. That means we can XOR a word at a time and compare the results as unsigned longs -- the
+    // first word that differs is the one that contains the first differing bit, and the unused bits XOR to 0 so they never affect the
+    // result.
     @Override
     public int compare(Id o1, Id o2) {
         Validate.notNull(o1);
@@ -96,28 +109,17 @@ public final class IdXorMetricComparator implements Comparator<Id>, Serializable
         InternalValidate.matchesLength(baseId.getBitLength(), o1);
         InternalValidate.matchesLength(baseId.getBitLength(), o2);
         
-        int bitLen = baseId.getBitLength();
+        BitString bitString1 = o1.getBitString();
+        BitString bitString2 = o2.getBitString();
         
-        int offset = 0;
-        while (offset < bitLen) {
-            // read as much as possible, up to 63 bits
-            // 63 because the 64th bit will be the sign bit, and we don't want to deal negatives
-            int readLen = Math.min(bitLen - offset, 63);
-            
-            // xor blocks together
-            long xorBlock1 = o1.getBitsAsLong(offset, readLen) ^ baseId.getBitsAsLong(offset, readLen);
-            long xorBlock2 = o2.getBitsAsLong(offset, readLen) ^ baseId.getBitsAsLong(offset, readLen);
-            
-            // move offset by the amount we read
-            offset += readLen;
+        for (int i = 0; i < baseWords.length; i++) {
+            // xor words together
+            long xorWord1 = bitString1.getWord(i) ^ baseWords[i];
+            long xorWord2 = bitString2.getWord(i) ^ baseWords[i];
             
-            // if we read hte full 64 bits, we'd have to use compareUnsigned? we don't want to do that because behind the scenes if creates
-            // a BigInteger and does the comparison using that.
-            //
-            // compare 63 bits together, if not equal, we've found a "greater" one
-            int res = Long.compare(xorBlock1, xorBlock2);
-            if (res != 0) {
-                return res;
+            // compare all 64 bits together, if not equal, we've found a "greater" one
+            if (xorWord1 != xorWord2) {
+                return Long.compareUnsigned(xorWord1, xorWord2);
             }
         }
         
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Simulated network of {@link Router}s that lets {@link NodeLookup}s run without any real networking (e.g. for tests and benchmarks).
+ * <p>
+ * When a node is queried, it answers from its own router. Like a real Kademlia node, it also touches the querying node in to its router.
+ * Nodes that aren't part of the network, or have been taken offline, fail queries with a {@link TimeoutException}.
+ * <p>
+ * Routers are accessed while synchronized on them (see {@link NodeLookup}), so the same router can be used by a node's lookups and
+ * answer queries from other nodes at the same time.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class InMemoryNetwork {
+    private final Map<Id, Member> members;
+    private final Clock clock;
+    private final Executor executor;
+
+    /**
+     * Constructs an {@link InMemoryNetwork} object where queries are answered on the thread that sends them.
+     * @param clock clock to get touch times from
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public InMemoryNetwork(Clock clock) {
+        this(clock, Runnable::run);
+    }
+
+    /**
+     * Constructs an {@link InMemoryNetwork} object.
+     * @param clock clock to get touch times from
+     * @param executor executor to answer queries on
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public InMemoryNetwork(Clock clock, Executor executor) {
+        Validate.notNull(clock);
+        Validate.notNull(executor);
+        
+        this.members = new ConcurrentHashMap<>();
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a node to this network.
+     * @param node node to add
+     * @param router router for {@code node} (the router's ID must be {@code node}'s ID)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code router} isn't for {@code node}, or if a node with the same ID is already in this
+     * network
+     */
+    public void add(Node node, Router router) {
+        Validate.notNull(node);
+        Validate.notNull(router);
+        Validate.isTrue(router.getBaseId().equals(node.getId()));
+        
+        Member existing = members.putIfAbsent(node.getId(), new Member(node, router));
+        Validate.isTrue(existing == null);
+    }
+
+    /**
+     * Takes a node in this network online or offline. Offline nodes fail all queries sent to them.
+     * @param id ID of node
+     * @param online {@code true} to take online, {@code false} to take offline
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if this network doesn't contain a node with ID {@code id}
+     */
+    public void setOnline(Id id, boolean online) {
+        Validate.notNull(id);
+        
+        Member member = members.get(id);
+        Validate.isTrue(member != null);
+        member.online = online;
+    }
+
+    /**
+     * Creates a transport that sends queries as some node in this network.
+     * @param node node to send queries as (must already have been added to this network)
+     * @return transport
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code node} isn't in this network
+     */
+    public LookupTransport createTransport(Node node) {
+        Validate.notNull(node);
+        
+        Member member = members.get(node.getId());
+        Validate.isTrue(member != null && member.node.equals(node));
+        return (destination, target, max) -> query(node, destination, target, max);
+    }
+
+    private CompletableFuture<List<Node>> query(Node source, Node destination, Id target, int max) {
+        Validate.notNull(destination);
+        Validate.notNull(target);
+        Validate.isTrue(max >= 0);
+        
+        CompletableFuture<List<Node>> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                Member member = members.get(destination.getId());
+                if (member == null || !member.online || !member.node.equals(destination)) {
+                    future.completeExceptionally(new TimeoutException("No response from " + destination));
+                    return;
+                }
+
+                try {
+                    NodeLookup.touch(member.router, clock, source);
+                } catch (LinkMismatchException lme) {
+                    // destination's router already has a node with source's ID but a different link, leave it alone
+                }
+
+                List<Node> nodes;
+                synchronized (member.router) {
+                    nodes = member.router.find(target, max, false);
+                }
+                future.complete(nodes);
+            } catch (RuntimeException re) {
+                future.completeExceptionally(re);
+            }
+        });
+        return future;
+    }
+
+    private static final class Member {
+        private final Node node;
+        private final Router router;
+        private volatile boolean online;
+        
+        Member(Node node, Router router) {
+            this.node = node;
+            this.router = router;
+            this.online = true;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * IPv4 or IPv6 address + port link, packed in to primitives so that equality and hashing are cheap and no parsing is needed to send to it.
+ * <p>
+ * The string form of an IPv4 link is {@code a.b.c.d:port} (e.g. {@code 192.168.0.1:6881}), and the string form of an IPv6 link is
+ * {@code [address]:port} (e.g. {@code [2001:db8::1]:6881}). {@link #toString() } always gives back the string form, with IPv6 addresses
+ * written out as 8 uncompressed groups (e.g. {@code [2001:db8:0:0:0:0:0:1]:6881}).
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class InetLink implements Link {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of bytes that an IPv4 link takes up when written using {@link #write(java.nio.ByteBuffer) } (4 byte address + 2 byte port).
+     */
+    public static final int IPV4_BYTE_LENGTH = 6;
+    /**
+     * Number of bytes that an IPv6 link takes up when written using {@link #write(java.nio.ByteBuffer) } (16 byte address + 2 byte port).
+     */
+    public static final int IPV6_BYTE_LENGTH = 18;
+
+    private static final int MAX_PORT = 0xFFFF;
+
+    // IPv6 addresses are held as 2 big endian longs (high = first 8 bytes), IPv4 addresses are held in the bottom 32 bits of low
+    private final long high;
+    private final long low;
+    private final int port;
+    private final boolean ipv6;
+
+    private InetLink(long high, long low, int port, boolean ipv6) {
+        Validate.inclusiveBetween(0, MAX_PORT, port);
+        this.high = high;
+        this.low = low;
+        this.port = port;
+        this.ipv6 = ipv6;
+    }
+
+    /**
+     * Constructs an IPv4 {@link InetLink}.
+     * @param address IPv4 address, where the most significant byte is the first byte of the address (e.g. {@code 0xC0A80001} is
+     * {@code 192.168.0.1})
+     * @param port port
+     * @return created link
+     * @throws IllegalArgumentException if {@code port} isn't between {@code 0} and {@code 65535}
+     */
+    public static InetLink createIpv4(int address, int port) {
+        return new InetLink(0L, address & 0xFFFFFFFFL, port, false);
+    }
+
+    /**
+     * Constructs an IPv6 {@link InetLink}.
+     * @param high first 8 bytes of the IPv6 address, where the most significant byte is the first byte of the address
+     * @param low last 8 bytes of the IPv6 address, where the most significant byte is the ninth byte of the address
+     * @param port port
+     * @return created link
+     * @throws IllegalArgumentException if {@code port} isn't between {@code 0} and {@code 65535}
+     */
+    public static InetLink createIpv6(long high, long low, int port) {
+        return new InetLink(high, low, port, true);
+    }
+
+    /**
+     * Constructs an {@link InetLink} from an {@link InetAddress}. An {@link Inet4Address} creates an IPv4 link and an {@link Inet6Address}
+     * creates an IPv6 link (IPv6 scope IDs are dropped).
+     * @param address address
+     * @param port port
+     * @return created link
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code port} isn't between {@code 0} and {@code 65535}
+     */
+    public static InetLink create(InetAddress address, int port) {
+        Validate.notNull(address);
+        
+        ByteBuffer addressBytes = ByteBuffer.wrap(address.getAddress());
+        if (address instanceof Inet4Address) {
+            return createIpv4(addressBytes.getInt(), port);
+        } else {
+            return createIpv6(addressBytes.getLong(), addressBytes.getLong(), port);
+        }
+    }
+
+    /**
+     * Constructs an {@link InetLink} from its string form (see class documentation). The address must be an IP literal, host names are
+     * never resolved.
+     * @param link string form of link
+     * @return created link
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code link} isn't the string form of an IPv4 or IPv6 link
+     */
+    public static InetLink parse(String link) {
+        Validate.notNull(link);
+        
+        InetLink ret = tryParse(link);
+        Validate.isTrue(ret != null, "Not an IPv4 or IPv6 link: %s", link);
+        return ret;
+    }
+
+    // same as parse(), but returns null instead of throwing if link isn't the string form of an IPv4 or IPv6 link
+    static InetLink tryParse(String link) {
+        int portSeparatorIdx = link.lastIndexOf(':');
+        if (portSeparatorIdx == -1) {
+            return null;
+        }
+        int port = parseDecimal(link, portSeparatorIdx + 1, link.length(), MAX_PORT);
+        if (port == -1) {
+            return null;
+        }
+
+        if (link.charAt(0) != '[') {
+            long address = parseIpv4(link, 0, portSeparatorIdx);
+            return address == -1L ? null : createIpv4((int) address, port);
+        }
+
+        if (portSeparatorIdx < 2 || link.charAt(portSeparatorIdx - 1) != ']') {
+            return null;
+        }
+        for (int i = 1; i < portSeparatorIdx - 1; i++) { // make sure it's a literal so that InetAddress doesn't try to resolve it
+            char ch = link.charAt(i);
+            if (Character.digit(ch, 16) == -1 && ch != ':' && ch != '.') {
+                return null;
+            }
+        }
+        InetAddress address;
+        try {
+            address = InetAddress.getByName(link.substring(0, portSeparatorIdx));
+        } catch (UnknownHostException uhe) {
+            return null;
+        }
+        if (address instanceof Inet4Address) { // InetAddress turns IPv4-mapped IPv6 addresses in to IPv4 addresses, turn them back
+            int ipv4Address = ByteBuffer.wrap(address.getAddress()).getInt();
+            return createIpv6(0L, 0xFFFF00000000L | (ipv4Address & 0xFFFFFFFFL), port);
+        }
+        return create(address, port);
+    }
+
+    // parses a.b.c.d between start and end in to the bottom 32 bits of a long (most significant byte is a), returns -1 if malformed
+    private static long parseIpv4(String str, int start, int end) {
+        long ret = 0L;
+        int octetStart = start;
+        for (int i = 0; i < 4; i++) {
+            int octetEnd = i == 3 ? end : str.indexOf('.', octetStart);
+            if (octetEnd == -1 || octetEnd > end) {
+                return -1L;
+            }
+            int octet = parseDecimal(str, octetStart, octetEnd, 0xFF);
+            if (octet == -1) {
+                return -1L;
+            }
+            ret = (ret << 8) | octet;
+            octetStart = octetEnd + 1;
+        }
+        return ret;
+    }
+
+    // parses a decimal number between start and end, returns -1 if malformed or if greater than max
+    private static int parseDecimal(String str, int start, int end, int max) {
+        int len = end - start;
+        if (len <= 0 || len > 5) {
+            return -1;
+        }
+        int ret = 0;
+        for (int i = start; i < end; i++) {
+            int digit = str.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            ret = ret * 10 + digit;
+        }
+        return ret <= max ? ret : -1;
+    }
+
+    /**
+     * Reads an {@link InetLink} from a buffer, advancing the buffer's position past it. The layout is the address followed by the port,
+     * both big endian (this is the layout used for the address portion of BitTorrent's compact node info). The buffer's byte order has no
+     * effect on how the link is read.
+     * @param buffer buffer to read from
+     * @param ipv6 {@code true} to read an IPv6 link ({@link #IPV6_BYTE_LENGTH} bytes), {@code false} to read an IPv4 link
+     * ({@link #IPV4_BYTE_LENGTH} bytes)
+     * @return created link
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws BufferUnderflowException if {@code buffer} doesn't have enough bytes remaining (buffer's position is left unchanged)
+     */
+    public static InetLink read(ByteBuffer buffer, boolean ipv6) {
+        Validate.notNull(buffer);
+        
+        if (buffer.remaining() < (ipv6 ? IPV6_BYTE_LENGTH : IPV4_BYTE_LENGTH)) {
+            throw new BufferUnderflowException();
+        }
+
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        InetLink ret;
+        if (ipv6) {
+            long high = buffer.getLong();
+            long low = buffer.getLong();
+            short port = buffer.getShort();
+            ret = bigEndian
+                    ? createIpv6(high, low, port & 0xFFFF)
+                    : createIpv6(Long.reverseBytes(high), Long.reverseBytes(low), Short.reverseBytes(port) & 0xFFFF);
+        } else {
+            int address = buffer.getInt();
+            short port = buffer.getShort();
+            ret = bigEndian
+                    ? createIpv4(address, port & 0xFFFF)
+                    : createIpv4(Integer.reverseBytes(address), Short.reverseBytes(port) & 0xFFFF);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes this link to a buffer, advancing the buffer's position past it. See {@link #read(java.nio.ByteBuffer, boolean) } for the
+     * layout.
+     * @param buffer buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws BufferOverflowException if {@code buffer} doesn't have enough bytes remaining (nothing is written)
+     * @throws java.nio.ReadOnlyBufferException if {@code buffer} is read-only
+     */
+    public void write(ByteBuffer buffer) {
+        Validate.notNull(buffer);
+        
+        if (buffer.remaining() < getByteLength()) {
+            throw new BufferOverflowException();
+        }
+
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        if (ipv6) {
+            buffer.putLong(bigEndian ? high : Long.reverseBytes(high));
+            buffer.putLong(bigEndian ? low : Long.reverseBytes(low));
+        } else {
+            buffer.putInt(bigEndian ? (int) low : Integer.reverseBytes((int) low));
+        }
+        buffer.putShort(bigEndian ? (short) port : Short.reverseBytes((short) port));
+    }
+
+    /**
+     * Gets the number of bytes that this link takes up when written to a buffer.
+     * @return {@link #IPV6_BYTE_LENGTH} if this is an IPv6 link, {@link #IPV4_BYTE_LENGTH} otherwise
+     */
+    public int getByteLength() {
+        return ipv6 ? IPV6_BYTE_LENGTH : IPV4_BYTE_LENGTH;
+    }
+
+    /**
+     * Get whether this is an IPv6 link.
+     * @return {@code true} if this is an IPv6 link, {@code false} if this is an IPv4 link
+     */
+    public boolean isIpv6() {
+        return ipv6;
+    }
+
+    /**
+     * Get the port of this link.
+     * @return port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the address of this link as an {@link InetAddress}.
+     * @return address
+     */
+    public InetAddress toInetAddress() {
+        ByteBuffer addressBytes = ByteBuffer.allocate(ipv6 ? 16 : 4);
+        if (ipv6) {
+            addressBytes.putLong(high).putLong(low);
+        } else {
+            addressBytes.putInt((int) low);
+        }
+        try {
+            return InetAddress.getByAddress(addressBytes.array());
+        } catch (UnknownHostException uhe) {
+            throw new IllegalStateException(uhe); // should never happen, address is always 4 or 16 bytes
+        }
+    }
+
+    /**
+     * Get this link as an {@link InetSocketAddress}.
+     * @return address + port
+     */
+    public InetSocketAddress toInetSocketAddress() {
+        return new InetSocketAddress(toInetAddress(), port);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 53 * hash + Long.hashCode(this.high);
+        hash = 53 * hash + Long.hashCode(this.low);
+        hash = 53 * hash + this.port;
+        hash = 53 * hash + (this.ipv6 ? 1 : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final InetLink other = (InetLink) obj;
+        return this.high == other.high && this.low == other.low && this.port == other.port && this.ipv6 == other.ipv6;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(ipv6 ? 48 : 21);
+        if (ipv6) {
+            sb.append('[');
+            for (int i = 0; i < 8; i++) {
+                long group = ((i < 4 ? high : low) >>> (48 - ((i & 3) << 4))) & 0xFFFFL;
+                if (i != 0) {
+                    sb.append(':');
+                }
+                sb.append(Long.toHexString(group));
+            }
+            sb.append(']');
+        } else {
+            for (int i = 0; i < 4; i++) {
+                if (i != 0) {
+                    sb.append('.');
+                }
+                sb.append((low >>> (24 - (i << 3))) & 0xFFL);
+            }
+        }
+        return sb.append(':').append(port).toString();
+    }
+}
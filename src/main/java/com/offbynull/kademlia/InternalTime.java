@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+
+// Times are kept internally as nanoseconds since the epoch (a long), so that touching doesn't allocate. That covers roughly the years 1677
+// to 2262 at full Instant precision. Instants outside of that range are clamped to Long.MIN_VALUE / Long.MAX_VALUE, which convert back to
+// Instant.MIN / Instant.MAX.
+final class InternalTime {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MIN_SECOND = Math.floorDiv(Long.MIN_VALUE, NANOS_PER_SECOND);
+    private static final long MAX_SECOND = Math.floorDiv(Long.MAX_VALUE, NANOS_PER_SECOND);
+
+    private InternalTime() {
+        // do nothing
+    }
+
+    static long toNanos(Instant time) {
+        long seconds = time.getEpochSecond();
+        if (seconds <= MIN_SECOND) {
+            return Long.MIN_VALUE;
+        } else if (seconds >= MAX_SECOND) {
+            return Long.MAX_VALUE;
+        }
+        return seconds * NANOS_PER_SECOND + time.getNano();
+    }
+
+    static Instant toInstant(long nanos) {
+        if (nanos == Long.MIN_VALUE) {
+            return Instant.MIN;
+        } else if (nanos == Long.MAX_VALUE) {
+            return Instant.MAX;
+        }
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND), Math.floorMod(nanos, NANOS_PER_SECOND));
+    }
+}
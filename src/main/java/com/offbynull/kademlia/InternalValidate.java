@@ -16,7 +16,6 @@
  */
 package com.offbynull.kademlia;
 
-import java.time.Instant;
 import org.apache.commons.lang3.Validate;
 
 final class InternalValidate {
@@ -42,9 +41,9 @@ final class InternalValidate {
         Node node = nodeSet.get(expectedNode.getId());
         if (node == null) {
             throw new NodeNotFoundException(expectedNode);
-        } else if (!node.getLink().equals(expectedNode.getLink())) {
+        } else if (!node.getTypedLink().equals(expectedNode.getTypedLink())) {
             Validate.validState(node.getId().equals(expectedNode.getId())); // sanity check
-            throw new LinkMismatchException(node, expectedNode.getLink());
+            throw new LinkMismatchException(node, expectedNode.getTypedLink());
         }
     }
 
@@ -59,13 +58,9 @@ final class InternalValidate {
         }
     }
 
-    static void forwardTime(Instant previousTime, Instant currentTime) {
-        // throws illegalstateexception, because if you made it to this point you should never encounter these conditions
-        Validate.validState(previousTime != null);
-        Validate.validState(currentTime != null);
-
-        if (currentTime.isBefore(previousTime)) {
-            throw new BackwardTimeException(previousTime, currentTime);
+    static void forwardTime(long previousTime, long currentTime) { // nanos since epoch (see InternalTime)
+        if (currentTime < previousTime) {
+            throw new BackwardTimeException(InternalTime.toInstant(previousTime), InternalTime.toInstant(currentTime));
         }
     }
 
@@ -86,9 +81,9 @@ final class InternalValidate {
         Validate.validState(actualNode != null);
         Validate.validState(expectedNode.getId().equals(actualNode.getId())); // ids must be equal for this method to be called
 
-        if (!expectedNode.getLink().equals(actualNode.getLink())) {
+        if (!expectedNode.getTypedLink().equals(actualNode.getTypedLink())) {
             // if ID exists but link for ID is different
-            throw new LinkMismatchException(actualNode, expectedNode.getLink());
+            throw new LinkMismatchException(actualNode, expectedNode.getTypedLink());
         }
     }
 
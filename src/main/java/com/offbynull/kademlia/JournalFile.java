@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.Validate;
+
+// Memory-mapped, append-only log of touch/stale operations applied to a Router. Layout (all values big endian) ...
+//
+// int magic, short version, int idBitLength, then records until a record length of 0 is encountered ...
+//     int payloadLength, int payloadCrc32, byte[] payload
+//
+// where payload is either (byte TOUCH, node, long epochSecond, int nano) or (byte STALE, node), and node is as written by Node.write()
+// (id, then int linkByteLength + byte[] utf8Link for string links, or a negative link tag + address + port for InetLinks).
+//
+// The length of a record is written after its payload and CRC. If the process dies part way through an append, the record either has a
+// length of 0 (treated as the end of the log) or a CRC that doesn't match (also treated as the end of the log). Either way, everything
+// from that point onward is discarded when the log is re-opened.
+//
+// Writes to the mapped region survive the process crashing, but not the OS crashing -- call sync() to force them to disk.
+final class JournalFile implements Closeable {
+    private static final int MAGIC = 0x4B4A524E; // "KJRN"
+    private static final short VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    private static final byte TOUCH = 1;
+    private static final byte STALE = 2;
+
+    private static final int MAP_CHUNK_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int bitLength;
+    private final CRC32 crc;
+    private MappedByteBuffer buffer; // position is where the next record gets written
+
+    private JournalFile(FileChannel channel, int bitLength, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.bitLength = bitLength;
+        this.crc = new CRC32();
+        this.buffer = buffer;
+    }
+
+    // Creates a new log at path (path must not already exist)
+    static JournalFile create(Path path, int bitLength) throws IOException {
+        Validate.notNull(path);
+        Validate.isTrue(bitLength > 0);
+        
+        FileChannel channel = FileChannel.open(path, READ, WRITE, CREATE_NEW);
+        try {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0L, MAP_CHUNK_SIZE);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putInt(bitLength);
+            return new JournalFile(channel, bitLength, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Opens an existing log at path, passing each intact record to replayer. Anything after the last intact record is discarded.
+    static JournalFile open(Path path, int bitLength, Replayer replayer) throws IOException {
+        Validate.notNull(path);
+        Validate.notNull(replayer);
+        Validate.isTrue(bitLength > 0);
+        
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal too large: " + size);
+            }
+
+            ByteBuffer readBuffer = channel.map(MapMode.READ_ONLY, 0L, size);
+            try {
+                if (readBuffer.getInt() != MAGIC) {
+                    throw new IOException("Not a journal");
+                }
+                short version = readBuffer.getShort();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported journal version: " + version);
+                }
+                int fileBitLength = readBuffer.getInt();
+                if (fileBitLength != bitLength) {
+                    throw new IOException("Journal has a different ID bit length: " + fileBitLength + " vs " + bitLength);
+                }
+            } catch (BufferUnderflowException bue) {
+                throw new IOException("Malformed journal", bue);
+            }
+
+            int end = replay(readBuffer, bitLength, replayer);
+            readBuffer = null;
+            
+            // get rid of whatever is after the last intact record so that the bytes of a partially written record can't be mistaken for
+            // part of a record written after this point, then map the file for writing (mapping past the end grows it with 0s)
+            channel.truncate(end);
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0L, (long) end + MAP_CHUNK_SIZE);
+            buffer.position(end);
+            return new JournalFile(channel, bitLength, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int replay(ByteBuffer readBuffer, int bitLength, Replayer replayer) {
+        CRC32 crc = new CRC32();
+        while (true) {
+            int start = readBuffer.position();
+            if (readBuffer.remaining() < RECORD_HEADER_SIZE) {
+                return start;
+            }
+
+            int payloadLength = readBuffer.getInt();
+            int payloadCrc = readBuffer.getInt();
+            if (payloadLength <= 0 || payloadLength > readBuffer.remaining()) {
+                return start;
+            }
+
+            ByteBuffer payload = readBuffer.slice();
+            payload.limit(payloadLength);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != payloadCrc) {
+                return start;
+            }
+
+            payload.rewind();
+            byte op;
+            Node node;
+            Instant time = null;
+            try {
+                op = payload.get();
+                node = Node.create(payload, bitLength);
+                if (op == TOUCH) {
+                    time = Instant.ofEpochSecond(payload.getLong(), payload.getInt());
+                } else if (op != STALE) {
+                    return start;
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+                // CRC matched but payload is garbage, should never happen unless something other than this class wrote to the file
+                return start;
+            }
+
+            if (time != null) {
+                replayer.touch(time, node);
+            } else {
+                replayer.stale(node);
+            }
+
+            readBuffer.position(readBuffer.position() + payloadLength);
+        }
+    }
+
+    void appendTouch(Instant time, Node node) throws IOException {
+        append(TOUCH, node, time);
+    }
+
+    void appendStale(Node node) throws IOException {
+        append(STALE, node, null);
+    }
+
+    private void append(byte op, Node node, Instant time) throws IOException {
+        int payloadLength = 1 + node.getByteLength() + (time != null ? 8 + 4 : 0);
+        ensureRemaining(RECORD_HEADER_SIZE + payloadLength);
+        
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER_SIZE);
+        buffer.put(op);
+        node.write(buffer);
+        if (time != null) {
+            buffer.putLong(time.getEpochSecond());
+            buffer.putInt(time.getNano());
+        }
+        int end = buffer.position();
+        
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + RECORD_HEADER_SIZE);
+        payload.limit(end);
+        crc.reset();
+        crc.update(payload);
+        
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, payloadLength); // length goes in last, see class comment
+    }
+
+    private void ensureRemaining(int len) throws IOException {
+        if (buffer.remaining() >= len) {
+            return;
+        }
+
+        int position = buffer.position();
+        long newSize = Math.max((long) buffer.capacity() * 2L, (long) position + len);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("Journal too large: " + newSize);
+        }
+
+        buffer = channel.map(MapMode.READ_WRITE, 0L, newSize);
+        buffer.position(position);
+    }
+
+    // number of bytes taken up by the header and records
+    int size() {
+        return buffer.position();
+    }
+
+    // Forces appended records to disk
+    void sync() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        try {
+            channel.truncate(buffer.position()); // get rid of the unused portion of the mapped region
+        } finally {
+            channel.close();
+        }
+    }
+
+    interface Replayer {
+        void touch(Instant time, Node node);
+        void stale(Node node);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.time.Instant;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link Router} that records every touch/stale in to an append-only, memory-mapped journal file, such that if the process crashes, the
+ * exact state of the routing table can be recovered the next time it's opened. Once the journal grows past a certain size, it gets
+ * compacted: the full state of the routing table is written out as a snapshot (see {@link Router#writeState(java.nio.file.Path) }) and a
+ * new empty journal is started. Recovery loads the latest snapshot and replays the journal on top of it.
+ * <p>
+ * Records are written to the journal's memory-mapped region, meaning that they survive the process crashing as soon as the call returns.
+ * They only survive the OS crashing / losing power once {@link #sync() } is called (or the journal gets compacted / closed).
+ * <p>
+ * Each directory must only be used by one {@link JournaledRouter} at a time.
+ * <p>
+ * This class is not thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class JournaledRouter implements Closeable {
+    // Files in the directory are named STATE_PREFIX + generation and JOURNAL_PREFIX + generation. The journal for a generation holds the
+    // touches/stales applied after the snapshot for that generation was taken (generation 0 has no snapshot -- it starts off empty).
+    private static final String STATE_PREFIX = "state.";
+    private static final String JOURNAL_PREFIX = "journal.";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 16 * 1024 * 1024;
+
+    private final Path directory;
+    private final Router router;
+    private final int compactionThreshold;
+
+    private long generation;
+    private JournalFile journal;
+
+    private JournaledRouter(Path directory, Router router, int compactionThreshold, long generation, JournalFile journal) {
+        this.directory = directory;
+        this.router = router;
+        this.compactionThreshold = compactionThreshold;
+        this.generation = generation;
+        this.journal = journal;
+    }
+
+    /**
+     * Opens a {@link JournaledRouter} backed by a directory, recovering the routing table from whatever snapshot / journal is in that
+     * directory. Compaction happens whenever the journal grows past 16 MB.
+     * @param directory directory to hold the snapshot and journal (must already exist)
+     * @param baseId ID of the node that this router is for
+     * @param branchesPerLevel number of branches to generate whenever a k-bucket splits
+     * @param maxNodesPerBucket maximum number of nodes allowed in each k-bucket
+     * @param maxCacheNodesPerBucket maximum number of cache nodes allowed in each k-bucket
+     * @return journaled router
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is {@code 0} or less, or if
+     * {@code branchesPerLevel < 2 || !isPowerOfTwo(branchesPerLevel)}, or if {@code baseId.getBitLength() % branchesPerLevel != 0} (if the
+     * number of branches per level doesn't divide evenly in to bit length, the routing tree will have too many branches at the last level)
+     * @throws IOException if an IO error occurs, or if the snapshot in {@code directory} is malformed / was written by a router with a
+     * different ID or route tree structure
+     */
+    public static JournaledRouter open(Path directory, Id baseId, int branchesPerLevel, int maxNodesPerBucket,
+            int maxCacheNodesPerBucket) throws IOException {
+        Validate.notNull(baseId); // other args will be checked by SimpleRouteTreeStrategy
+        SimpleRouteTreeStrategy strategy = new SimpleRouteTreeStrategy(baseId, branchesPerLevel, maxNodesPerBucket,
+                maxCacheNodesPerBucket);
+        return open(directory, baseId, strategy, strategy, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens a {@link JournaledRouter} backed by a directory, recovering the routing table from whatever snapshot / journal is in that
+     * directory.
+     * @param directory directory to hold the snapshot and journal (must already exist)
+     * @param baseId ID of the node that this router is for
+     * @param branchStrategy branching strategy for the route tree to be created by this router (dictates how many branches to create at
+     * each depth)
+     * @param bucketStrategy bucket strategy for the route tree to be created by this router (dictates k-bucket parameters for each
+     * k-bucket)
+     * @param compactionThreshold size (in bytes) that the journal has to grow past before it gets compacted
+     * @return journaled router
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code compactionThreshold <= 0}
+     * @throws IllegalStateException if either {@code branchStrategy} or {@code bucketStrategy} generates invalid data (see interfaces for
+     * restrictions)
+     * @throws IOException if an IO error occurs, or if the snapshot in {@code directory} is malformed / was written by a router with a
+     * different ID or route tree structure
+     */
+    public static JournaledRouter open(Path directory, Id baseId, RouteTreeBranchStrategy branchStrategy,
+            RouteTreeBucketStrategy bucketStrategy, int compactionThreshold) throws IOException {
+        Validate.notNull(directory);
+        Validate.notNull(baseId);
+        Validate.notNull(branchStrategy);
+        Validate.notNull(bucketStrategy);
+        Validate.isTrue(compactionThreshold > 0);
+        
+        // find latest generation that has a snapshot
+        long generation = 0L;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, STATE_PREFIX + "*")) {
+            for (Path path : stream) {
+                generation = Math.max(generation, parseGeneration(path, STATE_PREFIX));
+            }
+        }
+
+        Router router;
+        if (generation == 0L) {
+            router = new Router(baseId, branchStrategy, bucketStrategy);
+        } else {
+            router = Router.readState(directory.resolve(STATE_PREFIX + generation), branchStrategy, bucketStrategy);
+            if (!router.getBaseId().equals(baseId)) {
+                throw new IOException("Snapshot is for a different ID: " + router.getBaseId());
+            }
+        }
+
+        // replay journal for that generation on top of the snapshot, if there is one (there won't be if the process crashed in between
+        // writing the snapshot and creating the journal during compaction)
+        Path journalPath = directory.resolve(JOURNAL_PREFIX + generation);
+        JournalFile journal;
+        if (Files.exists(journalPath)) {
+            journal = JournalFile.open(journalPath, baseId.getBitLength(), new JournalFile.Replayer() {
+                @Override
+                public void touch(Instant time, Node node) {
+                    try {
+                        router.touch(time, node);
+                    } catch (RuntimeException re) {
+                        // failed the same way when it was originally called (see JournaledRouter.touch()), ignore
+                    }
+                }
+
+                @Override
+                public void stale(Node node) {
+                    try {
+                        router.stale(node);
+                    } catch (RuntimeException re) {
+                        // failed the same way when it was originally called (see JournaledRouter.stale()), ignore
+                    }
+                }
+            });
+        } else {
+            journal = JournalFile.create(journalPath, baseId.getBitLength());
+        }
+
+        deleteOtherGenerations(directory, generation);
+        
+        return new JournaledRouter(directory, router, compactionThreshold, generation, journal);
+    }
+
+    /**
+     * Updates the appropriate k-bucket in the underlying router with a node and records the touch in the journal. See
+     * {@link Router#touch(java.time.Instant, com.offbynull.kademlia.Node) }.
+     * @param time time which touch occurred
+     * @param node node to touch
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if closed
+     * @throws IOException if an IO error occurs while writing to the journal / compacting (the touch will have already been applied to the
+     * underlying router at that point)
+     * @see Router#touch(java.time.Instant, com.offbynull.kademlia.Node)
+     */
+    public RouterChangeSet touch(Instant time, Node node) throws IOException {
+        Validate.notNull(time);
+        Validate.notNull(node);
+        Validate.validState(journal != null, "Closed");
+        InternalValidate.matchesLength(router.getBaseId().getBitLength(), node.getId()); // must be checked before anything is recorded
+        
+        // Router may have partially updated its state (e.g. last touch time) before throwing, so record the touch even if it fails.
+        // Replaying it will fail in the exact same way.
+        boolean success = false;
+        try {
+            RouterChangeSet ret = router.touch(time, node);
+            success = true;
+            journal.appendTouch(time, node);
+            compactIfNeeded();
+            return ret;
+        } finally {
+            if (!success) {
+                journal.appendTouch(time, node);
+            }
+        }
+    }
+
+    /**
+     * Marks a node within the underlying router as stale and records the stale in the journal. See
+     * {@link Router#stale(com.offbynull.kademlia.Node) }.
+     * @param node node to mark as stale
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if closed
+     * @throws IOException if an IO error occurs while writing to the journal / compacting (the stale will have already been applied to the
+     * underlying router at that point)
+     * @see Router#stale(com.offbynull.kademlia.Node)
+     */
+    public RouterChangeSet stale(Node node) throws IOException {
+        Validate.notNull(node);
+        Validate.validState(journal != null, "Closed");
+        InternalValidate.matchesLength(router.getBaseId().getBitLength(), node.getId()); // must be checked before anything is recorded
+        
+        boolean success = false;
+        try {
+            RouterChangeSet ret = router.stale(node);
+            success = true;
+            journal.appendStale(node);
+            compactIfNeeded();
+            return ret;
+        } finally {
+            if (!success) {
+                journal.appendStale(node);
+            }
+        }
+    }
+
+    /**
+     * Searches the underlying router for the closest nodes to some ID. See
+     * {@link Router#find(com.offbynull.kademlia.Id, int, boolean) }.
+     * @param id ID to search for
+     * @param max maximum number of results to give back
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return up to {@code max} closest nodes to {@code id} (less are returned if this router contains less than {@code max} nodes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * @see Router#find(com.offbynull.kademlia.Id, int, boolean)
+     */
+    public List<Node> find(Id id, int max, boolean includeStale) {
+        return router.find(id, max, includeStale);
+    }
+
+    /**
+     * Get all k-bucket prefixes in the route tree associated with the underlying router.
+     * @return all k-bucket prefixes in the route tree associated with the underlying router
+     */
+    public List<BitString> dumpBucketPrefixes() {
+        return router.dumpBucketPrefixes();
+    }
+
+    /**
+     * Forces records in the journal to disk.
+     * @throws IllegalStateException if closed
+     */
+    public void sync() {
+        Validate.validState(journal != null, "Closed");
+        journal.sync();
+    }
+
+    /**
+     * Writes a snapshot of the underlying router and starts a new empty journal. Called automatically whenever the journal grows past the
+     * compaction threshold.
+     * @throws IllegalStateException if closed
+     * @throws IOException if an IO error occurs
+     */
+    public void compact() throws IOException {
+        Validate.validState(journal != null, "Closed");
+        
+        long newGeneration = generation + 1L;
+        
+        // write snapshot to temp file and move it in to place once it's been fully written, meaning that a state file never exists in a
+        // partially written form -- once it exists, recovery will use it (and ignore the journal for the previous generation)
+        Path tempStatePath = directory.resolve(STATE_PREFIX + newGeneration + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tempStatePath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            router.writeState(channel);
+            channel.force(true);
+        }
+        Files.move(tempStatePath, directory.resolve(STATE_PREFIX + newGeneration), ATOMIC_MOVE);
+        
+        JournalFile newJournal = JournalFile.create(directory.resolve(JOURNAL_PREFIX + newGeneration), router.getBaseId().getBitLength());
+        JournalFile oldJournal = journal;
+        journal = newJournal;
+        generation = newGeneration;
+        oldJournal.close();
+        
+        deleteOtherGenerations(directory, generation);
+    }
+
+    Router getRouter() {
+        return router;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (journal.size() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Forces records in the journal to disk and closes the journal. Does nothing if already closed.
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+
+        JournalFile oldJournal = journal;
+        journal = null;
+        oldJournal.close();
+    }
+
+    private static void deleteOtherGenerations(Path directory, long generation) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX) && (name.startsWith(STATE_PREFIX) || name.startsWith(JOURNAL_PREFIX))) {
+                    Files.delete(path); // left over from a compaction that didn't finish
+                } else if (name.startsWith(STATE_PREFIX) && isOtherGeneration(path, STATE_PREFIX, generation)) {
+                    Files.delete(path);
+                } else if (name.startsWith(JOURNAL_PREFIX) && isOtherGeneration(path, JOURNAL_PREFIX, generation)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static boolean isOtherGeneration(Path path, String prefix, long generation) {
+        long pathGeneration = parseGeneration(path, prefix);
+        return pathGeneration != -1L && pathGeneration != generation;
+    }
+
+    private static long parseGeneration(Path path, String prefix) {
+        String name = path.getFileName().toString();
+        try {
+            long generation = Long.parseLong(name.substring(prefix.length()));
+            return generation >= 0L ? generation : -1L;
+        } catch (NumberFormatException nfe) {
+            return -1L; // not a file that was created by this class (e.g. a temp file)
+        }
+    }
+}
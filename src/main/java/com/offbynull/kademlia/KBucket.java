@@ -25,6 +25,8 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
@@ -41,6 +43,8 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
  * @author Kasra Faghihi
  */
 public final class KBucket {
+    static final ChangeListener NO_OP_LISTENER = new ChangeListener() { };
+    static final Predicate<Activity> NO_FILTER = x -> true;
 
     private final Id baseId;
 
@@ -59,7 +63,7 @@ public final class KBucket {
     private final Set<Id> staleSet; // stale nodes are returned by dumpBucket?
     private final Set<Id> lockSet; // locked nodes aren't returned by dumpBucket?
 
-    private Instant lastTouchAttemptTime;
+    private long lastTouchAttemptTime; // nanos since epoch (see InternalTime)
 
     /**
      * Constructs a {@link KBucket} object.
@@ -89,7 +93,7 @@ public final class KBucket {
         this.staleSet = new LinkedHashSet<>(); // maintain order they're added, when replacing we want to replace oldest stale first
         this.lockSet = new HashSet<>();
         
-        lastTouchAttemptTime = Instant.MIN;
+        lastTouchAttemptTime = Long.MIN_VALUE;
     }
 
     /**
@@ -118,10 +122,52 @@ public final class KBucket {
      * should have been replaced but the replacement cache was empty. As such, this case is treated as if this were a new node replacing
      * a stale node, not a stale node being reverted to normal status -- the fact that the IDs are the same but the links don't match
      * doesn't matter)
+     * @see #touch(long, com.offbynull.kademlia.Node) 
      */
     public KBucketChangeSet touch(Instant time, Node node) {
         Validate.notNull(time);
+        return touch(InternalTime.toNanos(time), node);
+    }
+
+    /**
+     * Equivalent to {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) }, but with the time as nanoseconds since the epoch
+     * rather than an {@link Instant} (nothing is allocated for the time).
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @return changes to collection of stored nodes and replacement cache
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this k-bucket belongs to)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this k-bucket belongs to)
+     * @throws IdPrefixMismatchException if {@code node}'s ID doesn't match the prefix required by this k-bucket
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method
+     * @throws LinkMismatchException if this k-bucket already contains a node with {@code node}'s ID but with a different link (see
+     * {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     */
+    public KBucketChangeSet touch(long time, Node node) {
+        ChangeSetCollector collector = new ChangeSetCollector();
+        touch(time, node, collector);
+        return collector.getKBucketChangeSet();
+    }
+
+    /**
+     * Equivalent to {@link #touch(long, com.offbynull.kademlia.Node) }, but reports changes to a listener instead of returning a change
+     * set. Nothing is allocated to report changes.
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @param listener listener to report changes to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this k-bucket belongs to)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this k-bucket belongs to)
+     * @throws IdPrefixMismatchException if {@code node}'s ID doesn't match the prefix required by this k-bucket
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method
+     * @throws LinkMismatchException if this k-bucket already contains a node with {@code node}'s ID but with a different link (see
+     * {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     */
+    public void touch(long time, Node node, ChangeListener listener) {
         Validate.notNull(node);
+        Validate.notNull(listener);
 
         Id nodeId = node.getId();
 
@@ -137,13 +183,11 @@ public final class KBucket {
         // SPECIAL CASE: If the touch is from a ID that's in the stale set but has a different link, let it through (DO NOT THROW A
         // LINKMISMATCHEXCEPTION). Since the ID is marked as being stale, it means it needs to be replaced but there were no other items in
         // the cache to replace it with. As such, just treat it as if we're replacing an item with a new cache item.
-        ActivityChangeSet bucketTouchRes = bucket.touch(time, node, staleSet.contains(nodeId));
-        Validate.validState(bucketTouchRes.viewRemoved().isEmpty()); // sanity check, should never remove anything when touching bucket
-        if (!bucketTouchRes.viewAdded().isEmpty() || !bucketTouchRes.viewUpdated().isEmpty()) {
+        if (bucket.touch(time, node, staleSet.contains(nodeId), prefix, listener)) {
             // node was added to bucket, or node was already in bucket and was updated
             staleSet.remove(nodeId); // if being updated, node may have been stale... unstale it here because it's being touched
             // DO NOT UNLOCK ON TOUCH, when need to explicitly unlock elsewhere
-            return new KBucketChangeSet(bucketTouchRes, ActivityChangeSet.NO_CHANGE);
+            return;
         }
         
         
@@ -152,23 +196,23 @@ public final class KBucket {
         //
         // Do not throw a LinkMismatchException if the node touching the cache is already in the cache (ID is the same) but has a different
         // link, because these are just cache nodes. We don't need to maintain their integrity until they get promoted to the bucket.
-        ActivityChangeSet cacheTouchRes = cache.touch(time, node, true);
+        //
+        // If we have any stale nodes, whatever goes in to the cache gets moved right in to the bucket to replace one of them. We should
+        // never ever be in a state where !cache.isEmpty() && !staleSet.isEmpty(), so don't report anything for the cache in that case --
+        // technically nothing moved in to the cache, even though it temporarily did.
+        boolean replacingStale = !staleSet.isEmpty();
+        cache.touch(time, node, true, prefix, replacingStale ? NO_OP_LISTENER : listener);
+        if (!replacingStale) {
+            return;
+        }
         
-        // There may be something in the cache now, so if we have any stale nodes, replace them with this new cache item. We should never
-        // ever be in a state where !cache.isEmpty() && !staleSet.isEmpty(). If we are then something's gone wrong.
         // left = removed stale node from bucket
         // right = moved in to bucket the node that was jsut added in to cache
         ImmutablePair<Activity, Activity> res = replaceNextStaleNodeWithCacheNode(); // left = removed, right = added
         if (res != null) {
-            return new KBucketChangeSet(
-                    new ActivityChangeSet(singletonList(res.right), singletonList(res.left), emptyList()),
-                    ActivityChangeSet.NO_CHANGE); // nochange because technically nothing moved in to cache, even though it temporarily did
+            listener.bucketAdded(prefix, res.right);
+            listener.bucketRemoved(prefix, res.left);
         }
-        
-        
-        
-        // No stale nodes encountered, so nothing was replaced. Return standard results.
-        return new KBucketChangeSet(bucketTouchRes, cacheTouchRes);
     }
     
     /**
@@ -313,7 +357,7 @@ public final class KBucket {
         Validate.validState(cacheRemoveRes.viewRemoved().size() == 1); // sanity check, should always remove 1 node
         Activity cacheEntry = cacheRemoveRes.viewRemoved().get(0);
         try {
-            bucketTouchRes = bucket.touch(cacheEntry.getTime(), cacheEntry.getNode(), false);
+            bucketTouchRes = bucket.touch(cacheEntry.getTimeNanos(), cacheEntry.getNode(), false);
         } catch (LinkMismatchException ece) {
             // should never throw EntryConflictException
             throw new IllegalStateException(ece);
@@ -392,7 +436,7 @@ public final class KBucket {
             // Touch bucket and mark as stale
             ActivityChangeSet res;
             try {
-                res = newKBuckets[idx].bucket.touch(entry.getTime(), node, false);
+                res = newKBuckets[idx].bucket.touch(entry.getTimeNanos(), node, false);
                 // FYI: If there are stale items, it means the cache is empty. Otherwise they would have been replaced if as soon as a cache
                 // node entered the bucket.
                 if (staleSet.contains(id)) {
@@ -426,7 +470,7 @@ public final class KBucket {
             // Touch cache
             ActivityChangeSet res;
             try {
-                res = newKBuckets[idx].cache.touch(entry.getTime(), node, false);
+                res = newKBuckets[idx].cache.touch(entry.getTimeNanos(), node, false);
             } catch (LinkMismatchException ece) {
                 // should never happen
                 throw new IllegalStateException(ece);
@@ -508,30 +552,70 @@ public final class KBucket {
      * @return nodes in k-bucket
      */
     public List<Activity> dumpBucket(boolean includeAlive, boolean includeStale, boolean includeLocked) {
-        List<Activity> dumpedNodes = bucket.dump();
-        
-        List<Activity> filteredDumpedNodes = new ArrayList<>(dumpedNodes.size());
-        dumpedNodes.stream()
-                .filter(x -> {
-                    boolean inStaleSet = staleSet.contains(x.getNode().getId());
-                    if (includeStale && inStaleSet) {
-                        return true;
-                    }
+        List<Activity> filteredDumpedNodes = new ArrayList<>(bucket.size());
+        dumpBucket(includeAlive, includeStale, includeLocked, filteredDumpedNodes::add);
+        return filteredDumpedNodes;
+    }
+    
+    // same as dumpBucket(boolean, boolean, boolean), but passes nodes directly to output instead of copying them in to a new list
+    void dumpBucket(boolean includeAlive, boolean includeStale, boolean includeLocked, Consumer<Activity> output) {
+        dumpBucket(includeAlive, includeStale, includeLocked, NO_FILTER, output);
+    }
+
+    // same as dumpBucket(boolean, boolean, boolean, Consumer), but only passes nodes that pass filter to output
+    void dumpBucket(boolean includeAlive, boolean includeStale, boolean includeLocked, Predicate<? super Activity> filter,
+            Consumer<Activity> output) {
+        Validate.notNull(filter);
+        Validate.notNull(output);
+        
+        bucket.forEach(x -> {
+            boolean inStaleSet = staleSet.contains(x.getNode().getId());
+            boolean include = includeStale && inStaleSet;
+            if (!include) {
+                boolean inLockSet = lockSet.contains(x.getNode().getId());
+                include = (includeLocked && inLockSet) || (includeAlive && !inLockSet && !inStaleSet);
+            }
 
-                    boolean inLockSet = lockSet.contains(x.getNode().getId());
-                    if (includeLocked && inLockSet) {
-                        return true;
-                    }
+            if (include && filter.test(x)) {
+                output.accept(x);
+            }
+        });
+    }
 
-                    if (includeAlive && !inLockSet && !inStaleSet) {
-                        return true;
-                    }
+    /**
+     * Get a node in this k-bucket or its replacement cache by ID. Nodes are indexed by ID, so this doesn't scan this k-bucket.
+     * @param id ID of node to get
+     * @return the activity for the node with ID {@code id} (from this k-bucket if it's in this k-bucket, or from the replacement cache if
+     * it's in the replacement cache), or {@code null} if neither contains it
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the owning node's ID (the ID of the
+     * node this k-bucket belongs to)
+     */
+    public Activity get(Id id) {
+        Validate.notNull(id);
+        
+        Activity activity = bucket.getActivity(id);
+        return activity != null ? activity : cache.getActivity(id);
+    }
 
-                    return false;
-                })
-                .forEachOrdered(filteredDumpedNodes::add);
+    /**
+     * Get the state of a node in this k-bucket or its replacement cache by ID. Nodes are indexed by ID, so this doesn't scan this k-bucket.
+     * @param id ID of node to get the state of
+     * @return state of the node with ID {@code id}, or {@code null} if neither this k-bucket nor its replacement cache contains it
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the owning node's ID (the ID of the
+     * node this k-bucket belongs to)
+     */
+    public NodeState getState(Id id) {
+        Validate.notNull(id);
         
-        return filteredDumpedNodes;
+        if (bucket.getActivity(id) != null) {
+            if (staleSet.contains(id)) {
+                return NodeState.STALE;
+            }
+            return lockSet.contains(id) ? NodeState.LOCKED : NodeState.ALIVE;
+        }
+        return cache.getActivity(id) != null ? NodeState.CACHED : null;
     }
 
     /**
@@ -566,6 +650,73 @@ public final class KBucket {
         return prefix;
     }
     
+    // maximum number of nodes allowed in this k-bucket (not replacement cache)
+    int getMaxBucketSize() {
+        return bucket.maxSize();
+    }
+    
+    // time of the latest node in this k-bucket (not replacement cache) in nanos, or Long.MIN_VALUE if there are no nodes in this k-bucket
+    long getLatestBucketActivityTimeNanos() {
+        return bucket.lastestActivityTimeNanos();
+    }
+
+    // time passed in to the last call to touch()
+    Instant getLastTouchAttemptTime() {
+        return InternalTime.toInstant(lastTouchAttemptTime);
+    }
+
+    // IDs of stale nodes, in the order they were marked as stale
+    List<Id> dumpStaleIds() {
+        return new ArrayList<>(staleSet);
+    }
+
+    // IDs of locked nodes
+    List<Id> dumpLockedIds() {
+        return new ArrayList<>(lockSet);
+    }
+
+    // Restores this k-bucket to a previously dumped state. This k-bucket must be empty (e.g. newly created). bucketEntries and cacheEntries
+    // must be in the same order as dumpBucket(true, true, true) and dumpCache(), and staleIds must be in the same order as dumpStaleIds().
+    void restore(Instant lastTouchAttemptTime, List<Activity> bucketEntries, List<Activity> cacheEntries, List<Id> staleIds,
+            List<Id> lockedIds) {
+        Validate.notNull(lastTouchAttemptTime);
+        Validate.notNull(bucketEntries);
+        Validate.notNull(cacheEntries);
+        Validate.noNullElements(staleIds);
+        Validate.noNullElements(lockedIds);
+        Validate.validState(bucket.size() == 0 && cache.size() == 0);
+        
+        for (Activity entry : bucketEntries) {
+            Id id = entry.getNode().getId();
+            InternalValidate.notMatchesBase(baseId, id);
+            InternalValidate.matchesPrefix(prefix, id);
+        }
+        for (Activity entry : cacheEntries) {
+            Id id = entry.getNode().getId();
+            InternalValidate.notMatchesBase(baseId, id);
+            InternalValidate.matchesPrefix(prefix, id);
+        }
+        
+        bucket.restore(bucketEntries);
+        cache.restore(cacheEntries);
+        
+        for (Activity entry : cacheEntries) {
+            Validate.isTrue(bucket.get(entry.getNode().getId()) == null); // cache and bucket must never contain the same ID
+        }
+        for (Id id : staleIds) {
+            Validate.isTrue(bucket.get(id) != null); // must be in bucket
+            staleSet.add(id);
+        }
+        for (Id id : lockedIds) {
+            Validate.isTrue(bucket.get(id) != null); // must be in bucket
+            Validate.isTrue(!staleSet.contains(id)); // stale / locked are mutex
+            lockSet.add(id);
+        }
+        Validate.isTrue(staleSet.isEmpty() || cache.size() == 0); // stale nodes would have been replaced if cache had any nodes
+        
+        this.lastTouchAttemptTime = InternalTime.toNanos(lastTouchAttemptTime);
+    }
+    
     private KBucketChangeSet fillMissingBucketSlotsWithCacheItems() {
         int unoccupiedBucketSlots = bucket.maxSize() - bucket.size();
         int availableCacheItems = cache.size();
@@ -584,7 +735,7 @@ public final class KBucket {
             // move
             ActivityChangeSet addRes;
             try {
-                addRes = bucket.touch(entryToMove.getTime(), entryToMove.getNode(), false);
+                addRes = bucket.touch(entryToMove.getTimeNanos(), entryToMove.getNode(), false);
             } catch (LinkMismatchException ece) {
                 // This should never happen. The way the logic in this class is written, you should never have an entry with the same id in
                 // the cache and the bucket at the same time. As such, it's impossible to encounter a conflict.
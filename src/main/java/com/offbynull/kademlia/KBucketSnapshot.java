@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.apache.commons.lang3.Validate;
+
+// Immutable copy of the nodes in a k-bucket (not replacement cache) at some point in time. Locked nodes are left out, since find doesn't
+// support returning them.
+final class KBucketSnapshot {
+    static final KBucketSnapshot EMPTY = new KBucketSnapshot(new Activity[0], new Activity[0]);
+
+    private final Activity[] alive; // same order as KBucket.dumpBucket()
+    private final Activity[] aliveAndStale; // same order as KBucket.dumpBucket()
+
+    private KBucketSnapshot(Activity[] alive, Activity[] aliveAndStale) {
+        this.alive = alive;
+        this.aliveAndStale = aliveAndStale;
+    }
+
+    static KBucketSnapshot create(KBucket bucket) {
+        Validate.notNull(bucket);
+        
+        List<Activity> alive = bucket.dumpBucket(true, false, false);
+        List<Activity> aliveAndStale = bucket.dumpBucket(true, true, false);
+        return new KBucketSnapshot(
+                alive.toArray(new Activity[alive.size()]),
+                aliveAndStale.toArray(new Activity[aliveAndStale.size()]));
+    }
+
+    void dump(boolean includeStale, Consumer<Activity> output) {
+        Activity[] activities = includeStale ? aliveAndStale : alive;
+        for (Activity activity : activities) {
+            output.accept(activity);
+        }
+    }
+
+    void dump(boolean includeStale, Predicate<? super Activity> filter, Consumer<Activity> output) {
+        Activity[] activities = includeStale ? aliveAndStale : alive;
+        for (Activity activity : activities) {
+            if (filter.test(activity)) {
+                output.accept(activity);
+            }
+        }
+    }
+}
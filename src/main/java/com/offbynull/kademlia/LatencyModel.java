@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Latency and loss parameters for {@link NetworkSimulator}. Each message takes a uniformly random amount of time between
+ * {@code minLatency} and {@code maxLatency} to arrive, and is dropped with probability {@code lossRate}. All times are in virtual
+ * milliseconds.
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class LatencyModel {
+
+    private final long minLatency;
+    private final long maxLatency;
+    private final double lossRate;
+    private final long queryTimeout;
+
+    /**
+     * Construct a {@link LatencyModel} object.
+     *
+     * @param minLatency minimum time it takes for a message to arrive
+     * @param maxLatency maximum time it takes for a message to arrive
+     * @param lossRate probability that a message gets dropped ({@code 0.0} to {@code 1.0})
+     * @param queryTimeout time to wait for a response before a queried node is considered unresponsive
+     * @throws IllegalArgumentException if any numeric argument is negative, or if {@code minLatency > maxLatency}, or if
+     * {@code lossRate > 1.0}, or if {@code queryTimeout <= 0}
+     */
+    public LatencyModel(long minLatency, long maxLatency, double lossRate, long queryTimeout) {
+        Validate.isTrue(minLatency >= 0L);
+        Validate.isTrue(maxLatency >= minLatency);
+        Validate.isTrue(lossRate >= 0.0 && lossRate <= 1.0);
+        Validate.isTrue(queryTimeout > 0L);
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        this.lossRate = lossRate;
+        this.queryTimeout = queryTimeout;
+    }
+
+    long getMinLatency() {
+        return minLatency;
+    }
+
+    long getMaxLatency() {
+        return maxLatency;
+    }
+
+    double getLossRate() {
+        return lossRate;
+    }
+
+    long getQueryTimeout() {
+        return queryTimeout;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.io.Serializable;
+
+/**
+ * Link to a node (the information needed to reach it, e.g. an address). Plug in whatever type suits the network being used:
+ * {@link InetLink} for IP address + port (packed, so equality checks are cheap and nothing needs to be parsed to send), or
+ * {@link StringLink} for free-form strings. Use the same type of link for all the nodes given to a router, since links of different types
+ * are never equal.
+ * <p>
+ * Implementations must be immutable and must implement {@link Object#equals(java.lang.Object) } / {@link Object#hashCode() } based on
+ * value. {@link Object#toString() } is what {@link Node#getLink() } returns. Only {@link StringLink} and {@link InetLink} can be written
+ * out by {@link Node#write(java.nio.ByteBuffer) } (and by extension saved / journaled by a router).
+ * @author Kasra Faghihi
+ */
+public interface Link extends Serializable {
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+
+// Index of the nodes in a route tree (k-buckets and replacement caches) by link. Kept in sync by feeding it the changes the route tree
+// reports, either as a ChangeListener (see forwardTo()) or as change sets (see apply()). flush() must be called once the route tree
+// operation is done.
+//
+// Removals are deferred until flush(), because a single operation can report a node as removed from one place and added to another (e.g.
+// moved from a replacement cache in to its k-bucket), in either order. At flush() the route tree is checked to see if the node is really
+// gone. Multiple nodes in the route tree may share the same link (e.g. a node that restarted with a new ID), so each link maps to a list of
+// nodes (almost always just 1), with the one most recently added last.
+final class LinkIndex implements ChangeListener {
+    private final RouteTree routeTree;
+    private final Map<Link, List<Node>> nodesByLink;
+    private final Map<Id, Link> linksById;
+    private final List<Node> pendingRemoves;
+    private ChangeListener delegate; // listener that changes get forwarded to
+
+    LinkIndex(RouteTree routeTree) {
+        Validate.notNull(routeTree);
+        
+        this.routeTree = routeTree;
+        this.nodesByLink = new HashMap<>();
+        this.linksById = new HashMap<>();
+        this.pendingRemoves = new ArrayList<>();
+        this.delegate = KBucket.NO_OP_LISTENER;
+        
+        for (KBucket bucket : routeTree.dumpBuckets()) {
+            bucket.dumpBucket(true, true, true).forEach(x -> add(x.getNode()));
+            bucket.dumpCache().forEach(x -> add(x.getNode()));
+        }
+    }
+
+    Node get(Link link) {
+        List<Node> nodes = nodesByLink.get(link);
+        return nodes == null ? null : nodes.get(nodes.size() - 1);
+    }
+
+    // Returns this index with changes set to be forwarded to listener (until flush() is called)
+    ChangeListener forwardTo(ChangeListener listener) {
+        Validate.notNull(listener);
+        delegate = listener;
+        return this;
+    }
+
+    void apply(RouteTreeChangeSet changeSet) {
+        Validate.notNull(changeSet);
+        
+        KBucketChangeSet kBucketChangeSet = changeSet.getKBucketChangeSet();
+        apply(kBucketChangeSet.getBucketChangeSet());
+        apply(kBucketChangeSet.getCacheChangeSet());
+    }
+
+    private void apply(ActivityChangeSet changeSet) {
+        changeSet.viewAdded().forEach(x -> add(x.getNode()));
+        changeSet.viewUpdated().forEach(x -> add(x.getNode()));
+        changeSet.viewRemoved().forEach(x -> pendingRemoves.add(x.getNode()));
+    }
+
+    void flush() {
+        delegate = KBucket.NO_OP_LISTENER;
+        
+        for (Node node : pendingRemoves) {
+            Id id = node.getId();
+            if (routeTree.get(id) != null) {
+                continue; // still in the route tree (e.g. moved from the replacement cache in to the k-bucket)
+            }
+
+            Link link = linksById.remove(id);
+            if (link != null) {
+                removeLink(link, id);
+            }
+        }
+        pendingRemoves.clear();
+    }
+
+    private void add(Node node) {
+        Id id = node.getId();
+        Link link = node.getTypedLink();
+        
+        Link oldLink = linksById.put(id, link);
+        if (link.equals(oldLink)) {
+            return; // already indexed
+        }
+        
+        if (oldLink != null) {
+            removeLink(oldLink, id); // node's link changed (stale node replaced by a node with the same ID but a different link)
+        }
+        nodesByLink.computeIfAbsent(link, x -> new ArrayList<>(1)).add(node);
+    }
+
+    private void removeLink(Link link, Id id) {
+        List<Node> nodes = nodesByLink.get(link);
+        Iterator<Node> it = nodes.iterator();
+        while (it.hasNext()) {
+            if (it.next().getId().equals(id)) {
+                it.remove();
+                break;
+            }
+        }
+        
+        if (nodes.isEmpty()) {
+            nodesByLink.remove(link);
+        }
+    }
+
+    @Override
+    public void bucketAdded(BitString kBucketPrefix, Activity activity) {
+        add(activity.getNode());
+        delegate.bucketAdded(kBucketPrefix, activity);
+    }
+
+    @Override
+    public void bucketRemoved(BitString kBucketPrefix, Activity activity) {
+        pendingRemoves.add(activity.getNode());
+        delegate.bucketRemoved(kBucketPrefix, activity);
+    }
+
+    @Override
+    public void bucketUpdated(BitString kBucketPrefix, Activity activity) {
+        add(activity.getNode());
+        delegate.bucketUpdated(kBucketPrefix, activity);
+    }
+
+    @Override
+    public void cacheAdded(BitString kBucketPrefix, Activity activity) {
+        add(activity.getNode());
+        delegate.cacheAdded(kBucketPrefix, activity);
+    }
+
+    @Override
+    public void cacheRemoved(BitString kBucketPrefix, Activity activity) {
+        pendingRemoves.add(activity.getNode());
+        delegate.cacheRemoved(kBucketPrefix, activity);
+    }
+
+    @Override
+    public void cacheUpdated(BitString kBucketPrefix, Activity activity) {
+        add(activity.getNode());
+        delegate.cacheUpdated(kBucketPrefix, activity);
+    }
+}
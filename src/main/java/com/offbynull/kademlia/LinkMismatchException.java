@@ -25,12 +25,12 @@ import org.apache.commons.lang3.Validate;
  * @author Kasra Faghihi
  */
 public final class LinkMismatchException extends IllegalArgumentException {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private final Node conflictingNode;
-    private final String expectedLink;
+    private final Link expectedLink;
 
-    LinkMismatchException(Node conflictingNode, String expectedLink) {
+    LinkMismatchException(Node conflictingNode, Link expectedLink) {
         super("Node link mismatch (required " + expectedLink +  "): " + conflictingNode + ")");
         Validate.notNull(conflictingNode);
         Validate.notNull(expectedLink);
@@ -47,10 +47,18 @@ public final class LinkMismatchException extends IllegalArgumentException {
     }
 
     /**
-     * Get the link that should have been in the input node.
+     * Get the link that should have been in the input node as a string. Equivalent to calling {@code getExpectedTypedLink().toString()}.
      * @return expected link
      */
     public String getExpectedLink() {
+        return expectedLink.toString();
+    }
+
+    /**
+     * Get the link that should have been in the input node.
+     * @return expected link
+     */
+    public Link getExpectedTypedLink() {
         return expectedLink;
     }
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport used by {@link NodeLookup} to send Kademlia FIND_NODE queries to other nodes.
+ * @author Kasra Faghihi
+ */
+public interface LookupTransport {
+    /**
+     * Asks a node for the closest nodes it knows of to some ID. The returned future MUST eventually complete -- if {@code destination}
+     * doesn't respond in a timely manner, the future must be completed exceptionally (e.g. with a
+     * {@link java.util.concurrent.TimeoutException}). A {@link NodeLookup} will wait indefinitely on a future that never completes.
+     * <p>
+     * The returned future may be completed from any thread.
+     * @param destination node to query
+     * @param target ID to search for
+     * @param max maximum number of nodes that {@code destination} should return
+     * @return future that completes with the nodes returned by {@code destination} if it responded, or completes exceptionally if it
+     * didn't respond / the query failed
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    CompletableFuture<List<Node>> findNode(Node destination, Id target, int max);
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Deterministic discrete-event simulator that hosts an entire Kademlia network of {@link Router}s (using
+ * {@link SimpleRouteTreeStrategy}) in a single thread. Used to measure how the routing tree parameters, the lookup parallelism
+ * ({@code alpha}), latency / loss and churn effect lookups.
+ * <p>
+ * Time is virtual (milliseconds) and only moves forward when the next event is processed, so a simulation runs as fast as the CPU allows
+ * regardless of the latencies being simulated. Given the same parameters and seed, a simulation always produces the same results.
+ * <p>
+ * A simulation runs in two phases...
+ * <ol>
+ * <li>Join: nodes join one after the other. Each joining node touches a random node that has already joined, then does a lookup on its
+ * own ID.</li>
+ * <li>Measurement: churn starts (if any), and lookups for random IDs are started from random online nodes. Once all of these lookups
+ * finish, the simulation ends.</li>
+ * </ol>
+ * Lookups follow the same algorithm as {@link NodeLookup}. A queried node touches the querying node and responds with the closest nodes
+ * in its router. A querying node touches nodes that respond and stales nodes that don't respond in time.
+ * <p>
+ * To keep memory usage low enough for networks of 100k+ nodes, each node's {@link Id} and {@link Node} objects are created once and
+ * shared by every router that the node ends up in. The only per-node state kept outside of the routers is the node's online flag.
+ * <p>
+ * This class is not thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class NetworkSimulator {
+    private static final long JOIN_INTERVAL = 10L;
+    private static final long LOOKUP_INTERVAL = 10L;
+
+    private final Random random;
+    private final int alpha;
+    private final int k;
+    private final LatencyModel latencyModel;
+    private final ChurnModel churnModel;
+
+    private final Node[] nodes;
+    private final Router[] routers;
+    private final boolean[] online;
+    private final Map<Node, Integer> indices; // keyed by identity, since every node object is shared
+
+    private final PriorityQueue<Event> events;
+    private long time;
+    private long nextSequence;
+    private long messageCount;
+    private long eventCount;
+    private boolean ran;
+
+    private boolean measuring;
+    private long[] latencies;
+    private int[] hops;
+    private int finishedCount;
+    private int emptyCount;
+    private double accuracyTotal;
+
+    /**
+     * Constructs a {@link NetworkSimulator} object.
+     * @param seed random seed
+     * @param nodeCount number of nodes in the network
+     * @param bitLength bitlength of node IDs
+     * @param branchesPerLevel number of branches to generate whenever a k-bucket splits
+     * @param bucketSize maximum number of nodes allowed in each k-bucket (also the number of closest nodes that lookups search for)
+     * @param cacheSize maximum number of cache nodes allowed in each k-bucket
+     * @param alpha maximum number of queries a lookup has in flight at any given time
+     * @param latencyModel latency / loss parameters
+     * @param churnModel churn parameters
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument other than {@code seed} is {@code 0} or less, or if
+     * {@code nodeCount > 2^bitLength}, or if {@code branchesPerLevel} is invalid (see
+     * {@link Router#Router(com.offbynull.kademlia.Id, int, int, int) })
+     */
+    public NetworkSimulator(long seed, int nodeCount, int bitLength, int branchesPerLevel, int bucketSize, int cacheSize, int alpha,
+            LatencyModel latencyModel, ChurnModel churnModel) {
+        Validate.notNull(latencyModel);
+        Validate.notNull(churnModel);
+        Validate.isTrue(nodeCount > 0);
+        Validate.isTrue(bitLength > 0);
+        Validate.isTrue(bitLength >= 31 || nodeCount <= (1 << bitLength));
+        Validate.isTrue(alpha > 0);
+        
+        this.random = new Random(seed);
+        this.alpha = alpha;
+        this.k = bucketSize;
+        this.latencyModel = latencyModel;
+        this.churnModel = churnModel;
+        
+        this.nodes = new Node[nodeCount];
+        this.routers = new Router[nodeCount];
+        this.online = new boolean[nodeCount];
+        this.indices = new IdentityHashMap<>(nodeCount);
+        
+        Set<Id> ids = new HashSet<>(nodeCount);
+        byte[] data = new byte[(bitLength + 7) / 8];
+        for (int i = 0; i < nodeCount; i++) {
+            Id id;
+            do {
+                random.nextBytes(data);
+                id = Id.create(data, bitLength);
+            } while (!ids.add(id));
+            
+            nodes[i] = new Node(id, Integer.toString(i));
+            routers[i] = new Router(id, branchesPerLevel, bucketSize, cacheSize);
+            indices.put(nodes[i], i);
+        }
+
+        this.events = new PriorityQueue<>();
+    }
+
+    /**
+     * Runs the simulation. Can only be invoked once.
+     * @param lookupCount number of lookups to perform in the measurement phase
+     * @return results
+     * @throws IllegalArgumentException if {@code lookupCount < 0}
+     * @throws IllegalStateException if this simulation has already been run
+     */
+    public SimulationResult run(int lookupCount) {
+        Validate.isTrue(lookupCount >= 0);
+        Validate.validState(!ran);
+        ran = true;
+        
+        // Join phase -- run until every joining node's lookup finishes
+        for (int i = 0; i < nodes.length; i++) {
+            int idx = i;
+            schedule(i * JOIN_INTERVAL, () -> join(idx));
+        }
+        while (!events.isEmpty()) {
+            processNextEvent();
+        }
+
+        measuring = true;
+        latencies = new long[lookupCount];
+        hops = new int[lookupCount];
+        
+        // Measurement phase -- run until every lookup finishes (churn events keep getting scheduled forever, so the queue never empties)
+        if (churnModel.getMeanOfflineTime() > 0L) {
+            for (int i = 0; i < nodes.length; i++) {
+                int idx = i;
+                schedule(time + exponential(churnModel.getMeanOnlineTime()), () -> toggleOnline(idx));
+            }
+        }
+        for (int i = 0; i < lookupCount; i++) {
+            schedule(time + (i + 1) * LOOKUP_INTERVAL, () -> startRandomLookup());
+        }
+        while (finishedCount < lookupCount && !events.isEmpty()) {
+            processNextEvent();
+        }
+
+        return createResult();
+    }
+
+    private void join(int idx) {
+        online[idx] = true;
+        if (idx > 0) {
+            int bootstrapIdx = random.nextInt(idx); // all nodes that have joined so far are online (churn hasn't started yet)
+            touch(idx, nodes[bootstrapIdx]);
+        }
+        startLookup(idx, nodes[idx].getId());
+    }
+
+    private void toggleOnline(int idx) {
+        online[idx] = !online[idx];
+        long mean = online[idx] ? churnModel.getMeanOnlineTime() : churnModel.getMeanOfflineTime();
+        schedule(time + exponential(mean), () -> toggleOnline(idx));
+    }
+
+    private void startRandomLookup() {
+        byte[] data = new byte[(nodes[0].getId().getBitLength() + 7) / 8];
+        random.nextBytes(data);
+        Id target = Id.create(data, nodes[0].getId().getBitLength());
+        
+        int start = random.nextInt(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            int idx = (start + i) % nodes.length;
+            if (online[idx]) {
+                startLookup(idx, target);
+                return;
+            }
+        }
+
+        // no nodes online, count as an empty lookup
+        finishedCount++;
+        emptyCount++;
+    }
+
+    private void startLookup(int sourceIdx, Id target) {
+        Lookup lookup = new Lookup(sourceIdx, target);
+        for (Node seed : routers[sourceIdx].find(target, k, false)) {
+            lookup.shortlist.put(seed.getId(), new Candidate(indices.get(seed), 1));
+        }
+        advance(lookup);
+    }
+
+    private void advance(Lookup lookup) {
+        while (lookup.inFlight < alpha) {
+            Candidate candidate = nextCandidate(lookup);
+            if (candidate == null) {
+                break;
+            }
+            query(lookup, candidate);
+        }
+
+        if (lookup.inFlight == 0) {
+            lookup.finished = true;
+            if (measuring) {
+                record(lookup);
+            }
+        }
+    }
+
+    private void record(Lookup lookup) {
+        List<Candidate> found = new ArrayList<>(k);
+        for (Candidate candidate : lookup.shortlist.values()) {
+            if (found.size() == k) {
+                break;
+            }
+            if (candidate.state == State.RESPONDED) {
+                found.add(candidate);
+                hops[finishedCount] = Math.max(hops[finishedCount], candidate.depth);
+            }
+        }
+
+        latencies[finishedCount] = time - lookup.startTime;
+        if (found.isEmpty()) {
+            emptyCount++;
+        }
+        accuracyTotal += calculateAccuracy(lookup, found);
+        finishedCount++;
+    }
+
+    private Candidate nextCandidate(Lookup lookup) {
+        int count = 0;
+        for (Candidate candidate : lookup.shortlist.values()) {
+            if (candidate.state == State.FAILED) {
+                continue;
+            }
+            if (candidate.state == State.NOT_QUERIED) {
+                return candidate;
+            }
+            count++;
+            if (count == k) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    private void query(Lookup lookup, Candidate candidate) {
+        candidate.state = State.IN_FLIGHT;
+        lookup.inFlight++;
+        send(() -> handleRequest(lookup, candidate));
+        schedule(time + latencyModel.getQueryTimeout(), () -> handleTimeout(lookup, candidate));
+    }
+
+    private void handleRequest(Lookup lookup, Candidate candidate) {
+        if (!online[candidate.idx]) {
+            return;
+        }
+
+        touch(candidate.idx, nodes[lookup.sourceIdx]);
+        List<Node> found = routers[candidate.idx].find(lookup.target, k, false);
+        send(() -> handleResponse(lookup, candidate, found));
+    }
+
+    private void handleResponse(Lookup lookup, Candidate candidate, List<Node> found) {
+        if (lookup.finished || candidate.state != State.IN_FLIGHT || !online[lookup.sourceIdx]) {
+            return; // response came in after timeout, or querying node went offline
+        }
+
+        candidate.state = State.RESPONDED;
+        lookup.inFlight--;
+        touch(lookup.sourceIdx, nodes[candidate.idx]);
+        
+        Node source = nodes[lookup.sourceIdx];
+        for (Node node : found) {
+            if (node == source || lookup.shortlist.containsKey(node.getId())) {
+                continue;
+            }
+            lookup.shortlist.put(node.getId(), new Candidate(indices.get(node), candidate.depth + 1));
+        }
+
+        advance(lookup);
+    }
+
+    private void handleTimeout(Lookup lookup, Candidate candidate) {
+        if (lookup.finished || candidate.state != State.IN_FLIGHT) {
+            return; // already responded
+        }
+
+        candidate.state = State.FAILED;
+        lookup.inFlight--;
+        try {
+            routers[lookup.sourceIdx].stale(nodes[candidate.idx]);
+        } catch (NodeNotFoundException | BadNodeStateException e) {
+            // node was learned about during this lookup and never made it in to the router, or is already stale
+        }
+
+        advance(lookup);
+    }
+
+    private void touch(int routerIdx, Node node) {
+        routers[routerIdx].touch(Instant.ofEpochMilli(time), node); // virtual time never goes backwards, links always match
+    }
+
+    private void send(Runnable arrival) {
+        messageCount++;
+        if (random.nextDouble() < latencyModel.getLossRate()) {
+            return;
+        }
+
+        long minLatency = latencyModel.getMinLatency();
+        long maxLatency = latencyModel.getMaxLatency();
+        long latency = minLatency + (long) (random.nextDouble() * (maxLatency - minLatency + 1L));
+        schedule(time + latency, arrival);
+    }
+
+    private long exponential(long mean) {
+        return Math.max(1L, (long) Math.ceil(-mean * Math.log(1.0 - random.nextDouble())));
+    }
+
+    private void schedule(long eventTime, Runnable action) {
+        events.add(new Event(eventTime, nextSequence++, action));
+    }
+
+    private void processNextEvent() {
+        Event event = events.poll();
+        time = event.time;
+        eventCount++;
+        event.action.run();
+    }
+
+    private SimulationResult createResult() {
+        long liveCount = 0L;
+        long totalCount = 0L;
+        for (int i = 0; i < routers.length; i++) {
+            for (Node node : routers[i].find(nodes[i].getId(), Integer.MAX_VALUE, false)) {
+                if (online[indices.get(node)]) {
+                    liveCount++;
+                }
+                totalCount++;
+            }
+        }
+
+        return new SimulationResult(
+                Arrays.copyOf(latencies, finishedCount),
+                Arrays.copyOf(hops, finishedCount),
+                emptyCount,
+                finishedCount == 0 ? 1.0 : accuracyTotal / finishedCount,
+                totalCount == 0L ? 1.0 : (double) liveCount / totalCount,
+                messageCount,
+                eventCount);
+    }
+
+    // Fraction of the k closest online nodes to target (excluding the source) that were found -- calculated when the lookup finishes,
+    // since that's the state of the network the lookup's result should reflect
+    private double calculateAccuracy(Lookup lookup, List<Candidate> found) {
+        IdXorMetricComparator comparator = new IdXorMetricComparator(lookup.target);
+        PriorityQueue<Id> closest = new PriorityQueue<>(k + 1, Collections.reverseOrder(comparator)); // furthest at head
+        for (int i = 0; i < nodes.length; i++) {
+            if (!online[i] || i == lookup.sourceIdx) {
+                continue;
+            }
+            Id id = nodes[i].getId();
+            if (closest.size() < k) {
+                closest.add(id);
+            } else if (comparator.compare(id, closest.peek()) < 0) {
+                closest.poll();
+                closest.add(id);
+            }
+        }
+
+        if (closest.isEmpty()) {
+            return 1.0;
+        }
+        int hits = 0;
+        for (Candidate candidate : found) {
+            if (closest.contains(nodes[candidate.idx].getId())) {
+                hits++;
+            }
+        }
+        return (double) hits / closest.size();
+    }
+
+    private enum State {
+        NOT_QUERIED,
+        IN_FLIGHT,
+        RESPONDED,
+        FAILED
+    }
+
+    private final class Lookup {
+        private final int sourceIdx;
+        private final Id target;
+        private final TreeMap<Id, Candidate> shortlist;
+        private final long startTime;
+        private int inFlight;
+        private boolean finished;
+        
+        Lookup(int sourceIdx, Id target) {
+            this.sourceIdx = sourceIdx;
+            this.target = target;
+            this.shortlist = new TreeMap<>(new IdXorMetricComparator(target));
+            this.startTime = time;
+        }
+    }
+
+    private static final class Candidate {
+        private final int idx;
+        private final int depth;
+        private State state;
+        
+        Candidate(int idx, int depth) {
+            this.idx = idx;
+            this.depth = depth;
+            this.state = State.NOT_QUERIED;
+        }
+    }
+
+    private static final class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence; // tie-breaker, keeps events scheduled for the same time in the order they were scheduled
+        private final Runnable action;
+        
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int ret = Long.compare(time, o.time);
+            return ret != 0 ? ret : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -17,6 +17,11 @@
 package com.offbynull.kademlia;
 
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.util.Objects;
 import org.apache.commons.lang3.Validate;
 
@@ -27,24 +32,181 @@ import org.apache.commons.lang3.Validate;
  * @author Kasra Faghihi
  */
 public final class Node implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    // written in place of the link's byte length for links that aren't strings (see create(ByteBuffer, int))
+    private static final int IPV4_LINK_TAG = -1;
+    private static final int IPV6_LINK_TAG = -2;
     
     private final Id id;
-    private final String link;
+    private final Link link;
 
     /**
-     * Constructs a {@link Node} object.
+     * Constructs a {@link Node} object with a {@link StringLink}. Equivalent to calling {@code new Node(id, new StringLink(link))}.
      * @param id ID of node
      * @param link link of node
      * @throws NullPointerException if any argument is {@code null}
      */
     public Node(Id id, String link) {
+        this(id, new StringLink(link));
+    }
+
+    /**
+     * Constructs a {@link Node} object.
+     * @param id ID of node
+     * @param link link of node
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public Node(Id id, Link link) {
         Validate.notNull(id);
         Validate.notNull(link);
         this.id = id;
         this.link = link;
     }
 
+    /**
+     * Constructs a {@link Node} from the bytes remaining in a buffer (heap or direct), advancing the buffer's position past it. The layout
+     * is the node's ID (see {@link Id#create(java.nio.ByteBuffer, int)}), followed by a big endian int that says what type of link comes
+     * next ...
+     * <ul>
+     * <li>{@code >= 0} is a {@link StringLink}, where the int is the byte length of the link encoded as UTF-8 (the encoded link follows).
+     * If the buffer is backed by an accessible array, the link is decoded directly out of that array.</li>
+     * <li>{@code -1} is an IPv4 {@link InetLink} and {@code -2} is an IPv6 {@link InetLink} (see
+     * {@link InetLink#read(java.nio.ByteBuffer, boolean)}, the link follows).</li>
+     * </ul>
+     * The buffer's byte order has no effect on how the node is read.
+     * @param buffer buffer to read node from
+     * @param bitLength number of bits in the node's ID
+     * @return created node
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code bitLength <= 0}, or if the link type is unrecognized
+     * @throws BufferUnderflowException if {@code buffer} doesn't have enough bytes remaining for the whole node (buffer's position is left
+     * unchanged)
+     */
+    public static Node create(ByteBuffer buffer, int bitLength) {
+        Validate.notNull(buffer);
+        Validate.isTrue(bitLength > 0);
+        
+        int idByteLength = BitString.getByteLength(bitLength);
+        if (buffer.remaining() < idByteLength + 4) {
+            throw new BufferUnderflowException();
+        }
+        int linkTag = buffer.getInt(buffer.position() + idByteLength);
+        if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+            linkTag = Integer.reverseBytes(linkTag);
+        }
+        int linkByteLength;
+        switch (linkTag) {
+            case IPV4_LINK_TAG:
+                linkByteLength = InetLink.IPV4_BYTE_LENGTH;
+                break;
+            case IPV6_LINK_TAG:
+                linkByteLength = InetLink.IPV6_BYTE_LENGTH;
+                break;
+            default:
+                Validate.isTrue(linkTag >= 0, "Unrecognized link type: %d", linkTag);
+                linkByteLength = linkTag;
+                break;
+        }
+        if (buffer.remaining() - idByteLength - 4 < linkByteLength) {
+            throw new BufferUnderflowException();
+        }
+
+        // all checks done, nothing below can fail part way through
+        Id id = Id.create(buffer, bitLength);
+        buffer.position(buffer.position() + 4);
+        
+        Link link;
+        if (linkTag < 0) {
+            link = InetLink.read(buffer, linkTag == IPV6_LINK_TAG);
+        } else if (buffer.hasArray()) {
+            link = new StringLink(new String(buffer.array(), buffer.arrayOffset() + buffer.position(), linkByteLength, UTF_8));
+            buffer.position(buffer.position() + linkByteLength);
+        } else {
+            byte[] linkData = new byte[linkByteLength];
+            buffer.get(linkData);
+            link = new StringLink(new String(linkData, UTF_8));
+        }
+
+        return new Node(id, link);
+    }
+
+    /**
+     * Writes this node to a buffer (heap or direct), advancing the buffer's position past it. See
+     * {@link #create(java.nio.ByteBuffer, int)} for the layout.
+     * @param buffer buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if this node's link isn't a {@link StringLink} or an {@link InetLink} (nothing is written)
+     * @throws BufferOverflowException if {@code buffer} doesn't have enough bytes remaining for the whole node (nothing is written)
+     * @throws java.nio.ReadOnlyBufferException if {@code buffer} is read-only
+     */
+    public void write(ByteBuffer buffer) {
+        Validate.notNull(buffer);
+        
+        int linkTag;
+        byte[] linkData = null;
+        int linkByteLength;
+        if (link instanceof InetLink) {
+            InetLink inetLink = (InetLink) link;
+            linkTag = inetLink.isIpv6() ? IPV6_LINK_TAG : IPV4_LINK_TAG;
+            linkByteLength = inetLink.getByteLength();
+        } else {
+            Validate.isTrue(link instanceof StringLink, "Unsupported link type: %s", link.getClass());
+            linkData = link.toString().getBytes(UTF_8);
+            linkTag = linkData.length;
+            linkByteLength = linkData.length;
+        }
+        if (buffer.remaining() < id.getByteLength() + 4 + linkByteLength) {
+            throw new BufferOverflowException();
+        }
+
+        id.write(buffer);
+        buffer.putInt(buffer.order() == ByteOrder.BIG_ENDIAN ? linkTag : Integer.reverseBytes(linkTag));
+        if (linkData == null) {
+            ((InetLink) link).write(buffer);
+        } else {
+            buffer.put(linkData);
+        }
+    }
+
+    /**
+     * Gets the number of bytes that this node takes up when written to a buffer.
+     * @return number of bytes written by {@link #write(java.nio.ByteBuffer)}
+     * @throws IllegalArgumentException if this node's link isn't a {@link StringLink} or an {@link InetLink}
+     */
+    public int getByteLength() {
+        int linkByteLength;
+        if (link instanceof InetLink) {
+            linkByteLength = ((InetLink) link).getByteLength();
+        } else {
+            Validate.isTrue(link instanceof StringLink, "Unsupported link type: %s", link.getClass());
+            linkByteLength = getUtf8ByteLength(link.toString());
+        }
+        return id.getByteLength() + 4 + linkByteLength;
+    }
+
+    // same length as str.getBytes(UTF_8), without doing the encoding (unpaired surrogates get encoded as '?', which is 1 byte)
+    private static int getUtf8ByteLength(String str) {
+        int len = str.length();
+        int ret = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = str.charAt(i);
+            if (ch < 0x80) {
+                ret += 1;
+            } else if (ch < 0x800) {
+                ret += 2;
+            } else if (!Character.isSurrogate(ch)) {
+                ret += 3;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                ret += 4;
+                i++;
+            } else {
+                ret += 1;
+            }
+        }
+        return ret;
+    }
+
     /**
      * Get this node's ID.
      * @return ID
@@ -54,10 +216,18 @@ public final class Node implements Serializable {
     }
 
     /**
-     * Get this node's link.
+     * Get this node's link as a string. Equivalent to calling {@code getTypedLink().toString()}.
      * @return link
      */
     public String getLink() {
+        return link.toString();
+    }
+
+    /**
+     * Get this node's link.
+     * @return link
+     */
+    public Link getTypedLink() {
         return link;
     }
 
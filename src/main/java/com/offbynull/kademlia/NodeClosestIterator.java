@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.Validate;
+
+// Goes through the nodes in a route tree from closest to farthest from some ID (closest as defined by the XOR metric), reading each
+// k-bucket only when it's reached. Walks the tree in the same order as RouteTree.find() -- every node in a k-bucket is closer than every
+// node in the k-buckets that come after it (see RouteTree.dumpTreeNode() for why), so only the nodes within each k-bucket need sorting.
+//
+// The recursion in RouteTree.find() is kept as an explicit stack of tree nodes, so the walk can be paused between k-buckets.
+final class NodeClosestIterator implements Iterator<Activity> {
+    private static final int INITIAL_STACK_CAPACITY = 8; // walks rarely go more than a few tree nodes deep at a time
+
+    private final Id id;
+    private final Comparator<Activity> comparator;
+    private final KBucket[][] bucketsBySharedPrefixLength;
+    private final int[] prefixLengthsBySharedPrefixLength;
+    private final int[] suffixLengthsBySharedPrefixLength;
+    private final BiConsumer<KBucket, Consumer<Activity>> bucketReader;
+
+    // Tree nodes being walked (innermost last) -- shared prefix length of the tree node, id's suffix bits at that tree node, and the
+    // index of the next branch to go through (see RouteTree.dumpTreeNode()).
+    private int[] stackSharedPrefixLengths;
+    private int[] stackIdSuffixes;
+    private int[] stackNextIdxs;
+    private int stackSize;
+    private int outermostSharedPrefixLength; // once the stack is empty, the walk continues at the parent of this tree node
+
+    private final List<Activity> bucketContent; // nodes of the k-bucket currently being gone through, closest first
+    private final Consumer<Activity> bucketContentAdder;
+    private int bucketContentIdx;
+
+    NodeClosestIterator(Id id, int sharedPrefixLength, KBucket[][] bucketsBySharedPrefixLength, int[] prefixLengthsBySharedPrefixLength,
+            int[] suffixLengthsBySharedPrefixLength, BiConsumer<KBucket, Consumer<Activity>> bucketReader) {
+        Validate.notNull(id);
+        Validate.notNull(bucketsBySharedPrefixLength);
+        Validate.notNull(prefixLengthsBySharedPrefixLength);
+        Validate.notNull(suffixLengthsBySharedPrefixLength);
+        Validate.notNull(bucketReader);
+        
+        IdXorMetricComparator idComparator = new IdXorMetricComparator(id);
+        this.id = id;
+        this.comparator = (x, y) -> idComparator.compare(x.getNode().getId(), y.getNode().getId());
+        this.bucketsBySharedPrefixLength = bucketsBySharedPrefixLength;
+        this.prefixLengthsBySharedPrefixLength = prefixLengthsBySharedPrefixLength;
+        this.suffixLengthsBySharedPrefixLength = suffixLengthsBySharedPrefixLength;
+        this.bucketReader = bucketReader;
+        
+        this.stackSharedPrefixLengths = new int[INITIAL_STACK_CAPACITY];
+        this.stackIdSuffixes = new int[INITIAL_STACK_CAPACITY];
+        this.stackNextIdxs = new int[INITIAL_STACK_CAPACITY];
+        
+        this.bucketContent = new ArrayList<>();
+        this.bucketContentAdder = bucketContent::add;
+        
+        push(sharedPrefixLength, 0);
+        outermostSharedPrefixLength = sharedPrefixLength;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (bucketContentIdx == bucketContent.size()) {
+            if (!readNextBucket()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Activity next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return bucketContent.get(bucketContentIdx++);
+    }
+
+    // Walks to the next k-bucket and reads it in to bucketContent. Returns false if there are no k-buckets left.
+    private boolean readNextBucket() {
+        while (true) {
+            if (stackSize == 0) {
+                // Everything under the outermost tree node has been gone through, so go up to its parent and go through everything other
+                // than the branch just come out of (same as the loop in RouteTree.find()).
+                int prefixLength = prefixLengthsBySharedPrefixLength[outermostSharedPrefixLength];
+                if (prefixLength == 0) {
+                    return false;
+                }
+                outermostSharedPrefixLength = prefixLength - 1;
+                push(outermostSharedPrefixLength, 1);
+            }
+
+            int top = stackSize - 1;
+            KBucket[] buckets = bucketsBySharedPrefixLength[stackSharedPrefixLengths[top]];
+            int idx = stackNextIdxs[top];
+            if (idx == buckets.length) {
+                stackSize--;
+                continue;
+            }
+            stackNextIdxs[top] = idx + 1;
+            
+            KBucket bucket = buckets[stackIdSuffixes[top] ^ idx];
+            if (bucket == null) {
+                // Branch leads further down, so go through everything under the next tree node
+                int sharedPrefixLength = stackSharedPrefixLengths[top];
+                push(prefixLengthsBySharedPrefixLength[sharedPrefixLength] + suffixLengthsBySharedPrefixLength[sharedPrefixLength], 0);
+                continue;
+            }
+
+            bucketContent.clear();
+            bucketContentIdx = 0;
+            bucketReader.accept(bucket, bucketContentAdder);
+            bucketContent.sort(comparator);
+            return true;
+        }
+    }
+
+    private void push(int sharedPrefixLength, int startIdx) {
+        int prefixLength = prefixLengthsBySharedPrefixLength[sharedPrefixLength];
+        int suffixLength = suffixLengthsBySharedPrefixLength[sharedPrefixLength];
+        if (stackSize == stackSharedPrefixLengths.length) {
+            int newCapacity = stackSize * 2;
+            stackSharedPrefixLengths = Arrays.copyOf(stackSharedPrefixLengths, newCapacity);
+            stackIdSuffixes = Arrays.copyOf(stackIdSuffixes, newCapacity);
+            stackNextIdxs = Arrays.copyOf(stackNextIdxs, newCapacity);
+        }
+        stackSharedPrefixLengths[stackSize] = sharedPrefixLength;
+        stackIdSuffixes[stackSize] = (int) id.getBitsAsLong(prefixLength, suffixLength);
+        stackNextIdxs[stackSize] = startIdx;
+        stackSize++;
+    }
+}
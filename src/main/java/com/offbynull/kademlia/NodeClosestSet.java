@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.Validate;
+
+// Holds on to the closest nodes to some ID (closest as defined by the XOR metric). Backed by a bounded max-heap where the root is the
+// farthest node being held on to, meaning that new nodes only need to be compared against the root to figure out if they get in.
+final class NodeClosestSet implements Consumer<Activity> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final IdXorMetricComparator comparator;
+    private final int maxSize;
+
+    private Activity[] heap; // heap[0] is the farthest node
+    private int size;
+
+    NodeClosestSet(Id id, int maxSize) {
+        Validate.notNull(id);
+        Validate.isTrue(maxSize >= 0);
+        
+        this.comparator = new IdXorMetricComparator(id);
+        this.maxSize = maxSize;
+        this.heap = new Activity[Math.min(maxSize, INITIAL_CAPACITY)];
+    }
+
+    @Override
+    public void accept(Activity activity) {
+        Validate.notNull(activity);
+        
+        if (size < maxSize) {
+            // Room available, add to end and move up
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, (int) Math.min((long) heap.length * 2L, maxSize));
+            }
+            heap[size] = activity;
+            siftUp(size);
+            size++;
+        } else if (size > 0 && compare(activity, heap[0]) < 0) {
+            // No room available, but closer than the farthest node -- replace the farthest node and move down
+            heap[0] = activity;
+            siftDown(0, size);
+        }
+    }
+
+    public boolean isFull() {
+        return size >= maxSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public List<Activity> dump() { // closest node first
+        // Heapsort a copy of the heap -- repeatedly move the farthest node to the end
+        Activity[] sorted = Arrays.copyOf(heap, size);
+        for (int end = size - 1; end > 0; end--) {
+            Activity farthest = sorted[0];
+            sorted[0] = sorted[end];
+            sorted[end] = farthest;
+            siftDown(sorted, 0, end);
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    private void siftUp(int idx) {
+        Activity activity = heap[idx];
+        while (idx > 0) {
+            int parentIdx = (idx - 1) >>> 1;
+            Activity parent = heap[parentIdx];
+            if (compare(activity, parent) <= 0) {
+                break;
+            }
+            heap[idx] = parent;
+            idx = parentIdx;
+        }
+        heap[idx] = activity;
+    }
+
+    private void siftDown(int idx, int end) {
+        siftDown(heap, idx, end);
+    }
+
+    private void siftDown(Activity[] array, int idx, int end) {
+        Activity activity = array[idx];
+        while (true) {
+            int childIdx = (idx << 1) + 1;
+            if (childIdx >= end) {
+                break;
+            }
+            if (childIdx + 1 < end && compare(array[childIdx + 1], array[childIdx]) > 0) {
+                childIdx++; // right child is farther than left child
+            }
+            if (compare(activity, array[childIdx]) >= 0) {
+                break;
+            }
+            array[idx] = array[childIdx];
+            idx = childIdx;
+        }
+        array[idx] = activity;
+    }
+
+    private int compare(Activity o1, Activity o2) {
+        return comparator.compare(o1.getNode().getId(), o2.getNode().getId());
+    }
+
+    @Override
+    public String toString() {
+        return "NodeClosestSet{" + "maxSize=" + maxSize + ", entries=" + dump() + '}';
+    }
+}
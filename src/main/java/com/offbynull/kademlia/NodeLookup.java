@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Iterative Kademlia node lookup (FIND_NODE) on top of a {@link Router}. A lookup...
+ * <ol>
+ * <li>seeds its shortlist with the closest nodes in the router.</li>
+ * <li>keeps up to {@code alpha} queries in flight at any given time, always querying the closest nodes in the shortlist that haven't
+ * been queried yet.</li>
+ * <li>merges nodes returned by each response in to the shortlist (ordered by XOR distance to the ID being searched for).</li>
+ * <li>touches nodes that respond in the router, and reports nodes that fail to respond to the router as unresponsive (see
+ * {@link Router#unresponsive(java.time.Instant, com.offbynull.kademlia.Node) } -- depending on the router's {@link BackoffParameters},
+ * they either get locked or marked as stale).</li>
+ * <li>finishes once the {@code k} closest nodes in the shortlist (ignoring nodes that failed to respond) have all responded, or once
+ * there are no nodes left to query.</li>
+ * </ol>
+ * Router access happens on the thread that invoked {@link #lookup(com.offbynull.kademlia.Id) }, never on the threads that complete the
+ * transport's futures. Each access is done while synchronized on the router, so multiple lookups can share the same router (any other
+ * code that accesses the router while lookups are running must also synchronize on it).
+ * <p>
+ * Touch times are taken from the clock passed in to the constructor. If the clock gives back a time earlier than the router's last touch
+ * time (e.g. the clock was adjusted), the router's last touch time is used instead.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class NodeLookup {
+    private final Router router;
+    private final LookupTransport transport;
+    private final Clock clock;
+    private final int alpha;
+    private final int k;
+
+    /**
+     * Constructs a {@link NodeLookup} object.
+     * @param router router to seed lookups from and to update with the results of queries
+     * @param transport transport to send queries through
+     * @param clock clock to get touch times from
+     * @param alpha maximum number of queries in flight at any given time
+     * @param k number of closest nodes to find
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is {@code 0} or less
+     */
+    public NodeLookup(Router router, LookupTransport transport, Clock clock, int alpha, int k) {
+        Validate.notNull(router);
+        Validate.notNull(transport);
+        Validate.notNull(clock);
+        Validate.isTrue(alpha > 0);
+        Validate.isTrue(k > 0);
+        
+        this.router = router;
+        this.transport = transport;
+        this.clock = clock;
+        this.alpha = alpha;
+        this.k = k;
+    }
+
+    /**
+     * Finds the closest nodes to some ID. Blocks until the lookup finishes.
+     * @param target ID to search for
+     * @return up to {@code k} closest nodes to {@code target} that responded to a query, ordered by XOR distance to {@code target}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code target} doesn't match the bitlength of the router's ID
+     * @throws InterruptedException if interrupted while waiting for a response
+     */
+    public List<Node> lookup(Id target) throws InterruptedException {
+        Validate.notNull(target);
+        
+        Id baseId = router.getBaseId();
+        InternalValidate.matchesLength(baseId.getBitLength(), target);
+        
+        TreeMap<Id, Candidate> shortlist = new TreeMap<>(new IdXorMetricComparator(target));
+        List<Node> seeds;
+        synchronized (router) {
+            seeds = router.find(target, k, false);
+        }
+        for (Node seed : seeds) {
+            shortlist.put(seed.getId(), new Candidate(seed));
+        }
+
+        BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        while (true) {
+            while (inFlight < alpha) {
+                Candidate candidate = nextCandidate(shortlist);
+                if (candidate == null) {
+                    break;
+                }
+                candidate.state = State.IN_FLIGHT;
+                query(candidate.node, target, responses);
+                inFlight++;
+            }
+
+            if (inFlight == 0) {
+                break; // nothing in flight and nothing left to query, so the k closest have either responded or there's nothing left
+            }
+
+            Response response = responses.take();
+            inFlight--;
+            Candidate candidate = shortlist.get(response.node.getId());
+            if (response.nodes != null) {
+                candidate.state = State.RESPONDED;
+                touch(response.node);
+                for (Node node : response.nodes) {
+                    Id id = node == null ? null : node.getId();
+                    if (id == null || id.getBitLength() != baseId.getBitLength() || id.equals(baseId)) {
+                        continue; // ignore bad nodes and self
+                    }
+                    shortlist.putIfAbsent(id, new Candidate(node)); // if already in there, keep what's in there
+                }
+            } else {
+                candidate.state = State.FAILED;
+                unresponsive(response.node);
+            }
+        }
+
+        List<Node> ret = new ArrayList<>(k);
+        for (Candidate candidate : shortlist.values()) {
+            if (ret.size() == k) {
+                break;
+            }
+            if (candidate.state == State.RESPONDED) {
+                ret.add(candidate.node);
+            }
+        }
+        return ret;
+    }
+
+    // Gets the closest not-yet-queried candidate within the k closest candidates that haven't failed, or null if all of them have been
+    // queried (in which case the lookup has converged once the queries in flight come back)
+    private Candidate nextCandidate(TreeMap<Id, Candidate> shortlist) {
+        int count = 0;
+        for (Entry<Id, Candidate> entry : shortlist.entrySet()) {
+            Candidate candidate = entry.getValue();
+            if (candidate.state == State.FAILED) {
+                continue;
+            }
+            if (candidate.state == State.NOT_QUERIED) {
+                return candidate;
+            }
+            count++;
+            if (count == k) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    private void query(Node node, Id target, BlockingQueue<Response> responses) {
+        CompletableFuture<List<Node>> future;
+        try {
+            future = transport.findNode(node, target, k);
+        } catch (RuntimeException re) {
+            responses.add(new Response(node, null));
+            return;
+        }
+
+        if (future == null) {
+            responses.add(new Response(node, null));
+            return;
+        }
+        future.whenComplete((nodes, error) -> responses.add(new Response(node, error == null ? nodes : null)));
+    }
+
+    private void touch(Node node) {
+        try {
+            touch(router, clock, node);
+        } catch (LinkMismatchException lme) {
+            // router already has a node with this ID but a different link, leave the router's version alone
+        }
+    }
+
+    private void unresponsive(Node node) {
+        try {
+            synchronized (router) {
+                router.unresponsive(clock.instant(), node);
+            }
+        } catch (NodeNotFoundException | LinkMismatchException | BadNodeStateException e) {
+            // node was learned about during this lookup and never made it in to the router, or the router's version of the node is
+            // different / stale
+        }
+    }
+
+    // Touches router with the time from clock, making sure that the time never goes backwards
+    static RouterChangeSet touch(Router router, Clock clock, Node node) {
+        synchronized (router) {
+            Instant time = clock.instant();
+            Instant lastTouchTime = router.getLastTouchTime();
+            if (time.isBefore(lastTouchTime)) {
+                time = lastTouchTime;
+            }
+            return router.touch(time, node);
+        }
+    }
+
+    private enum State {
+        NOT_QUERIED,
+        IN_FLIGHT,
+        RESPONDED,
+        FAILED
+    }
+
+    private static final class Candidate {
+        private final Node node;
+        private State state;
+        
+        Candidate(Node node) {
+            this.node = node;
+            this.state = State.NOT_QUERIED;
+        }
+    }
+
+    private static final class Response {
+        private final Node node;
+        private final List<Node> nodes; // null if failed
+        
+        Response(Node node, List<Node> nodes) {
+            this.node = node;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -18,19 +18,30 @@ package com.offbynull.kademlia;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collection;
-import static java.util.Collections.emptyList;
-import static java.util.Collections.singletonList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeSet;
 import org.apache.commons.lang3.Validate;
 
 final class NodeMostRecentSet {
+    // Entries with the same time are kept in the reverse order they were inserted, so sequence is used to break ties
+    private static final Comparator<Entry> ENTRY_COMPARATOR = (x, y) -> {
+        int ret = Long.compare(x.activity.getTimeNanos(), y.activity.getTimeNanos());
+        if (ret != 0) {
+            return ret;
+        }
+        return Long.compare(y.sequence, x.sequence);
+    };
+    
     private final Id baseId;
-    private final LinkedList<Activity> entries;
+    private final Map<Id, Entry> entriesById;
+    private final TreeSet<Entry> entries; // earliest time first
 
     private int maxSize;
+    private long nextSequence;
 
     NodeMostRecentSet(Id baseId, int maxSize) {
         Validate.notNull(baseId);
@@ -39,68 +50,56 @@ final class NodeMostRecentSet {
         this.baseId = baseId;
         this.maxSize = maxSize;
 
-        this.entries = new LinkedList<>();
+        this.entriesById = new HashMap<>();
+        this.entries = new TreeSet<>(ENTRY_COMPARATOR);
     }
   
     public ActivityChangeSet touch(Instant time, Node node, boolean allowLinkMismatch) {
         Validate.notNull(time);
+        return touch(InternalTime.toNanos(time), node, allowLinkMismatch);
+    }
+
+    public ActivityChangeSet touch(long time, Node node, boolean allowLinkMismatch) { // time is nanos since epoch (see InternalTime)
+        ChangeSetCollector collector = new ChangeSetCollector();
+        touch(time, node, allowLinkMismatch, null, collector);
+        return collector.getCacheChangeSet();
+    }
+
+    // Same as touch(long, Node, boolean), but reports changes to listener's cache*() methods (with prefix as the k-bucket prefix) rather
+    // than returning a change set. Returns true if node was added / updated, or false if it couldn't be added.
+    public boolean touch(long time, Node node, boolean allowLinkMismatch, BitString prefix, ChangeListener listener) {
         Validate.notNull(node);
+        Validate.notNull(listener);
         
         Id nodeId = node.getId();
         
         InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
 //        Validate.isTrue(!nodeId.equals(baseId)); // Don't reject adding self
         
-        // TODO: You can make this way more efficient if you used something like MultiTreeSet (guava) and sorted based on entry time
-
-        // Remove existing entry
-        Activity oldEntry = null;
-        ListIterator<Activity> it = entries.listIterator();
-        while (it.hasNext()) {
-            Activity entry = it.next();
-
-            Id entryId = entry.getNode().getId();
-
-            if (entryId.equals(nodeId)) {
-                if (!allowLinkMismatch) {
-                    InternalValidate.matchesLink(entry.getNode(), node);
-                }
-
-                // remove
-                it.remove();
-                oldEntry = entry;
-                break;
+        // Remove existing entry from ordering (entriesById gets overwritten below)
+        Entry oldEntry = entriesById.get(nodeId);
+        if (oldEntry != null) {
+            if (!allowLinkMismatch) {
+                InternalValidate.matchesLink(oldEntry.activity.getNode(), node);
             }
+            entries.remove(oldEntry);
         }
 
         
-        // Add entry
-        Activity newEntry = new Activity(node, time);
-        it = entries.listIterator(entries.size());
-        boolean added = false;
-        while (it.hasPrevious()) {
-            Activity entry = it.previous();
-
-            if (entry.getTime().isBefore(time)) {
-                it.next(); // move forward 1 space, we want to add to element just after entry
-                it.add(newEntry);
-                added = true;
-                break;
-            }
-        }
-
-        if (!added) { // special case where newEntry needs to be added at the end of entries, not handled by loop above
-            entries.addFirst(newEntry);
-        }
+        // Add entry -- goes before all existing entries with the same time
+        Entry newEntry = new Entry(new Activity(node, time), nextSequence++);
+        entriesById.put(nodeId, newEntry);
+        entries.add(newEntry);
 
         
         // Set has become too large, remove the item with the earliest time
-        Activity discardedEntry = null;
+        Entry discardedEntry = null;
         if (entries.size() > maxSize) {
             // if the node removed with the earliest time is the one we just added, then report that node couldn't be added
-            discardedEntry = entries.removeFirst();
-            if (discardedEntry.equals(newEntry)) {
-                return ActivityChangeSet.NO_CHANGE;
+            discardedEntry = entries.pollFirst();
+            entriesById.remove(discardedEntry.activity.getNode().getId());
+            if (discardedEntry == newEntry) {
+                return false;
             }
         }
 
@@ -110,17 +109,22 @@ final class NodeMostRecentSet {
             Validate.validState(discardedEntry == null); // sanity check, must not have discarded anything
             
             // updated existing node
-            return ActivityChangeSet.updated(newEntry);
+            listener.cacheUpdated(prefix, newEntry.activity);
         } else {
-            // if block above ensures oldEntry is null if we're in this else block, so sanity check below isn't nessecary
-            // Validate.validState(oldEntry == null); // sanity check, node being touched must not have already existed
-            
             // added new node
-            Collection<Activity> addedEntries = singletonList(newEntry);
-            Collection<Activity> removedEntries = discardedEntry == null ? emptyList() : singletonList(discardedEntry);
-            Collection<Activity> updatedEntries = emptyList();
-            return new ActivityChangeSet(addedEntries, removedEntries, updatedEntries);
+            listener.cacheAdded(prefix, newEntry.activity);
+            if (discardedEntry != null) {
+                listener.cacheRemoved(prefix, discardedEntry.activity);
+            }
         }
+        return true;
+    }
+
+    public Activity getActivity(Id id) { // activity for id, or null if not in this set
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        
+        Entry entry = entriesById.get(id);
+        return entry == null ? null : entry.activity;
     }
 
     public ActivityChangeSet remove(Node node) {
@@ -130,33 +134,29 @@ final class NodeMostRecentSet {
         
         InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
         
-        ListIterator<Activity> it = entries.listIterator();
-        while (it.hasNext()) {
-            Activity entry = it.next();
-
-            Id entryId = entry.getNode().getId();
+        Entry entry = entriesById.get(nodeId);
+        if (entry == null) {
+            return ActivityChangeSet.NO_CHANGE;
+        }
 
-            if (entryId.equals(nodeId)) {
-                InternalValidate.matchesLink(entry.getNode(), node);
+        InternalValidate.matchesLink(entry.activity.getNode(), node);
 
-                // remove
-                it.remove();
-                return ActivityChangeSet.removed(entry);
-            }
-        }
-        
-        return ActivityChangeSet.NO_CHANGE;
+        // remove
+        entriesById.remove(nodeId);
+        entries.remove(entry);
+        return ActivityChangeSet.removed(entry.activity);
     }
 
     public ActivityChangeSet resize(int maxSize) {
         Validate.isTrue(maxSize >= 0);
         
-        int discardCount = this.maxSize - maxSize;
+        int discardCount = entries.size() - maxSize;
         
         List<Activity> removed = new LinkedList<>();
         for (int i = 0; i < discardCount; i++) {
-            Activity removedEntry = entries.removeFirst(); // remove node that hasn't been touched the longest
-            removed.add(removedEntry);
+            Entry removedEntry = entries.pollFirst(); // remove node that hasn't been touched the longest
+            entriesById.remove(removedEntry.activity.getNode().getId());
+            removed.add(removedEntry.activity);
         }
         
         this.maxSize = maxSize;
@@ -167,17 +167,43 @@ final class NodeMostRecentSet {
     public ActivityChangeSet removeMostRecent(int count) {
         LinkedList<Activity> removed = new LinkedList<>();
         for (int i = 0; i < count; i++) {
-            Activity e = entries.removeLast();
+            Entry e = entries.pollLast();
             if (e == null) {
                 break;
             }
-            removed.addFirst(e);
+            entriesById.remove(e.activity.getNode().getId());
+            removed.addFirst(e.activity);
         }
         return ActivityChangeSet.removed(removed);
     }
     
+    public void restore(List<Activity> entries) { // set must be empty, entries must be in the same order as dump()
+        Validate.notNull(entries);
+        Validate.noNullElements(entries);
+        Validate.validState(this.entries.isEmpty());
+        Validate.isTrue(entries.size() <= maxSize);
+        
+        // entries with the same time are ordered newest first, so sequences need to be assigned in reverse
+        nextSequence = entries.size();
+        long sequence = nextSequence;
+        for (Activity activity : entries) {
+            Id id = activity.getNode().getId();
+            InternalValidate.matchesLength(baseId.getBitLength(), id);
+            Validate.isTrue(!entriesById.containsKey(id)); // no duplicates
+            Validate.isTrue(this.entries.isEmpty() || activity.getTimeNanos() >= this.entries.last().activity.getTimeNanos()); // in order
+            
+            Entry entry = new Entry(activity, --sequence);
+            entriesById.put(id, entry);
+            this.entries.add(entry);
+        }
+    }
+    
     public List<Activity> dump() {
-        return new ArrayList<>(entries);
+        List<Activity> ret = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            ret.add(entry.activity);
+        }
+        return ret;
     }
     
     public Instant lastestActivityTime() { // time of the latest entry in this set, or null if set is empty
@@ -185,7 +211,15 @@ final class NodeMostRecentSet {
             return null;
         }
         
-        return entries.getLast().getTime();
+        return entries.last().activity.getTime();
+    }
+
+    public long lastestActivityTimeNanos() { // time of the latest entry in this set, or Long.MIN_VALUE if set is empty
+        if (entries.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+
+        return entries.last().activity.getTimeNanos();
     }
 
     public int size() {
@@ -198,10 +232,16 @@ final class NodeMostRecentSet {
 
     @Override
     public String toString() {
-        return "NodeMostRecentSet{" + "baseId=" + baseId + ", entries=" + entries + ", maxSize=" + maxSize + '}';
+        return "NodeMostRecentSet{" + "baseId=" + baseId + ", entries=" + dump() + ", maxSize=" + maxSize + '}';
     }
 
+    private static final class Entry {
+        private final Activity activity;
+        private final long sequence; // order in which this entry was added to the set
 
-
-
+        Entry(Activity activity, long sequence) {
+            this.activity = activity;
+            this.sequence = sequence;
+        }
+    }
 }
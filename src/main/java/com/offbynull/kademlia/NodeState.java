@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+/**
+ * State of a node held by a {@link KBucket} (and by extension, a {@link RouteTree} / {@link Router}).
+ * @author Kasra Faghihi
+ */
+public enum NodeState {
+    /**
+     * Node is in the k-bucket and is neither stale nor locked.
+     */
+    ALIVE,
+    /**
+     * Node is in the k-bucket but has been marked as stale (see {@link KBucket#stale(com.offbynull.kademlia.Node) }).
+     */
+    STALE,
+    /**
+     * Node is in the k-bucket but has been locked (see {@link KBucket#lock(com.offbynull.kademlia.Node) }).
+     */
+    LOCKED,
+    /**
+     * Node is in the k-bucket's replacement cache.
+     */
+    CACHED
+}
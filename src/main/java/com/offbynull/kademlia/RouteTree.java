@@ -18,9 +18,19 @@ package com.offbynull.kademlia;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -44,9 +54,29 @@ import org.apache.commons.lang3.Validate;
 public final class RouteTree {
     private final Id baseId;
     private final RouteTreeNode root;
-    private final TimeSet<BitString> bucketUpdateTimes; // prefix to when the prefix's bucket was last updated (not cache)
     
-    private Instant lastTouchTime;
+    // Flat index of k-buckets in the tree. Since the tree only ever grows the branch that contains baseId, the tree node that an ID's
+    // k-bucket hangs off of is dictated entirely by the number of prefix bits that ID shares with baseId. The arrays below are indexed
+    // by that shared prefix length.
+    private final KBucket[][] bucketsBySharedPrefixLength; // k-buckets of the tree node (indexed by branch idx, null if branch is a node)
+    private final int[] prefixLengthsBySharedPrefixLength; // prefix length of the tree node
+    private final int[] suffixLengthsBySharedPrefixLength; // suffix length of the tree node (number of bits used to pick the branch)
+
+    // K-buckets in dumpBuckets() order, and the last time each was updated (not cache) in nanos (see InternalTime). The k-bucket for
+    // baseId isn't tracked (see constructor).
+    private final KBucket[] buckets;
+    private final Map<KBucket, Integer> bucketIndexes;
+    private final long[] bucketUpdateTimes;
+    private final int baseIdBucketIndex;
+
+    // Refresh schedule for k-buckets (see pollRefreshes()), keyed by k-bucket index. Each k-bucket is scheduled at the later of its update
+    // time and the last time it was handed out for refreshing, in nanos.
+    private final TimingWheel refreshWheel;
+    private final long[] lastRefreshTimes;
+
+    private final int[] batchCounts; // scratch space for touchAll(), per k-bucket index (+ 1)
+
+    private long lastTouchTime; // nanos
     
     /**
      * Construct a {@link RouteTree} object.
@@ -65,7 +95,6 @@ public final class RouteTree {
         Validate.notNull(bucketStrategy);
         
         this.baseId = baseId; // must be set before creating RouteTreeLevels
-        this.bucketUpdateTimes = new TimeSet<>();
 
         root = createRoot(branchStrategy, bucketStrategy);
         RouteTreeNode child = root;
@@ -73,11 +102,37 @@ public final class RouteTree {
             child = growParent(child, branchStrategy, bucketStrategy);
         }
         
-        // Special case: the routing tree has a bucket for baseId. Nothing can ever access that bucket (calls to
-        // touch/stale/find with your own ID will result an exception) and it'll always be empty, so remove it from bucketUpdateTimes.
-        bucketUpdateTimes.remove(baseId.getBitString());
+        // Build flat k-bucket index
+        int bitLength = baseId.getBitLength();
+        bucketsBySharedPrefixLength = new KBucket[bitLength + 1][];
+        prefixLengthsBySharedPrefixLength = new int[bitLength + 1];
+        suffixLengthsBySharedPrefixLength = new int[bitLength + 1];
+        indexBuckets();
+        
+        // Track update times / refreshes of k-buckets. Newly created k-buckets have never been updated, so they're set to MIN.
+        //
+        // Special case: the routing tree has a bucket for baseId. Nothing can ever access that bucket (calls to touch/stale/find with your
+        // own ID will result an exception) and it'll always be empty, so don't track it.
+        buckets = dumpBuckets().toArray(new KBucket[0]);
+        bucketIndexes = new IdentityHashMap<>(buckets.length);
+        bucketUpdateTimes = new long[buckets.length];
+        refreshWheel = new TimingWheel(buckets.length, Long.MIN_VALUE);
+        lastRefreshTimes = new long[buckets.length];
+        int baseIdIdx = -1;
+        for (int i = 0; i < buckets.length; i++) {
+            bucketIndexes.put(buckets[i], i);
+            bucketUpdateTimes[i] = Long.MIN_VALUE;
+            lastRefreshTimes[i] = Long.MIN_VALUE;
+            if (buckets[i].getPrefix().equals(baseId.getBitString())) {
+                baseIdIdx = i;
+            } else {
+                refreshWheel.schedule(i, Long.MIN_VALUE);
+            }
+        }
+        baseIdBucketIndex = baseIdIdx;
+        batchCounts = new int[buckets.length + 1];
         
-        this.lastTouchTime = Instant.MIN;
+        this.lastTouchTime = Long.MIN_VALUE;
     }
 
     /**
@@ -100,12 +155,232 @@ public final class RouteTree {
 //        InternalValidate.notMatchesBase(baseId, id); // commented out because you should be able to search for closest nodes to yourself
         Validate.isTrue(max >= 0); // why would anyone want 0? let thru anyways
 
-        IdXorMetricComparator comparator = new IdXorMetricComparator(id);
-        TreeSet<Activity> output = new TreeSet<>((x, y) -> comparator.compare(x.getNode().getId(), y.getNode().getId()));
+        // locked nodes are never returned -- they're in their backoff period
+        return find(id, max, (bucket, output) -> bucket.dumpBucket(true, includeStale, false, output));
+    }
+
+    /**
+     * Lazily goes through the nodes in this route tree from closest to farthest from some ID. Node closeness is determined by the XOR
+     * metric -- Kademlia's notion of distance. Unlike {@link #find(com.offbynull.kademlia.Id, int, boolean) }, the number of nodes
+     * doesn't need to be known up front: the route tree is only walked as far as needed to get to the next node, so pulling a few nodes
+     * off the returned iterator (e.g. until one passes some filter) only reads the k-buckets closest to {@code id}.
+     * <p>
+     * Each k-bucket is read when the iterator reaches it. If this route tree is changed while iterating, k-buckets already read aren't read
+     * again, but k-buckets not yet read will reflect the change. The returned iterator is not thread-safe and doesn't support removal.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for).
+     * @param id ID to search for
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return nodes in this route tree, from closest to farthest from {@code id}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this route tree is for
+     * (the ID of the node this route tree belongs to)
+     */
+    public Iterator<Activity> iterateClosest(Id id, boolean includeStale) {
+        Validate.notNull(id);
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
         
-        root.findNodesWithLargestPossiblePrefix(id, output, max, includeStale);
+        // locked nodes are never returned -- they're in their backoff period
+        return iterateClosest(id, (bucket, output) -> bucket.dumpBucket(true, includeStale, false, output));
+    }
+
+    // Same as iterateClosest(Id, boolean), but nodes are read out of each k-bucket reached using bucketReader. Validation of id must be
+    // done by the caller.
+    Iterator<Activity> iterateClosest(Id id, BiConsumer<KBucket, Consumer<Activity>> bucketReader) {
+        return new NodeClosestIterator(id, baseId.getSharedPrefixLength(id), bucketsBySharedPrefixLength,
+                prefixLengthsBySharedPrefixLength, suffixLengthsBySharedPrefixLength, bucketReader);
+    }
+
+    /**
+     * Equivalent to {@link #find(com.offbynull.kademlia.Id, int, boolean) }, but only returns nodes that pass {@code filter}. The filter is
+     * applied while this route tree is being walked, so up to {@code max} nodes that pass it are returned (there's no need to ask for more
+     * than {@code max} nodes and filter the results) and nodes that don't pass it are never collected.
+     * <p>
+     * {@code filter} is called at most once per node walked over, and may be called on nodes that don't end up being returned (nodes
+     * that pass but turn out to be farther away than {@code max} other nodes that pass). It must not modify this route tree.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for).
+     * @param id ID to search for
+     * @param max maximum number of results to give back
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @param filter filter that nodes must pass to be returned (e.g. leave out nodes that have already been queried, or nodes that
+     * haven't been seen since some time)
+     * @return up to {@code max} closest nodes to {@code id} that pass {@code filter}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this route tree is for
+     * (the ID of the node this route tree belongs to)
+     */
+    public List<Activity> find(Id id, int max, boolean includeStale, Predicate<? super Activity> filter) {
+        Validate.notNull(id);
+        Validate.notNull(filter);
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        Validate.isTrue(max >= 0); // why would anyone want 0? let thru anyways
         
-        return new ArrayList<>(output);
+        // locked nodes are never returned -- they're in their backoff period
+        return find(id, max, (bucket, output) -> bucket.dumpBucket(true, includeStale, false, filter, output));
+    }
+    
+    // Same as find(Id, int, boolean), but nodes are read out of each k-bucket visited using bucketReader. Validation of id and max must
+    // be done by the caller.
+    List<Activity> find(Id id, int max, BiConsumer<KBucket, NodeClosestSet> bucketReader) {
+        NodeClosestSet output = new NodeClosestSet(id, max);
+        
+        // Start at the tree node that id's branch hangs off of and dump everything under it (including the branch that leads further down,
+        // if there is one). Then go up the tree one tree node at a time, dumping everything under each tree node other than the branch
+        // that was just come out of. Stop as soon as output is full.
+        int sharedPrefixLength = baseId.getSharedPrefixLength(id);
+        if (dumpTreeNode(id, sharedPrefixLength, 0, output, bucketReader)) {
+            return output.dump();
+        }
+        
+        int prefixLength = prefixLengthsBySharedPrefixLength[sharedPrefixLength];
+        while (prefixLength > 0) {
+            int parentSharedPrefixLength = prefixLength - 1;
+            if (dumpTreeNode(id, parentSharedPrefixLength, 1, output, bucketReader)) {
+                break;
+            }
+            prefixLength = prefixLengthsBySharedPrefixLength[parentSharedPrefixLength];
+        }
+        
+        return output.dump();
+    }
+
+    // Same as find(Id, int, BiConsumer) for each ID in ids, with results in the same order as ids. Validation of ids and max must be done
+    // by the caller.
+    //
+    // Every k-bucket is read (using bucketReader) exactly once, up front, in to an array. The searches then run against those arrays rather
+    // than the k-buckets themselves, so...
+    //  1. the k-buckets only need to stay untouched while they're being read, not while the searches are running.
+    //  2. the results are consistent with each other (they all come from the same read of the table).
+    //  3. the searches only ever read, so they can run in parallel on pool (if pool is non-null).
+    // IDs are also ordered by the length of the prefix they share with baseId before being searched. IDs that share the same prefix length
+    // start at the same tree node and walk the same path up the tree, so searching them together (and splitting them together when forking)
+    // means each task keeps hitting the same k-bucket arrays.
+    List<List<Activity>> findAll(Id[] ids, int max, BiConsumer<KBucket, Consumer<Activity>> bucketReader, ForkJoinPool pool) {
+        Activity[][] bucketContents = new Activity[buckets.length][];
+        List<Activity> bucketContent = new ArrayList<>();
+        for (int i = 0; i < buckets.length; i++) {
+            bucketContent.clear();
+            bucketReader.accept(buckets[i], bucketContent::add);
+            bucketContents[i] = bucketContent.toArray(new Activity[bucketContent.size()]);
+        }
+        BiConsumer<KBucket, NodeClosestSet> contentsReader = (bucket, output) -> {
+            for (Activity activity : bucketContents[bucketIndexes.get(bucket)]) {
+                output.accept(activity);
+            }
+        };
+        
+        // Counting sort on shared prefix length
+        int[] sharedPrefixLengths = new int[ids.length];
+        int[] counts = new int[baseId.getBitLength() + 2];
+        for (int i = 0; i < ids.length; i++) {
+            int sharedPrefixLength = baseId.getSharedPrefixLength(ids[i]);
+            sharedPrefixLengths[i] = sharedPrefixLength;
+            counts[sharedPrefixLength + 1]++;
+        }
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+        int[] order = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[counts[sharedPrefixLengths[i]]++] = i;
+        }
+
+        List<List<Activity>> ret = new ArrayList<>(Collections.nCopies(ids.length, null));
+        if (pool == null) {
+            new FindAllTask(ids, order, 0, ids.length, max, contentsReader, ret, false).compute();
+        } else {
+            pool.invoke(new FindAllTask(ids, order, 0, ids.length, max, contentsReader, ret, true));
+        }
+        return ret;
+    }
+
+    private final class FindAllTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SPLIT_THRESHOLD = 256; // searches per task -- each one is a few microseconds, so don't fork below this
+        
+        private final Id[] ids;
+        private final int[] order;
+        private final int start;
+        private final int end;
+        private final int max;
+        private final transient BiConsumer<KBucket, NodeClosestSet> bucketReader;
+        private final transient List<List<Activity>> output; // each task sets a distinct range of indices, join() makes them visible
+        private final boolean fork;
+        
+        FindAllTask(Id[] ids, int[] order, int start, int end, int max, BiConsumer<KBucket, NodeClosestSet> bucketReader,
+                List<List<Activity>> output, boolean fork) {
+            this.ids = ids;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+            this.max = max;
+            this.bucketReader = bucketReader;
+            this.output = output;
+            this.fork = fork;
+        }
+
+        @Override
+        protected void compute() {
+            if (!fork || end - start <= SPLIT_THRESHOLD) {
+                for (int i = start; i < end; i++) {
+                    int idx = order[i];
+                    output.set(idx, find(ids[idx], max, bucketReader));
+                }
+                return;
+            }
+
+            int mid = (start + end) >>> 1;
+            invokeAll(
+                    new FindAllTask(ids, order, start, mid, max, bucketReader, output, true),
+                    new FindAllTask(ids, order, mid, end, max, bucketReader, output, true));
+        }
+    }
+    
+    // Dumps nodes under the tree node at sharedPrefixLength in to output, going through branches in order of how close they are to id.
+    // Returns true if output filled up, meaning nothing left in the tree can be closer than what's in output.
+    //
+    // What is the point of going through branches such that the "closer" prefixes are accessed first? Remember our notion of closeness:
+    // XOR and normal integer less-than to see which is closer. Each branch of a tree node holds IDs that share the same suffix bits (the
+    // bits after the tree node's prefix). For example, if the tree node's prefix is 110xxx and the ID being searched for is 111110, the
+    // IDs under 1101xx WILL ALWAYS BE CLOSER than the IDs at 1100xx...
+    //
+    // XORing with the 1100xx bucket ... XOR(111110, 1100xx) = 0011xx
+    // XORing with the 1101xx bucket ... XOR(111110, 1101xx) = 0010xx
+    //
+    // The XOR of the suffix bits is all that matters, and XORing branch index b with the ID's suffix bits gives i = b ^ idSuffix. Going
+    // through i = 0, 1, 2, ... and accessing branch b = idSuffix ^ i goes through the branches from closest to farthest -- no sorting
+    // needed. Every ID in a branch is closer than every ID in the branches that come after it, so once output fills up we can stop.
+    //
+    // This also means that, given the same prefix, we don't end up accessing the exact same set of nodes. For example, if someone wanted
+    // 111 and 1xx was empty, the path to search under 0xx would be 011, then 001, then 000. If someone wanted 101 and 1xx was empty, the
+    // path to search under 0xx would be 001, then 000, then 011. If we did something like a depth-first search, we'd always target 000
+    // first, which would end up being an undue burden on those nodes.
+    private boolean dumpTreeNode(Id id, int sharedPrefixLength, int startIdx, NodeClosestSet output,
+            BiConsumer<KBucket, NodeClosestSet> bucketReader) {
+        KBucket[] buckets = bucketsBySharedPrefixLength[sharedPrefixLength];
+        int prefixLength = prefixLengthsBySharedPrefixLength[sharedPrefixLength];
+        int suffixLength = suffixLengthsBySharedPrefixLength[sharedPrefixLength];
+        
+        int idSuffix = (int) id.getBitsAsLong(prefixLength, suffixLength);
+        for (int i = startIdx; i < buckets.length; i++) {
+            KBucket bucket = buckets[idSuffix ^ i];
+            
+            if (bucket == null) {
+                // Branch leads further down, so dump everything under the next tree node
+                if (dumpTreeNode(id, prefixLength + suffixLength, 0, output, bucketReader)) {
+                    return true;
+                }
+            } else {
+                bucketReader.accept(bucket, output);
+                if (output.isFull()) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
     }
     
     // used for testing
@@ -116,6 +391,46 @@ public final class RouteTree {
         KBucket bucket = root.getBucketForPrefix(prefix);        
         return bucket.dumpBucket(true, true, false);
     }
+
+    /**
+     * Get a node in this route tree (k-bucket or replacement cache) by ID. Finding the k-bucket for an ID and finding a node within a
+     * k-bucket are both lookups (no scanning), so this is cheap enough to call on every incoming message.
+     * @param id ID of node to get
+     * @return the activity for the node with ID {@code id}, or {@code null} if this route tree doesn't contain it (this route tree never
+     * contains yourself -- the node that this routing table is for)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this route tree is for
+     * (the ID of the node this route tree belongs to)
+     */
+    public Activity get(Id id) {
+        Validate.notNull(id);
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        
+        if (id.equals(baseId)) {
+            return null;
+        }
+        return getBucketFor(id).get(id);
+    }
+
+    /**
+     * Get the state of a node in this route tree (k-bucket or replacement cache) by ID. Finding the k-bucket for an ID and finding a node
+     * within a k-bucket are both lookups (no scanning), so this is cheap enough to call on every incoming message.
+     * @param id ID of node to get the state of
+     * @return state of the node with ID {@code id}, or {@code null} if this route tree doesn't contain it (this route tree never contains
+     * yourself -- the node that this routing table is for)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this route tree is for
+     * (the ID of the node this route tree belongs to)
+     */
+    public NodeState getState(Id id) {
+        Validate.notNull(id);
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        
+        if (id.equals(baseId)) {
+            return null;
+        }
+        return getBucketFor(id).getState(id);
+    }
     
     /**
      * Get all k-bucket prefixes in this route tree.
@@ -149,7 +464,48 @@ public final class RouteTree {
      */
     public RouteTreeChangeSet touch(Instant time, Node node) {
         Validate.notNull(time);
+        return touch(InternalTime.toNanos(time), node);
+    }
+
+    /**
+     * Equivalent to {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) }, but with the time as nanoseconds since the epoch
+     * rather than an {@link Instant} (nothing is allocated for the time).
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this route tree is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this route tree is for)
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method
+     * @throws LinkMismatchException if this route tree already contains a node with {@code node}'s ID but with a different link (see
+     * {@link KBucket#touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see KBucket#touch(long, com.offbynull.kademlia.Node) 
+     */
+    public RouteTreeChangeSet touch(long time, Node node) {
+        ChangeSetCollector collector = new ChangeSetCollector();
+        touch(time, node, collector);
+        return new RouteTreeChangeSet(getBucketFor(node.getId()).getPrefix(), collector.getKBucketChangeSet());
+    }
+
+    /**
+     * Equivalent to {@link #touch(long, com.offbynull.kademlia.Node) }, but reports changes to a listener instead of returning a change
+     * set. Nothing is allocated to report changes.
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @param listener listener to report changes to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this route tree is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this route tree is for)
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method
+     * @throws LinkMismatchException if this route tree already contains a node with {@code node}'s ID but with a different link (see
+     * {@link KBucket#touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see KBucket#touch(long, com.offbynull.kademlia.Node, com.offbynull.kademlia.ChangeListener) 
+     */
+    public void touch(long time, Node node, ChangeListener listener) {
         Validate.notNull(node);
+        Validate.notNull(listener);
         
         Id id = node.getId();
         InternalValidate.matchesLength(baseId.getBitLength(), id);
@@ -158,21 +514,175 @@ public final class RouteTree {
         InternalValidate.forwardTime(lastTouchTime, time); // time must be >= lastUpdatedTime
         lastTouchTime = time;
 
-        KBucket bucket = root.getBucketFor(node.getId()); // because we use this method to find the appropriate kbucket,
-                                                          // IdPrefixMismatchException never occurs
-        KBucketChangeSet kBucketChangeSet = bucket.touch(time, node);
-        BitString kBucketPrefix = bucket.getPrefix();
+        KBucket bucket = getBucketFor(node.getId()); // because we use this method to find the appropriate kbucket,
+                                                     // IdPrefixMismatchException never occurs
+        bucket.touch(time, node, listener);
 
-        // insert last bucket activity time in to bucket update times... it may be null if bucket has never been accessed, in which case
-        // we insert MIN instead
-        Instant lastBucketActivityTime = bucket.getLatestBucketActivityTime();
-        if (lastBucketActivityTime == null) {
-            lastBucketActivityTime = Instant.MIN;
+        updateBucketUpdateTime(bucket);
+    }
+
+    /**
+     * Applies a batch of touches to this route tree. Equivalent to calling {@link #touch(long, com.offbynull.kademlia.Node) } for each
+     * touch in {@code batch}, except that...
+     * <ul>
+     * <li>touches are grouped by k-bucket and applied in time order within each k-bucket (touches with the same time are applied in the
+     * order they were added to {@code batch}).</li>
+     * <li>k-bucket bookkeeping (e.g. the update times used by {@link #getStagnantBuckets(java.time.Instant) }) is updated once per
+     * k-bucket rather than once per touch.</li>
+     * <li>changes are aggregated per k-bucket -- the change set for a k-bucket is the difference between its state before and after the
+     * batch was applied (a node that was added and then pushed out by a later touch in the same batch won't show up at all).</li>
+     * </ul>
+     * Every touch is validated before anything is applied, except for link mismatches. If a {@link LinkMismatchException} is thrown, the
+     * touches leading up to the offending touch (in the order they're applied) will have been applied.
+     * @param batch touches to apply
+     * @return changes to each k-bucket touched, in k-bucket order
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of any node's ID doesn't match the bitlength of the owning node's ID (the ID of
+     * the node this route tree is for)
+     * @throws BaseIdMatchException if any node's ID is the same as the owning node's ID (the ID of the node this route tree is for)
+     * @throws BackwardTimeException if any time in {@code batch} is less than the time of the last touch to this route tree
+     * @throws LinkMismatchException if this route tree already contains a node with the same ID as a node being touched but with a
+     * different link (see {@link KBucket#touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     */
+    public List<RouteTreeChangeSet> touchAll(TouchBatch batch) {
+        Validate.notNull(batch);
+        
+        List<RouteTreeChangeSet> ret = new ArrayList<>();
+        touchAll(batch, KBucket.NO_OP_LISTENER, ret);
+        return ret;
+    }
+
+    /**
+     * Equivalent to {@link #touchAll(com.offbynull.kademlia.TouchBatch) }, but reports changes to a listener instead of returning change
+     * sets. Changes are reported as each touch is applied (they aren't aggregated). Nothing is allocated to report changes.
+     * @param batch touches to apply
+     * @param listener listener to report changes to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of any node's ID doesn't match the bitlength of the owning node's ID (the ID of
+     * the node this route tree is for)
+     * @throws BaseIdMatchException if any node's ID is the same as the owning node's ID (the ID of the node this route tree is for)
+     * @throws BackwardTimeException if any time in {@code batch} is less than the time of the last touch to this route tree
+     * @throws LinkMismatchException if this route tree already contains a node with the same ID as a node being touched but with a
+     * different link (see {@link KBucket#touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     */
+    public void touchAll(TouchBatch batch, ChangeListener listener) {
+        Validate.notNull(batch);
+        Validate.notNull(listener);
+        
+        touchAll(batch, listener, null);
+    }
+
+    // output is null if changes only need to be reported to listener
+    void touchAll(TouchBatch batch, ChangeListener listener, List<RouteTreeChangeSet> output) {
+        int size = batch.size();
+        long latestTime = lastTouchTime;
+        for (int i = 0; i < size; i++) {
+            Id id = batch.getNode(i).getId();
+            InternalValidate.matchesLength(baseId.getBitLength(), id);
+            InternalValidate.notMatchesBase(baseId, id);
+            long time = batch.getTime(i);
+            InternalValidate.forwardTime(lastTouchTime, time); // time must be >= lastUpdatedTime
+            latestTime = Math.max(latestTime, time);
         }
-        bucketUpdateTimes.remove(kBucketPrefix);
-        bucketUpdateTimes.insert(lastBucketActivityTime, kBucketPrefix);
+        lastTouchTime = latestTime;
+        
+        int[] keys = batch.getKeys();
+        int[] order = batch.getOrder();
+        orderBatch(batch);
+        
+        int start = 0;
+        while (start < size) {
+            int bucketIdx = keys[order[start]];
+            int end = start + 1;
+            while (end < size && keys[order[end]] == bucketIdx) {
+                end++;
+            }
 
-        return new RouteTreeChangeSet(kBucketPrefix, kBucketChangeSet);
+            KBucket bucket = buckets[bucketIdx];
+            List<Activity> bucketBefore = output == null ? null : bucket.dumpBucket(true, true, true);
+            List<Activity> cacheBefore = output == null ? null : bucket.dumpCache();
+            try {
+                for (int i = start; i < end; i++) {
+                    int entryIdx = order[i];
+                    bucket.touch(batch.getTime(entryIdx), batch.getNode(entryIdx), listener); // ordered by time, never goes backwards
+                }
+            } finally {
+                updateBucketUpdateTime(bucket); // keep bookkeeping correct even if a link mismatch stopped us part way through
+            }
+
+            if (output != null) {
+                ActivityChangeSet bucketChangeSet = diff(bucketBefore, bucket.dumpBucket(true, true, true));
+                ActivityChangeSet cacheChangeSet = diff(cacheBefore, bucket.dumpCache());
+                output.add(new RouteTreeChangeSet(bucket.getPrefix(), new KBucketChangeSet(bucketChangeSet, cacheChangeSet)));
+            }
+
+            start = end;
+        }
+    }
+
+    // Fills batch's order array with the indices of its entries sorted by k-bucket index (also stored in to batch's keys array), then by
+    // time. Counting sort on k-bucket index followed by an insertion sort on time within each k-bucket -- batches usually come in (close
+    // to) time order, so the insertion sort is close to linear. Both sorts are stable, so entries with the same time keep their order.
+    private void orderBatch(TouchBatch batch) {
+        int size = batch.size();
+        int[] keys = batch.getKeys();
+        int[] order = batch.getOrder();
+        
+        Arrays.fill(batchCounts, 0);
+        for (int i = 0; i < size; i++) {
+            int bucketIdx = bucketIndexes.get(getBucketFor(batch.getNode(i).getId()));
+            keys[i] = bucketIdx;
+            batchCounts[bucketIdx + 1]++;
+        }
+        for (int i = 1; i < batchCounts.length; i++) {
+            batchCounts[i] += batchCounts[i - 1];
+        }
+        for (int i = 0; i < size; i++) {
+            order[batchCounts[keys[i]]++] = i;
+        }
+
+        for (int i = 1; i < size; i++) {
+            int entryIdx = order[i];
+            int key = keys[entryIdx];
+            long time = batch.getTime(entryIdx);
+            int j = i - 1;
+            while (j >= 0 && keys[order[j]] == key && batch.getTime(order[j]) > time) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = entryIdx;
+        }
+    }
+
+    // Changes between 2 dumps of the same collection. An activity that's been replaced (same ID, different instance) counts as updated.
+    private static ActivityChangeSet diff(List<Activity> before, List<Activity> after) {
+        Map<Id, Activity> beforeById = new HashMap<>();
+        for (Activity activity : before) {
+            beforeById.put(activity.getNode().getId(), activity);
+        }
+
+        List<Activity> added = new ArrayList<>();
+        List<Activity> updated = new ArrayList<>();
+        for (Activity activity : after) {
+            Activity old = beforeById.remove(activity.getNode().getId());
+            if (old == null) {
+                added.add(activity);
+            } else if (old != activity) {
+                updated.add(activity);
+            }
+        }
+
+        List<Activity> removed = new ArrayList<>();
+        for (Activity activity : before) {
+            if (beforeById.containsKey(activity.getNode().getId())) {
+                removed.add(activity);
+            }
+        }
+
+        if (added.isEmpty() && removed.isEmpty() && updated.isEmpty()) {
+            return ActivityChangeSet.NO_CHANGE;
+        }
+        return new ActivityChangeSet(added, removed, updated);
     }
 
     /**
@@ -198,50 +708,83 @@ public final class RouteTree {
         InternalValidate.matchesLength(baseId.getBitLength(), id);
         InternalValidate.notMatchesBase(baseId, id);
             
-        KBucket bucket = root.getBucketFor(node.getId()); // because we use this method to find the appropriate kbucket,
-                                                          // IdPrefixMismatchException never occurs
+        KBucket bucket = getBucketFor(node.getId()); // because we use this method to find the appropriate kbucket,
+                                                     // IdPrefixMismatchException never occurs
         KBucketChangeSet kBucketChangeSet = bucket.stale(node);
         BitString kBucketPrefix = bucket.getPrefix();
 
-                // insert last bucket activity time in to bucket update times... it may be null if bucket has never been accessed, in which
-        // case we insert MIN instead
-        //
         // note that marking a node as stale may have replaced it in the bucket with another node in the cache. That cache node
         // could have an older time than the stale node, meaning that bucketUpdateTimes may actually be older after the replacement!
-        Instant lastBucketActivityTime = bucket.getLatestBucketActivityTime();
-        if (lastBucketActivityTime == null) {
-            lastBucketActivityTime = Instant.MIN;
-        }
-        bucketUpdateTimes.remove(kBucketPrefix);
-        bucketUpdateTimes.insert(lastBucketActivityTime, kBucketPrefix);
+        updateBucketUpdateTime(bucket);
 
         return new RouteTreeChangeSet(kBucketPrefix, kBucketChangeSet);
     }
 
-    // Disable for now -- not being used
-//    public void lock(Node node) {
-//        Validate.notNull(node);
-//
-//        Id id = node.getId();
-//        InternalValidate.matchesLength(baseId.getBitLength(), id);
-//        InternalValidate.notMatchesBase(baseId, id);
-//            
-//        root.getBucketFor(node.getId()).lock(node);
-//    }
-//
-//    public void unlock(Node node) {
-//        Validate.notNull(node);
-//
-//        Id id = node.getId();
-//        InternalValidate.matchesLength(baseId.getBitLength(), id);
-//        InternalValidate.notMatchesBase(baseId, id);
-//            
-//        root.getBucketFor(node.getId()).unlock(node);
-//    }
+    /**
+     * Marks a node within this route tree as locked (meaning that you're temporarily ignoring it, possibly because of network congestion).
+     * <p>
+     * See {@link KBucket#lock(com.offbynull.kademlia.Node) } for more information.
+     * @param node node to mark as locked
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected (locking never changes either, so the
+     * k-bucket change set will always be empty)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this route tree is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this route tree is for)
+     * @throws NodeNotFoundException if this route tree doesn't contain {@code node}
+     * @throws LinkMismatchException if this route tree contains a node with {@code node}'s ID but with a different link
+     * @throws BadNodeStateException if this route tree contains {@code node} but {@code node} is marked as stale
+     * @see KBucket#lock(com.offbynull.kademlia.Node) 
+     */
+    public RouteTreeChangeSet lock(Node node) {
+        Validate.notNull(node);
+
+        Id id = node.getId();
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        InternalValidate.notMatchesBase(baseId, id);
+            
+        KBucket bucket = getBucketFor(id);
+        bucket.lock(node);
+        
+        return new RouteTreeChangeSet(bucket.getPrefix(), new KBucketChangeSet(ActivityChangeSet.NO_CHANGE, ActivityChangeSet.NO_CHANGE));
+    }
+
+    /**
+     * Reverts a node within this route tree back to a normal state from a locked state.
+     * <p>
+     * See {@link KBucket#unlock(com.offbynull.kademlia.Node) } for more information.
+     * @param node node to revert to normal state from locked state
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected (unlocking never changes either, so
+     * the k-bucket change set will always be empty)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this route tree is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this route tree is for)
+     * @throws NodeNotFoundException if this route tree doesn't contain {@code node}
+     * @throws LinkMismatchException if this route tree contains a node with {@code node}'s ID but with a different link
+     * @throws BadNodeStateException if this route tree contains {@code node} but {@code node} is marked as stale
+     * @see KBucket#unlock(com.offbynull.kademlia.Node) 
+     */
+    public RouteTreeChangeSet unlock(Node node) {
+        Validate.notNull(node);
+
+        Id id = node.getId();
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        InternalValidate.notMatchesBase(baseId, id);
+            
+        KBucket bucket = getBucketFor(id);
+        bucket.unlock(node);
+        
+        return new RouteTreeChangeSet(bucket.getPrefix(), new KBucketChangeSet(ActivityChangeSet.NO_CHANGE, ActivityChangeSet.NO_CHANGE));
+    }
 
     /**
      * Get prefixes for k-buckets that haven't been updated
-     * (from {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) }) since the time specified.
+     * (from {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) }) since the time specified, oldest first.
+     * <p>
+     * This is the slow path, kept for compatibility: it scans every k-bucket and allocates on each call, regardless of how many k-buckets
+     * are stagnant. Callers that poll periodically to decide which k-buckets to refresh should use {@link BucketRefreshScheduler} instead,
+     * which is served from a timing wheel and only does work for k-buckets that are due.
      * @param time last update time threshold (k-buckets with their last update time before this get returned by this method)
      * @return prefixes for stagnant k-buckets
      * @throws NullPointerException if any argument is {@code null}
@@ -249,9 +792,133 @@ public final class RouteTree {
     public List<BitString> getStagnantBuckets(Instant time) { // is inclusive
         Validate.notNull(time);
         
-        List<BitString> prefixes = bucketUpdateTimes.getBefore(time, true);
+        long timeNanos = InternalTime.toNanos(time);
+        List<Integer> stagnantIndexes = new ArrayList<>();
+        for (int i = 0; i < buckets.length; i++) {
+            if (i != baseIdBucketIndex && bucketUpdateTimes[i] <= timeNanos) {
+                stagnantIndexes.add(i);
+            }
+        }
+        stagnantIndexes.sort((x, y) -> Long.compare(bucketUpdateTimes[x], bucketUpdateTimes[y])); // oldest first (stable, so ties stay
+                                                                                                   // in k-bucket order)
+        
+        List<BitString> prefixes = new ArrayList<>(stagnantIndexes.size());
+        for (int idx : stagnantIndexes) {
+            prefixes.add(buckets[idx].getPrefix());
+        }
         return prefixes;
     }
+
+    // Removes k-buckets that haven't been updated or refreshed since thresholdTime (inclusive) from the refresh schedule, and reschedules
+    // them as if they were refreshed at refreshTime (so they come up again if they still haven't been updated by the time thresholdTime
+    // passes refreshTime). Times are in nanos (see InternalTime). Returns the number of k-buckets removed, which can be read back
+    // using getPolledRefresh() up until the next call to this method. Nothing is allocated.
+    int pollRefreshes(long thresholdTime, long refreshTime) {
+        int count = refreshWheel.poll(thresholdTime);
+        for (int i = 0; i < count; i++) {
+            int idx = refreshWheel.getPolled(i);
+            lastRefreshTimes[idx] = refreshTime;
+            refreshWheel.schedule(idx, scheduleTime(idx));
+        }
+        return count;
+    }
+
+    KBucket getPolledRefresh(int idx) {
+        return buckets[refreshWheel.getPolled(idx)];
+    }
+
+    // time passed in to the last call to touch()
+    Instant getLastTouchTime() {
+        return InternalTime.toInstant(lastTouchTime);
+    }
+
+    // used when restoring a route tree from a previously saved state
+    void setLastTouchTime(Instant lastTouchTime) {
+        Validate.notNull(lastTouchTime);
+        this.lastTouchTime = InternalTime.toNanos(lastTouchTime);
+    }
+
+    // Updates bucketUpdateTimes with the last activity time of bucket. Must be called whenever bucket has been modified.
+    void updateBucketUpdateTime(KBucket bucket) {
+        int idx = bucketIndexes.get(bucket);
+        
+        // insert last bucket activity time in to bucket update times... it'll be MIN if bucket is empty
+        bucketUpdateTimes[idx] = bucket.getLatestBucketActivityTimeNanos();
+        refreshWheel.schedule(idx, scheduleTime(idx));
+    }
+
+    private long scheduleTime(int idx) {
+        return Math.max(bucketUpdateTimes[idx], lastRefreshTimes[idx]);
+    }
+
+    // Gets all k-buckets in this route tree (including the k-bucket for baseId, which is always empty but still gets visited by find). The
+    // structure of the tree never changes after construction, meaning that what this method returns stays valid for the lifetime of this
+    // route tree.
+    List<KBucket> dumpBuckets() {
+        List<KBucket> output = new ArrayList<>();
+        KBucket[] lastBuckets = null;
+        for (KBucket[] buckets : bucketsBySharedPrefixLength) {
+            if (buckets == lastBuckets) { // multiple shared prefix lengths map to the same tree node
+                continue;
+            }
+            for (KBucket bucket : buckets) {
+                if (bucket != null) {
+                    output.add(bucket);
+                }
+            }
+            lastBuckets = buckets;
+        }
+        return output;
+    }
+
+    KBucket getBucketFor(Id id) {
+        // id must not be baseId (the bucket for baseId is not reachable), callers of this method must have already checked for this
+        int sharedPrefixLength = baseId.getSharedPrefixLength(id);
+        
+        KBucket[] buckets = bucketsBySharedPrefixLength[sharedPrefixLength];
+        int prefixLength = prefixLengthsBySharedPrefixLength[sharedPrefixLength];
+        int suffixLength = suffixLengthsBySharedPrefixLength[sharedPrefixLength];
+        
+        int bucketIdx = (int) id.getBitsAsLong(prefixLength, suffixLength);
+        KBucket bucket = buckets[bucketIdx];
+        Validate.validState(bucket != null); // sanity check, should never happen -- branch that leads further down must match baseId
+        
+        return bucket;
+    }
+
+    private void indexBuckets() {
+        // Walk down the tree. Each tree node is responsible for the IDs that share between [prefixLength, prefixLength + suffixLength)
+        // prefix bits with baseId (the branch that matches baseId leads to the next tree node down). The last tree node is also
+        // responsible for baseId itself (the shared prefix length in that case == bitLength).
+        RouteTreeNode node = root;
+        while (node != null) {
+            int prefixLength = node.getPrefix().getBitLength();
+            int suffixLength = node.getSuffixLength();
+            
+            RouteTreeNode nextNode = null;
+            KBucket[] buckets = new KBucket[node.getBranchCount()];
+            for (int i = 0; i < buckets.length; i++) {
+                RouteTreeBranch branch = node.getBranch(i);
+                if (branch instanceof RouteTreeNodeBranch) {
+                    Validate.validState(nextNode == null); // sanity check, only 1 branch should lead further down
+                    nextNode = branch.getItem();
+                } else if (branch instanceof RouteTreeBucketBranch) {
+                    buckets[i] = branch.getItem();
+                } else {
+                    throw new IllegalStateException(); // should never happen
+                }
+            }
+
+            int end = nextNode == null ? baseId.getBitLength() : prefixLength + suffixLength - 1;
+            for (int i = prefixLength; i <= end; i++) {
+                bucketsBySharedPrefixLength[i] = buckets;
+                prefixLengthsBySharedPrefixLength[i] = prefixLength;
+                suffixLengthsBySharedPrefixLength[i] = suffixLength;
+            }
+
+            node = nextNode;
+        }
+    }
     
     private static final BitString EMPTY = BitString.createFromString("");
 
@@ -280,14 +947,6 @@ public final class RouteTree {
             int cacheSize = bucketParams.getCacheSize();
             newBuckets[i].resizeBucket(bucketSize);
             newBuckets[i].resizeCache(cacheSize);
-            
-            // insert last bucket activity time in to bucket update times... it may be null if bucket has never been accessed, in which case
-            // we insert MIN instead
-            Instant lastBucketActivityTime = newBuckets[i].getLatestBucketActivityTime();
-            if (lastBucketActivityTime == null) {
-                lastBucketActivityTime = Instant.MIN;
-            }
-            bucketUpdateTimes.insert(lastBucketActivityTime, newBuckets[i].getPrefix());
         }
 
         // Create root
@@ -330,8 +989,8 @@ public final class RouteTree {
                 baseId.getBitLength());
         
         
-        // Split parent bucket at that branch index
-        BitString newPrefix = baseId.getBitString().getBits(0, parentPrefixBitLen + suffixBitCount);
+        // Split parent bucket at that branch index (the new level's prefix is the prefix of the bucket being split)
+        BitString newPrefix = splitBucketPrefix;
         KBucket[] newBuckets = splitBucket.split(suffixBitCount);
         for (int i = 0; i < newBuckets.length; i++) {
             KBucketParameters bucketParams = bucketStrategy.getBucketParameters(newBuckets[i].getPrefix());
@@ -339,18 +998,8 @@ public final class RouteTree {
             int cacheSize = bucketParams.getCacheSize();
             newBuckets[i].resizeBucket(bucketSize);
             newBuckets[i].resizeCache(cacheSize);
-
-            Instant lastBucketActivityTime = newBuckets[i].getLatestBucketActivityTime();
-            if (lastBucketActivityTime == null) {
-                lastBucketActivityTime = Instant.MIN;
-            }
-            bucketUpdateTimes.insert(lastBucketActivityTime, newBuckets[i].getPrefix());
         }
 
-        // Get rid of parent bucket we just split. It branches down at that point, and any nodes that were contained within will be in the
-        // newly created buckets
-        bucketUpdateTimes.remove(splitBucketPrefix);
-
         // Create new level and set as child
         RouteTreeNode newNode = new RouteTreeNode(newPrefix, suffixBitCount, newBuckets);
         
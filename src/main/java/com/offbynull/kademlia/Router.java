@@ -16,22 +16,56 @@
  */
 package com.offbynull.kademlia;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 import org.apache.commons.lang3.Validate;
 
 /**
- * Encapsulates a {@link RouteTree}. May provide additional functionality in the future.
+ * Encapsulates a {@link RouteTree}, and decides when nodes that don't respond should be locked / marked as stale (see
+ * {@link #unresponsive(java.time.Instant, com.offbynull.kademlia.Node) }).
  * @author Kasra Faghihi
  */
 public final class Router {
-    // NOTE: Right now this class just encapsulates a RouteTree, but it may be refactored in the future to support more elaborate logic
-    // (e.g. keeping track of the number of times a node didn't respond in time and locking that node/marking it stale)
+    private static final BackoffParameters DEFAULT_BACKOFF_PARAMETERS
+            = new BackoffParameters(Duration.ofSeconds(1L), Duration.ofSeconds(1L), 1); // stale right away, never lock
+    
     private final Id baseId;
     private final RouteTree routeTree;
     
-    private Instant lastTouchTime;
+    private long lastTouchTime; // nanos since epoch (see InternalTime)
+    
+    // Kademlia paper: "... valid contacts will sometimes fail to respond when network packets are dropped. Since packet loss often
+    // indicates network congestion, Kademlia locks unresponsive contacts and avoids sending them any further RPCs for an exponentially
+    // increasing backoff interval."
+    //
+    // failureCounts tracks how many times in a row each node has been unresponsive. Locked nodes stay locked until their unlock time
+    // passes, even if they touch us in the meantime -- touching a locked node doesn't unlock it (see KBucket), and doesn't reset its
+    // failure count (so if it's unresponsive again once unlocked, its backoff interval keeps growing).
+    private final BackoffParameters backoffParameters;
+    private final Map<Id, Integer> failureCounts;
+    private final Map<Id, Node> lockedNodes;
+    private final TimeSet<Id> unlockTimes;
+
+    private LinkIndex linkIndex; // null if links aren't being indexed (see enableLinkIndex())
 
     /**
      * Constructs a {@link Router} object.
@@ -47,13 +81,39 @@ public final class Router {
     public Router(Id baseId,
             RouteTreeBranchStrategy branchStrategy,
             RouteTreeBucketStrategy bucketStrategy) {
+        this(baseId, branchStrategy, bucketStrategy, DEFAULT_BACKOFF_PARAMETERS);
+    }
+
+    /**
+     * Constructs a {@link Router} object.
+     * @param baseId ID of the node that this router is for
+     * @param branchStrategy branching strategy for the route tree to be created by this router (dictates how many branches to create at
+     * each depth)
+     * @param bucketStrategy bucket strategy for the route tree to be created by this router (dictates k-bucket parameters for each
+     * k-bucket)
+     * @param backoffParameters dictates how nodes that don't respond get locked / marked as stale (see
+     * {@link #unresponsive(java.time.Instant, com.offbynull.kademlia.Node) })
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if either {@code branchStrategy} or {@code bucketStrategy} generates invalid data (see interfaces for
+     * restrictions)
+     */
+    public Router(Id baseId,
+            RouteTreeBranchStrategy branchStrategy,
+            RouteTreeBucketStrategy bucketStrategy,
+            BackoffParameters backoffParameters) {
         Validate.notNull(baseId);
         Validate.notNull(branchStrategy);
         Validate.notNull(bucketStrategy);
+        Validate.notNull(backoffParameters);
         
         this.baseId = baseId;
         this.routeTree = new RouteTree(baseId, branchStrategy, bucketStrategy);
-        this.lastTouchTime = Instant.MIN;
+        this.lastTouchTime = Long.MIN_VALUE;
+        
+        this.backoffParameters = backoffParameters;
+        this.failureCounts = new HashMap<>();
+        this.lockedNodes = new HashMap<>();
+        this.unlockTimes = new TimeSet<>();
     }
 
     /**
@@ -96,7 +156,51 @@ public final class Router {
      */
     public RouterChangeSet touch(Instant time, Node node) {
         Validate.notNull(time);
+        return touch(InternalTime.toNanos(time), node);
+    }
+
+    /**
+     * Equivalent to {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) }, but with the time as nanoseconds since the epoch
+     * rather than an {@link Instant} (nothing is allocated for the time). Use this if you're touching at a high rate. Both versions can be
+     * mixed on the same router.
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this router is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method
+     * @throws LinkMismatchException if this router already contains a node with {@code node}'s ID but with a different link (see
+     * {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see KBucket#touch(long, com.offbynull.kademlia.Node) 
+     */
+    public RouterChangeSet touch(long time, Node node) {
+        ChangeSetCollector collector = new ChangeSetCollector();
+        touch(time, node, collector);
+        return new RouterChangeSet(
+                new RouteTreeChangeSet(routeTree.getBucketFor(node.getId()).getPrefix(), collector.getKBucketChangeSet()));
+    }
+
+    /**
+     * Equivalent to {@link #touch(long, com.offbynull.kademlia.Node) }, but reports changes to a listener instead of returning a change
+     * set. Nothing is allocated to report changes, so if you're touching at a high rate and don't need a materialized change set, use
+     * this. The same listener can be reused across calls.
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @param listener listener to report changes to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this router is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws BackwardTimeException if {@code time} is less than the time used in the previous invocation of this method
+     * @throws LinkMismatchException if this router already contains a node with {@code node}'s ID but with a different link (see
+     * {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see KBucket#touch(long, com.offbynull.kademlia.Node, com.offbynull.kademlia.ChangeListener) 
+     */
+    public void touch(long time, Node node, ChangeListener listener) {
         Validate.notNull(node);
+        Validate.notNull(listener);
         
         InternalValidate.forwardTime(lastTouchTime, time); // time must be >= lastUpdatedTime
         this.lastTouchTime = time;
@@ -108,10 +212,205 @@ public final class Router {
         
         
         // Touch routing tree
-        RouteTreeChangeSet routeTreeChangeSet = routeTree.touch(time, node);
+        try {
+            routeTree.touch(time, node, forwardToLinkIndex(listener));
+        } finally {
+            flushLinkIndex();
+        }
 
+        // Node responded, so reset its failure count (unless its locked -- it stays in its backoff period)
+        if (!lockedNodes.containsKey(nodeId)) {
+            failureCounts.remove(nodeId);
+        }
+    }
+
+    /**
+     * Applies a batch of touches to this router. Equivalent to calling {@link #touch(long, com.offbynull.kademlia.Node) } for each touch
+     * in {@code batch}, but cheaper for large batches (e.g. everything drained from a socket in one go) -- touches are grouped by k-bucket,
+     * k-bucket bookkeeping is updated once per k-bucket, and changes are aggregated per k-bucket.
+     * <p>
+     * See {@link RouteTree#touchAll(com.offbynull.kademlia.TouchBatch) } for more information.
+     * @param batch touches to apply
+     * @return changes to each k-bucket touched, in k-bucket order
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of any node's ID doesn't match the bitlength of the owning node's ID (the ID of
+     * the node this router is for)
+     * @throws BaseIdMatchException if any node's ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws BackwardTimeException if any time in {@code batch} is less than the time of the last touch to this router
+     * @throws LinkMismatchException if this router already contains a node with the same ID as a node being touched but with a different
+     * link (see {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see RouteTree#touchAll(com.offbynull.kademlia.TouchBatch) 
+     */
+    public List<RouterChangeSet> touchAll(TouchBatch batch) {
+        Validate.notNull(batch);
         
-        return new RouterChangeSet(routeTreeChangeSet);
+        validateBatch(batch);
+        List<RouteTreeChangeSet> routeTreeChangeSets = new ArrayList<>();
+        try {
+            routeTree.touchAll(batch, forwardToLinkIndex(KBucket.NO_OP_LISTENER), routeTreeChangeSets);
+        } finally {
+            flushLinkIndex();
+            resetFailureCounts(batch);
+        }
+
+        List<RouterChangeSet> ret = new ArrayList<>(routeTreeChangeSets.size());
+        for (RouteTreeChangeSet routeTreeChangeSet : routeTreeChangeSets) {
+            ret.add(new RouterChangeSet(routeTreeChangeSet));
+        }
+        return ret;
+    }
+
+    /**
+     * Equivalent to {@link #touchAll(com.offbynull.kademlia.TouchBatch) }, but reports changes to a listener instead of returning change
+     * sets. Changes are reported as each touch is applied (they aren't aggregated). Nothing is allocated to report changes.
+     * @param batch touches to apply
+     * @param listener listener to report changes to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of any node's ID doesn't match the bitlength of the owning node's ID (the ID of
+     * the node this router is for)
+     * @throws BaseIdMatchException if any node's ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws BackwardTimeException if any time in {@code batch} is less than the time of the last touch to this router
+     * @throws LinkMismatchException if this router already contains a node with the same ID as a node being touched but with a different
+     * link (see {@link #touch(java.time.Instant, com.offbynull.kademlia.Node) } for the special case)
+     * @see RouteTree#touchAll(com.offbynull.kademlia.TouchBatch, com.offbynull.kademlia.ChangeListener) 
+     */
+    public void touchAll(TouchBatch batch, ChangeListener listener) {
+        Validate.notNull(batch);
+        Validate.notNull(listener);
+        
+        validateBatch(batch);
+        try {
+            routeTree.touchAll(batch, forwardToLinkIndex(listener), null);
+        } finally {
+            flushLinkIndex();
+            resetFailureCounts(batch);
+        }
+    }
+
+    private void validateBatch(TouchBatch batch) {
+        long latestTime = lastTouchTime;
+        for (int i = 0; i < batch.size(); i++) {
+            Id nodeId = batch.getNode(i).getId();
+            InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
+            InternalValidate.notMatchesBase(baseId, nodeId);
+            long time = batch.getTime(i);
+            InternalValidate.forwardTime(lastTouchTime, time); // time must be >= lastUpdatedTime
+            latestTime = Math.max(latestTime, time);
+        }
+        lastTouchTime = latestTime;
+    }
+
+    private void resetFailureCounts(TouchBatch batch) {
+        // Nodes responded, so reset their failure counts (unless locked -- they stay in their backoff period). If the route tree threw
+        // part way through, nodes that weren't touched get reset too, which is harmless (they did respond).
+        for (int i = 0; i < batch.size(); i++) {
+            Id nodeId = batch.getNode(i).getId();
+            if (!lockedNodes.containsKey(nodeId)) {
+                failureCounts.remove(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Checks if the route tree associated with this router contains a node (in a k-bucket or a replacement cache). Cheap enough to call on
+     * every incoming message (e.g. to decide whether or not to touch).
+     * @param id ID of node to check for
+     * @return {@code true} if the route tree associated with this router contains a node with ID {@code id}, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * (the ID of the node this router belongs to)
+     * @see RouteTree#getState(com.offbynull.kademlia.Id)
+     */
+    public boolean contains(Id id) {
+        return routeTree.getState(id) != null;
+    }
+
+    /**
+     * Get a node in the route tree associated with this router (k-bucket or replacement cache) by ID.
+     * @param id ID of node to get
+     * @return the activity for the node with ID {@code id}, or {@code null} if the route tree associated with this router doesn't contain
+     * it
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * (the ID of the node this router belongs to)
+     * @see RouteTree#get(com.offbynull.kademlia.Id)
+     */
+    public Activity get(Id id) {
+        return routeTree.get(id);
+    }
+
+    /**
+     * Get the state of a node in the route tree associated with this router (k-bucket or replacement cache) by ID. Nodes that are in
+     * their backoff period (see {@link #unresponsive(java.time.Instant, com.offbynull.kademlia.Node) }) are {@link NodeState#LOCKED}.
+     * @param id ID of node to get the state of
+     * @return state of the node with ID {@code id}, or {@code null} if the route tree associated with this router doesn't contain it
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * (the ID of the node this router belongs to)
+     * @see RouteTree#getState(com.offbynull.kademlia.Id)
+     */
+    public NodeState getState(Id id) {
+        return routeTree.getState(id);
+    }
+
+    /**
+     * Starts indexing the nodes in the route tree associated with this router (k-buckets and replacement caches) by link, so that
+     * {@link #getByLink(java.lang.String) } can be used. The index is built from the nodes currently in the route tree, and from then on
+     * is kept up to date by this router as nodes are touched / marked as stale. Calling this method when links are already being indexed
+     * does nothing.
+     * <p>
+     * The index adds a small amount of work to each touch / stale, which is why it's off by default.
+     */
+    public void enableLinkIndex() {
+        if (linkIndex == null) {
+            linkIndex = new LinkIndex(routeTree);
+        }
+    }
+
+    /**
+     * Get the node with some link in the route tree associated with this router (k-bucket or replacement cache). Useful for working
+     * out which node sent an incoming message (e.g. when messages come in keyed by address rather than by ID). If multiple nodes in the
+     * route tree have the same link, the one that was most recently added is returned.
+     * @param link link to look up
+     * @return node with link {@code link}, or {@code null} if the route tree associated with this router doesn't contain a node with that
+     * link
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if links aren't being indexed (see {@link #enableLinkIndex() })
+     */
+    public Node getByLink(Link link) {
+        Validate.notNull(link);
+        Validate.validState(linkIndex != null, "Links not being indexed");
+        return linkIndex.get(link);
+    }
+
+    /**
+     * Equivalent to calling {@code getByLink(new StringLink(link))}. Only finds nodes that have {@link StringLink}s.
+     * @param link link to look up
+     * @return node with link {@code link}, or {@code null} if the route tree associated with this router doesn't contain a node with that
+     * link
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if links aren't being indexed (see {@link #enableLinkIndex() })
+     */
+    public Node getByLink(String link) {
+        Validate.notNull(link);
+        return getByLink(new StringLink(link));
+    }
+
+    private ChangeListener forwardToLinkIndex(ChangeListener listener) {
+        return linkIndex == null ? listener : linkIndex.forwardTo(listener);
+    }
+
+    private void flushLinkIndex() {
+        if (linkIndex != null) {
+            linkIndex.flush();
+        }
+    }
+
+    private void applyToLinkIndex(RouteTreeChangeSet routeTreeChangeSet) {
+        if (linkIndex != null) {
+            linkIndex.apply(routeTreeChangeSet);
+            linkIndex.flush();
+        }
     }
     
     /**
@@ -126,7 +425,7 @@ public final class Router {
      * Searches the route tree associated with this router for the closest nodes to some ID. Node closeness is determined by the XOR metric
      * -- Kademlia's notion of distance.
      * <p>
-     * Note this method will never return yourself (the node that this routing table is for).
+     * Note this method will never return yourself (the node that this routing table is for), and will never return locked nodes.
      * @param id ID to search for
      * @param max maximum number of results to give back
      * @param includeStale if {@code true}, includes stale nodes in the results
@@ -152,7 +451,147 @@ public final class Router {
         
         return res;
     }
+
+    /**
+     * Equivalent to {@link #find(com.offbynull.kademlia.Id, int, boolean) }, but only returns nodes that pass {@code filter}. The filter is
+     * applied while the route tree associated with this router is being walked, so up to {@code max} nodes that pass it are returned
+     * (there's no need to ask for more than {@code max} nodes and filter the results) and nodes that don't pass it are never collected.
+     * <p>
+     * {@code filter} is called at most once per node walked over, and may be called on nodes that don't end up being returned (nodes that
+     * pass but turn out to be farther away than {@code max} other nodes that pass). It must not modify the route tree associated with this
+     * router.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for), and will never return locked nodes.
+     * @param id ID to search for
+     * @param max maximum number of results to give back
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @param filter filter that nodes must pass to be returned (e.g. leave out nodes that have already been queried, or nodes that
+     * haven't been seen since some time)
+     * @return up to {@code max} closest nodes to {@code id} that pass {@code filter}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * (the ID of the node this router belongs to)
+     */
+    public List<Node> find(Id id, int max, boolean includeStale, Predicate<? super Activity> filter) {
+        Validate.notNull(id);
+        Validate.notNull(filter);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        // do not stop from finding self (base) -- you may want to update closest
+        
+        List<Activity> closestNodesInRoutingTree = routeTree.find(id, max, includeStale, filter);
+        
+        ArrayList<Node> res = new ArrayList<>(closestNodesInRoutingTree.size());
+        closestNodesInRoutingTree.forEach(x -> res.add(x.getNode()));
+        
+        return res;
+    }
+
+    /**
+     * Lazily goes through the nodes in the route tree associated with this router from closest to farthest from some ID. Node closeness
+     * is determined by the XOR metric -- Kademlia's notion of distance. Useful when the number of nodes needed isn't known up front (e.g.
+     * a lookup that wants the next closest node that isn't already in its shortlist) -- only as much of the route tree is walked as is
+     * needed to get to the next node.
+     * <p>
+     * See {@link RouteTree#iterateClosest(com.offbynull.kademlia.Id, boolean) } for more information.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for), and will never return locked nodes.
+     * @param id ID to search for
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return nodes in the route tree associated with this router, from closest to farthest from {@code id}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this router is for
+     * (the ID of the node this router belongs to)
+     */
+    public Iterator<Node> iterateClosest(Id id, boolean includeStale) {
+        Validate.notNull(id);
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        // do not stop from finding self (base) -- you may want to update closest
+        
+        Iterator<Activity> closestNodes = routeTree.iterateClosest(id, includeStale);
+        return new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return closestNodes.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                return closestNodes.next().getNode();
+            }
+        };
+    }
     
+    /**
+     * Searches the route tree associated with this router for the closest nodes to each ID in a collection. Equivalent to calling
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) } for each ID, except that each k-bucket is read only once (up front) and
+     * all searches run against what was read. This is cheaper than calling {@link #find(com.offbynull.kademlia.Id, int, boolean) }
+     * in a loop when there are a large number of IDs (e.g. when republishing stored keys), and the results are consistent with each
+     * other.
+     * @param ids IDs to search for
+     * @param max maximum number of results to give back for each ID
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return closest nodes to each ID in {@code ids}, in the order that {@code ids} iterates in (see
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) })
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of any ID in {@code ids} doesn't match the bitlength of the ID that
+     * this router is for (the ID of the node this router belongs to)
+     */
+    public List<List<Node>> findAll(Collection<Id> ids, int max, boolean includeStale) {
+        return findAll(toIdArray(ids, max), max, includeStale, null);
+    }
+
+    /**
+     * Equivalent to {@link #findAll(java.util.Collection, int, boolean) }, but the searches are split up and run in parallel on
+     * {@code pool}. The calling thread blocks until all searches are done.
+     * @param ids IDs to search for
+     * @param max maximum number of results to give back for each ID
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @param pool pool to run searches on
+     * @return closest nodes to each ID in {@code ids}, in the order that {@code ids} iterates in (see
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) })
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of any ID in {@code ids} doesn't match the bitlength of the ID that
+     * this router is for (the ID of the node this router belongs to)
+     */
+    public List<List<Node>> findAll(Collection<Id> ids, int max, boolean includeStale, ForkJoinPool pool) {
+        Validate.notNull(pool);
+        return findAll(toIdArray(ids, max), max, includeStale, pool);
+    }
+
+    private Id[] toIdArray(Collection<Id> ids, int max) {
+        Validate.notNull(ids);
+        Validate.noNullElements(ids);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        Id[] ret = ids.toArray(new Id[ids.size()]);
+        for (Id id : ret) {
+            InternalValidate.matchesLength(baseId.getBitLength(), id);
+            // do not stop from finding self (base) -- you may want to update closest
+        }
+        return ret;
+    }
+
+    // pool is null if searches should run on the calling thread
+    private List<List<Node>> findAll(Id[] ids, int max, boolean includeStale, ForkJoinPool pool) {
+        List<List<Activity>> closestNodesInRoutingTree = routeTree.findAll(ids, max,
+                (bucket, output) -> bucket.dumpBucket(true, includeStale, false, output), pool); // locked nodes are never returned
+        
+        List<List<Node>> res = new ArrayList<>(closestNodesInRoutingTree.size());
+        for (List<Activity> closestNodes : closestNodesInRoutingTree) {
+            ArrayList<Node> nodes = new ArrayList<>(closestNodes.size());
+            closestNodes.forEach(x -> nodes.add(x.getNode()));
+            res.add(nodes);
+        }
+
+        return res;
+    }
+
     /**
      * Marks a node within the route tree associated with this router as stale (meaning that you're no longer able to communicate with it),
      * evicting it and replacing it with the most recent node in the effected k-bucket's replacement cache. 
@@ -178,43 +617,230 @@ public final class Router {
         InternalValidate.notMatchesBase(baseId, nodeId); 
         
         RouteTreeChangeSet routeTreeChangeSet = routeTree.stale(node);
+        failureCounts.remove(nodeId);
+        applyToLinkIndex(routeTreeChangeSet);
         
         return new RouterChangeSet(routeTreeChangeSet);
     }
     
-    // lock means "avoid contact" AKA avoid returning on "find" until unlocked. unlocking only happens on unlock(), not on touch()...
-    //
-    // according to kademlia...
-    //
-    // A related problem is that because Kademlia uses UDP, valid contacts will sometimes fail to respond when network packets are dropped.
-    // Since packet loss often indicates network congestion, Kademlia locks unresponsive contacts and avoids sending them any further RPCs
-    // for an exponentially increasing backoff interval.
-    //
-    // that means because we're in a "backoff period", even if we get touch()'d by that node, we still want to keep it unfindable/locked...
-    // up until the point that we explictly decide to to make it findable/unlocked.
-//
-//COMMENTED OUT METHODS BELOW BECAUSE THEY DONT RETURN A ROUTERTREECHANGSET AND ARENT CURRENTLY BEING USED FOR ANYTHING. IF YOU'RE GOING TO
-//RE-ENABLE, HAVE ROUTER DECIDE WHAT SHOULD BE LOCKED/STALE BASED ON AN UNRESPONSIVE COUNTER THAT GETS HIT WHENEVER SOMETHING IS
-//UNRESPONSIVE
-//    public void lock(Node node) {
-//        Validate.notNull(node);
-//        
-//        Id nodeId = node.getId();
-//        
-//        InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
-//        InternalValidate.notMatchesBase(baseId, nodeId); 
-//        
-//        routeTree.lock(node); // will throw exc if node not in routetree
-//    }
-//
-//    public void unlock(Node node) {
-//        Validate.notNull(node);
-//        
-//        Id nodeId = node.getId();
-//        
-//        InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
-//        InternalValidate.notMatchesBase(baseId, nodeId); 
-//        
-//        routeTree.unlock(node); // will throw exc if node not in routetree
-//    }
+    /**
+     * Reports that a node within the route tree associated with this router failed to respond. When the Kademlia node that this router is
+     * for doesn't get a response from some other node in time, this method should be called (instead of
+     * {@link #stale(com.offbynull.kademlia.Node) }).
+     * <p>
+     * Each time a node is unresponsive, it gets locked for an exponentially increasing backoff interval (locked nodes aren't returned by
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) }). Once the interval passes, the node gets unlocked by
+     * {@link #unlockExpired(java.time.Instant) }. If the node is unresponsive enough times in a row, it's marked as stale instead of being
+     * locked (unlocking it first if it's locked). Touching the node (outside of its backoff period) resets the number of times it's been
+     * unresponsive. See {@link BackoffParameters} for more information.
+     * <p>
+     * If this router was created without {@link BackoffParameters}, this method marks the node as stale right away.
+     * @param time time at which the node was deemed unresponsive (backoff intervals start from this time)
+     * @param node node that failed to respond
+     * @return changes to collection of stored nodes and replacement cache of the k-bucket effected (if the node was marked as stale), and
+     * whether the node was locked / unlocked
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code node}'s ID doesn't match the bitlength of the owning node's ID (the ID
+     * of the node this router is for)
+     * @throws BaseIdMatchException if {@code node}'s ID is the same as the owning node's ID (the ID of the node this router is for)
+     * @throws NodeNotFoundException if this router doesn't contain {@code node}
+     * @throws LinkMismatchException if this router contains a node with {@code node}'s ID but with a different link
+     * @throws BadNodeStateException if this router contains {@code node} but {@code node} is marked as stale and would need to be locked
+     */
+    public RouterChangeSet unresponsive(Instant time, Node node) {
+        Validate.notNull(time);
+        Validate.notNull(node);
+        
+        Id nodeId = node.getId();
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), nodeId);
+        InternalValidate.notMatchesBase(baseId, nodeId);
+        
+        int failureCount = failureCounts.getOrDefault(nodeId, 0) + 1;
+        boolean locked = lockedNodes.containsKey(nodeId);
+        
+        if (failureCount >= backoffParameters.getStaleThreshold()) {
+            // Unresponsive too many times, stale it (must be unlocked first -- stale / locked are mutex)
+            if (locked) {
+                routeTree.unlock(node);
+                lockedNodes.remove(nodeId);
+                unlockTimes.remove(nodeId);
+            }
+            RouteTreeChangeSet routeTreeChangeSet = routeTree.stale(node);
+            failureCounts.remove(nodeId);
+            applyToLinkIndex(routeTreeChangeSet);
+            
+            return new RouterChangeSet(routeTreeChangeSet, emptyList(), locked ? singletonList(node) : emptyList());
+        }
+        
+        // Lock it (or extend its lock if it's already locked)
+        RouteTreeChangeSet routeTreeChangeSet = routeTree.lock(node);
+        failureCounts.put(nodeId, failureCount);
+        lockedNodes.put(nodeId, node);
+        unlockTimes.remove(nodeId);
+        unlockTimes.insert(time.plus(backoffParameters.getLockDuration(failureCount)), nodeId);
+        
+        return new RouterChangeSet(routeTreeChangeSet, locked ? emptyList() : singletonList(node), emptyList());
+    }
+    
+    /**
+     * Unlocks nodes within the route tree associated with this router whose backoff interval has passed (see
+     * {@link #unresponsive(java.time.Instant, com.offbynull.kademlia.Node) }). This method should be called at (or after) the time returned
+     * by {@link #getNextUnlockTime() }.
+     * @param time current time
+     * @return changes resulting from each node that was unlocked (in the order they were unlocked)
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public List<RouterChangeSet> unlockExpired(Instant time) {
+        Validate.notNull(time);
+        
+        List<Id> expiredIds = unlockTimes.getBefore(time, true);
+        List<RouterChangeSet> ret = new ArrayList<>(expiredIds.size());
+        for (Id expiredId : expiredIds) {
+            Node node = lockedNodes.remove(expiredId);
+            unlockTimes.remove(expiredId);
+            RouteTreeChangeSet routeTreeChangeSet = routeTree.unlock(node);
+            ret.add(new RouterChangeSet(routeTreeChangeSet, emptyList(), singletonList(node)));
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Get the earliest time at which a locked node's backoff interval passes (the next time
+     * {@link #unlockExpired(java.time.Instant) } should be called).
+     * @return earliest time a locked node should be unlocked, or {@code null} if no nodes are locked
+     */
+    public Instant getNextUnlockTime() {
+        return unlockTimes.first();
+    }
+    
+    /**
+     * Writes the full state of this router (all k-buckets, replacement caches, stale and locked nodes, and touch times) to a file. The
+     * state can be restored using
+     * {@link #readState(java.nio.file.Path, com.offbynull.kademlia.RouteTreeBranchStrategy,
+     * com.offbynull.kademlia.RouteTreeBucketStrategy) }.
+     * @param path file to write to (overwritten if it already exists)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an IO error occurs
+     */
+    public void writeState(Path path) throws IOException {
+        Validate.notNull(path);
+        
+        try (FileChannel channel = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            writeState(channel);
+        }
+    }
+    
+    /**
+     * Writes the full state of this router (all k-buckets, replacement caches, stale and locked nodes, and touch times) to a channel. The
+     * state can be restored using
+     * {@link #readState(java.nio.channels.ReadableByteChannel, com.offbynull.kademlia.RouteTreeBranchStrategy,
+     * com.offbynull.kademlia.RouteTreeBucketStrategy) }.
+     * @param channel channel to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an IO error occurs
+     */
+    public void writeState(WritableByteChannel channel) throws IOException {
+        Validate.notNull(channel);
+        
+        RouterStateCodec.write(this, channel);
+    }
+    
+    /**
+     * Creates a router from a state previously written by {@link #writeState(java.nio.file.Path) }. The strategies passed in must
+     * generate the same route tree structure as the strategies used to create the router that the state was written from.
+     * @param path file to read from
+     * @param branchStrategy branching strategy for the route tree to be created by this router (dictates how many branches to create at
+     * each depth)
+     * @param bucketStrategy bucket strategy for the route tree to be created by this router (dictates k-bucket parameters for each
+     * k-bucket)
+     * @return restored router
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if either {@code branchStrategy} or {@code bucketStrategy} generates invalid data (see interfaces for
+     * restrictions)
+     * @throws IOException if an IO error occurs, or if the state is malformed / doesn't match the route tree structure generated by the
+     * strategies passed in
+     */
+    public static Router readState(Path path,
+            RouteTreeBranchStrategy branchStrategy,
+            RouteTreeBucketStrategy bucketStrategy) throws IOException {
+        Validate.notNull(path);
+        Validate.notNull(branchStrategy);
+        Validate.notNull(bucketStrategy);
+        
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            return readState(channel, branchStrategy, bucketStrategy);
+        }
+    }
+    
+    /**
+     * Creates a router from a state previously written by {@link #writeState(java.nio.channels.WritableByteChannel) }. The strategies
+     * passed in must generate the same route tree structure as the strategies used to create the router that the state was written from.
+     * @param channel channel to read from (read until the end of stream is reached)
+     * @param branchStrategy branching strategy for the route tree to be created by this router (dictates how many branches to create at
+     * each depth)
+     * @param bucketStrategy bucket strategy for the route tree to be created by this router (dictates k-bucket parameters for each
+     * k-bucket)
+     * @return restored router
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if either {@code branchStrategy} or {@code bucketStrategy} generates invalid data (see interfaces for
+     * restrictions)
+     * @throws IOException if an IO error occurs, or if the state is malformed / doesn't match the route tree structure generated by the
+     * strategies passed in
+     */
+    public static Router readState(ReadableByteChannel channel,
+            RouteTreeBranchStrategy branchStrategy,
+            RouteTreeBucketStrategy bucketStrategy) throws IOException {
+        Validate.notNull(channel);
+        Validate.notNull(branchStrategy);
+        Validate.notNull(bucketStrategy);
+        
+        return RouterStateCodec.read(channel, branchStrategy, bucketStrategy);
+    }
+    
+    Id getBaseId() {
+        return baseId;
+    }
+    
+    RouteTree getRouteTree() {
+        return routeTree;
+    }
+    
+    Instant getLastTouchTime() {
+        return InternalTime.toInstant(lastTouchTime);
+    }
+    
+    void setLastTouchTime(Instant lastTouchTime) { // used when restoring a router from a previously saved state
+        Validate.notNull(lastTouchTime);
+        this.lastTouchTime = InternalTime.toNanos(lastTouchTime);
+    }
+    
+    BackoffParameters getBackoffParameters() {
+        return backoffParameters;
+    }
+
+    // IDs of nodes that have been unresponsive (at least once in a row) mapped to the number of times they've been unresponsive in a row
+    Map<Id, Integer> dumpFailureCounts() {
+        return new HashMap<>(failureCounts);
+    }
+    
+    // Time at which a locked node gets unlocked, or null if not locked
+    Instant getUnlockTime(Id id) {
+        return unlockTimes.get(id);
+    }
+    
+    // used when restoring a router from a previously saved state -- node must already be restored as locked in the route tree if
+    // unlockTime is non-null
+    void restoreFailureCount(Node node, int failureCount, Instant unlockTime) {
+        Validate.notNull(node);
+        Validate.isTrue(failureCount > 0);
+        
+        Id nodeId = node.getId();
+        failureCounts.put(nodeId, failureCount);
+        if (unlockTime != null) {
+            lockedNodes.put(nodeId, node);
+            unlockTimes.insert(unlockTime, nodeId);
+        }
+    }
 }
@@ -16,7 +16,11 @@
  */
 package com.offbynull.kademlia;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import static java.util.Collections.emptyList;
 import java.util.Objects;
+import org.apache.commons.collections4.list.UnmodifiableList;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -25,10 +29,22 @@ import org.apache.commons.lang3.Validate;
  */
 public final class RouterChangeSet {
     private final RouteTreeChangeSet routeTreeChangeSet;
+    private final UnmodifiableList<Node> locked;
+    private final UnmodifiableList<Node> unlocked;
 
     RouterChangeSet(RouteTreeChangeSet routeTreeChangeSet) {
+        this(routeTreeChangeSet, emptyList(), emptyList());
+    }
+
+    RouterChangeSet(RouteTreeChangeSet routeTreeChangeSet, Collection<Node> locked, Collection<Node> unlocked) {
         Validate.notNull(routeTreeChangeSet);
+        Validate.notNull(locked);
+        Validate.notNull(unlocked);
+        Validate.noNullElements(locked);
+        Validate.noNullElements(unlocked);
         this.routeTreeChangeSet = routeTreeChangeSet;
+        this.locked = (UnmodifiableList<Node>) UnmodifiableList.unmodifiableList(new ArrayList<>(locked));
+        this.unlocked = (UnmodifiableList<Node>) UnmodifiableList.unmodifiableList(new ArrayList<>(unlocked));
     }
 
     /**
@@ -39,10 +55,28 @@ public final class RouterChangeSet {
         return routeTreeChangeSet;
     }
 
+    /**
+     * Get the list of nodes that were locked (nodes that entered their backoff period).
+     * @return list (unmodifiable) of nodes locked
+     */
+    public UnmodifiableList<Node> viewLocked() {
+        return locked;
+    }
+
+    /**
+     * Get the list of nodes that were unlocked (nodes that came out of their backoff period, or were marked as stale while in it).
+     * @return list (unmodifiable) of nodes unlocked
+     */
+    public UnmodifiableList<Node> viewUnlocked() {
+        return unlocked;
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
         hash = 79 * hash + Objects.hashCode(this.routeTreeChangeSet);
+        hash = 79 * hash + Objects.hashCode(this.locked);
+        hash = 79 * hash + Objects.hashCode(this.unlocked);
         return hash;
     }
 
@@ -58,12 +92,18 @@ public final class RouterChangeSet {
         if (!Objects.equals(this.routeTreeChangeSet, other.routeTreeChangeSet)) {
             return false;
         }
+        if (!Objects.equals(this.locked, other.locked)) {
+            return false;
+        }
+        if (!Objects.equals(this.unlocked, other.unlocked)) {
+            return false;
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "RouterChangeSet{" + "routeTreeChangeSet=" + routeTreeChangeSet + '}';
+        return "RouterChangeSet{" + "routeTreeChangeSet=" + routeTreeChangeSet + ", locked=" + locked + ", unlocked=" + unlocked + '}';
     }
 
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Immutable, point-in-time view of the nodes in a {@link ConcurrentRouter}. Since a snapshot never changes once it's been created, it can
+ * be read by any number of threads without locking and always gives back results that are consistent with each other.
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class RouterSnapshot {
+    // k-bucket snapshots are stored in fixed-size pages. When a k-bucket changes, only the array of pages and the page holding that
+    // k-bucket are copied -- all other pages (and the k-bucket snapshots in them) are shared with the previous snapshot.
+    private static final int PAGE_SHIFT = 4;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final Id baseId;
+    private final RouteTree routeTree; // used only for its structure (which never changes), not for the nodes it holds
+    private final ToIntFunction<KBucket> slotLookup; // k-bucket in routeTree to its slot in pages
+    private final KBucketSnapshot[][] pages;
+
+    RouterSnapshot(Id baseId, RouteTree routeTree, ToIntFunction<KBucket> slotLookup, int slotCount) {
+        Validate.notNull(baseId);
+        Validate.notNull(routeTree);
+        Validate.notNull(slotLookup);
+        Validate.isTrue(slotCount >= 0);
+        
+        this.baseId = baseId;
+        this.routeTree = routeTree;
+        this.slotLookup = slotLookup;
+        this.pages = new KBucketSnapshot[(slotCount + PAGE_SIZE - 1) >>> PAGE_SHIFT][];
+        for (int i = 0; i < pages.length; i++) {
+            KBucketSnapshot[] page = new KBucketSnapshot[PAGE_SIZE];
+            Arrays.fill(page, KBucketSnapshot.EMPTY);
+            pages[i] = page;
+        }
+    }
+
+    private RouterSnapshot(RouterSnapshot previous, KBucketSnapshot[][] pages) {
+        this.baseId = previous.baseId;
+        this.routeTree = previous.routeTree;
+        this.slotLookup = previous.slotLookup;
+        this.pages = pages;
+    }
+
+    // Creates a copy of this snapshot with the k-bucket at slot replaced
+    RouterSnapshot withBucket(int slot, KBucketSnapshot bucket) {
+        Validate.notNull(bucket);
+        
+        int pageIdx = slot >>> PAGE_SHIFT;
+        KBucketSnapshot[][] newPages = pages.clone();
+        KBucketSnapshot[] newPage = pages[pageIdx].clone();
+        newPage[slot & PAGE_MASK] = bucket;
+        newPages[pageIdx] = newPage;
+        return new RouterSnapshot(this, newPages);
+    }
+
+    /**
+     * Searches this snapshot for the closest nodes to some ID. Node closeness is determined by the XOR metric -- Kademlia's notion of
+     * distance.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for).
+     * @param id ID to search for
+     * @param max maximum number of results to give back
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return up to {@code max} closest nodes to {@code id} (less are returned if this snapshot contains less than {@code max} nodes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this snapshot is for
+     * (the ID of the node this snapshot belongs to)
+     */
+    public List<Node> find(Id id, int max, boolean includeStale) {
+        Validate.notNull(id);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        // do not stop from finding self (base) -- you may want to update closest
+        
+        List<Activity> closestNodes = routeTree.find(id, max, (bucket, output) -> {
+            int slot = slotLookup.applyAsInt(bucket);
+            pages[slot >>> PAGE_SHIFT][slot & PAGE_MASK].dump(includeStale, output);
+        });
+        
+        ArrayList<Node> res = new ArrayList<>(closestNodes.size());
+        closestNodes.stream()
+                .map(x -> x.getNode())
+                .forEachOrdered(res::add);
+        
+        return res;
+    }
+
+    /**
+     * Equivalent to {@link #find(com.offbynull.kademlia.Id, int, boolean) }, but only returns nodes that pass {@code filter}. The filter is
+     * applied while this snapshot is being walked, so up to {@code max} nodes that pass it are returned (there's no need to ask for more
+     * than {@code max} nodes and filter the results) and nodes that don't pass it are never collected.
+     * <p>
+     * {@code filter} is called at most once per node walked over, and may be called on nodes that don't end up being returned (nodes
+     * that pass but turn out to be farther away than {@code max} other nodes that pass). It must not modify this snapshot.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for).
+     * @param id ID to search for
+     * @param max maximum number of results to give back
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @param filter filter that nodes must pass to be returned (e.g. leave out nodes that have already been queried, or nodes that
+     * haven't been seen since some time)
+     * @return up to {@code max} closest nodes to {@code id} that pass {@code filter}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this snapshot is for
+     * (the ID of the node this snapshot belongs to)
+     */
+    public List<Node> find(Id id, int max, boolean includeStale, Predicate<? super Activity> filter) {
+        Validate.notNull(id);
+        Validate.notNull(filter);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        // do not stop from finding self (base) -- you may want to update closest
+        
+        List<Activity> closestNodes = routeTree.find(id, max, (bucket, output) -> {
+            int slot = slotLookup.applyAsInt(bucket);
+            pages[slot >>> PAGE_SHIFT][slot & PAGE_MASK].dump(includeStale, filter, output);
+        });
+        
+        ArrayList<Node> res = new ArrayList<>(closestNodes.size());
+        closestNodes.forEach(x -> res.add(x.getNode()));
+        
+        return res;
+    }
+
+    /**
+     * Lazily goes through the nodes in this snapshot from closest to farthest from some ID. Node closeness is determined by the XOR metric
+     * -- Kademlia's notion of distance. Useful when the number of nodes needed isn't known up front (e.g. a lookup that wants the next
+     * closest node that isn't already in its shortlist) -- only as much of the route tree is walked as is needed to get to the next node.
+     * <p>
+     * Since this snapshot never changes, the returned iterator can be held on to and pulled from at any time. It isn't thread-safe though.
+     * <p>
+     * Note this method will never return yourself (the node that this routing table is for).
+     * @param id ID to search for
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return nodes in this snapshot, from closest to farthest from {@code id}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IdLengthMismatchException if the bitlength of {@code id} doesn't match the bitlength of the ID that this snapshot is for
+     * (the ID of the node this snapshot belongs to)
+     */
+    public Iterator<Node> iterateClosest(Id id, boolean includeStale) {
+        Validate.notNull(id);
+        
+        InternalValidate.matchesLength(baseId.getBitLength(), id);
+        // do not stop from finding self (base) -- you may want to update closest
+        
+        Iterator<Activity> closestNodes = routeTree.iterateClosest(id, (bucket, output) -> {
+            int slot = slotLookup.applyAsInt(bucket);
+            pages[slot >>> PAGE_SHIFT][slot & PAGE_MASK].dump(includeStale, output);
+        });
+        return new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return closestNodes.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                return closestNodes.next().getNode();
+            }
+        };
+    }
+
+    /**
+     * Searches this snapshot for the closest nodes to each ID in a collection. Equivalent to calling
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) } for each ID, except that each k-bucket is read only once (up front) and
+     * all searches run against what was read. This is cheaper than calling {@link #find(com.offbynull.kademlia.Id, int, boolean) }
+     * in a loop when there are a large number of IDs (e.g. when republishing stored keys).
+     * @param ids IDs to search for
+     * @param max maximum number of results to give back for each ID
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @return closest nodes to each ID in {@code ids}, in the order that {@code ids} iterates in (see
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) })
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of any ID in {@code ids} doesn't match the bitlength of the ID that
+     * this snapshot is for (the ID of the node this snapshot belongs to)
+     */
+    public List<List<Node>> findAll(Collection<Id> ids, int max, boolean includeStale) {
+        return findAll(toIdArray(ids, max), max, includeStale, null);
+    }
+
+    /**
+     * Equivalent to {@link #findAll(java.util.Collection, int, boolean) }, but the searches are split up and run in parallel on
+     * {@code pool}. The calling thread blocks until all searches are done.
+     * @param ids IDs to search for
+     * @param max maximum number of results to give back for each ID
+     * @param includeStale if {@code true}, includes stale nodes in the results
+     * @param pool pool to run searches on
+     * @return closest nodes to each ID in {@code ids}, in the order that {@code ids} iterates in (see
+     * {@link #find(com.offbynull.kademlia.Id, int, boolean) })
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative
+     * @throws IdLengthMismatchException if the bitlength of any ID in {@code ids} doesn't match the bitlength of the ID that
+     * this snapshot is for (the ID of the node this snapshot belongs to)
+     */
+    public List<List<Node>> findAll(Collection<Id> ids, int max, boolean includeStale, ForkJoinPool pool) {
+        Validate.notNull(pool);
+        return findAll(toIdArray(ids, max), max, includeStale, pool);
+    }
+
+    private Id[] toIdArray(Collection<Id> ids, int max) {
+        Validate.notNull(ids);
+        Validate.noNullElements(ids);
+        Validate.isTrue(max >= 0); // why would anyone want 0 items returned? let thru anyways
+        
+        Id[] ret = ids.toArray(new Id[ids.size()]);
+        for (Id id : ret) {
+            InternalValidate.matchesLength(baseId.getBitLength(), id);
+            // do not stop from finding self (base) -- you may want to update closest
+        }
+        return ret;
+    }
+
+    // pool is null if searches should run on the calling thread
+    List<List<Node>> findAll(Id[] ids, int max, boolean includeStale, ForkJoinPool pool) {
+        List<List<Activity>> closestNodesInRoutingTree = routeTree.findAll(ids, max, (bucket, output) -> {
+            int slot = slotLookup.applyAsInt(bucket);
+            pages[slot >>> PAGE_SHIFT][slot & PAGE_MASK].dump(includeStale, output);
+        }, pool);
+        
+        List<List<Node>> res = new ArrayList<>(closestNodesInRoutingTree.size());
+        for (List<Activity> closestNodes : closestNodesInRoutingTree) {
+            ArrayList<Node> nodes = new ArrayList<>(closestNodes.size());
+            closestNodes.forEach(x -> nodes.add(x.getNode()));
+            res.add(nodes);
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+
+// Writes/reads the full state of a Router to/from a compact binary format. Layout (all values big endian) ...
+//
+// int magic, short version, int baseIdBitLength, byte[] baseId, instant routerLastTouchTime, instant routeTreeLastTouchTime,
+// duration initialLockDuration, duration maxLockDuration, int staleThreshold,
+// int bucketCount, then for each k-bucket (in RouteTree.dumpBuckets() order) ...
+//     int prefixBitLength, byte[] prefix, instant lastTouchAttemptTime,
+//     int bucketEntryCount, activity[] bucketEntries, int cacheEntryCount, activity[] cacheEntries,
+//     int staleCount, id[] staleIds, int lockedCount, id[] lockedIds
+// int failureCount, then for each node that's been unresponsive ...
+//     id, int count, byte locked, instant unlockTime (only if locked is 1)
+//
+// where instant/duration is (long seconds, int nano), id is byte[] (length derived from baseIdBitLength), and activity is
+// (node, instant time) with node being as written by Node.write() (id, then int linkByteLength + byte[] utf8Link for string links, or a
+// negative link tag + address + port for InetLinks).
+//
+// Version 1 has no backoff parameters and no failure counts (routers restored from version 1 use the default backoff parameters).
+//
+// Nodes are written in the order that they're held in by their k-bucket / replacement cache, which means that reading them back in doesn't
+// require replaying touches. RouteTree's k-bucket update times aren't written since they can be derived from the k-buckets themselves.
+final class RouterStateCodec {
+    private static final int MAGIC = 0x4B52544E; // "KRTN"
+    private static final short VERSION = 2;
+    private static final short VERSION_WITHOUT_BACKOFF = 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int READ_CHUNK_SIZE = 65536;
+
+    private RouterStateCodec() {
+        // do nothing
+    }
+
+    static void write(Router router, WritableByteChannel channel) throws IOException {
+        Validate.notNull(router);
+        Validate.notNull(channel);
+        
+        Encoder encoder = new Encoder();
+        
+        Id baseId = router.getBaseId();
+        RouteTree routeTree = router.getRouteTree();
+        
+        encoder.putInt(MAGIC);
+        encoder.putShort(VERSION);
+        encoder.putInt(baseId.getBitLength());
+        encoder.putBitString(baseId.getBitString());
+        encoder.putInstant(router.getLastTouchTime());
+        encoder.putInstant(routeTree.getLastTouchTime());
+        
+        BackoffParameters backoffParameters = router.getBackoffParameters();
+        encoder.putDuration(backoffParameters.getInitialLockDuration());
+        encoder.putDuration(backoffParameters.getMaxLockDuration());
+        encoder.putInt(backoffParameters.getStaleThreshold());
+        
+        List<KBucket> buckets = routeTree.dumpBuckets();
+        encoder.putInt(buckets.size());
+        for (KBucket bucket : buckets) {
+            BitString prefix = bucket.getPrefix();
+            encoder.putInt(prefix.getBitLength());
+            encoder.putBitString(prefix);
+            encoder.putInstant(bucket.getLastTouchAttemptTime());
+            encoder.putActivities(bucket.dumpBucket(true, true, true));
+            encoder.putActivities(bucket.dumpCache());
+            encoder.putIds(bucket.dumpStaleIds());
+            encoder.putIds(bucket.dumpLockedIds());
+        }
+
+        // written in k-bucket order rather than map order, so that routers with the same state always write out the same bytes
+        Map<Id, Integer> failureCounts = router.dumpFailureCounts();
+        encoder.putInt(failureCounts.size());
+        for (KBucket bucket : buckets) {
+            for (Activity activity : bucket.dumpBucket(true, true, true)) {
+                Id id = activity.getNode().getId();
+                Integer count = failureCounts.get(id);
+                if (count != null) {
+                    putFailureCount(encoder, router, id, count);
+                }
+            }
+        }
+
+        ByteBuffer buffer = encoder.finish();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void putFailureCount(Encoder encoder, Router router, Id id, int count) {
+        encoder.putBitString(id.getBitString());
+        encoder.putInt(count);
+        Instant unlockTime = router.getUnlockTime(id);
+        if (unlockTime == null) {
+            encoder.putByte((byte) 0);
+        } else {
+            encoder.putByte((byte) 1);
+            encoder.putInstant(unlockTime);
+        }
+    }
+
+    static Router read(ReadableByteChannel channel, RouteTreeBranchStrategy branchStrategy, RouteTreeBucketStrategy bucketStrategy)
+            throws IOException {
+        Validate.notNull(channel);
+        Validate.notNull(branchStrategy);
+        Validate.notNull(bucketStrategy);
+        
+        ByteBuffer buffer = readFully(channel);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a router state");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION && version != VERSION_WITHOUT_BACKOFF) {
+                throw new IOException("Unsupported router state version: " + version);
+            }
+
+            int bitLength = buffer.getInt();
+            Validate.isTrue(bitLength > 0);
+            Id baseId = Id.create(buffer, bitLength);
+            Instant routerLastTouchTime = getInstant(buffer);
+            Instant routeTreeLastTouchTime = getInstant(buffer);
+            
+            Router router;
+            if (version == VERSION_WITHOUT_BACKOFF) {
+                router = new Router(baseId, branchStrategy, bucketStrategy);
+            } else {
+                Duration initialLockDuration = getDuration(buffer);
+                Duration maxLockDuration = getDuration(buffer);
+                int staleThreshold = buffer.getInt();
+                BackoffParameters backoffParameters = new BackoffParameters(initialLockDuration, maxLockDuration, staleThreshold);
+                router = new Router(baseId, branchStrategy, bucketStrategy, backoffParameters);
+            }
+            RouteTree routeTree = router.getRouteTree();
+            
+            List<KBucket> buckets = routeTree.dumpBuckets();
+            int bucketCount = buffer.getInt();
+            if (bucketCount != buckets.size()) {
+                throw new IOException("Router state has a different k-bucket count than the route tree generated by the strategies: "
+                        + bucketCount + " vs " + buckets.size());
+            }
+
+            for (KBucket bucket : buckets) {
+                int prefixBitLength = buffer.getInt();
+                Validate.isTrue(prefixBitLength >= 0 && prefixBitLength <= bitLength);
+                BitString prefix = BitString.readBytes(buffer, prefixBitLength);
+                if (!prefix.equals(bucket.getPrefix())) {
+                    throw new IOException("Router state has a different k-bucket than the route tree generated by the strategies: "
+                            + prefix + " vs " + bucket.getPrefix());
+                }
+
+                Instant lastTouchAttemptTime = getInstant(buffer);
+                List<Activity> bucketEntries = getActivities(buffer, bitLength);
+                List<Activity> cacheEntries = getActivities(buffer, bitLength);
+                List<Id> staleIds = getIds(buffer, bitLength);
+                List<Id> lockedIds = getIds(buffer, bitLength);
+                
+                bucket.restore(lastTouchAttemptTime, bucketEntries, cacheEntries, staleIds, lockedIds);
+                if (!prefix.equals(baseId.getBitString())) { // k-bucket for baseId is never tracked for update times (see RouteTree)
+                    routeTree.updateBucketUpdateTime(bucket);
+                }
+            }
+
+            if (version != VERSION_WITHOUT_BACKOFF) {
+                int failureCount = getCount(buffer);
+                for (int i = 0; i < failureCount; i++) {
+                    Id id = Id.create(buffer, bitLength);
+                    int count = buffer.getInt();
+                    boolean locked = buffer.get() != 0;
+                    Instant unlockTime = locked ? getInstant(buffer) : null;
+                    
+                    KBucket bucket = routeTree.getBucketFor(id);
+                    Node node = findInBucket(bucket, id);
+                    Validate.isTrue(node != null); // must be in the k-bucket
+                    Validate.isTrue(locked == bucket.dumpLockedIds().contains(id)); // must be locked if and only if it has an unlock time
+                    router.restoreFailureCount(node, count, unlockTime);
+                }
+            }
+
+            if (buffer.hasRemaining()) {
+                throw new IOException("Router state has trailing bytes");
+            }
+
+            routeTree.setLastTouchTime(routeTreeLastTouchTime);
+            router.setLastTouchTime(routerLastTouchTime);
+            
+            return router;
+        } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException | ArithmeticException e) {
+            // IllegalArgumentException comes from validation failures when restoring k-buckets (e.g. a node that doesn't belong in the
+            // k-bucket it was written under), all of these mean that the data is malformed -- IllegalStateException isn't caught because
+            // it signals bad strategies
+            throw new IOException("Malformed router state", e);
+        }
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK_SIZE);
+        while (channel.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Instant getInstant(ByteBuffer buffer) {
+        long epochSecond = buffer.getLong();
+        int nano = buffer.getInt();
+        return Instant.ofEpochSecond(epochSecond, nano);
+    }
+
+    private static Duration getDuration(ByteBuffer buffer) {
+        long seconds = buffer.getLong();
+        int nano = buffer.getInt();
+        return Duration.ofSeconds(seconds, nano);
+    }
+
+    private static Node findInBucket(KBucket bucket, Id id) {
+        for (Activity activity : bucket.dumpBucket(true, true, true)) {
+            Node node = activity.getNode();
+            if (node.getId().equals(id)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static List<Activity> getActivities(ByteBuffer buffer, int bitLength) {
+        int count = getCount(buffer);
+        List<Activity> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Node node = Node.create(buffer, bitLength);
+            Instant time = getInstant(buffer);
+            
+            ret.add(new Activity(node, time));
+        }
+        return ret;
+    }
+
+    private static List<Id> getIds(ByteBuffer buffer, int bitLength) {
+        int count = getCount(buffer);
+        List<Id> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(Id.create(buffer, bitLength));
+        }
+        return ret;
+    }
+
+    private static int getCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        // a count can never be larger than the number of bytes left (each item takes up at least 1 byte) -- this stops malformed counts
+        // from causing huge allocations
+        Validate.isTrue(count >= 0 && count <= buffer.remaining());
+        return count;
+    }
+
+    // Writes to a heap buffer that grows as needed
+    private static final class Encoder {
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        
+        void putInt(int value) {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        void putShort(short value) {
+            ensureRemaining(2);
+            buffer.putShort(value);
+        }
+
+        void putBitString(BitString bitString) {
+            ensureRemaining((bitString.getBitLength() + 7) >>> 3);
+            bitString.writeBytes(buffer);
+        }
+
+        void putByte(byte value) {
+            ensureRemaining(1);
+            buffer.put(value);
+        }
+
+        void putDuration(Duration duration) {
+            ensureRemaining(12);
+            buffer.putLong(duration.getSeconds());
+            buffer.putInt(duration.getNano());
+        }
+
+        void putInstant(Instant instant) {
+            ensureRemaining(12);
+            buffer.putLong(instant.getEpochSecond());
+            buffer.putInt(instant.getNano());
+        }
+
+        void putActivities(List<Activity> activities) {
+            putInt(activities.size());
+            for (Activity activity : activities) {
+                Node node = activity.getNode();
+                ensureRemaining(node.getByteLength());
+                node.write(buffer);
+                
+                putInstant(activity.getTime());
+            }
+        }
+
+        void putIds(List<Id> ids) {
+            putInt(ids.size());
+            for (Id id : ids) {
+                putBitString(id.getBitString());
+            }
+        }
+
+        ByteBuffer finish() {
+            buffer.flip();
+            return buffer;
+        }
+
+        private void ensureRemaining(int len) {
+            if (buffer.remaining() >= len) {
+                return;
+            }
+
+            int newCapacity = buffer.capacity();
+            while (newCapacity - buffer.position() < len) {
+                newCapacity *= 2;
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Results of a {@link NetworkSimulator} run. Only the lookups from the measurement phase of the simulation are included (lookups done
+ * by nodes joining the network are excluded).
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class SimulationResult {
+    private final long[] latencies; // sorted
+    private final int[] hops; // sorted
+    private final int emptyLookupCount;
+    private final double lookupAccuracy;
+    private final double routingTableLiveness;
+    private final long messageCount;
+    private final long eventCount;
+
+    SimulationResult(long[] latencies, int[] hops, int emptyLookupCount, double lookupAccuracy, double routingTableLiveness,
+            long messageCount, long eventCount) {
+        Validate.isTrue(latencies.length == hops.length);
+        this.latencies = latencies;
+        this.hops = hops;
+        Arrays.sort(this.latencies);
+        Arrays.sort(this.hops);
+        this.emptyLookupCount = emptyLookupCount;
+        this.lookupAccuracy = lookupAccuracy;
+        this.routingTableLiveness = routingTableLiveness;
+        this.messageCount = messageCount;
+        this.eventCount = eventCount;
+    }
+
+    /**
+     * Get the number of lookups performed.
+     * @return number of lookups performed
+     */
+    public int getLookupCount() {
+        return latencies.length;
+    }
+
+    /**
+     * Get the number of lookups that didn't find any nodes.
+     * @return number of lookups that didn't find any nodes
+     */
+    public int getEmptyLookupCount() {
+        return emptyLookupCount;
+    }
+
+    /**
+     * Get a lookup latency percentile. The latency of a lookup is the virtual time between the lookup starting and the lookup finishing.
+     * @param percentile percentile to get ({@code 0.0} to {@code 100.0})
+     * @return latency at {@code percentile} in virtual milliseconds, or {@code 0} if no lookups were performed
+     * @throws IllegalArgumentException if {@code percentile} is out of range
+     */
+    public long getLatencyPercentile(double percentile) {
+        int idx = percentileIndex(percentile);
+        return idx == -1 ? 0L : latencies[idx];
+    }
+
+    /**
+     * Get a lookup hop count percentile. The hop count of a lookup is the longest chain of queries (each query going to a node that was
+     * returned by the previous query in the chain) needed to reach any of the nodes the lookup found.
+     * @param percentile percentile to get ({@code 0.0} to {@code 100.0})
+     * @return hop count at {@code percentile}, or {@code 0} if no lookups were performed
+     * @throws IllegalArgumentException if {@code percentile} is out of range
+     */
+    public int getHopPercentile(double percentile) {
+        int idx = percentileIndex(percentile);
+        return idx == -1 ? 0 : hops[idx];
+    }
+
+    /**
+     * Get the mean lookup hop count.
+     * @return mean hop count, or {@code 0.0} if no lookups were performed
+     */
+    public double getMeanHops() {
+        if (hops.length == 0) {
+            return 0.0;
+        }
+        long total = 0L;
+        for (int hop : hops) {
+            total += hop;
+        }
+        return (double) total / hops.length;
+    }
+
+    /**
+     * Get the lookup accuracy: the mean fraction of the {@code k} closest online nodes to the ID being searched for (at the time the
+     * lookup finished) that were actually found by the lookup.
+     * @return lookup accuracy ({@code 0.0} to {@code 1.0})
+     */
+    public double getLookupAccuracy() {
+        return lookupAccuracy;
+    }
+
+    /**
+     * Get the routing table liveness (how accurate routing tables are): the fraction of (non-stale) nodes across all routing tables that
+     * are online at the end of the simulation.
+     * @return routing table liveness ({@code 0.0} to {@code 1.0})
+     */
+    public double getRoutingTableLiveness() {
+        return routingTableLiveness;
+    }
+
+    /**
+     * Get the number of messages (requests and responses, including ones that were dropped) sent over the entire simulation.
+     * @return number of messages sent
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Get the number of events processed over the entire simulation.
+     * @return number of events processed
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    private int percentileIndex(double percentile) {
+        Validate.isTrue(percentile >= 0.0 && percentile <= 100.0);
+        if (latencies.length == 0) {
+            return -1;
+        }
+        int idx = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+        return Math.max(0, Math.min(latencies.length - 1, idx));
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationResult{" + "lookups=" + latencies.length + ", emptyLookups=" + emptyLookupCount
+                + ", meanHops=" + getMeanHops() + ", hopsP50=" + getHopPercentile(50.0) + ", hopsP99=" + getHopPercentile(99.0)
+                + ", latencyP50=" + getLatencyPercentile(50.0) + ", latencyP90=" + getLatencyPercentile(90.0)
+                + ", latencyP99=" + getLatencyPercentile(99.0) + ", lookupAccuracy=" + lookupAccuracy
+                + ", routingTableLiveness=" + routingTableLiveness + ", messages=" + messageCount + ", events=" + eventCount + '}';
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Free-form string link. This is the type of link that {@link Node#Node(com.offbynull.kademlia.Id, java.lang.String) } creates.
+ * <p>
+ * Class is immutable.
+ * @author Kasra Faghihi
+ */
+public final class StringLink implements Link {
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+
+    /**
+     * Constructs a {@link StringLink} object.
+     * @param value link
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public StringLink(String value) {
+        Validate.notNull(value);
+        this.value = value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final StringLink other = (StringLink) obj;
+        return value.equals(other.value);
+    }
+
+    /**
+     * Get the link.
+     * @return link
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
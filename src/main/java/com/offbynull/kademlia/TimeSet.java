@@ -59,6 +59,16 @@ final class TimeSet<V> {
         timeLookupDecorator.put(time, value);
     }
     
+    public Instant get(V value) {
+        Validate.notNull(value);
+        
+        return valueLookup.get(value);
+    }
+    
+    public Instant first() {
+        return timeLookup.isEmpty() ? null : timeLookup.firstKey();
+    }
+    
     public List<V> getBefore(Instant time, boolean inclusive) {
         Validate.notNull(time);
         
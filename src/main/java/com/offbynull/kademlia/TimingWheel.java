@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+
+// Hierarchical timing wheel for a fixed set of int keys (0 to capacity - 1), each of which can have at most 1 deadline (a long tick).
+// Polling removes and returns every key whose deadline is at or before the tick being polled for.
+//
+// Deadlines are split in to 6-bit digits (11 digits for 64 bits, the top digit only has 4 bits). The wheel has 1 level per digit, each
+// level having 64 slots. A deadline is stored at the level of the highest digit it differs from the wheel's current tick on, in the
+// slot for its digit at that level. That means that every deadline at level L shares all digits above L with the current tick and has a
+// larger digit at L. When the wheel advances from its current tick to a new tick, where H is the highest digit they differ on...
+//
+//  * levels below H: every deadline shares digit H with the old tick, so every deadline is due.
+//  * level H: slots between the old tick's digit and the new tick's digit are due, the slot for the new tick's digit has to be
+//    re-placed (its lower digits decide if it's due or which lower level it goes in to), and slots after that stay where they are.
+//  * levels above H: nothing changes (the old and new ticks share those digits).
+//
+// Each level keeps a bitmap of which slots are occupied, so empty slots / levels are skipped without being looked at. Polling does work
+// proportional to the number of keys that are due (plus keys being re-placed), not the number of keys in the wheel or the number of ticks
+// elapsed. Entries are kept in intrusive doubly-linked lists backed by int arrays, so nothing is allocated after construction.
+//
+// Ticks are signed, but are compared as unsigned after flipping the sign bit (so Long.MIN_VALUE is the earliest possible tick).
+final class TimingWheel {
+    private static final int DIGIT_BITS = 6;
+    private static final int SLOTS = 1 << DIGIT_BITS;
+    private static final int LEVELS = (Long.SIZE + DIGIT_BITS - 1) / DIGIT_BITS;
+
+    private static final int NONE = -1;
+    private static final int DUE = -2; // location of keys that were due when they were scheduled
+
+    private final int[] slotHeads; // LEVELS * SLOTS
+    private final long[] occupied; // bitmap of occupied slots per level
+    private int dueHead;
+
+    private final long[] deadlines; // unsigned form
+    private final int[] locations; // slot (level * SLOTS + slot idx), DUE, or NONE if not scheduled
+    private final int[] next;
+    private final int[] prev;
+
+    private final int[] expired; // keys removed by the last poll
+    private int polledCount;
+
+    private long current; // unsigned form
+    private int size;
+
+    TimingWheel(int capacity, long startTick) {
+        Validate.isTrue(capacity >= 0);
+        
+        slotHeads = new int[LEVELS * SLOTS];
+        Arrays.fill(slotHeads, NONE);
+        occupied = new long[LEVELS];
+        dueHead = NONE;
+        
+        deadlines = new long[capacity];
+        locations = new int[capacity];
+        Arrays.fill(locations, NONE);
+        next = new int[capacity];
+        prev = new int[capacity];
+        
+        expired = new int[capacity];
+        
+        current = toUnsigned(startTick);
+    }
+
+    // Schedules key at deadline, replacing its existing deadline if it has one. If deadline is at or before the current tick, key will
+    // be returned by the next poll.
+    void schedule(int key, long deadline) {
+        Validate.isTrue(key >= 0 && key < locations.length);
+        
+        cancel(key);
+        deadlines[key] = toUnsigned(deadline);
+        place(key);
+        size++;
+    }
+
+    // Removes key's deadline, if it has one.
+    void cancel(int key) {
+        Validate.isTrue(key >= 0 && key < locations.length);
+        
+        if (locations[key] == NONE) {
+            return;
+        }
+        unlink(key);
+        size--;
+    }
+
+    boolean isScheduled(int key) {
+        Validate.isTrue(key >= 0 && key < locations.length);
+        
+        return locations[key] != NONE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Advances to tick, removing every key with a deadline at or before tick. If tick is before the current tick, the wheel doesn't advance
+    // (only keys that were due when they were scheduled are removed). Returns the number of keys removed, which can be read back (in no
+    // particular order) using getPolled() up until the next call to poll().
+    int poll(long tick) {
+        int count = 0;
+        
+        // keys that were already due when scheduled
+        while (dueHead != NONE) {
+            int key = dueHead;
+            unlink(key);
+            expired[count++] = key;
+        }
+
+        long target = toUnsigned(tick);
+        if (Long.compareUnsigned(target, current) > 0) {
+            count = advance(target, count);
+        }
+
+        size -= count;
+        polledCount = count;
+        return count;
+    }
+
+    int getPolled(int idx) {
+        Validate.isTrue(idx >= 0 && idx < polledCount);
+        
+        return expired[idx];
+    }
+
+    private int advance(long target, int count) {
+        int highLevel = level(current ^ target);
+        int oldDigit = digit(current, highLevel);
+        int newDigit = digit(target, highLevel);
+        
+        // levels below the highest differing digit -- everything is due
+        for (int level = 0; level < highLevel; level++) {
+            long bits = occupied[level];
+            while (bits != 0L) {
+                int slot = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1L;
+                count = drainSlot(level * SLOTS + slot, count);
+            }
+        }
+
+        // level of highest differing digit -- slots between old and new digit are due, slot at new digit needs to be re-placed
+        long dueMask = rangeMask(oldDigit + 1, newDigit); // [oldDigit + 1, newDigit)
+        long bits = occupied[highLevel] & dueMask;
+        while (bits != 0L) {
+            int slot = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1L;
+            count = drainSlot(highLevel * SLOTS + slot, count);
+        }
+
+        current = target;
+        
+        int cascadeSlot = highLevel * SLOTS + newDigit;
+        int key = slotHeads[cascadeSlot];
+        while (key != NONE) {
+            int nextKey = next[key];
+            unlink(key);
+            if (Long.compareUnsigned(deadlines[key], current) <= 0) {
+                expired[count++] = key;
+            } else {
+                place(key); // always goes to a lower level, so it can't end up back in this slot
+            }
+            key = nextKey;
+        }
+
+        return count;
+    }
+
+    private int drainSlot(int slot, int count) {
+        while (slotHeads[slot] != NONE) {
+            int key = slotHeads[slot];
+            unlink(key);
+            expired[count++] = key;
+        }
+        return count;
+    }
+
+    private void place(int key) {
+        long deadline = deadlines[key];
+        if (Long.compareUnsigned(deadline, current) <= 0) {
+            link(key, DUE);
+            return;
+        }
+
+        int level = level(deadline ^ current);
+        link(key, level * SLOTS + digit(deadline, level));
+    }
+
+    private void link(int key, int location) {
+        int head = location == DUE ? dueHead : slotHeads[location];
+        next[key] = head;
+        prev[key] = NONE;
+        if (head != NONE) {
+            prev[head] = key;
+        }
+
+        if (location == DUE) {
+            dueHead = key;
+        } else {
+            slotHeads[location] = key;
+            occupied[location / SLOTS] |= 1L << (location % SLOTS);
+        }
+        locations[key] = location;
+    }
+
+    private void unlink(int key) {
+        int location = locations[key];
+        int prevKey = prev[key];
+        int nextKey = next[key];
+        
+        if (prevKey != NONE) {
+            next[prevKey] = nextKey;
+        } else if (location == DUE) {
+            dueHead = nextKey;
+        } else {
+            slotHeads[location] = nextKey;
+            if (nextKey == NONE) {
+                occupied[location / SLOTS] &= ~(1L << (location % SLOTS));
+            }
+        }
+        if (nextKey != NONE) {
+            prev[nextKey] = prevKey;
+        }
+
+        locations[key] = NONE;
+    }
+
+    private static int level(long xor) {
+        return (Long.SIZE - 1 - Long.numberOfLeadingZeros(xor)) / DIGIT_BITS; // xor must be non-zero
+    }
+
+    private static int digit(long value, int level) {
+        return (int) (value >>> (level * DIGIT_BITS)) & (SLOTS - 1);
+    }
+
+    private static long rangeMask(int start, int end) { // bits [start, end)
+        if (start >= end) {
+            return 0L;
+        }
+        long upTo = end == SLOTS ? -1L : (1L << end) - 1L;
+        return upTo & ~((1L << start) - 1L);
+    }
+
+    private static long toUnsigned(long tick) {
+        return tick ^ Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A batch of touches (time + node pairs) to apply in one go using {@link Router#touchAll(com.offbynull.kademlia.TouchBatch) }. Meant to
+ * be reused -- {@link #clear() } it once it's been applied and fill it back up with the next batch, so that nothing gets allocated once
+ * it has grown to the largest batch size seen.
+ * <p>
+ * Times within a batch don't need to be in order (they're ordered per k-bucket when the batch is applied), but every time must be at
+ * least the time of the last touch applied to the router.
+ * <p>
+ * This class is not thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class TouchBatch {
+    private long[] times; // nanos since epoch (see InternalTime)
+    private Node[] nodes;
+    private int size;
+
+    // scratch space for ordering the batch when it's applied (see RouteTree)
+    private int[] keys;
+    private int[] order;
+
+    /**
+     * Constructs a {@link TouchBatch} object.
+     */
+    public TouchBatch() {
+        this(16);
+    }
+
+    /**
+     * Constructs a {@link TouchBatch} object.
+     * @param initialCapacity number of touches to make room for up front
+     * @throws IllegalArgumentException if {@code initialCapacity < 0}
+     */
+    public TouchBatch(int initialCapacity) {
+        Validate.isTrue(initialCapacity >= 0);
+        
+        times = new long[initialCapacity];
+        nodes = new Node[initialCapacity];
+        keys = new int[initialCapacity];
+        order = new int[initialCapacity];
+    }
+
+    /**
+     * Adds a touch to this batch.
+     * @param time time which request or response came in
+     * @param node node which issued the request or response
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void add(Instant time, Node node) {
+        Validate.notNull(time);
+        add(InternalTime.toNanos(time), node);
+    }
+
+    /**
+     * Adds a touch to this batch.
+     * @param time time which request or response came in, in nanoseconds since the epoch
+     * @param node node which issued the request or response
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void add(long time, Node node) {
+        Validate.notNull(node);
+        
+        if (size == times.length) {
+            int newCapacity = Math.max(16, size * 2);
+            times = Arrays.copyOf(times, newCapacity);
+            nodes = Arrays.copyOf(nodes, newCapacity);
+            keys = new int[newCapacity];
+            order = new int[newCapacity];
+        }
+        times[size] = time;
+        nodes[size] = node;
+        size++;
+    }
+
+    /**
+     * Removes all touches from this batch.
+     */
+    public void clear() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Get the number of touches in this batch.
+     * @return number of touches in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    long getTime(int idx) {
+        return times[idx];
+    }
+
+    Node getNode(int idx) {
+        return nodes[idx];
+    }
+
+    int[] getKeys() {
+        return keys;
+    }
+
+    int[] getOrder() {
+        return order;
+    }
+}
@@ -0,0 +1,72 @@
+package com.offbynull.kademlia;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Hot paths of BitString that get hit on every lookup (getBitsAsLong() to pick branches, getSharedPrefixLength() to find k-buckets).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BitStringBenchmark {
+
+    private static final int COUNT = 1024;
+
+    @Param({"32", "160", "256"})
+    public int bitLength;
+
+    private BitString[] bitStrings;
+    private int[] offsets;
+    private int[] lengths;
+    private int idx;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        BitString base = randomBitString(random, bitLength);
+        bitStrings = new BitString[COUNT];
+        offsets = new int[COUNT];
+        lengths = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            // share a random length prefix with base, so that getSharedPrefixLength() doesn't always finish on the first word
+            int prefixLen = random.nextInt(bitLength + 1);
+            bitStrings[i] = randomBitString(random, bitLength).setBits(0, base.getBits(0, prefixLen));
+            
+            lengths[i] = random.nextInt(Math.min(bitLength, 64) + 1);
+            offsets[i] = random.nextInt(bitLength - lengths[i] + 1);
+        }
+    }
+
+    @Benchmark
+    public long getBitsAsLong() {
+        idx = (idx + 1) & (COUNT - 1);
+        return bitStrings[idx].getBitsAsLong(offsets[idx], lengths[idx]);
+    }
+
+    @Benchmark
+    public int getSharedPrefixLength() {
+        BitString o1 = bitStrings[idx];
+        idx = (idx + 1) & (COUNT - 1);
+        BitString o2 = bitStrings[idx];
+        return o1.getSharedPrefixLength(o2);
+    }
+
+    private static BitString randomBitString(Random random, int bitLength) {
+        byte[] data = new byte[(bitLength + 7) / 8];
+        random.nextBytes(data);
+        return BitString.createReadOrder(data, 0, bitLength);
+    }
+}
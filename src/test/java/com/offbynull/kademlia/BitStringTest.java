@@ -3,6 +3,11 @@ package com.offbynull.kademlia;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -12,6 +17,76 @@ public class BitStringTest {
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
+    @Test
+    public void mustWriteAndReadBackBytes() {
+        Random random = new Random(0L);
+        for (int bitLength = 0; bitLength <= 200; bitLength++) {
+            BitString bitString = BitString.createFromString(randomBits(random, bitLength));
+            
+            ByteBuffer buffer = ByteBuffer.allocate(32);
+            bitString.writeBytes(buffer);
+            assertEquals((bitLength + 7) / 8, buffer.position());
+            
+            buffer.flip();
+            assertEquals(bitString, BitString.readBytes(buffer, bitLength));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void mustWriteAndReadBackBytesAtIndexRegardlessOfBufferTypeOrByteOrder() {
+        Random random = new Random(0L);
+        ByteBuffer[] buffers = new ByteBuffer[] {
+            ByteBuffer.allocate(64),
+            ByteBuffer.allocateDirect(64),
+            ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN),
+            ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN)
+        };
+        for (int bitLength = 0; bitLength <= 200; bitLength++) {
+            BitString bitString = BitString.createFromString(randomBits(random, bitLength));
+            int index = random.nextInt(8);
+            
+            ByteBuffer expected = ByteBuffer.allocate(32);
+            bitString.writeBytes(expected);
+            expected.flip();
+            
+            for (ByteBuffer buffer : buffers) {
+                buffer.clear();
+                bitString.writeBytes(buffer, index);
+                assertEquals(0, buffer.position());
+                
+                ByteBuffer actual = buffer.duplicate();
+                actual.position(index).limit(index + expected.limit());
+                assertEquals(expected, actual);
+
+                assertEquals(bitString, BitString.readBytes(buffer, index, bitLength));
+                assertEquals(0, buffer.position());
+            }
+        }
+    }
+
+    @Test
+    public void mustNotPartiallyWriteBytesWhenIndexOutOfBounds() {
+        BitString bitString = BitString.createFromString(randomBits(new Random(0L), 160));
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        try {
+            bitString.writeBytes(buffer, 5);
+            fail();
+        } catch (IndexOutOfBoundsException ioobe) {
+            // expected
+        }
+        assertEquals(ByteBuffer.allocate(24), buffer);
+    }
+
+    @Test
+    public void mustIgnorePaddingBitsWhenReadingBytes() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { (byte) 0xFF });
+        assertEquals(BitString.createFromString("111"), BitString.readBytes(buffer, 3));
+        
+        buffer = ByteBuffer.wrap(new byte[] { -1, -1, -1, -1, -1, -1, -1, -1 }); // padding in a whole word
+        assertEquals(BitString.createFromString(StringUtils.repeat('1', 57)), BitString.readBytes(buffer, 0, 57));
+    }
+
     @Test
     public void mustCreateFromString() {
         BitString bitString1 = BitString.createFromString("100001011111");
@@ -304,6 +379,88 @@ public class BitStringTest {
 
     }
     
+    @Test
+    public void mustCreateFromUnalignedOffsetsAsDocumented() {
+        // examples from createLogicalOrder() / createReadOrder() docs
+        BitString bitString1 = BitString.createLogicalOrder(new byte[] { (byte) 0x04, (byte) 0xFB }, 2, 10);
+        BitString bitString2 = BitString.createReadOrder(new byte[] { (byte) 0x04, (byte) 0xFB }, 2, 10);
+        
+        assertEquals("1000001101", bitString1.toString());
+        assertEquals("0001001111", bitString2.toString());
+    }
+
+    @Test
+    public void mustCreateSameBitsAsByteArrayImplementation() {
+        Random random = new Random(0L);
+        for (int i = 0; i < 2000; i++) {
+            byte[] data = new byte[random.nextInt(48) + 1];
+            random.nextBytes(data);
+            int offset = random.nextInt(data.length) * 8; // byte array impl is only correct on byte aligned offsets
+            int len = random.nextInt(data.length * 8 - offset + 1);
+            
+            assertEquals(
+                    ByteArrayBitString.createLogicalOrder(data, offset, len).toString(),
+                    BitString.createLogicalOrder(data, offset, len).toString());
+            assertEquals(
+                    ByteArrayBitString.createReadOrder(data, offset, len).toString(),
+                    BitString.createReadOrder(data, offset, len).toString());
+            assertEquals(
+                    BitString.createReadOrder(data, offset, len),
+                    BitString.createFromString(BitString.createReadOrder(data, offset, len).toString()));
+        }
+    }
+
+    @Test
+    public void mustPerformSameBitOperationsAsByteArrayImplementation() {
+        Random random = new Random(0L);
+        for (int i = 0; i < 2000; i++) {
+            String str1 = randomBits(random, random.nextInt(300));
+            String str2 = randomBits(random, random.nextInt(300));
+            if (random.nextBoolean()) { // make sure prefixes and suffixes match for some portion
+                str2 = str1.substring(0, random.nextInt(str1.length() + 1)) + str2;
+            }
+            
+            BitString bitString1 = BitString.createFromString(str1);
+            BitString bitString2 = BitString.createFromString(str2);
+            ByteArrayBitString expected1 = ByteArrayBitString.createFromString(str1);
+            ByteArrayBitString expected2 = ByteArrayBitString.createFromString(str2);
+            
+            assertEquals(expected1.toString(), bitString1.toString());
+            assertEquals(expected1.getSharedPrefixLength(expected2), bitString1.getSharedPrefixLength(bitString2));
+            assertEquals(expected1.getSharedSuffixLength(expected2), bitString1.getSharedSuffixLength(bitString2));
+            assertEquals(expected1.appendBits(expected2).toString(), bitString1.appendBits(bitString2).toString());
+            
+            int len1 = str1.length();
+            if (len1 > 0) {
+                int bitOffset = random.nextInt(len1);
+                assertEquals(expected1.getBit(bitOffset), bitString1.getBit(bitOffset));
+                assertEquals(expected1.flipBit(bitOffset).toString(), bitString1.flipBit(bitOffset).toString());
+                assertEquals(expected1.setBit(bitOffset, true).toString(), bitString1.setBit(bitOffset, true).toString());
+                assertEquals(expected1.setBit(bitOffset, false).toString(), bitString1.setBit(bitOffset, false).toString());
+            }
+            
+            int offset = random.nextInt(len1 + 1);
+            int len = random.nextInt(len1 - offset + 1);
+            assertEquals(expected1.getBits(offset, len).toString(), bitString1.getBits(offset, len).toString());
+            
+            int longLen = Math.min(len, 64);
+            assertEquals(expected1.getBitsAsLong(offset, longLen), bitString1.getBitsAsLong(offset, longLen));
+            
+            if (str2.length() <= len1) {
+                int setOffset = random.nextInt(len1 - str2.length() + 1);
+                assertEquals(expected1.setBits(setOffset, expected2).toString(), bitString1.setBits(setOffset, bitString2).toString());
+            }
+        }
+    }
+    
+    private static String randomBits(Random random, int len) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append(random.nextBoolean() ? '1' : '0');
+        }
+        return sb.toString();
+    }
+    
     private static byte[] toBytes(long data) { // returns in big endian format
         byte[] bytes = new byte[8];
         for (int i = 0; i < 8; i++) {
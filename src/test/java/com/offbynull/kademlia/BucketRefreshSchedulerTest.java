@@ -0,0 +1,78 @@
+package com.offbynull.kademlia;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class BucketRefreshSchedulerTest {
+
+    private static final Node NODE_0000 = new Node(Id.createFromLong(0x00L, 4), "0"); // 0000
+    private static final Node NODE_0001 = new Node(Id.createFromLong(0x01L, 4), "1");
+    private static final Node NODE_1000 = new Node(Id.createFromLong(0x08L, 4), "8");
+
+    private static final Instant BASE_TIME = Instant.ofEpochMilli(0L);
+    private static final Duration INTERVAL = Duration.ofMillis(10L);
+
+    private final Router router = new Router(NODE_0000.getId(), 2, 2, 2); // buckets 1, 01, 001, 0001 (and 0000, which is never used)
+    private final BucketRefreshScheduler fixture = new BucketRefreshScheduler(router, INTERVAL, new Random(0L));
+
+    @Test
+    public void mustRefreshAllBucketsOnFirstPoll() throws Throwable {
+        assertEquals(prefixes("1", "01", "001", "0001"), pollPrefixes(BASE_TIME));
+    }
+
+    @Test
+    public void mustNotRefreshAgainUntilIntervalElapsed() throws Throwable {
+        pollPrefixes(BASE_TIME);
+        
+        assertEquals(prefixes(), pollPrefixes(BASE_TIME));
+        assertEquals(prefixes(), pollPrefixes(BASE_TIME.plus(INTERVAL).minusMillis(1L)));
+        assertEquals(prefixes("1", "01", "001", "0001"), pollPrefixes(BASE_TIME.plus(INTERVAL)));
+    }
+
+    @Test
+    public void mustNotRefreshBucketsThatWereUpdated() throws Throwable {
+        pollPrefixes(BASE_TIME);
+        router.touch(BASE_TIME.plusMillis(5L), NODE_1000);
+        router.touch(BASE_TIME.plusMillis(7L), NODE_0001);
+        
+        assertEquals(prefixes("01", "001"), pollPrefixes(BASE_TIME.plus(INTERVAL)));
+        assertEquals(prefixes("1"), pollPrefixes(BASE_TIME.plus(INTERVAL).plusMillis(5L)));
+        assertEquals(prefixes("0001"), pollPrefixes(BASE_TIME.plus(INTERVAL).plusMillis(7L)));
+    }
+
+    @Test
+    public void mustGenerateRandomTargetsWithinBucket() throws Throwable {
+        Router largeRouter = new Router(Id.createFromLong(0L, 64), 2, 2, 2);
+        BucketRefreshScheduler largeFixture = new BucketRefreshScheduler(largeRouter, INTERVAL, new Random(0L));
+        
+        List<Id> targets = new ArrayList<>();
+        assertEquals(64, largeFixture.poll(BASE_TIME, targets::add));
+        
+        Set<Integer> sharedPrefixLengths = new HashSet<>();
+        for (Id target : targets) {
+            sharedPrefixLengths.add(target.getSharedPrefixLength(largeRouter.getBaseId())); // 1 target per bucket (0 to 63 bits shared)
+        }
+        assertEquals(64, sharedPrefixLengths.size());
+    }
+
+    private Set<BitString> pollPrefixes(Instant time) {
+        Set<BitString> ret = new HashSet<>();
+        fixture.poll(time, id -> ret.add(router.getRouteTree().getBucketFor(id).getPrefix()));
+        return ret;
+    }
+
+    private static Set<BitString> prefixes(String... prefixes) {
+        Set<BitString> ret = new HashSet<>();
+        for (String prefix : prefixes) {
+            ret.add(BitString.createFromString(prefix));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,467 @@
+package com.offbynull.kademlia;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+
+// Original byte[]-backed bit string implementation, kept around so that the long[]-backed BitString can be checked against it. Note that
+// the createLogicalOrder()/createReadOrder() methods here only produce correct results when each group of 8 bits being read doesn't
+// straddle a byte boundary (e.g. offset is a multiple of 8).
+final class ByteArrayBitString {
+    
+    private final byte[] data; // treated as an array of bit starting from bit 0
+    private final int bitLength;
+    
+    // make sure that whatever you pass in as data is a copy / not-shared.
+    private ByteArrayBitString(byte[] data, int bitLength) {
+        Validate.notNull(data);
+        Validate.isTrue(bitLength >= 0);
+        
+        int minLength = calculateRequiredByteArraySize(bitLength);
+        Validate.isTrue(data.length == minLength);
+        
+        this.data = data;
+        this.bitLength = bitLength;
+    }
+
+    public static ByteArrayBitString createFromString(String data) {
+        Validate.notNull(data);
+        
+        int offset = 0;
+        int len = data.length();
+        
+        int arrLen = calculateRequiredByteArraySize(len);
+        int arrIdx = 0;
+        byte[] arr = new byte[arrLen];
+        
+        int end = offset + len;
+        int currOffset = offset;
+        byte[] temp = new byte[1];
+        while (currOffset < end) {
+            int nextOffset = Math.min(currOffset + 8, end);
+            int currLen = nextOffset - currOffset;
+            
+            try {
+                temp[0] = (byte) (Integer.valueOf(data.substring(currOffset, currOffset + currLen), 2) & 0xFF);
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException(nfe);
+            }
+            
+            if (currLen < 8) {
+                temp[0] = (byte) ((temp[0] << (8 - currLen)) & 0xFF);
+            }
+            
+            byte b = readBitsFromByteArrayInReadOrder(temp, 0, currLen);
+            arr[arrIdx] = b;
+
+            arrIdx++;
+            currOffset = nextOffset;
+        }
+        
+        return new ByteArrayBitString(arr, len);
+    }
+
+    public static ByteArrayBitString createLogicalOrder(byte[] data, int offset, int len) {
+        Validate.notNull(data);
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(len >= 0);
+        Validate.isTrue(offset + len <= data.length * 8);
+        
+        int arrLen = calculateRequiredByteArraySize(len);
+        int arrIdx = 0;
+        byte[] arr = new byte[arrLen];
+        
+        int end = offset + len;
+        int currOffset = offset;
+        while (currOffset < end) {
+            int nextOffset = Math.min(currOffset + 8, end);
+            int currLen = nextOffset - currOffset;
+            
+            byte b = readBitsFromByteArrayInLogicalOrder(data, currOffset, currLen);
+            arr[arrIdx] = b;
+
+            arrIdx++;
+            currOffset = nextOffset;
+        }
+        
+        return new ByteArrayBitString(arr, len);
+    }
+
+    public static ByteArrayBitString createReadOrder(byte[] data, int offset, int len) {
+        Validate.notNull(data);
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(len >= 0);
+        Validate.isTrue(offset + len <= data.length * 8);
+        
+        int arrLen = calculateRequiredByteArraySize(len);
+        int arrIdx = 0;
+        byte[] arr = new byte[arrLen];
+        
+        int end = offset + len;
+        int currOffset = offset;
+        while (currOffset < end) {
+            int nextOffset = Math.min(currOffset + 8, end);
+            int currLen = nextOffset - currOffset;
+            
+            byte b = readBitsFromByteArrayInReadOrder(data, currOffset, currLen);
+            arr[arrIdx] = b;
+
+            arrIdx++;
+            currOffset = nextOffset;
+        }
+        
+        return new ByteArrayBitString(arr, len);
+    }
+    
+    // Why work on longs? It may be more efficient to have the byte[] containing the bitstring be a long[].
+    private static byte readBitsFromByteArrayInLogicalOrder(byte[] container, int offset, int len) {
+        Validate.isTrue(len <= 8);
+        Validate.isTrue(offset + len <= container.length * 8);
+        
+        int byteOffset = offset / 8;
+        int bitOffset = offset % 8;
+        
+        int idx = byteOffset;
+        
+        int lenOfBitsRemainingInByte = 8 - bitOffset;
+        
+        byte ret;
+        if (len <= lenOfBitsRemainingInByte) {
+            ret = (byte) (isolateBitsToBottom(container[idx], bitOffset, len) & 0xFFL);
+        } else {
+            long byte1 = container[idx] & 0xFFL;
+            long byte2 = container[idx + 1] & 0xFFL;
+            int byte1BitOffset = bitOffset;
+            int byte1BitLen = Math.min(8 - bitOffset, len);
+            int byte2BitOffset = 0;
+            int byte2BitLen = len - byte1BitLen;
+            
+            long portion1 = isolateBitsToBottom(byte1, byte1BitOffset, byte1BitLen);
+            long portion2 = isolateBitsToBottom(byte2, byte2BitOffset, byte2BitLen);
+            
+            long combined = (portion1 << byte2BitLen) | portion2;
+            
+            ret = (byte) (combined & 0xFF);
+        }
+        
+        return ret;
+    }
+    
+    // Why work on longs? It may be more efficient to have the byte[] containing the bitstring be a long[].
+    private static byte readBitsFromByteArrayInReadOrder(byte[] container, int offset, int len) {
+        Validate.isTrue(len <= 8);
+        Validate.isTrue(offset + len <= container.length * 8);
+        
+        int byteOffset = offset / 8;
+        int bitOffset = offset % 8;
+        
+        int idx = byteOffset;
+        
+        int lenOfBitsRemainingInByte = 8 - bitOffset;
+        
+        byte ret;
+        if (len <= lenOfBitsRemainingInByte) {
+            long byte1 = Long.reverse(container[idx] & 0xFFL) >>> 56;
+            ret = (byte) (isolateBitsToBottom(byte1, bitOffset, len) & 0xFFL);
+        } else {
+            long byte1 = Long.reverse(container[idx] & 0xFFL) >>> 56;
+            long byte2 = Long.reverse(container[idx + 1] & 0xFFL) >>> 56;
+            int byte1BitOffset = bitOffset;
+            int byte1BitLen = Math.min(8 - bitOffset, len);
+            int byte2BitOffset = 0;
+            int byte2BitLen = len - byte1BitLen;
+            
+            long portion1 = isolateBitsToBottom(byte1, byte1BitOffset, byte1BitLen);
+            long portion2 = isolateBitsToBottom(byte2, byte2BitOffset, byte2BitLen);
+            
+            long combined = (portion1 << byte2BitLen) | portion2;
+            
+            ret = (byte) (combined & 0xFF);
+        }
+        
+        return ret;
+    }
+
+    // Why work on longs? It may be more efficient to have the byte[] containing the bitstring be a long[].
+    private static long isolateBitsToBottom(long data, int offset, int len) {
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(len >= 0);
+        Validate.isTrue(offset + len <= 64);
+        
+        long mask = (1L << len) - 1L;
+        
+        return (data >>> offset) & mask;
+    }
+    
+    private static int calculateRequiredByteArraySize(int bitLength) {
+        Validate.inclusiveBetween(0, Integer.MAX_VALUE, bitLength);
+        
+        int fullByteCount = bitLength / 8;
+        int remainingBits = bitLength % 8;
+        
+        int byteLength = fullByteCount + (remainingBits == 0 ? 0 : 1);
+        
+        return byteLength;
+    }
+    
+    public int getSharedPrefixLength(ByteArrayBitString other) {
+        Validate.notNull(other);
+        
+        int maxCompareLenAsBits = Math.min(bitLength, other.bitLength);
+        int maxCompareLenAsBytes = calculateRequiredByteArraySize(maxCompareLenAsBits);
+        
+        
+        int nextByteIdx = 0;
+        for (int i = 0; i < maxCompareLenAsBytes; i++) {
+            if (other.data[i] != data[i]) {
+                break;
+            }
+            nextByteIdx++;
+        }
+        
+        if (nextByteIdx == maxCompareLenAsBytes) {
+            // All bytes matched, both string prefixes match entirely
+            return maxCompareLenAsBits;
+        }
+        
+        int thisLastByte = data[nextByteIdx] & 0xFF;
+        int otherLastByte = other.data[nextByteIdx] & 0xFF;
+      
+        int bitMatchCount = 0;
+        int remainingBits = maxCompareLenAsBits - (nextByteIdx * 8);
+        for (int i = 0; i < remainingBits; i++) {
+            int thisBit = (thisLastByte >> i) & 0x01;
+            int otherBit = (otherLastByte >> i) & 0x01;
+            if (thisBit != otherBit) {
+                break;
+            }
+            bitMatchCount++;
+        }
+        
+        int finalBitMatchCount = (nextByteIdx * 8) + bitMatchCount;
+        
+        return finalBitMatchCount;
+    }
+    
+    public int getSharedSuffixLength(ByteArrayBitString other) {
+        Validate.notNull(other);
+        
+        // You can make this more efficient by doing something similar to getSharedPrefixLength()
+        
+        int thisBitOffset = bitLength - 1;
+        int otherBitOffset = other.bitLength - 1;
+        int bitMatchCount = 0;
+        while (thisBitOffset >= 0 && otherBitOffset >= 0) {
+            boolean thisBit = getBit(thisBitOffset);
+            boolean otherBit = other.getBit(otherBitOffset);
+            if (thisBit != otherBit) {
+                break;
+            }
+            bitMatchCount++;
+            thisBitOffset--;
+            otherBitOffset--;
+        }
+        
+        return bitMatchCount;
+    }
+    
+    public boolean getBit(int offset) {
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(offset < bitLength);
+        
+        int bitPos = offset % 8;
+        int bytePos = offset / 8;
+        
+        int bitMask = 1 << bitPos;
+        return (data[bytePos] & bitMask) != 0;
+    }
+
+    public ByteArrayBitString setBit(int offset, boolean bit) {
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(offset < bitLength);
+        
+        byte[] dataCopy = Arrays.copyOf(data, data.length);
+        
+        int bitPos = offset % 8;
+        int bytePos = offset / 8;
+        
+        if (bit) {
+            int bitMask = 1 << bitPos;
+            dataCopy[bytePos] |= bitMask;
+        } else {
+            int bitMask = ~(1 << bitPos);
+            dataCopy[bytePos] &= bitMask;
+        }
+        
+        return new ByteArrayBitString(dataCopy, bitLength);
+    }
+
+    public ByteArrayBitString flipBit(int offset) {
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(offset < bitLength);
+        
+        boolean bit = getBit(offset);
+        return setBit(offset, !bit);
+    }
+
+    public ByteArrayBitString getBits(int offset, int len) {
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(offset <= this.bitLength);
+        int end = offset + len;
+        Validate.isTrue(end <= this.bitLength);
+        
+        int lenAsBytes = calculateRequiredByteArraySize(len);
+        byte[] dataCopy = new byte[lenAsBytes];
+        
+        // TODO: You can make this much more efficient
+        for (int i = 0; i < len; i++) {
+            int readIdx = offset + i;
+            int readBitPos = readIdx % 8;
+            int readBytePos = readIdx / 8;
+
+            int readBitMask = 1 << readBitPos;
+            boolean bit = (data[readBytePos] & readBitMask) != 0;
+            
+            int writeIdx = i;
+            int writeBitPos = writeIdx % 8;
+            int writeBytePos = writeIdx / 8;
+            
+            if (bit) {
+                int bitMask = 1 << writeBitPos;
+                dataCopy[writeBytePos] |= bitMask;
+            } else {
+                int bitMask = ~(1 << writeBitPos);
+                dataCopy[writeBytePos] &= bitMask;
+            }
+        }
+        
+        return new ByteArrayBitString(dataCopy, len);
+    }
+
+    public long getBitsAsLong(int offset, int len) {
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(offset <= this.bitLength);
+        int end = offset + len;
+        Validate.isTrue(end <= this.bitLength);
+        Validate.isTrue(len <= 64);
+        
+        long dataCopy = 0;
+        
+        // TODO: You can make this much more efficient
+        for (int i = 0; i < len; i++) {
+            int readIdx = offset + i;
+            int readBitPos = readIdx % 8;
+            int readBytePos = readIdx / 8;
+
+            int readBitMask = 1 << readBitPos;
+            boolean bit = (data[readBytePos] & readBitMask) != 0;
+            
+            int writeBitPos = (len - i) - 1;
+            
+            if (bit) {
+                long bitMask = 1L << writeBitPos;
+                dataCopy |= bitMask;
+            } else {
+                long bitMask = ~(1L << writeBitPos);
+                dataCopy &= bitMask;
+            }
+        }
+        
+        return dataCopy;
+    }
+    
+    public ByteArrayBitString setBits(int offset, ByteArrayBitString other) {
+        Validate.notNull(other);
+        Validate.isTrue(offset >= 0);
+        Validate.isTrue(offset <= bitLength);
+        int end = offset + other.bitLength;
+        Validate.isTrue(end <= bitLength);
+        
+        byte[] dataCopy = Arrays.copyOf(data, data.length);
+        
+        // TODO: You can make this much more efficient
+        for (int i = offset; i < end; i++)  {
+            int bitPos = i % 8;
+            int bytePos = i / 8;
+
+            if (other.getBit(i - offset)) {
+                int bitMask = 1 << bitPos;
+                dataCopy[bytePos] |= bitMask;
+            } else {
+                int bitMask = ~(1 << bitPos);
+                dataCopy[bytePos] &= bitMask;
+            }
+        }
+        
+        return new ByteArrayBitString(dataCopy, bitLength);
+    }
+    
+    public ByteArrayBitString appendBits(ByteArrayBitString other) {
+        Validate.notNull(other);
+        
+        int offset = bitLength;
+        int end = offset + other.bitLength;
+        
+        int arrLen = calculateRequiredByteArraySize(end);
+        
+        byte[] dataCopy = Arrays.copyOf(data, arrLen);
+        
+        // TODO: You can make this much more efficient
+        for (int i = offset; i < end; i++)  {
+            int bitPos = i % 8;
+            int bytePos = i / 8;
+
+            if (other.getBit(i - offset)) {
+                int bitMask = 1 << bitPos;
+                dataCopy[bytePos] |= bitMask;
+            } else {
+                int bitMask = ~(1 << bitPos);
+                dataCopy[bytePos] &= bitMask;
+            }
+        }
+        
+        return new ByteArrayBitString(dataCopy, end);
+    }
+
+    public int getBitLength() {
+        return bitLength;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 89 * hash + Arrays.hashCode(this.data);
+        hash = 89 * hash + this.bitLength;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ByteArrayBitString other = (ByteArrayBitString) obj;
+        if (!Arrays.equals(this.data, other.data)) {
+            return false;
+        }
+        if (this.bitLength != other.bitLength) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(bitLength + 13); //13 = '(' + max characters an int can be when converted to string + ')' + ' '
+//        sb.append('(').append(bitLength).append(") ");
+        for (int i = 0; i < bitLength; i++) {
+//            if (i % 4 == 0 && i != 0) {
+//                sb.append(' ');
+//            }
+            sb.append(getBit(i) /*== true*/ ? 1 : 0);
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+package com.offbynull.kademlia;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Writing / reading a find_node response's worth of IPv4 nodes (k = 8) in compact node info format. The *ViaStrings benchmarks are how it
+// had to be done before CompactNodeCodec: split the link string and go through InetAddress to get at the address / port, pull 64-bit
+// chunks out of the ID through getBitsAsLong(), and go through a byte[] + InetAddress to get back to a node.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactNodeCodecBenchmark {
+
+    private static final int NODE_COUNT = 8;
+
+    private List<Node> nodes;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer readBuffer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        nodes = new ArrayList<>(NODE_COUNT);
+        for (int i = 0; i < NODE_COUNT; i++) {
+            byte[] data = new byte[20];
+            random.nextBytes(data);
+            String link = (random.nextInt(223) + 1) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256)
+                    + ":" + (random.nextInt(65535) + 1);
+            nodes.add(new Node(Id.create(data, 160), link));
+        }
+        
+        writeBuffer = ByteBuffer.allocate(1472); // max UDP payload that fits in to a 1500 byte MTU
+        readBuffer = ByteBuffer.allocate(NODE_COUNT * CompactNodeCodec.IPV4_ENTRY_BYTE_LENGTH);
+        CompactNodeCodec.writeNodes(readBuffer, nodes, false);
+        readBuffer.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer write() {
+        writeBuffer.clear();
+        CompactNodeCodec.writeNodes(writeBuffer, nodes, false);
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeViaStrings() throws UnknownHostException {
+        writeBuffer.clear();
+        for (Node node : nodes) {
+            Id id = node.getId();
+            writeBuffer.putLong(id.getBitsAsLong(0, 64));
+            writeBuffer.putLong(id.getBitsAsLong(64, 64));
+            writeBuffer.putInt((int) id.getBitsAsLong(128, 32));
+            
+            String[] parts = node.getLink().split(":");
+            writeBuffer.put(InetAddress.getByName(parts[0]).getAddress());
+            writeBuffer.putShort((short) Integer.parseInt(parts[1]));
+        }
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public List<Node> read() {
+        readBuffer.rewind();
+        return CompactNodeCodec.readNodes(readBuffer, false);
+    }
+
+    @Benchmark
+    public List<Node> readViaStrings() throws UnknownHostException {
+        readBuffer.rewind();
+        List<Node> ret = new ArrayList<>();
+        while (readBuffer.hasRemaining()) {
+            byte[] idData = new byte[20];
+            readBuffer.get(idData);
+            byte[] addressData = new byte[4];
+            readBuffer.get(addressData);
+            int port = readBuffer.getShort() & 0xFFFF;
+            ret.add(new Node(Id.create(idData, 160), InetAddress.getByAddress(addressData).getHostAddress() + ":" + port));
+        }
+        return ret;
+    }
+}
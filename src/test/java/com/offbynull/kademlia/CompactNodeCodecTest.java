@@ -0,0 +1,118 @@
+package com.offbynull.kademlia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CompactNodeCodecTest {
+    
+    private static final Node IPV4_NODE_1 = new Node(createId(0x11), InetLink.parse("10.0.0.1:6881"));
+    private static final Node IPV4_NODE_2 = new Node(createId(0x22), InetLink.parse("192.168.100.200:51413"));
+    private static final Node IPV6_NODE = new Node(createId(0x33), InetLink.parse("[2001:db8::1]:6881"));
+    private static final Node OTHER_NODE = new Node(createId(0x44), "somehost:6881");
+    
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void mustWriteIpv4NodesInCompactForm() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int count = CompactNodeCodec.writeNodes(buffer, Arrays.asList(IPV4_NODE_1, IPV6_NODE, OTHER_NODE, IPV4_NODE_2), false);
+        assertEquals(2, count);
+        assertEquals(2 * 26, buffer.position());
+        
+        buffer.flip();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0x11, buffer.get(i));
+        }
+        assertEquals(0x0A000001, buffer.getInt(20));
+        assertEquals(6881, buffer.getShort(24) & 0xFFFF);
+        
+        List<Node> nodes = CompactNodeCodec.readNodes(buffer, false);
+        assertEquals(Arrays.asList(IPV4_NODE_1, IPV4_NODE_2), nodes);
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void mustWriteIpv6NodesInCompactForm() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        int count = CompactNodeCodec.writeNodes(buffer, Arrays.asList(IPV4_NODE_1, IPV6_NODE, OTHER_NODE, IPV4_NODE_2), true);
+        assertEquals(1, count);
+        assertEquals(38, buffer.position());
+        
+        buffer.flip();
+        assertEquals(Arrays.asList(IPV6_NODE), CompactNodeCodec.readNodes(buffer, true));
+    }
+
+    @Test
+    public void mustWriteNodesWithStringLinksInInetLinkForm() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        Node stringLinkNode = new Node(createId(0x55), "10.0.0.2:80");
+        assertEquals(2, CompactNodeCodec.writeNodes(buffer, Arrays.asList(stringLinkNode, OTHER_NODE, IPV4_NODE_1), false));
+        
+        buffer.flip();
+        List<Node> nodes = CompactNodeCodec.readNodes(buffer, false);
+        assertEquals(Arrays.asList(new Node(createId(0x55), InetLink.parse("10.0.0.2:80")), IPV4_NODE_1), nodes);
+    }
+
+    @Test
+    public void mustWriteNodesOutOfActivities() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        List<Activity> activities = Arrays.asList(new Activity(IPV4_NODE_1, Instant.MIN), new Activity(IPV4_NODE_2, Instant.MIN));
+        assertEquals(2, CompactNodeCodec.writeActivities(buffer, activities, false));
+        
+        buffer.flip();
+        assertEquals(Arrays.asList(IPV4_NODE_1, IPV4_NODE_2), CompactNodeCodec.readNodes(buffer, false));
+    }
+
+    @Test
+    public void mustWriteFindResults() {
+        Router router = new Router(createId(0x00), 2, 8, 8);
+        router.touch(Instant.ofEpochMilli(1L), IPV4_NODE_1);
+        router.touch(Instant.ofEpochMilli(2L), IPV4_NODE_2);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        CompactNodeCodec.writeNodes(buffer, router.find(createId(0x20), 8, false), false);
+        
+        buffer.flip();
+        assertEquals(Arrays.asList(IPV4_NODE_2, IPV4_NODE_1), CompactNodeCodec.readNodes(buffer, false));
+    }
+
+    @Test
+    public void mustNotWritePartialNodeWhenOutOfRoom() {
+        ByteBuffer buffer = ByteBuffer.allocate(26 + 25);
+        try {
+            CompactNodeCodec.writeNodes(buffer, Arrays.asList(IPV4_NODE_1, IPV4_NODE_2), false);
+            fail();
+        } catch (BufferOverflowException boe) {
+            // expected
+        }
+        assertEquals(26, buffer.position());
+    }
+
+    @Test
+    public void mustFailWritingNodeWithWrongIdLength() {
+        expectedException.expect(IllegalArgumentException.class);
+        Node node = new Node(Id.createFromLong(0L, 32), InetLink.parse("10.0.0.1:1"));
+        CompactNodeCodec.writeNodes(ByteBuffer.allocate(1024), Arrays.asList(node), false);
+    }
+
+    @Test
+    public void mustFailReadingTruncatedNodes() {
+        expectedException.expect(IllegalArgumentException.class);
+        CompactNodeCodec.readNodes(ByteBuffer.allocate(26 * 2 + 1), false);
+    }
+
+    private static Id createId(int fill) {
+        byte[] data = new byte[20];
+        Arrays.fill(data, (byte) fill);
+        return Id.create(data, 160);
+    }
+}
@@ -0,0 +1,143 @@
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Compares ConcurrentRouter (with and without snapshots) against a Router guarded by a single lock (what callers had to do before
+// ConcurrentRouter existed). Run with different thread counts to see how each scales (e.g. -t 1, -t 2, -t 4, ... up to the number of
+// cores).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentRouterBenchmark {
+
+    private static final int BIT_LENGTH = 160;
+    private static final Instant TIME = Instant.ofEpochMilli(0L); // same time for all touches, so that time never goes backwards
+
+    private ConcurrentRouter concurrentRouter;
+    private ConcurrentRouter snapshotRouter;
+    private Router router;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        Id baseId = randomId(random);
+        concurrentRouter = new ConcurrentRouter(baseId, 2, 20, 20);
+        snapshotRouter = new ConcurrentRouter(baseId, 2, 20, 20, true);
+        router = new Router(baseId, 2, 20, 20);
+        for (int i = 0; i < 10000; i++) {
+            Node node = new Node(randomId(random), "");
+            concurrentRouter.touch(TIME, node);
+            snapshotRouter.touch(TIME, node);
+            router.touch(TIME, node);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private Random random;
+        private Node[] nodes;
+        private int idx;
+
+        @Setup
+        public void setUp() {
+            random = new Random();
+            nodes = new Node[1024];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new Node(randomId(random), "");
+            }
+        }
+
+        Node nextNode() {
+            idx = (idx + 1) & (nodes.length - 1);
+            return nodes[idx];
+        }
+    }
+
+    @Benchmark
+    public RouterChangeSet touchConcurrentRouter(ThreadState state) {
+        return concurrentRouter.touch(TIME, state.nextNode());
+    }
+
+    @Benchmark
+    public RouterChangeSet touchSnapshotRouter(ThreadState state) {
+        return snapshotRouter.touch(TIME, state.nextNode());
+    }
+
+    @Benchmark
+    public RouterChangeSet touchLockedRouter(ThreadState state) {
+        synchronized (router) {
+            return router.touch(TIME, state.nextNode());
+        }
+    }
+
+    @Benchmark
+    public List<Node> findConcurrentRouter(ThreadState state) {
+        return concurrentRouter.find(state.nextNode().getId(), 20, false);
+    }
+
+    @Benchmark
+    public List<Node> findSnapshotRouter(ThreadState state) {
+        return snapshotRouter.find(state.nextNode().getId(), 20, false);
+    }
+
+    @Benchmark
+    public List<Node> findLockedRouter(ThreadState state) {
+        synchronized (router) {
+            return router.find(state.nextNode().getId(), 20, false);
+        }
+    }
+
+    @Benchmark
+    public Object mixedConcurrentRouter(ThreadState state) { // 1 touch for every 4 finds
+        Node node = state.nextNode();
+        if ((state.idx & 3) == 0) {
+            return concurrentRouter.touch(TIME, node);
+        } else {
+            return concurrentRouter.find(node.getId(), 20, false);
+        }
+    }
+
+    @Benchmark
+    public Object mixedSnapshotRouter(ThreadState state) { // 1 touch for every 4 finds
+        Node node = state.nextNode();
+        if ((state.idx & 3) == 0) {
+            return snapshotRouter.touch(TIME, node);
+        } else {
+            return snapshotRouter.find(node.getId(), 20, false);
+        }
+    }
+
+    @Benchmark
+    public Object mixedLockedRouter(ThreadState state) { // 1 touch for every 4 finds
+        Node node = state.nextNode();
+        synchronized (router) {
+            if ((state.idx & 3) == 0) {
+                return router.touch(TIME, node);
+            } else {
+                return router.find(node.getId(), 20, false);
+            }
+        }
+    }
+
+    private static Id randomId(Random random) {
+        byte[] data = new byte[BIT_LENGTH / 8];
+        random.nextBytes(data);
+        return Id.create(data, BIT_LENGTH);
+    }
+}
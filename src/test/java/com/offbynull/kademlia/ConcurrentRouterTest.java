@@ -0,0 +1,286 @@
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ConcurrentRouterTest {
+
+    private static final Id BASE_ID = Id.createFromLong(0L, 32);
+
+    private static final int THREAD_COUNT = 8;
+    private static final int OPS_PER_THREAD = 20000;
+
+    private static final Instant BASE_TIME = Instant.ofEpochMilli(0L);
+
+    private ConcurrentRouter fixture = new ConcurrentRouter(BASE_ID, 2, 4, 2);
+    private ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT * 2);
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mustEndUpInSameStateAsRouterWhenThreadsTouchDifferentBuckets() throws Throwable {
+        // Each thread only touches/stales nodes in the k-buckets it owns (k-bucket for IDs with n leading zeros is owned by thread
+        // n % THREAD_COUNT), and applies the same operations to its own single-threaded Router. Since no 2 threads touch the same k-bucket,
+        // the combined contents of the single-threaded Routers must be the same as the contents of the ConcurrentRouter.
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<Router>> futures = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            int threadIdx = i;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(threadIdx);
+                Router reference = new Router(BASE_ID, 2, 4, 2);
+
+                startLatch.await();
+                Instant time = BASE_TIME;
+                for (int j = 0; j < OPS_PER_THREAD; j++) {
+                    time = time.plusMillis(1L);
+
+                    Id id;
+                    do {
+                        id = randomId(random);
+                    } while (Integer.numberOfLeadingZeros((int) id.getBitsAsLong(0, 32)) % THREAD_COUNT != threadIdx);
+
+                    if (random.nextInt(10) == 0) {
+                        List<Node> closest = reference.find(id, 1, false);
+                        if (!closest.isEmpty()) {
+                            reference.stale(closest.get(0));
+                            fixture.stale(closest.get(0));
+                        }
+                    } else {
+                        Node node = new Node(id, "");
+                        reference.touch(time, node);
+                        fixture.touch(time, node);
+                    }
+                }
+                return reference;
+            }));
+        }
+
+        startLatch.countDown();
+        Set<Node> expected = new HashSet<>();
+        for (Future<Router> future : futures) {
+            expected.addAll(future.get().find(BASE_ID, Integer.MAX_VALUE, true));
+        }
+
+        List<Node> actual = fixture.find(BASE_ID, Integer.MAX_VALUE, true);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    @Test
+    public void mustReturnValidResultsWhenThreadsTouchAndFindOnSameBuckets() throws Throwable {
+        touchAndFindOnSameBucketsFromMultipleThreads();
+    }
+
+    @Test
+    public void mustReturnValidResultsWhenThreadsTouchAndFindOnSameBucketsWithSnapshots() throws Throwable {
+        fixture = new ConcurrentRouter(BASE_ID, 2, 4, 2, true);
+        touchAndFindOnSameBucketsFromMultipleThreads();
+    }
+
+    @Test
+    public void mustFindSameNodesAsRouterWithSnapshots() throws Throwable {
+        fixture = new ConcurrentRouter(BASE_ID, 2, 4, 2, true);
+        Router reference = new Router(BASE_ID, 2, 4, 2);
+
+        Random random = new Random(0L);
+        Instant time = BASE_TIME;
+        for (int i = 0; i < 2000; i++) {
+            time = time.plusMillis(1L);
+            Id id = randomId(random);
+            if (random.nextInt(10) == 0) {
+                List<Node> closest = reference.find(id, 1, false);
+                if (!closest.isEmpty()) {
+                    assertEquals(reference.stale(closest.get(0)), fixture.stale(closest.get(0)));
+                }
+            } else {
+                Node node = new Node(id, "");
+                assertEquals(reference.touch(time, node), fixture.touch(time, node));
+            }
+
+            Id searchId = randomId(random);
+            int max = random.nextInt(20);
+            assertEquals(reference.find(searchId, max, false), fixture.find(searchId, max, false));
+            assertEquals(reference.find(searchId, max, true), fixture.find(searchId, max, true));
+            Predicate<Activity> filter = x -> (x.getNode().getId().getBitsAsLong(31, 1) & 1L) == 0L;
+            assertEquals(reference.find(searchId, max, true, filter), fixture.getSnapshot().find(searchId, max, true, filter));
+        }
+    }
+
+    @Test
+    public void mustFindAllSameAsFindingEachIndividually() throws Throwable {
+        findAllSameAsFindingEachIndividually();
+    }
+
+    @Test
+    public void mustFindAllSameAsFindingEachIndividuallyWithSnapshots() throws Throwable {
+        fixture = new ConcurrentRouter(BASE_ID, 2, 4, 2, true);
+        findAllSameAsFindingEachIndividually();
+    }
+
+    @Test
+    public void mustNotChangeSnapshotOnceTaken() throws Throwable {
+        fixture = new ConcurrentRouter(BASE_ID, 2, 4, 2, true);
+        Node node1 = new Node(Id.createFromLong(0x80000000L, 32), "1");
+        Node node2 = new Node(Id.createFromLong(0x40000000L, 32), "2");
+
+        fixture.touch(BASE_TIME, node1);
+        RouterSnapshot snapshot = fixture.getSnapshot();
+        fixture.touch(BASE_TIME, node2);
+        fixture.stale(node1);
+
+        assertEquals(Arrays.asList(node1), snapshot.find(BASE_ID, 10, false));
+        assertEquals(Arrays.asList(node2), fixture.getSnapshot().find(BASE_ID, 10, false));
+        assertEquals(Arrays.asList(node2, node1), fixture.getSnapshot().find(BASE_ID, 10, true));
+    }
+
+    @Test
+    public void mustFailToGetSnapshotIfNotPublishingSnapshots() throws Throwable {
+        expectedException.expect(IllegalStateException.class);
+        fixture.getSnapshot();
+    }
+
+    private void findAllSameAsFindingEachIndividually() {
+        Random random = new Random(0L);
+        Instant time = BASE_TIME;
+        for (int i = 0; i < 2000; i++) {
+            time = time.plusMillis(1L);
+            fixture.touch(time, new Node(randomId(random), ""));
+        }
+        
+        List<Id> ids = new ArrayList<>();
+        List<List<Node>> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Id id = randomId(random);
+            ids.add(id);
+            expected.add(fixture.find(id, 8, false));
+        }
+        
+        assertEquals(expected, fixture.findAll(ids, 8, false));
+        ForkJoinPool pool = new ForkJoinPool(THREAD_COUNT);
+        try {
+            assertEquals(expected, fixture.findAll(ids, 8, false, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void touchAndFindOnSameBucketsFromMultipleThreads() throws Throwable {
+        // Writers all touch/stale nodes in the same k-buckets (using the same time so that per k-bucket time checks never fail) while
+        // readers continually search. Results of each search must be sorted by distance and must not contain duplicates.
+        CountDownLatch startLatch = new CountDownLatch(1);
+        AtomicBoolean writersDone = new AtomicBoolean();
+
+        List<Future<Void>> writerFutures = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            int threadIdx = i;
+            writerFutures.add(executor.submit(() -> {
+                Random random = new Random(threadIdx);
+                startLatch.await();
+                for (int j = 0; j < OPS_PER_THREAD; j++) {
+                    Id id = randomId(random);
+                    if (random.nextInt(10) == 0) {
+                        List<Node> closest = fixture.find(id, 1, false);
+                        if (!closest.isEmpty()) {
+                            try {
+                                fixture.stale(closest.get(0));
+                            } catch (NodeNotFoundException nnfe) {
+                                // another writer may have gotten rid of this node in between the find and the stale, ignore
+                            }
+                        }
+                    } else {
+                        fixture.touch(BASE_TIME, new Node(id, ""));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        List<Future<Integer>> readerFutures = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            int threadIdx = i;
+            readerFutures.add(executor.submit(() -> {
+                Random random = new Random(THREAD_COUNT + threadIdx);
+                startLatch.await();
+                int searchCount = 0;
+                while (!writersDone.get()) {
+                    Id id = randomId(random);
+                    int max = random.nextInt(20);
+                    List<Node> res = fixture.find(id, max, true);
+
+                    assertTrue(res.size() <= max);
+                    assertEquals(res.size(), new HashSet<>(res).size());
+                    IdXorMetricComparator comparator = new IdXorMetricComparator(id);
+                    for (int j = 1; j < res.size(); j++) {
+                        assertTrue(comparator.compare(res.get(j - 1).getId(), res.get(j).getId()) < 0);
+                    }
+                    searchCount++;
+                }
+                return searchCount;
+            }));
+        }
+
+        startLatch.countDown();
+        for (Future<Void> future : writerFutures) {
+            future.get();
+        }
+        writersDone.set(true);
+        for (Future<Integer> future : readerFutures) {
+            future.get();
+        }
+
+        // 32 k-buckets (1 for each bit in the ID), each holding at most 4 nodes
+        List<Node> all = fixture.find(BASE_ID, Integer.MAX_VALUE, true);
+        assertTrue(all.size() <= 32 * 4);
+        assertEquals(all.size(), new HashSet<>(all).size());
+    }
+
+    @Test
+    public void mustAllowTimeToGoBackwardsAcrossDifferentBuckets() throws Throwable {
+        fixture.touch(BASE_TIME.plusMillis(2L), new Node(Id.createFromLong(0x80000000L, 32), "1"));
+        fixture.touch(BASE_TIME.plusMillis(1L), new Node(Id.createFromLong(0x40000000L, 32), "2"));
+
+        assertEquals(2, fixture.find(BASE_ID, 10, true).size());
+    }
+
+    @Test
+    public void mustRejectTimeGoingBackwardsWithinSameBucket() throws Throwable {
+        fixture.touch(BASE_TIME.plusMillis(2L), new Node(Id.createFromLong(0x80000000L, 32), "1"));
+
+        expectedException.expect(BackwardTimeException.class);
+        fixture.touch(BASE_TIME.plusMillis(1L), new Node(Id.createFromLong(0xC0000000L, 32), "2"));
+    }
+
+    private static Id randomId(Random random) {
+        // spread IDs evenly across k-buckets (each k-bucket covers half as many IDs as the one before it)
+        long value;
+        do {
+            value = (random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32);
+        } while (value == 0L);
+        return Id.createFromLong(value, 32);
+    }
+}
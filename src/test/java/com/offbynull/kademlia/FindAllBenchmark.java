@@ -0,0 +1,79 @@
+package com.offbynull.kademlia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Router.find() (k = 20) called for each ID in a large set of IDs (e.g. keys being republished) vs Router.findAll() for the same IDs,
+// both on the calling thread and on the common fork/join pool (160-bit IDs, 10000 nodes touched in to the table).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FindAllBenchmark {
+
+    private static final int BIT_LENGTH = 160;
+    private static final int BUCKET_SIZE = 20;
+    private static final int TOUCH_COUNT = 10000;
+
+    @Param({"1000", "10000"})
+    public int idCount;
+
+    private Router router;
+    private List<Id> ids;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        Id baseId = randomId(random);
+        router = new Router(baseId, 2, BUCKET_SIZE, BUCKET_SIZE);
+        for (int i = 0; i < TOUCH_COUNT; i++) {
+            router.touch(0L, new Node(randomId(random), "" + i));
+        }
+
+        ids = new ArrayList<>(idCount);
+        for (int i = 0; i < idCount; i++) {
+            ids.add(randomId(random));
+        }
+    }
+
+    @Benchmark
+    public List<List<Node>> find() {
+        List<List<Node>> ret = new ArrayList<>(ids.size());
+        for (Id id : ids) {
+            ret.add(router.find(id, BUCKET_SIZE, false));
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public List<List<Node>> findAll() {
+        return router.findAll(ids, BUCKET_SIZE, false);
+    }
+
+    @Benchmark
+    public List<List<Node>> findAllParallel() {
+        return router.findAll(ids, BUCKET_SIZE, false, ForkJoinPool.commonPool());
+    }
+
+    private static Id randomId(Random random) {
+        byte[] data = new byte[(BIT_LENGTH + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(BitString.createReadOrder(data, 0, BIT_LENGTH));
+    }
+}
@@ -0,0 +1,103 @@
+package com.offbynull.kademlia;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Reading / writing IDs and nodes from / to a ByteBuffer at an unaligned offset (as they would be inside of a datagram). The *ViaByteArray
+// and *ViaBitsAsLong benchmarks are how it had to be done before Id / Node had ByteBuffer codecs: copy the bytes out in to a byte[] and
+// go through Id.create(byte[], int), and pull 64-bit chunks out through getBitsAsLong() to write.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdCodecBenchmark {
+
+    private static final int OFFSET = 3;
+    
+    @Param({"160", "256"})
+    public int bitLength;
+    
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private ByteBuffer buffer;
+    private Id id;
+    private Node node;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        byte[] data = new byte[(bitLength + 7) / 8];
+        random.nextBytes(data);
+        id = Id.create(data, bitLength);
+        node = new Node(id, "192.168.100.200:6881");
+        
+        buffer = direct ? ByteBuffer.allocateDirect(256) : ByteBuffer.allocate(256);
+        buffer.position(OFFSET);
+        node.write(buffer);
+    }
+
+    @Benchmark
+    public Id readId() {
+        return Id.create(buffer, OFFSET, bitLength);
+    }
+
+    @Benchmark
+    public Id readIdViaByteArray() {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(OFFSET);
+        byte[] data = new byte[(bitLength + 7) / 8];
+        dup.get(data);
+        return Id.create(data, bitLength);
+    }
+
+    @Benchmark
+    public ByteBuffer writeId() {
+        id.write(buffer, OFFSET);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeIdViaBitsAsLong() {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(OFFSET);
+        int offset = 0;
+        while (offset + 64 <= bitLength) {
+            dup.putLong(id.getBitsAsLong(offset, 64));
+            offset += 64;
+        }
+        while (offset < bitLength) {
+            int len = Math.min(8, bitLength - offset);
+            dup.put((byte) (id.getBitsAsLong(offset, len) << (8 - len)));
+            offset += len;
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public Node readNode() {
+        buffer.position(OFFSET);
+        return Node.create(buffer, bitLength);
+    }
+
+    @Benchmark
+    public ByteBuffer writeNode() {
+        buffer.position(OFFSET);
+        node.write(buffer);
+        return buffer;
+    }
+}
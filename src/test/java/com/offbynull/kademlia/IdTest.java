@@ -1,6 +1,9 @@
 package com.offbynull.kademlia;
 
 import static org.junit.Assert.assertEquals;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -18,6 +21,51 @@ public class IdTest {
         assertEquals(id1, id2);
     }
 
+    @Test
+    public void mustWriteAndReadBackFromBuffer() {
+        Id id = Id.create(new byte[] { (byte) 0xF8, (byte) 0xFF, (byte) 0x0F, (byte) 0xA0 }, 28);
+        assertEquals(4, id.getByteLength());
+        
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+        buffer.put((byte) 0x55);
+        id.write(buffer);
+        assertEquals(5, buffer.position());
+        
+        buffer.flip();
+        buffer.get();
+        assertEquals(id, Id.create(buffer, 28));
+        assertEquals(5, buffer.position());
+    }
+
+    @Test
+    public void mustWriteAndReadBackFromBufferAtIndex() {
+        Id id = Id.createFromLong(0xABCDEF0123456789L, 64);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        id.write(buffer, 3);
+        assertEquals(0, buffer.position());
+        assertEquals(0xABCDEF0123456789L, buffer.getLong(3));
+        
+        assertEquals(id, Id.create(buffer, 3, 64));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void mustReadSameIdFromBufferAsFromByteArray() {
+        byte[] data = new byte[] { (byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0x9A, (byte) 0xBC, (byte) 0xDE, (byte) 0xF0,
+            (byte) 0x0F, (byte) 0xED, (byte) 0xCB };
+        for (int bitLength = 1; bitLength <= data.length * 8; bitLength++) {
+            byte[] trimmedData = Arrays.copyOf(data, (bitLength + 7) / 8);
+            assertEquals(Id.create(trimmedData, bitLength), Id.create(ByteBuffer.wrap(data), bitLength));
+        }
+    }
+
+    @Test
+    public void mustFailReadingFromBufferWhenNotEnoughBytesRemaining() {
+        expectedException.expect(BufferUnderflowException.class);
+        Id.create(ByteBuffer.allocate(19), 160);
+    }
+
     @Test
     public void mustFailConstructingWhenLengthOutOfBoundsForByteArray() {
         expectedException.expect(IllegalArgumentException.class);
@@ -0,0 +1,90 @@
+package com.offbynull.kademlia;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Compares IdXorMetricComparator against the approach it used to take (XORing 63-bit chunks pulled out through getBitsAsLong()).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdXorMetricComparatorBenchmark {
+
+    private static final int ID_COUNT = 1024;
+
+    @Param({"32", "160", "256"})
+    public int bitLength;
+
+    private Id baseId;
+    private Id[] ids;
+    private IdXorMetricComparator comparator;
+    private int idx;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        baseId = randomId(random, bitLength);
+        ids = new Id[ID_COUNT];
+        for (int i = 0; i < ids.length; i++) {
+            // half of the IDs share a long prefix with baseId, so that comparisons don't always finish on the first word
+            Id id = randomId(random, bitLength);
+            if (i % 2 == 0) {
+                int prefixLen = random.nextInt(bitLength);
+                id = id.setBits(0, baseId.getBitString().getBits(0, prefixLen));
+            }
+            ids[i] = id;
+        }
+        comparator = new IdXorMetricComparator(baseId);
+    }
+
+    @Benchmark
+    public int compare() {
+        Id o1 = ids[idx];
+        Id o2 = ids[(idx + 1) & (ID_COUNT - 1)];
+        idx = (idx + 1) & (ID_COUNT - 1);
+        return comparator.compare(o1, o2);
+    }
+
+    @Benchmark
+    public int compareByChunks() {
+        Id o1 = ids[idx];
+        Id o2 = ids[(idx + 1) & (ID_COUNT - 1)];
+        idx = (idx + 1) & (ID_COUNT - 1);
+        return compareByChunks(baseId, o1, o2);
+    }
+
+    private static int compareByChunks(Id baseId, Id o1, Id o2) {
+        int bitLen = baseId.getBitLength();
+        int offset = 0;
+        while (offset < bitLen) {
+            int readLen = Math.min(bitLen - offset, 63);
+            long xorBlock1 = o1.getBitsAsLong(offset, readLen) ^ baseId.getBitsAsLong(offset, readLen);
+            long xorBlock2 = o2.getBitsAsLong(offset, readLen) ^ baseId.getBitsAsLong(offset, readLen);
+            offset += readLen;
+            int res = Long.compare(xorBlock1, xorBlock2);
+            if (res != 0) {
+                return res;
+            }
+        }
+        return 0;
+    }
+
+    private static Id randomId(Random random, int bitLength) {
+        byte[] data = new byte[(bitLength + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(data, bitLength);
+    }
+}
@@ -1,8 +1,10 @@
 package com.offbynull.kademlia;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
@@ -86,4 +88,33 @@ public class IdXorMetricComparatorTest {
         list.forEach(System.out::println);
     }
     
+    @Test
+    public void mustMatchXorOfIdsAsIntegers() {
+        Random random = new Random(0L);
+        for (int i = 0; i < 1000; i++) {
+            int bitLength = random.nextInt(300) + 1;
+            Id baseId = randomId(random, bitLength);
+            Id o1 = randomId(random, bitLength);
+            Id o2 = randomId(random, bitLength);
+            if (random.nextBoolean()) { // share some portion of the prefix with baseId
+                o1 = o1.setBits(0, baseId.getBitString().getBits(0, random.nextInt(bitLength + 1)));
+                o2 = o2.setBits(0, o1.getBitString().getBits(0, random.nextInt(bitLength + 1)));
+            }
+            
+            BigInteger base = new BigInteger(baseId.getBitString().toString(), 2);
+            BigInteger dist1 = new BigInteger(o1.getBitString().toString(), 2).xor(base);
+            BigInteger dist2 = new BigInteger(o2.getBitString().toString(), 2).xor(base);
+            
+            fixture = new IdXorMetricComparator(baseId);
+            assertEquals(dist1.compareTo(dist2), fixture.compare(o1, o2));
+            assertEquals(dist2.compareTo(dist1), fixture.compare(o2, o1));
+        }
+    }
+    
+    private static Id randomId(Random random, int bitLength) {
+        byte[] data = new byte[(bitLength + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(data, bitLength);
+    }
+    
 }
@@ -0,0 +1,108 @@
+package com.offbynull.kademlia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class InetLinkTest {
+    
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void mustParseIpv4Link() {
+        InetLink link = InetLink.parse("192.168.0.1:6881");
+        
+        assertFalse(link.isIpv6());
+        assertEquals(6881, link.getPort());
+        assertEquals(InetLink.createIpv4(0xC0A80001, 6881), link);
+        assertEquals("192.168.0.1:6881", link.toString());
+    }
+
+    @Test
+    public void mustParseIpv4LinkWithAllBitsSet() {
+        InetLink link = InetLink.parse("255.255.255.255:65535");
+        
+        assertEquals(InetLink.createIpv4(0xFFFFFFFF, 65535), link);
+        assertEquals("255.255.255.255:65535", link.toString());
+    }
+
+    @Test
+    public void mustParseIpv6Link() {
+        InetLink link = InetLink.parse("[2001:db8::1]:6881");
+        
+        assertTrue(link.isIpv6());
+        assertEquals(6881, link.getPort());
+        assertEquals(InetLink.createIpv6(0x20010DB800000000L, 1L, 6881), link);
+        assertEquals("[2001:db8:0:0:0:0:0:1]:6881", link.toString());
+        assertEquals(link, InetLink.parse(link.toString()));
+    }
+
+    @Test
+    public void mustKeepIpv4MappedIpv6LinkAsIpv6() {
+        InetLink link = InetLink.parse("[::ffff:10.0.0.1]:80");
+        
+        assertTrue(link.isIpv6());
+        assertEquals(InetLink.createIpv6(0L, 0xFFFF0A000001L, 80), link);
+    }
+
+    @Test
+    public void mustNotParseBadLinks() {
+        String[] badLinks = new String[] {
+            "", ":", "192.168.0.1", "192.168.0.1:", "192.168.0.1:65536", "192.168.0.1:-1", "192.168.0:80", "192.168.0.1.1:80",
+            "192.168.0.256:80", "192..0.1:80", "localhost:80", "[::1]", "[::1:80", "::1:80", "[localhost]:80", "[1:2:3:4:5:6:7:8:9]:80"
+        };
+        for (String badLink : badLinks) {
+            assertNull(badLink, InetLink.tryParse(badLink));
+        }
+    }
+
+    @Test
+    public void mustFailParsingBadLink() {
+        expectedException.expect(IllegalArgumentException.class);
+        InetLink.parse("localhost:80");
+    }
+
+    @Test
+    public void mustConvertToAndFromInetAddress() throws Exception {
+        InetLink ipv4Link = InetLink.parse("10.1.2.3:1234");
+        assertEquals(new InetSocketAddress(InetAddress.getByName("10.1.2.3"), 1234), ipv4Link.toInetSocketAddress());
+        assertEquals(ipv4Link, InetLink.create(ipv4Link.toInetAddress(), 1234));
+        
+        InetLink ipv6Link = InetLink.parse("[fe80::1:2]:1234");
+        assertEquals(new InetSocketAddress(InetAddress.getByName("fe80::1:2"), 1234), ipv6Link.toInetSocketAddress());
+        assertEquals(ipv6Link, InetLink.create(ipv6Link.toInetAddress(), 1234));
+    }
+
+    @Test
+    public void mustWriteAndReadBackRegardlessOfByteOrder() {
+        InetLink ipv4Link = InetLink.parse("10.1.2.3:1234");
+        InetLink ipv6Link = InetLink.parse("[fe80::1:2]:1234");
+        
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ipv4Link.write(buffer);
+        ipv6Link.write(buffer);
+        buffer.flip();
+        assertEquals(InetLink.IPV4_BYTE_LENGTH + InetLink.IPV6_BYTE_LENGTH, buffer.remaining());
+        assertEquals(0x0A010203, buffer.getInt(0));
+        assertEquals(1234, buffer.getShort(4));
+        
+        ByteBuffer littleEndianBuffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        ipv4Link.write(littleEndianBuffer);
+        ipv6Link.write(littleEndianBuffer);
+        littleEndianBuffer.flip();
+        assertEquals(buffer, littleEndianBuffer);
+        
+        assertEquals(ipv4Link, InetLink.read(littleEndianBuffer, false));
+        assertEquals(ipv6Link, InetLink.read(littleEndianBuffer, true));
+        assertFalse(littleEndianBuffer.hasRemaining());
+    }
+}
@@ -0,0 +1,147 @@
+package com.offbynull.kademlia;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures the overhead that journaling adds to each touch (compared to a plain Router), and how long it takes to recover a router from
+// a journal alone vs from a compacted snapshot.
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournaledRouterBenchmark {
+
+    private static final int BIT_LENGTH = 160;
+    private static final int RECOVERY_TOUCH_COUNT = 100000;
+    private static final Id BASE_ID = randomId(new Random(0L));
+    private static final SimpleRouteTreeStrategy STRATEGY = new SimpleRouteTreeStrategy(BASE_ID, 2, 20, 20);
+
+    @State(Scope.Thread)
+    public static class TouchState {
+        private Path directory;
+        private Router router;
+        private JournaledRouter journaledRouter;
+        private Node[] nodes;
+        private int idx;
+        
+        @Setup
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("journal");
+            router = new Router(BASE_ID, STRATEGY, STRATEGY);
+            journaledRouter = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, 16 * 1024 * 1024);
+            
+            Random random = new Random(1L);
+            nodes = new Node[1024];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new Node(randomId(random), "127.0.0.1:" + i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            journaledRouter.close();
+            deleteDirectory(directory);
+        }
+
+        Node nextNode() {
+            idx = (idx + 1) & (nodes.length - 1);
+            return nodes[idx];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RecoveryState {
+        private Path journalOnlyDirectory;
+        private Path snapshotDirectory;
+        
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            journalOnlyDirectory = Files.createTempDirectory("journal");
+            snapshotDirectory = Files.createTempDirectory("journal");
+            
+            try (JournaledRouter journalOnly = JournaledRouter.open(journalOnlyDirectory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+                    JournaledRouter snapshot = JournaledRouter.open(snapshotDirectory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE)) {
+                Random random = new Random(1L);
+                for (int i = 0; i < RECOVERY_TOUCH_COUNT; i++) {
+                    Node node = new Node(randomId(random), "127.0.0.1:" + i);
+                    journalOnly.touch(Instant.EPOCH, node);
+                    snapshot.touch(Instant.EPOCH, node);
+                }
+                snapshot.compact();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteDirectory(journalOnlyDirectory);
+            deleteDirectory(snapshotDirectory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public RouterChangeSet touchRouter(TouchState state) {
+        return state.router.touch(Instant.EPOCH, state.nextNode());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public RouterChangeSet touchJournaledRouter(TouchState state) throws IOException {
+        return state.journaledRouter.touch(Instant.EPOCH, state.nextNode());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Node> recoverFromJournal(RecoveryState state) throws IOException {
+        try (JournaledRouter router = JournaledRouter.open(state.journalOnlyDirectory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE)) {
+            return router.find(BASE_ID, 1, true);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Node> recoverFromSnapshot(RecoveryState state) throws IOException {
+        try (JournaledRouter router = JournaledRouter.open(state.snapshotDirectory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE)) {
+            return router.find(BASE_ID, 1, true);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private static Id randomId(Random random) {
+        byte[] data = new byte[BIT_LENGTH / 8];
+        random.nextBytes(data);
+        return Id.create(data, BIT_LENGTH);
+    }
+}
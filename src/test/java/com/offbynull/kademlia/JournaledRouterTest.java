@@ -0,0 +1,211 @@
+package com.offbynull.kademlia;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class JournaledRouterTest {
+
+    private static final Id BASE_ID = Id.createFromLong(0x12345678L, 32);
+    private static final SimpleRouteTreeStrategy STRATEGY = new SimpleRouteTreeStrategy(BASE_ID, 4, 4, 2);
+    private static final Instant BASE_TIME = Instant.ofEpochMilli(0L);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private Path directory;
+    private JournaledRouter fixture;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Test
+    public void mustRecoverSameStateAfterClose() throws Throwable {
+        Router reference = new Router(BASE_ID, STRATEGY, STRATEGY);
+        applyRandomOperations(new Random(0L), 5000, fixture, reference);
+        fixture.close();
+        
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+        assertArrayEquals(writeState(reference), writeState(fixture.getRouter()));
+    }
+
+    @Test
+    public void mustRecoverSameStateWithoutClose() throws Throwable {
+        // leave fixture open to simulate a crash -- records written to the mapped region are visible to the next open right away, just as
+        // they would be if the process had crashed
+        Router reference = new Router(BASE_ID, STRATEGY, STRATEGY);
+        applyRandomOperations(new Random(0L), 5000, fixture, reference);
+        
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+        assertArrayEquals(writeState(reference), writeState(fixture.getRouter()));
+    }
+
+    @Test
+    public void mustRecoverInetLinksAfterClose() throws Throwable {
+        Node ipv4Node = new Node(Id.createFromLong(0x80000000L, 32), InetLink.parse("10.0.0.1:6881"));
+        Node ipv6Node = new Node(Id.createFromLong(0x40000000L, 32), InetLink.parse("[fe80::1]:6881"));
+        fixture.touch(BASE_TIME, ipv4Node);
+        fixture.touch(BASE_TIME, ipv6Node);
+        fixture.stale(ipv6Node);
+        fixture.close();
+        
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+        assertEquals(NodeState.ALIVE, fixture.getRouter().getState(ipv4Node.getId()));
+        assertEquals(ipv4Node, fixture.getRouter().get(ipv4Node.getId()).getNode());
+        assertEquals(NodeState.STALE, fixture.getRouter().getState(ipv6Node.getId()));
+        assertEquals(ipv6Node, fixture.getRouter().get(ipv6Node.getId()).getNode());
+    }
+
+    @Test
+    public void mustRecoverSameStateAfterCompactions() throws Throwable {
+        fixture.close();
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, 4096);
+        
+        Router reference = new Router(BASE_ID, STRATEGY, STRATEGY);
+        Random random = new Random(0L);
+        Instant time = applyRandomOperations(random, 5000, fixture, reference);
+        fixture.close();
+        
+        // only the latest generation must be left over
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2L, files.count());
+        }
+        assertFalse(Files.exists(directory.resolve("journal.0")));
+        
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, 4096);
+        assertArrayEquals(writeState(reference), writeState(fixture.getRouter()));
+        
+        // must continue on from recovered state
+        applyRandomOperations(random, time, 5000, fixture, reference);
+        fixture.close();
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, 4096);
+        assertArrayEquals(writeState(reference), writeState(fixture.getRouter()));
+    }
+
+    @Test
+    public void mustIgnorePartiallyWrittenRecordAtEndOfJournal() throws Throwable {
+        Router reference = new Router(BASE_ID, STRATEGY, STRATEGY);
+        Random random = new Random(0L);
+        Instant time = applyRandomOperations(random, 100, fixture, reference);
+        fixture.close();
+        
+        // write the length of a record but not its payload/crc, as if the process died part way through writing the record
+        try (FileChannel channel = FileChannel.open(directory.resolve("journal.0"), WRITE)) {
+            ByteBuffer partialRecord = ByteBuffer.allocate(8);
+            partialRecord.putInt(20);
+            partialRecord.putInt(0);
+            partialRecord.flip();
+            channel.write(partialRecord, Files.size(directory.resolve("journal.0")));
+        }
+
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+        assertArrayEquals(writeState(reference), writeState(fixture.getRouter()));
+        
+        // must be able to write past it
+        applyRandomOperations(random, time, 100, fixture, reference);
+        fixture.close();
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+        assertArrayEquals(writeState(reference), writeState(fixture.getRouter()));
+    }
+
+    @Test
+    public void mustRecoverSideEffectsOfFailedTouch() throws Throwable {
+        // touch with own ID fails, but only after the router has updated its last touch time
+        try {
+            fixture.touch(BASE_TIME.plusMillis(2L), new Node(BASE_ID, "self"));
+        } catch (BaseIdMatchException bime) {
+            // expected
+        }
+        fixture.close();
+        
+        fixture = JournaledRouter.open(directory, BASE_ID, STRATEGY, STRATEGY, Integer.MAX_VALUE);
+        expectedException.expect(BackwardTimeException.class);
+        fixture.touch(BASE_TIME.plusMillis(1L), new Node(Id.createFromLong(0x80000000L, 32), "1"));
+    }
+
+    @Test
+    public void mustFailToOpenWithDifferentId() throws Throwable {
+        fixture.touch(BASE_TIME, new Node(Id.createFromLong(0x80000000L, 32), "1"));
+        fixture.compact();
+        fixture.close();
+        
+        Id otherId = Id.createFromLong(0x87654321L, 32);
+        SimpleRouteTreeStrategy otherStrategy = new SimpleRouteTreeStrategy(otherId, 4, 4, 2);
+        expectedException.expect(IOException.class);
+        fixture = JournaledRouter.open(directory, otherId, otherStrategy, otherStrategy, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void mustFailToTouchWhenClosed() throws Throwable {
+        fixture.close();
+        
+        expectedException.expect(IllegalStateException.class);
+        fixture.touch(BASE_TIME, new Node(Id.createFromLong(0x80000000L, 32), "1"));
+    }
+
+    private static Instant applyRandomOperations(Random random, int count, JournaledRouter journaledRouter, Router reference)
+            throws IOException {
+        return applyRandomOperations(random, BASE_TIME, count, journaledRouter, reference);
+    }
+
+    // applies the same random touches/stales to journaledRouter and reference, making sure that both report the same changes
+    private static Instant applyRandomOperations(Random random, Instant time, int count, JournaledRouter journaledRouter,
+            Router reference) throws IOException {
+        for (int i = 0; i < count; i++) {
+            time = time.plusMillis(random.nextInt(2));
+            long value = (random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32);
+            Id id = Id.createFromLong(value, 32);
+            if (id.equals(BASE_ID)) {
+                continue;
+            }
+
+            if (random.nextInt(4) == 0) {
+                List<Node> closest = reference.find(id, 1, false);
+                if (!closest.isEmpty()) {
+                    assertEquals(reference.stale(closest.get(0)), journaledRouter.stale(closest.get(0)));
+                }
+            } else {
+                Node node = new Node(id, Long.toHexString(value));
+                assertEquals(reference.touch(time, node), journaledRouter.touch(time, node));
+            }
+        }
+        assertTrue(count == 0 || !reference.find(BASE_ID, 1, true).isEmpty());
+        return time;
+    }
+
+    private static byte[] writeState(Router router) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        router.writeState(Channels.newChannel(os));
+        return os.toByteArray();
+    }
+}
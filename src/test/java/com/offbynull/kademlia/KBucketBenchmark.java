@@ -0,0 +1,118 @@
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// KBucket operations on a full k-bucket (20 nodes) with a full replacement cache (20 nodes).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KBucketBenchmark {
+
+    private static final int BUCKET_SIZE = 20;
+    private static final int NODE_COUNT = 64; // power of 2, more than BUCKET_SIZE * 2 so that touches move nodes between bucket / cache
+    private static final Instant TIME = Instant.ofEpochMilli(0L); // same time for all touches, so that time never goes backwards
+
+    @Param({"32", "160", "256"})
+    public int bitLength;
+
+    private Id baseId;
+    private Node[] nodes;
+    private KBucket bucket;
+    private KBucket noCacheBucket;
+    private int idx;
+    private final CountingListener countingListener = new CountingListener();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        baseId = randomId(random, bitLength);
+        nodes = new Node[NODE_COUNT];
+        for (int i = 0; i < NODE_COUNT; i++) {
+            nodes[i] = new Node(randomId(random, bitLength), "" + i);
+        }
+
+        bucket = new KBucket(baseId, BitString.createFromString(""), BUCKET_SIZE, BUCKET_SIZE);
+        noCacheBucket = new KBucket(baseId, BitString.createFromString(""), BUCKET_SIZE, 0);
+        for (Node node : nodes) {
+            bucket.touch(TIME, node);
+            noCacheBucket.touch(TIME, node);
+        }
+    }
+
+    @Benchmark
+    public KBucketChangeSet touch() {
+        idx = (idx + 1) & (NODE_COUNT - 1);
+        return bucket.touch(TIME, nodes[idx]);
+    }
+
+    @Benchmark
+    public KBucketChangeSet touchNanos() {
+        idx = (idx + 1) & (NODE_COUNT - 1);
+        return bucket.touch(0L, nodes[idx]);
+    }
+
+    @Benchmark
+    public int touchListener() {
+        idx = (idx + 1) & (NODE_COUNT - 1);
+        bucket.touch(0L, nodes[idx], countingListener);
+        return countingListener.count;
+    }
+
+    @Benchmark
+    public KBucketChangeSet stale() {
+        // no replacement cache, so nodes stay in the k-bucket after being marked stale and can be marked stale again
+        idx = (idx + 1) % BUCKET_SIZE;
+        return noCacheBucket.stale(nodes[idx]);
+    }
+
+    @Benchmark
+    public KBucket[] split() {
+        return bucket.split(1);
+    }
+
+    private static final class CountingListener implements ChangeListener {
+        private int count;
+
+        @Override
+        public void bucketAdded(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void bucketUpdated(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void cacheAdded(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void cacheUpdated(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+    }
+
+    private static Id randomId(Random random, int bitLength) {
+        byte[] data = new byte[(bitLength + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(BitString.createReadOrder(data, 0, bitLength));
+    }
+}
@@ -41,6 +41,63 @@ public class KBucketTest {
     public ExpectedException expectedException = ExpectedException.none();
 
 
+    @Test
+    public void mustAcceptNanosecondTimesInterchangeablyWithInstants() throws Throwable {
+        fixture.touch(1_000_001L, NODE_0010);
+        fixture.touch(BASE_TIME.plusMillis(2L), NODE_1000);
+        fixture.touch(3_000_000L, NODE_0100);
+        
+        verifyTimeInActivities(fixture.dumpBucket(true, true, true),
+                BASE_TIME.plusNanos(1_000_001L),
+                BASE_TIME.plusMillis(2L),
+                BASE_TIME.plusMillis(3L));
+        assertEquals(3_000_000L, fixture.dumpBucket(true, true, true).get(2).getTimeNanos());
+        assertEquals(BASE_TIME.plusMillis(3L), fixture.getLatestBucketActivityTime());
+    }
+
+    @Test
+    public void mustRejectNanosecondTimeBeforeLastTouchTime() throws Throwable {
+        fixture.touch(BASE_TIME.plusMillis(2L), NODE_1000);
+        
+        expectedException.expect(BackwardTimeException.class);
+        fixture.touch(1_999_999L, NODE_0010);
+    }
+
+    @Test
+    public void mustGetNodesAndStatesById() throws Throwable {
+        fixture.touch(BASE_TIME.plusMillis(1L), NODE_0001);
+        fixture.touch(BASE_TIME.plusMillis(2L), NODE_0010);
+        fixture.touch(BASE_TIME.plusMillis(3L), NODE_0011);
+        fixture.touch(BASE_TIME.plusMillis(4L), NODE_0100);
+        fixture.touch(BASE_TIME.plusMillis(5L), NODE_0101); // bucket full, goes in to cache
+        fixture.lock(NODE_0010);
+        fixture.unlock(NODE_0010);
+        fixture.lock(NODE_0011);
+        fixture.stale(NODE_0100); // cache not empty, replaced by NODE_0101
+        
+        assertEquals(NodeState.ALIVE, fixture.getState(NODE_0001.getId()));
+        assertEquals(NodeState.ALIVE, fixture.getState(NODE_0010.getId()));
+        assertEquals(NodeState.LOCKED, fixture.getState(NODE_0011.getId()));
+        assertNull(fixture.getState(NODE_0100.getId()));
+        assertEquals(NodeState.ALIVE, fixture.getState(NODE_0101.getId()));
+        assertNull(fixture.getState(NODE_0110.getId()));
+        assertEquals(new Activity(NODE_0101, BASE_TIME.plusMillis(5L)), fixture.get(NODE_0101.getId()));
+        assertNull(fixture.get(NODE_0100.getId()));
+        
+        fixture.touch(BASE_TIME.plusMillis(6L), NODE_0110); // bucket full, goes in to cache
+        fixture.stale(NODE_0001); // replaced by NODE_0110
+        fixture.stale(NODE_0101); // cache empty, stays in bucket as stale
+        fixture.touch(BASE_TIME.plusMillis(7L), NODE_0111); // replaces stale NODE_0101
+        fixture.touch(BASE_TIME.plusMillis(8L), NODE_1000); // bucket full, goes in to cache
+        
+        assertEquals(NodeState.CACHED, fixture.getState(NODE_1000.getId()));
+        assertEquals(new Activity(NODE_1000, BASE_TIME.plusMillis(8L)), fixture.get(NODE_1000.getId()));
+        fixture.stale(NODE_0110); // replaced by NODE_1000
+        fixture.stale(NODE_0111); // cache empty, stays in bucket as stale
+        assertEquals(NodeState.STALE, fixture.getState(NODE_0111.getId()));
+        assertEquals(NodeState.ALIVE, fixture.getState(NODE_1000.getId()));
+    }
+
     @Test
     public void mustPrioritizeOnTouch() throws Throwable {
         // insert in to bucket first, once bucket is full dump in to cache
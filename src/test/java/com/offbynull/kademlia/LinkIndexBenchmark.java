@@ -0,0 +1,96 @@
+package com.offbynull.kademlia;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Router.touch() with and without the link index enabled, and Router.getByLink() (160-bit IDs, k = 20). Touches cycle through a pool of
+// nodes bigger than the table can hold, so touches keep adding / evicting / replacing nodes rather than just updating them.
+//
+// linkType picks between string links and InetLinks. getByLink() starts from the raw address + port of an incoming packet, so for string
+// links it includes formatting the address in to a string (which is what has to happen to look up a string link).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LinkIndexBenchmark {
+
+    private static final int BIT_LENGTH = 160;
+    private static final int BUCKET_SIZE = 20;
+    private static final int NODE_COUNT = 4096; // power of 2
+
+    @Param({"false", "true"})
+    public boolean indexLinks;
+
+    @Param({"string", "inet"})
+    public String linkType;
+
+    private Router router;
+    private Node[] nodes;
+    private int[] addresses;
+    private int[] ports;
+    private long time;
+    private int idx;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        Id baseId = randomId(random);
+        router = new Router(baseId, 2, BUCKET_SIZE, BUCKET_SIZE);
+        if (indexLinks) {
+            router.enableLinkIndex();
+        }
+        
+        nodes = new Node[NODE_COUNT];
+        addresses = new int[NODE_COUNT];
+        ports = new int[NODE_COUNT];
+        for (int i = 0; i < NODE_COUNT; i++) {
+            addresses[i] = 0x0A000000 | i;
+            ports[i] = 6881;
+            InetLink link = InetLink.createIpv4(addresses[i], ports[i]);
+            nodes[i] = linkType.equals("inet") ? new Node(randomId(random), link) : new Node(randomId(random), link.toString());
+            router.touch(0L, nodes[i]);
+        }
+    }
+
+    @Benchmark
+    public void touch() {
+        idx = (idx + 1) & (NODE_COUNT - 1);
+        router.touch(++time, nodes[idx], KBucket.NO_OP_LISTENER);
+    }
+
+    @Benchmark
+    public Node getByLink() {
+        idx = (idx + 1) & (NODE_COUNT - 1);
+        if (!indexLinks) {
+            return null;
+        }
+        
+        int address = addresses[idx];
+        int port = ports[idx];
+        if (linkType.equals("inet")) {
+            return router.getByLink(InetLink.createIpv4(address, port));
+        } else {
+            return router.getByLink((address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "."
+                    + (address & 0xFF) + ":" + port);
+        }
+    }
+
+    private static Id randomId(Random random) {
+        byte[] data = new byte[(BIT_LENGTH + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(BitString.createReadOrder(data, 0, BIT_LENGTH));
+    }
+}
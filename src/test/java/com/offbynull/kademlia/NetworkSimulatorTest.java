@@ -0,0 +1,63 @@
+package com.offbynull.kademlia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class NetworkSimulatorTest {
+
+    private static final int NODE_COUNT = 500;
+    private static final int BIT_LENGTH = 32;
+    private static final int LOOKUP_COUNT = 200;
+    private static final LatencyModel NO_LOSS = new LatencyModel(10L, 50L, 0.0, 200L);
+
+    @Test
+    public void mustFindClosestNodesWhenNoChurnOrLoss() {
+        NetworkSimulator simulator = new NetworkSimulator(0L, NODE_COUNT, BIT_LENGTH, 2, 8, 8, 3, NO_LOSS, ChurnModel.NONE);
+        SimulationResult result = simulator.run(LOOKUP_COUNT);
+        
+        assertEquals(LOOKUP_COUNT, result.getLookupCount());
+        assertEquals(0, result.getEmptyLookupCount());
+        assertTrue(result.getLookupAccuracy() > 0.95);
+        assertEquals(1.0, result.getRoutingTableLiveness(), 0.0);
+        
+        assertTrue(result.getHopPercentile(0.0) >= 1);
+        assertTrue(result.getHopPercentile(50.0) <= result.getHopPercentile(99.0));
+        assertTrue(result.getLatencyPercentile(0.0) >= 20L); // at least 1 round-trip
+        assertTrue(result.getLatencyPercentile(50.0) <= result.getLatencyPercentile(99.0));
+        assertTrue(result.getLatencyPercentile(100.0) < 200L * result.getHopPercentile(100.0) * 8); // never timed out
+    }
+
+    @Test
+    public void mustProduceSameResultsForSameSeed() {
+        LatencyModel latencyModel = new LatencyModel(10L, 50L, 0.05, 200L);
+        ChurnModel churnModel = new ChurnModel(60000L, 20000L);
+        
+        SimulationResult result1 = new NetworkSimulator(1L, NODE_COUNT, BIT_LENGTH, 2, 8, 8, 3, latencyModel, churnModel)
+                .run(LOOKUP_COUNT);
+        SimulationResult result2 = new NetworkSimulator(1L, NODE_COUNT, BIT_LENGTH, 2, 8, 8, 3, latencyModel, churnModel)
+                .run(LOOKUP_COUNT);
+        
+        assertEquals(result1.toString(), result2.toString());
+    }
+
+    @Test
+    public void mustCompleteAllLookupsUnderChurnAndLoss() {
+        LatencyModel latencyModel = new LatencyModel(10L, 50L, 0.1, 200L);
+        ChurnModel churnModel = new ChurnModel(10000L, 10000L);
+        NetworkSimulator simulator = new NetworkSimulator(2L, NODE_COUNT, BIT_LENGTH, 2, 8, 8, 3, latencyModel, churnModel);
+        SimulationResult result = simulator.run(LOOKUP_COUNT);
+        
+        assertEquals(LOOKUP_COUNT, result.getLookupCount());
+        assertTrue(result.getRoutingTableLiveness() < 1.0); // nodes went offline
+        assertTrue(result.getLookupAccuracy() > 0.0);
+        assertTrue(result.getLatencyPercentile(100.0) >= 200L); // some queries timed out
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mustFailWhenRunTwice() {
+        NetworkSimulator simulator = new NetworkSimulator(0L, 10, BIT_LENGTH, 2, 8, 8, 3, NO_LOSS, ChurnModel.NONE);
+        simulator.run(1);
+        simulator.run(1);
+    }
+}
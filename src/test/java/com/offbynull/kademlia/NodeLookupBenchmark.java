@@ -0,0 +1,92 @@
+package com.offbynull.kademlia;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Full iterative lookups over an InMemoryNetwork (no networking, queries answered on the calling thread), so this measures the CPU cost
+// of a lookup: router access on both ends, shortlist maintenance and the number of rounds needed to converge for a given alpha.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeLookupBenchmark {
+
+    private static final int BIT_LENGTH = 160;
+    private static final int K = 20;
+    private static final int BOOTSTRAP_COUNT = 20;
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(0L), ZoneOffset.UTC);
+
+    @Param({"1", "3"})
+    public int alpha;
+
+    @Param({"1000"})
+    public int nodeCount;
+
+    private NodeLookup[] lookups;
+    private Id[] targets;
+    private int idx;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        Random random = new Random(0L);
+        InMemoryNetwork network = new InMemoryNetwork(CLOCK);
+        
+        List<Node> nodes = new ArrayList<>(nodeCount);
+        List<Router> routers = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            Node node = new Node(randomId(random), "" + i);
+            Router router = new Router(node.getId(), 2, K, K);
+            network.add(node, router);
+            nodes.add(node);
+            routers.add(router);
+        }
+
+        // join: each node knows about a few random nodes, then looks up its own ID
+        lookups = new NodeLookup[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            for (int j = 0; j < BOOTSTRAP_COUNT; j++) {
+                Node contact = nodes.get(random.nextInt(nodeCount));
+                if (!contact.equals(nodes.get(i))) {
+                    routers.get(i).touch(CLOCK.instant(), contact);
+                }
+            }
+            lookups[i] = new NodeLookup(routers.get(i), network.createTransport(nodes.get(i)), CLOCK, alpha, K);
+            lookups[i].lookup(nodes.get(i).getId());
+        }
+
+        targets = new Id[1024];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = randomId(random);
+        }
+    }
+
+    @Benchmark
+    public List<Node> lookup() throws InterruptedException {
+        idx = (idx + 1) & (targets.length - 1);
+        return lookups[idx % lookups.length].lookup(targets[idx]);
+    }
+
+    private static Id randomId(Random random) {
+        byte[] data = new byte[BIT_LENGTH / 8];
+        random.nextBytes(data);
+        return Id.create(data, BIT_LENGTH);
+    }
+}
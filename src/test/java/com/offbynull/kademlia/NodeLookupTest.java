@@ -0,0 +1,215 @@
+package com.offbynull.kademlia;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Test;
+
+public class NodeLookupTest {
+
+    private static final int BIT_LENGTH = 32;
+    private static final int NODE_COUNT = 200;
+    private static final int K = 8;
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(0L), ZoneOffset.UTC);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mustFindClosestNodesInNetwork() throws Throwable {
+        Random random = new Random(0L);
+        InMemoryNetwork network = new InMemoryNetwork(CLOCK);
+        List<Node> nodes = createNodes(random, NODE_COUNT);
+        List<Router> routers = joinNetwork(random, network, nodes, 5);
+        
+        for (int i = 0; i < 20; i++) {
+            Id target = randomId(random);
+            int sourceIdx = random.nextInt(NODE_COUNT);
+            Node source = nodes.get(sourceIdx);
+            NodeLookup lookup = new NodeLookup(routers.get(sourceIdx), network.createTransport(source), CLOCK, 3, K);
+            
+            List<Node> expected = closest(nodes, source, target, K);
+            assertEquals(expected, lookup.lookup(target));
+        }
+    }
+
+    @Test
+    public void mustFindClosestNodesInNetworkWhenRespondingFromOtherThreads() throws Throwable {
+        Random random = new Random(0L);
+        InMemoryNetwork network = new InMemoryNetwork(CLOCK, executor);
+        List<Node> nodes = createNodes(random, NODE_COUNT);
+        List<Router> routers = joinNetwork(random, network, nodes, 5);
+        
+        for (int i = 0; i < 20; i++) {
+            Id target = randomId(random);
+            int sourceIdx = random.nextInt(NODE_COUNT);
+            Node source = nodes.get(sourceIdx);
+            NodeLookup lookup = new NodeLookup(routers.get(sourceIdx), network.createTransport(source), CLOCK, 3, K);
+            
+            List<Node> expected = closest(nodes, source, target, K);
+            assertEquals(expected, lookup.lookup(target));
+        }
+    }
+
+    @Test
+    public void mustTouchRespondingNodesAndStaleFailedNodes() throws Throwable {
+        Random random = new Random(0L);
+        InMemoryNetwork network = new InMemoryNetwork(CLOCK);
+        List<Node> nodes = createNodes(random, NODE_COUNT);
+        List<Router> routers = joinNetwork(random, network, nodes, 5);
+        
+        Node source = nodes.get(0);
+        Router router = routers.get(0);
+        Id target = randomId(random);
+        List<Node> seeds = router.find(target, K, false);
+        for (Node node : nodes) {
+            if (!node.equals(source)) {
+                network.setOnline(node.getId(), false);
+            }
+        }
+        
+        // every node that was queried (the closest nodes in the router) failed to respond, so they must have been marked as stale
+        assertTrue(new NodeLookup(router, network.createTransport(source), CLOCK, 3, K).lookup(target).isEmpty());
+        List<Node> afterLookup = router.find(source.getId(), Integer.MAX_VALUE, false);
+        for (Node seed : seeds) {
+            assertFalse(afterLookup.contains(seed));
+        }
+        
+        // bring them back online and look up again... stale nodes that respond must get touched back to normal
+        for (Node node : nodes) {
+            network.setOnline(node.getId(), true);
+        }
+        List<Node> found = new NodeLookup(router, network.createTransport(source), CLOCK, 3, K).lookup(target);
+        assertEquals(closest(nodes, source, target, K), found);
+        afterLookup = router.find(source.getId(), Integer.MAX_VALUE, true);
+        for (Node seed : seeds) {
+            if (found.contains(seed) && afterLookup.contains(seed)) {
+                assertTrue(router.find(source.getId(), Integer.MAX_VALUE, false).contains(seed));
+            }
+        }
+    }
+
+    @Test
+    public void mustNotHaveMoreThanAlphaQueriesInFlight() throws Throwable {
+        Random random = new Random(0L);
+        InMemoryNetwork network = new InMemoryNetwork(CLOCK);
+        List<Node> nodes = createNodes(random, NODE_COUNT);
+        List<Router> routers = joinNetwork(random, network, nodes, 20);
+        
+        Node source = nodes.get(0);
+        LookupTransport networkTransport = network.createTransport(source);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        LookupTransport countingTransport = (destination, target, max) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            CompletableFuture<List<Node>> future = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(1L);
+                    List<Node> res = networkTransport.findNode(destination, target, max).get();
+                    inFlight.decrementAndGet();
+                    future.complete(res);
+                } catch (Exception e) {
+                    inFlight.decrementAndGet();
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        };
+        
+        new NodeLookup(routers.get(0), countingTransport, CLOCK, 3, K).lookup(randomId(random));
+        assertEquals(3, maxInFlight.get());
+    }
+
+    @Test
+    public void mustReturnNothingIfRouterEmpty() throws Throwable {
+        Router router = new Router(Id.createFromLong(0L, BIT_LENGTH), 2, K, K);
+        LookupTransport transport = (destination, target, max) -> {
+            throw new IllegalStateException();
+        };
+        
+        assertTrue(new NodeLookup(router, transport, CLOCK, 3, K).lookup(Id.createFromLong(1L, BIT_LENGTH)).isEmpty());
+    }
+
+    @Test
+    public void mustTreatTransportErrorsAsFailures() throws Throwable {
+        Node source = new Node(Id.createFromLong(0L, BIT_LENGTH), "0");
+        Node other = new Node(Id.createFromLong(1L, BIT_LENGTH), "1");
+        Router router = new Router(source.getId(), 2, K, K);
+        router.touch(CLOCK.instant(), other);
+        LookupTransport transport = (destination, target, max) -> {
+            CompletableFuture<List<Node>> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException());
+            return future;
+        };
+        
+        assertTrue(new NodeLookup(router, transport, CLOCK, 3, K).lookup(other.getId()).isEmpty());
+        assertTrue(router.find(other.getId(), K, false).isEmpty());
+        assertEquals(Collections.singletonList(other), router.find(other.getId(), K, true)); // stale
+    }
+
+    private static List<Node> createNodes(Random random, int count) {
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node(randomId(random), "" + i));
+        }
+        return nodes;
+    }
+
+    // each node starts off knowing about a few random nodes, then does a lookup on its own ID (like a real Kademlia node joining)
+    private static List<Router> joinNetwork(Random random, InMemoryNetwork network, List<Node> nodes, int bootstrapCount)
+            throws InterruptedException {
+        List<Router> routers = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            Router router = new Router(node.getId(), 2, K, K);
+            network.add(node, router);
+            routers.add(router);
+        }
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Router router = routers.get(i);
+            for (int j = 0; j < bootstrapCount; j++) {
+                Node contact = nodes.get(random.nextInt(nodes.size()));
+                if (!contact.equals(nodes.get(i))) {
+                    router.touch(CLOCK.instant(), contact);
+                }
+            }
+        }
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            new NodeLookup(routers.get(i), network.createTransport(node), CLOCK, 3, K).lookup(node.getId());
+        }
+
+        return routers;
+    }
+
+    private static List<Node> closest(List<Node> nodes, Node exclude, Id target, int k) {
+        IdXorMetricComparator comparator = new IdXorMetricComparator(target);
+        List<Node> sorted = new ArrayList<>(nodes);
+        sorted.remove(exclude);
+        sorted.sort((x, y) -> comparator.compare(x.getId(), y.getId()));
+        return sorted.subList(0, k);
+    }
+
+    private static Id randomId(Random random) {
+        return Id.createFromLong(random.nextInt() & 0xFFFFFFFFL, BIT_LENGTH);
+    }
+}
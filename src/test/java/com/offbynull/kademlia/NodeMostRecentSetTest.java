@@ -393,4 +393,46 @@ public final class NodeMostRecentSetTest {
     public void mustGetNullForLatestActivityTimeIfEmpty() throws Throwable {
         assertNull(fixture.lastestActivityTime());
     }
+
+    @Test
+    public void mustKeepNodesWithSameTimeInReverseInsertionOrder() throws Throwable {
+        ActivityChangeSet res;
+        
+        fixture.touch(BASE_TIME.plusMillis(1L), NODE_0010, false);
+        fixture.touch(BASE_TIME.plusMillis(1L), NODE_0100, false);
+        fixture.touch(BASE_TIME.plusMillis(1L), NODE_1000, false);
+        fixture.touch(BASE_TIME.plusMillis(1L), NODE_1100, false);
+        
+        res = fixture.touch(BASE_TIME.plusMillis(1L), NODE_1111, false); // added at start, then discarded because it's first
+        verifyActivityChangeSetCounts(res, 0, 0, 0);
+        
+        res = fixture.touch(BASE_TIME.plusMillis(1L), NODE_1000, false); // moved to start
+        verifyActivityChangeSetCounts(res, 0, 0, 1);
+        verifyActivityChangeSetUpdated(res, NODE_1000);
+        
+        assertEquals(NODE_1000, fixture.dump().get(0).getNode());
+        assertEquals(NODE_1100, fixture.dump().get(1).getNode());
+        assertEquals(NODE_0100, fixture.dump().get(2).getNode());
+        assertEquals(NODE_0010, fixture.dump().get(3).getNode());
+        assertEquals(4, fixture.size());
+    }
+
+    @Test
+    public void mustOnlyDiscardExcessNodesWhenResizing() throws Throwable {
+        ActivityChangeSet res;
+        
+        fixture.touch(BASE_TIME.plusMillis(1L), NODE_0010, false);
+        fixture.touch(BASE_TIME.plusMillis(2L), NODE_0100, false);
+        fixture.touch(BASE_TIME.plusMillis(3L), NODE_1000, false);
+        
+        res = fixture.resize(3);
+        verifyActivityChangeSetCounts(res, 0, 0, 0);
+        
+        res = fixture.resize(1);
+        verifyActivityChangeSetCounts(res, 0, 2, 0);
+        verifyActivityChangeSetRemoved(res, NODE_0010, NODE_0100);
+        
+        assertEquals(NODE_1000, fixture.dump().get(0).getNode());
+        assertEquals(1, fixture.size());
+    }
 }
@@ -0,0 +1,139 @@
+package com.offbynull.kademlia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class NodeTest {
+    
+    private static final Node NODE = new Node(Id.createFromLong(0x1234567L, 28), "héllo:6881");
+    
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void mustWriteAndReadBackFromHeapBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.position(7);
+        NODE.write(buffer);
+        assertEquals(7 + 4 + 4 + 11, buffer.position());
+        
+        buffer.flip();
+        buffer.position(7);
+        assertEquals(NODE, Node.create(buffer, 28));
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void mustWriteAndReadBackFromDirectBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        NODE.write(buffer);
+        
+        buffer.flip();
+        assertEquals(NODE, Node.create(buffer, 28));
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void mustWriteSameBytesRegardlessOfByteOrder() {
+        ByteBuffer bigEndianBuffer = ByteBuffer.allocate(64);
+        NODE.write(bigEndianBuffer);
+        bigEndianBuffer.flip();
+        
+        ByteBuffer littleEndianBuffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        NODE.write(littleEndianBuffer);
+        littleEndianBuffer.flip();
+        
+        assertEquals(bigEndianBuffer, littleEndianBuffer);
+        assertEquals(11, bigEndianBuffer.getInt(4));
+        assertEquals(NODE, Node.create(littleEndianBuffer, 28));
+    }
+
+    @Test
+    public void mustNotWriteAnythingIfNodeDoesNotFit() {
+        ByteBuffer buffer = ByteBuffer.allocate(18);
+        try {
+            NODE.write(buffer);
+            fail();
+        } catch (BufferOverflowException boe) {
+            // expected
+        }
+        assertEquals(0, buffer.position());
+        assertEquals(ByteBuffer.allocate(18), buffer);
+    }
+
+    @Test
+    public void mustNotReadAnythingIfLinkTruncated() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        NODE.write(buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        try {
+            Node.create(buffer, 28);
+            fail();
+        } catch (BufferUnderflowException bue) {
+            // expected
+        }
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void mustWriteAndReadBackInetLinks() {
+        Node ipv4Node = new Node(NODE.getId(), InetLink.parse("10.0.0.1:6881"));
+        Node ipv6Node = new Node(NODE.getId(), InetLink.parse("[fe80::1]:6881"));
+        
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ipv4Node.write(buffer);
+        assertEquals(ipv4Node.getByteLength(), buffer.position());
+        ipv6Node.write(buffer);
+        assertEquals(ipv4Node.getByteLength() + ipv6Node.getByteLength(), buffer.position());
+        
+        buffer.flip();
+        assertEquals(ipv4Node, Node.create(buffer, 28));
+        assertEquals(ipv6Node, Node.create(buffer, 28));
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void mustCalculateByteLengthOfStringLinks() {
+        String[] links = new String[] { "", "abc", "héllo", "\u20AC", "\uD83D\uDE00", "\uD83D", "\uDE00x", "x\uD83D" };
+        for (String link : links) {
+            Node node = new Node(NODE.getId(), link);
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            node.write(buffer);
+            assertEquals(link, buffer.position(), node.getByteLength());
+        }
+    }
+
+    @Test
+    public void mustTreatStringAndTypedLinksAsDifferent() {
+        Node stringLinkNode = new Node(NODE.getId(), "10.0.0.1:6881");
+        Node inetLinkNode = new Node(NODE.getId(), InetLink.parse("10.0.0.1:6881"));
+        
+        assertEquals(new StringLink("10.0.0.1:6881"), stringLinkNode.getTypedLink());
+        assertEquals(stringLinkNode.getLink(), inetLinkNode.getLink());
+        assertNotEquals(stringLinkNode, inetLinkNode);
+    }
+
+    @Test
+    public void mustFailReadingIfLinkTypeUnrecognized() {
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.putInt(4, -3);
+        expectedException.expect(IllegalArgumentException.class);
+        Node.create(buffer, 28);
+    }
+
+    @Test
+    public void mustFailWritingIfLinkTypeUnsupported() {
+        Node node = new Node(NODE.getId(), new Link() { });
+        expectedException.expect(IllegalArgumentException.class);
+        node.write(ByteBuffer.allocate(64));
+    }
+}
@@ -0,0 +1,121 @@
+package com.offbynull.kademlia;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RouteTree.find() (k = 20) for different ID lengths, branch factors and numbers of nodes touched in to the table, along with pulling the
+// same number of nodes (or just the first node) off of RouteTree.iterateClosest(). The filtered benchmarks want k nodes that pass a filter
+// that rejects about half of all nodes -- either by pushing the filter down in to find() or by over-fetching 2k nodes and filtering them.
+// RouteTree.getState() is also benchmarked, on IDs of nodes that were touched in to the table.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouteTreeBenchmark {
+
+    private static final int BUCKET_SIZE = 20;
+    private static final int SEARCH_ID_COUNT = 1024;
+    private static final Instant TIME = Instant.ofEpochMilli(0L); // same time for all touches, so that time never goes backwards
+    private static final Predicate<Activity> FILTER = x -> (x.getNode().getLink().hashCode() & 1) == 0; // rejects about half
+
+    @Param({"32", "160", "256"})
+    public int bitLength;
+
+    @Param({"2", "4", "16"})
+    public int branchesPerLevel;
+
+    @Param({"100", "1000", "10000"})
+    public int touchCount;
+
+    private RouteTree routeTree;
+    private Id[] searchIds;
+    private Id[] touchedIds;
+    private int idx;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        Id baseId = randomId(random, bitLength);
+        SimpleRouteTreeStrategy strategy = new SimpleRouteTreeStrategy(baseId, branchesPerLevel, BUCKET_SIZE, BUCKET_SIZE);
+        routeTree = new RouteTree(baseId, strategy, strategy);
+        touchedIds = new Id[SEARCH_ID_COUNT];
+        for (int i = 0; i < touchCount; i++) {
+            Id id = randomId(random, bitLength);
+            routeTree.touch(TIME, new Node(id, "" + i));
+            touchedIds[i & (SEARCH_ID_COUNT - 1)] = id;
+        }
+
+        searchIds = new Id[SEARCH_ID_COUNT];
+        for (int i = 0; i < SEARCH_ID_COUNT; i++) {
+            searchIds[i] = randomId(random, bitLength);
+        }
+    }
+
+    @Benchmark
+    public List<Activity> find() {
+        idx = (idx + 1) & (SEARCH_ID_COUNT - 1);
+        return routeTree.find(searchIds[idx], BUCKET_SIZE, false);
+    }
+
+    @Benchmark
+    public List<Activity> findFiltered() {
+        idx = (idx + 1) & (SEARCH_ID_COUNT - 1);
+        return routeTree.find(searchIds[idx], BUCKET_SIZE, false, FILTER);
+    }
+
+    @Benchmark
+    public List<Activity> findOverFetchThenFilter() {
+        idx = (idx + 1) & (SEARCH_ID_COUNT - 1);
+        List<Activity> ret = routeTree.find(searchIds[idx], BUCKET_SIZE * 2, false);
+        ret.removeIf(FILTER.negate());
+        return ret.size() > BUCKET_SIZE ? ret.subList(0, BUCKET_SIZE) : ret;
+    }
+
+    @Benchmark
+    public NodeState getState() {
+        idx = (idx + 1) & (SEARCH_ID_COUNT - 1);
+        Id id = touchedIds[idx % touchCount];
+        return routeTree.getState(id);
+    }
+
+    @Benchmark
+    public Activity iterateClosest() {
+        idx = (idx + 1) & (SEARCH_ID_COUNT - 1);
+        Iterator<Activity> it = routeTree.iterateClosest(searchIds[idx], false);
+        Activity last = null;
+        for (int i = 0; i < BUCKET_SIZE && it.hasNext(); i++) {
+            last = it.next();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Activity iterateClosestFirst() {
+        idx = (idx + 1) & (SEARCH_ID_COUNT - 1);
+        Iterator<Activity> it = routeTree.iterateClosest(searchIds[idx], false);
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private static Id randomId(Random random, int bitLength) {
+        byte[] data = new byte[(bitLength + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(BitString.createReadOrder(data, 0, bitLength));
+    }
+}
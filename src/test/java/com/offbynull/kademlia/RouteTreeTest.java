@@ -6,9 +6,15 @@ import static com.offbynull.kademlia.TestUtils.verifyActivityChangeSetRemoved;
 import static com.offbynull.kademlia.TestUtils.verifyNodesInActivities;
 import static com.offbynull.kademlia.TestUtils.verifyPrefixMatches;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Collectors;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -91,6 +97,42 @@ public final class RouteTreeTest {
         verifyActivityChangeSetAdded(res.getKBucketChangeSet().getCacheChangeSet(), NODE_0111);
     }
 
+    @Test
+    public void mustAddNodesToProperBucketsWhenBranchCountsDifferPerLevel() throws Throwable {
+        // 2 branches at root (prefix length 0), 4 branches at prefix length 1, 2 branches at prefix length 3
+        RouteTreeBranchStrategy branchStrategy = x -> {
+            switch (x.getBitLength()) {
+                case 0:
+                    return 2;
+                case 1:
+                    return 4;
+                case 3:
+                    return 2;
+                default:
+                    return 0;
+            }
+        };
+        RouteTreeBucketStrategy bucketStrategy = x -> new KBucketParameters(2, 2);
+        fixture = new RouteTree(NODE_0000.getId(), branchStrategy, bucketStrategy);
+        
+        assertEquals(
+                Arrays.asList(
+                        BitString.createFromString("0000"),
+                        BitString.createFromString("0001"),
+                        BitString.createFromString("001"),
+                        BitString.createFromString("010"),
+                        BitString.createFromString("011"),
+                        BitString.createFromString("1")),
+                fixture.dumpBucketPrefixes());
+        
+        verifyPrefixMatches(fixture.touch(BASE_TIME.plusMillis(1L), NODE_0001).getKBucketPrefix(), "0001");
+        verifyPrefixMatches(fixture.touch(BASE_TIME.plusMillis(2L), NODE_0011).getKBucketPrefix(), "001");
+        verifyPrefixMatches(fixture.touch(BASE_TIME.plusMillis(3L), NODE_0100).getKBucketPrefix(), "010");
+        verifyPrefixMatches(fixture.touch(BASE_TIME.plusMillis(4L), NODE_0111).getKBucketPrefix(), "011");
+        verifyPrefixMatches(fixture.touch(BASE_TIME.plusMillis(5L), NODE_1010).getKBucketPrefix(), "1");
+        verifyPrefixMatches(fixture.stale(NODE_0111).getKBucketPrefix(), "011");
+    }
+
     @Test
     public void mustProperlyReplaceStaleNodesWithCacheIfAvailable() throws Throwable {
         fixture.touch(BASE_TIME.plusMillis(1L), NODE_0001);
@@ -495,6 +537,51 @@ public final class RouteTreeTest {
         //       (result in decimal)         1          3          8
     }
 
+    @Test
+    public void mustFindSameNodesAsSortingEntireTable() throws Throwable {
+        Random random = new Random(0L);
+        for (int branchesPerLevel : new int[] { 2, 4, 16 }) {
+            Id baseId = Id.createFromLong(random.nextLong(), 16);
+            SimpleRouteTreeStrategy specSupplier = new SimpleRouteTreeStrategy(baseId, branchesPerLevel, 3, 2);
+            fixture = new RouteTree(baseId, specSupplier, specSupplier);
+            
+            Instant time = BASE_TIME;
+            for (int i = 0; i < 500; i++) {
+                time = time.plusMillis(1L);
+                Id id = Id.createFromLong(random.nextLong(), 16);
+                if (id.equals(baseId)) {
+                    continue;
+                }
+                fixture.touch(time, new Node(id, ""));
+                
+                if (i % 10 == 0) { // mark the closest node to some random ID as stale
+                    List<Activity> closest = fixture.find(Id.createFromLong(random.nextLong(), 16), 1, false);
+                    if (!closest.isEmpty()) {
+                        fixture.stale(closest.get(0).getNode());
+                    }
+                }
+            }
+            
+            List<Activity> all = new ArrayList<>();
+            fixture.dumpBucketPrefixes().stream()
+                    .filter(x -> x.getBitLength() < baseId.getBitLength()) // skip bucket for baseId
+                    .forEach(x -> all.addAll(fixture.dumpBucket(x)));
+            
+            for (int i = 0; i < 200; i++) {
+                Id id = Id.createFromLong(random.nextLong(), 16);
+                int max = random.nextInt(all.size() + 5);
+                
+                IdXorMetricComparator comparator = new IdXorMetricComparator(id);
+                List<Activity> expected = all.stream()
+                        .sorted((x, y) -> comparator.compare(x.getNode().getId(), y.getNode().getId()))
+                        .limit(max)
+                        .collect(Collectors.toList());
+                
+                assertEquals(expected, fixture.find(id, max, true));
+            }
+        }
+    }
+
     @Test
     public void mustReturnStagnantBucketsInOrder() throws Throwable {
         fixture.touch(BASE_TIME.plusMillis(1L), NODE_1100);
@@ -518,6 +605,46 @@ public final class RouteTreeTest {
                 bitStringsOlderThan5L);
     }
     
+    @Test
+    public void mustIterateClosestInSameOrderAsFind() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        for (int branchesPerLevel : new int[] {2, 4, 16}) {
+            SimpleRouteTreeStrategy strategy = new SimpleRouteTreeStrategy(baseId, branchesPerLevel, 4, 2);
+            RouteTree routeTree = new RouteTree(baseId, strategy, strategy);
+            Random random = new Random(0L);
+            for (int i = 0; i < 2000; i++) {
+                Id id = Id.createFromLong((random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32), 32);
+                if (id.equals(baseId)) {
+                    continue;
+                }
+                Node node = new Node(id, "");
+                RouteTreeChangeSet changeSet = routeTree.touch(BASE_TIME, node);
+                boolean inBucket = !changeSet.getKBucketChangeSet().getBucketChangeSet().viewAdded().isEmpty();
+                if (inBucket && random.nextInt(8) == 0) {
+                    routeTree.stale(node);
+                }
+            }
+            
+            for (int i = 0; i < 500; i++) {
+                Id id = i == 0 ? baseId : Id.createFromLong((random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32), 32);
+                for (boolean includeStale : new boolean[] {false, true}) {
+                    List<Activity> expected = routeTree.find(id, Integer.MAX_VALUE, includeStale);
+                    List<Activity> actual = new ArrayList<>();
+                    routeTree.iterateClosest(id, includeStale).forEachRemaining(actual::add);
+                    assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void mustStopIteratingClosestWhenTreeEmpty() throws Throwable {
+        Iterator<Activity> it = fixture.iterateClosest(NODE_0100.getId(), true);
+        assertFalse(it.hasNext());
+        expectedException.expect(NoSuchElementException.class);
+        it.next();
+    }
+    
     @Test
     public void mustNotRejectIfFindingSelfId() throws Throwable {
         fixture.find(NODE_0000.getId(), 1, true);
@@ -1,8 +1,30 @@
 package com.offbynull.kademlia;
 
 import static com.offbynull.kademlia.TestUtils.verifyNodes;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -118,4 +140,612 @@ public class RouterTest {
         ret = fixture.find(NODE_1001.getId(), 100, false);
         verifyNodes(ret, node1001WithDifferentLink, NODE_1010); // 1001 and 1010 in kbucket
     }
+
+    @Test
+    public void mustStaleUnresponsiveNodeRightAwayByDefault() throws Throwable {
+        fixture.touch(BASE_TIME, NODE_1000);
+        fixture.touch(BASE_TIME, NODE_1001);
+        
+        RouterChangeSet changeSet = fixture.unresponsive(BASE_TIME, NODE_1000);
+        
+        assertEquals(fixture.stale(NODE_1000), changeSet); // staling again does nothing, so same change set as staling the first time
+        assertTrue(changeSet.viewLocked().isEmpty());
+        assertTrue(changeSet.viewUnlocked().isEmpty());
+        assertNull(fixture.getNextUnlockTime());
+        verifyNodes(fixture.find(NODE_1000.getId(), 100, false), NODE_1001);
+        verifyNodes(fixture.find(NODE_1000.getId(), 100, true), NODE_1000, NODE_1001);
+    }
+
+    @Test
+    public void mustLockUnresponsiveNodeForExponentiallyIncreasingBackoffThenStale() throws Throwable {
+        Router router = createBackoffRouter();
+        router.touch(BASE_TIME, NODE_1000);
+        router.touch(BASE_TIME, NODE_1001);
+        
+        // 1st time unresponsive, locked for 10 seconds
+        RouterChangeSet changeSet = router.unresponsive(BASE_TIME, NODE_1000);
+        assertEquals(singletonList(NODE_1000), changeSet.viewLocked());
+        assertTrue(changeSet.viewUnlocked().isEmpty());
+        verifyNodes(router.find(NODE_1000.getId(), 100, true), NODE_1001);
+        assertEquals(BASE_TIME.plusSeconds(10L), router.getNextUnlockTime());
+        assertTrue(router.unlockExpired(BASE_TIME.plusSeconds(9L)).isEmpty());
+        
+        List<RouterChangeSet> unlockChangeSets = router.unlockExpired(BASE_TIME.plusSeconds(10L));
+        assertEquals(1, unlockChangeSets.size());
+        assertEquals(singletonList(NODE_1000), unlockChangeSets.get(0).viewUnlocked());
+        assertNull(router.getNextUnlockTime());
+        verifyNodes(router.find(NODE_1000.getId(), 100, false), NODE_1000, NODE_1001);
+        
+        // 2nd time unresponsive, locked for 20 seconds
+        router.unresponsive(BASE_TIME.plusSeconds(100L), NODE_1000);
+        assertEquals(BASE_TIME.plusSeconds(120L), router.getNextUnlockTime());
+        router.unlockExpired(BASE_TIME.plusSeconds(120L));
+        
+        // 3rd time unresponsive, would be locked for 40 seconds but capped to 30 seconds
+        router.unresponsive(BASE_TIME.plusSeconds(200L), NODE_1000);
+        assertEquals(BASE_TIME.plusSeconds(230L), router.getNextUnlockTime());
+        
+        // 4th time unresponsive (while still locked), marked as stale
+        changeSet = router.unresponsive(BASE_TIME.plusSeconds(210L), NODE_1000);
+        assertTrue(changeSet.viewLocked().isEmpty());
+        assertEquals(singletonList(NODE_1000), changeSet.viewUnlocked());
+        assertNull(router.getNextUnlockTime());
+        verifyNodes(router.find(NODE_1000.getId(), 100, false), NODE_1001);
+        verifyNodes(router.find(NODE_1000.getId(), 100, true), NODE_1000, NODE_1001);
+    }
+
+    @Test
+    public void mustNotUnlockOrResetBackoffWhenLockedNodeTouched() throws Throwable {
+        Router router = createBackoffRouter();
+        router.touch(BASE_TIME, NODE_1000);
+        
+        router.unresponsive(BASE_TIME, NODE_1000);
+        router.touch(BASE_TIME.plusSeconds(1L), NODE_1000);
+        assertTrue(router.find(NODE_1000.getId(), 100, true).isEmpty());
+        
+        router.unlockExpired(BASE_TIME.plusSeconds(10L));
+        router.unresponsive(BASE_TIME.plusSeconds(10L), NODE_1000);
+        assertEquals(BASE_TIME.plusSeconds(30L), router.getNextUnlockTime()); // 2nd time in a row, 20 seconds
+    }
+
+    @Test
+    public void mustResetBackoffWhenUnlockedNodeTouched() throws Throwable {
+        Router router = createBackoffRouter();
+        router.touch(BASE_TIME, NODE_1000);
+        
+        router.unresponsive(BASE_TIME, NODE_1000);
+        router.unlockExpired(BASE_TIME.plusSeconds(10L));
+        router.touch(BASE_TIME.plusSeconds(11L), NODE_1000);
+        
+        router.unresponsive(BASE_TIME.plusSeconds(12L), NODE_1000);
+        assertEquals(BASE_TIME.plusSeconds(22L), router.getNextUnlockTime()); // back to 1st time, 10 seconds
+    }
+
+    @Test
+    public void mustReportStatesOfNodesInRouter() throws Throwable {
+        Router router = createBackoffRouter();
+        router.touch(BASE_TIME, NODE_1000);
+        router.touch(BASE_TIME, NODE_1001);
+        router.touch(BASE_TIME, NODE_1010); // 1xxx bucket full, goes in to cache
+        router.touch(BASE_TIME, NODE_0100);
+        router.unresponsive(BASE_TIME, NODE_1000);
+        router.stale(NODE_0100); // 01xx cache empty, stays in bucket as stale
+        
+        assertEquals(NodeState.LOCKED, router.getState(NODE_1000.getId()));
+        assertEquals(NodeState.ALIVE, router.getState(NODE_1001.getId()));
+        assertEquals(NodeState.CACHED, router.getState(NODE_1010.getId()));
+        assertEquals(NodeState.STALE, router.getState(NODE_0100.getId()));
+        assertNull(router.getState(NODE_0101.getId()));
+        assertNull(router.getState(NODE_0000.getId())); // self
+        assertTrue(router.contains(NODE_1010.getId()));
+        assertFalse(router.contains(NODE_0101.getId()));
+        assertEquals(new Activity(NODE_1001, BASE_TIME), router.get(NODE_1001.getId()));
+        assertNull(router.get(NODE_0101.getId()));
+    }
+
+    @Test
+    public void mustFailToReportUnresponsiveNodeThatIsntInRouter() throws Throwable {
+        Router router = createBackoffRouter();
+        
+        expectedException.expect(NodeNotFoundException.class);
+        router.unresponsive(BASE_TIME, NODE_1000);
+    }
+
+    @Test
+    public void mustRestoreBackoffStateFromWrittenState() throws Throwable {
+        Router router = createBackoffRouter();
+        router.touch(BASE_TIME, NODE_1000);
+        router.touch(BASE_TIME, NODE_1001);
+        router.unresponsive(BASE_TIME, NODE_1000);
+        router.unresponsive(BASE_TIME, NODE_1001);
+        router.unlockExpired(BASE_TIME.plusSeconds(10L));
+        router.unresponsive(BASE_TIME.plusSeconds(10L), NODE_1001);
+        
+        byte[] state = writeState(router);
+        Router restored = Router.readState(
+                Channels.newChannel(new ByteArrayInputStream(state)),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2));
+        
+        assertArrayEquals(state, writeState(restored));
+        assertEquals(BASE_TIME.plusSeconds(30L), restored.getNextUnlockTime());
+        verifyNodes(restored.find(NODE_1000.getId(), 100, false), NODE_1000);
+        
+        restored.unresponsive(BASE_TIME.plusSeconds(10L), NODE_1000); // 2nd time in a row
+        assertEquals(BASE_TIME.plusSeconds(30L), restored.getNextUnlockTime());
+        assertEquals(2, restored.unlockExpired(BASE_TIME.plusSeconds(30L)).size());
+    }
+
+    @Test
+    public void mustRestoreToSameStateFromWrittenState() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        Router original = new Router(baseId, 4, 4, 2);
+        
+        Random random = new Random(0L);
+        Instant time = BASE_TIME;
+        for (int i = 0; i < 5000; i++) {
+            time = time.plusMillis(random.nextInt(2));
+            randomOperation(random, time, original, null);
+        }
+
+        Router restored = Router.readState(
+                Channels.newChannel(new ByteArrayInputStream(writeState(original))),
+                new SimpleRouteTreeStrategy(baseId, 4, 4, 2),
+                new SimpleRouteTreeStrategy(baseId, 4, 4, 2));
+        
+        // same nodes / stale nodes / stagnant buckets, and continues to behave the same way (including the replacement caches, which
+        // aren't directly visible through find)
+        assertEquals(original.dumpBucketPrefixes(), restored.dumpBucketPrefixes());
+        assertEquals(original.find(baseId, Integer.MAX_VALUE, true), restored.find(baseId, Integer.MAX_VALUE, true));
+        assertEquals(original.find(baseId, Integer.MAX_VALUE, false), restored.find(baseId, Integer.MAX_VALUE, false));
+        assertEquals(original.getRouteTree().getStagnantBuckets(time), restored.getRouteTree().getStagnantBuckets(time));
+        for (int i = 0; i < 5000; i++) {
+            time = time.plusMillis(random.nextInt(2));
+            randomOperation(random, time, original, restored);
+        }
+        assertEquals(original.find(baseId, Integer.MAX_VALUE, true), restored.find(baseId, Integer.MAX_VALUE, true));
+        
+        // written state of restored router must be identical to written state of original router
+        assertArrayEquals(writeState(original), writeState(restored));
+    }
+
+    @Test
+    public void mustRestoreTimeChecksFromWrittenState() throws Throwable {
+        fixture.touch(BASE_TIME.plusMillis(2L), NODE_1000);
+        
+        Router restored = Router.readState(
+                Channels.newChannel(new ByteArrayInputStream(writeState(fixture))),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2));
+        
+        expectedException.expect(BackwardTimeException.class);
+        restored.touch(BASE_TIME.plusMillis(1L), NODE_0100);
+    }
+
+    @Test
+    public void mustFailToRestoreWrittenStateWithDifferentStrategy() throws Throwable {
+        fixture.touch(BASE_TIME, NODE_1000);
+        byte[] state = writeState(fixture);
+        
+        expectedException.expect(IOException.class);
+        Router.readState(
+                Channels.newChannel(new ByteArrayInputStream(state)),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 4, 2, 2),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 4, 2, 2));
+    }
+
+    @Test
+    public void mustFailToRestoreTruncatedWrittenState() throws Throwable {
+        fixture.touch(BASE_TIME, NODE_1000);
+        byte[] state = writeState(fixture);
+        byte[] truncatedState = Arrays.copyOf(state, state.length - 1);
+        
+        expectedException.expect(IOException.class);
+        Router.readState(
+                Channels.newChannel(new ByteArrayInputStream(truncatedState)),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2));
+    }
+    
+    @Test
+    public void mustReportSameChangesToListenerAsChangeSet() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        Router changeSetRouter = new Router(baseId, 4, 4, 2);
+        Router listenerRouter = new Router(baseId, 4, 4, 2);
+        List<String> actual = new ArrayList<>();
+        ChangeListener listener = new ChangeListener() {
+            @Override
+            public void bucketAdded(BitString kBucketPrefix, Activity activity) {
+                actual.add("bucketAdded " + kBucketPrefix + " " + activity);
+            }
+
+            @Override
+            public void bucketRemoved(BitString kBucketPrefix, Activity activity) {
+                actual.add("bucketRemoved " + kBucketPrefix + " " + activity);
+            }
+
+            @Override
+            public void bucketUpdated(BitString kBucketPrefix, Activity activity) {
+                actual.add("bucketUpdated " + kBucketPrefix + " " + activity);
+            }
+
+            @Override
+            public void cacheAdded(BitString kBucketPrefix, Activity activity) {
+                actual.add("cacheAdded " + kBucketPrefix + " " + activity);
+            }
+
+            @Override
+            public void cacheRemoved(BitString kBucketPrefix, Activity activity) {
+                actual.add("cacheRemoved " + kBucketPrefix + " " + activity);
+            }
+
+            @Override
+            public void cacheUpdated(BitString kBucketPrefix, Activity activity) {
+                actual.add("cacheUpdated " + kBucketPrefix + " " + activity);
+            }
+        };
+        
+        Random random = new Random(0L);
+        long time = 0L;
+        for (int i = 0; i < 5000; i++) {
+            time += random.nextInt(2);
+            long value = (random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32);
+            Id id = Id.createFromLong(value, 32);
+            if (random.nextInt(4) == 0) {
+                List<Node> closest = changeSetRouter.find(id, 1, false);
+                if (!closest.isEmpty()) { // stale so that touches end up replacing stale nodes
+                    changeSetRouter.stale(closest.get(0));
+                    listenerRouter.stale(closest.get(0));
+                }
+            } else if (!id.equals(baseId)) {
+                Node node = new Node(id, Long.toHexString(value));
+                RouteTreeChangeSet changeSet = changeSetRouter.touch(time, node).getRouteTreeChangeSet();
+                actual.clear();
+                listenerRouter.touch(time, node, listener);
+                
+                List<String> expected = new ArrayList<>();
+                BitString prefix = changeSet.getKBucketPrefix();
+                ActivityChangeSet bucketChangeSet = changeSet.getKBucketChangeSet().getBucketChangeSet();
+                ActivityChangeSet cacheChangeSet = changeSet.getKBucketChangeSet().getCacheChangeSet();
+                bucketChangeSet.viewAdded().forEach(x -> expected.add("bucketAdded " + prefix + " " + x));
+                bucketChangeSet.viewRemoved().forEach(x -> expected.add("bucketRemoved " + prefix + " " + x));
+                bucketChangeSet.viewUpdated().forEach(x -> expected.add("bucketUpdated " + prefix + " " + x));
+                cacheChangeSet.viewAdded().forEach(x -> expected.add("cacheAdded " + prefix + " " + x));
+                cacheChangeSet.viewRemoved().forEach(x -> expected.add("cacheRemoved " + prefix + " " + x));
+                cacheChangeSet.viewUpdated().forEach(x -> expected.add("cacheUpdated " + prefix + " " + x));
+                assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+                assertEquals(expected.size(), actual.size());
+            }
+        }
+        assertEquals(changeSetRouter.find(baseId, Integer.MAX_VALUE, true), listenerRouter.find(baseId, Integer.MAX_VALUE, true));
+    }
+    
+    @Test
+    public void mustApplyBatchSameAsIndividualTouchesInTimeOrder() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        Router batchRouter = new Router(baseId, 4, 4, 2);
+        Router singleRouter = new Router(baseId, 4, 4, 2);
+        
+        Random random = new Random(0L);
+        long time = 0L;
+        for (int i = 0; i < 50; i++) {
+            TouchBatch batch = new TouchBatch();
+            List<Object[]> touches = new ArrayList<>();
+            for (int j = random.nextInt(100); j >= 0; j--) {
+                long value = (random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32);
+                Id id = Id.createFromLong(value, 32);
+                if (!id.equals(baseId)) {
+                    long touchTime = time + random.nextInt(10); // times in a batch don't have to be in order
+                    Node node = new Node(id, Long.toHexString(value));
+                    batch.add(touchTime, node);
+                    touches.add(new Object[] {touchTime, node});
+                }
+            }
+            time += 10L;
+            
+            batchRouter.touchAll(batch);
+            touches.sort((x, y) -> Long.compare((long) x[0], (long) y[0])); // stable
+            for (Object[] touch : touches) {
+                singleRouter.touch((long) touch[0], (Node) touch[1]);
+            }
+            
+            List<Node> closest = batchRouter.find(baseId, 1, false);
+            if (!closest.isEmpty()) { // stale so that later batches end up replacing stale nodes
+                batchRouter.stale(closest.get(0));
+                singleRouter.stale(closest.get(0));
+            }
+        }
+        
+        assertEquals(singleRouter.find(baseId, Integer.MAX_VALUE, true), batchRouter.find(baseId, Integer.MAX_VALUE, true));
+        assertEquals(singleRouter.find(baseId, Integer.MAX_VALUE, false), batchRouter.find(baseId, Integer.MAX_VALUE, false));
+        List<KBucket> singleBuckets = singleRouter.getRouteTree().dumpBuckets();
+        List<KBucket> batchBuckets = batchRouter.getRouteTree().dumpBuckets();
+        for (int i = 0; i < singleBuckets.size(); i++) {
+            assertEquals(singleBuckets.get(i).dumpBucket(true, true, true), batchBuckets.get(i).dumpBucket(true, true, true));
+            assertEquals(singleBuckets.get(i).dumpCache(), batchBuckets.get(i).dumpCache());
+        }
+    }
+    
+    @Test
+    public void mustAggregateBatchChangesPerBucket() throws Throwable {
+        TouchBatch batch = new TouchBatch();
+        batch.add(BASE_TIME.plusMillis(3L), NODE_1000);
+        batch.add(BASE_TIME.plusMillis(1L), NODE_0100);
+        batch.add(BASE_TIME.plusMillis(1L), NODE_1001);
+        batch.add(BASE_TIME.plusMillis(2L), NODE_1000); // touched twice, must only be reported once
+        batch.add(BASE_TIME.plusMillis(4L), NODE_1010); // goes in to cache, bucket is full
+        
+        List<RouterChangeSet> changeSets = fixture.touchAll(batch);
+        
+        assertEquals(2, changeSets.size());
+        for (RouterChangeSet changeSet : changeSets) {
+            RouteTreeChangeSet routeTreeChangeSet = changeSet.getRouteTreeChangeSet();
+            ActivityChangeSet bucketChangeSet = routeTreeChangeSet.getKBucketChangeSet().getBucketChangeSet();
+            ActivityChangeSet cacheChangeSet = routeTreeChangeSet.getKBucketChangeSet().getCacheChangeSet();
+            if (routeTreeChangeSet.getKBucketPrefix().equals(BitString.createFromString("01"))) {
+                assertEquals(1, bucketChangeSet.viewAdded().size());
+                assertEquals(NODE_0100, bucketChangeSet.viewAdded().get(0).getNode());
+                assertTrue(cacheChangeSet.viewAdded().isEmpty());
+            } else if (routeTreeChangeSet.getKBucketPrefix().equals(BitString.createFromString("1"))) {
+                assertEquals(2, bucketChangeSet.viewAdded().size());
+                for (Activity activity : bucketChangeSet.viewAdded()) {
+                    if (activity.getNode().equals(NODE_1000)) {
+                        assertEquals(BASE_TIME.plusMillis(3L), activity.getTime());
+                    } else {
+                        assertEquals(NODE_1001, activity.getNode());
+                    }
+                }
+                assertTrue(bucketChangeSet.viewUpdated().isEmpty());
+                assertEquals(1, cacheChangeSet.viewAdded().size());
+                assertEquals(NODE_1010, cacheChangeSet.viewAdded().get(0).getNode());
+            } else {
+                throw new AssertionError(routeTreeChangeSet.getKBucketPrefix());
+            }
+        }
+    }
+    
+    @Test
+    public void mustFailWholeBatchIfAnyTouchGoesBackInTime() throws Throwable {
+        fixture.touch(BASE_TIME.plusMillis(10L), NODE_1000);
+        
+        TouchBatch batch = new TouchBatch();
+        batch.add(BASE_TIME.plusMillis(11L), NODE_0100);
+        batch.add(BASE_TIME.plusMillis(5L), NODE_1001);
+        
+        try {
+            fixture.touchAll(batch);
+            throw new AssertionError();
+        } catch (BackwardTimeException bte) {
+            // do nothing
+        }
+        
+        verifyNodes(fixture.find(NODE_0000.getId(), 100, true), NODE_1000);
+    }
+    
+    @Test
+    public void mustFindAllSameAsFindingEachIndividually() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        Router router = new Router(baseId, 4, 4, 2);
+        Random random = new Random(0L);
+        for (int i = 0; i < 5000; i++) {
+            randomOperation(random, BASE_TIME, router, null);
+        }
+        
+        List<Id> ids = new ArrayList<>();
+        ids.add(baseId);
+        for (int i = 0; i < 2000; i++) {
+            ids.add(Id.createFromLong((random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32), 32));
+        }
+        ids.add(ids.get(1)); // duplicate
+        
+        for (boolean includeStale : new boolean[] {false, true}) {
+            List<List<Node>> expected = new ArrayList<>();
+            for (Id id : ids) {
+                expected.add(router.find(id, 20, includeStale));
+            }
+            
+            assertEquals(expected, router.findAll(ids, 20, includeStale));
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                assertEquals(expected, router.findAll(ids, 20, includeStale, pool));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+    
+    @Test
+    public void mustFindWithFilterSameAsFilteringAllNodes() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        Router router = new Router(baseId, 4, 4, 2);
+        Random random = new Random(0L);
+        Instant time = BASE_TIME;
+        for (int i = 0; i < 5000; i++) {
+            time = time.plusMillis(1L);
+            randomOperation(random, time, router, null);
+        }
+        
+        Instant seenSince = BASE_TIME.plusMillis(2500L);
+        Predicate<Activity> filter = x -> !x.getTime().isBefore(seenSince) && (x.getNode().getId().getBitsAsLong(28, 4) & 1L) == 0L;
+        for (int i = 0; i < 500; i++) {
+            Id id = Id.createFromLong((random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32), 32);
+            int max = random.nextInt(20);
+            for (boolean includeStale : new boolean[] {false, true}) {
+                List<Node> expected = new ArrayList<>();
+                for (Activity activity : router.getRouteTree().find(id, Integer.MAX_VALUE, includeStale)) {
+                    if (expected.size() < max && filter.test(activity)) {
+                        expected.add(activity.getNode());
+                    }
+                }
+                assertEquals(expected, router.find(id, max, includeStale, filter));
+            }
+        }
+    }
+    
+    @Test
+    public void mustKeepLinkIndexInSyncWithRouteTree() throws Throwable {
+        Id baseId = Id.createFromLong(0x12345678L, 32);
+        Router router = new Router(baseId,
+                new SimpleRouteTreeStrategy(baseId, 4, 4, 2),
+                new SimpleRouteTreeStrategy(baseId, 4, 4, 2),
+                new BackoffParameters(Duration.ofSeconds(10L), Duration.ofSeconds(30L), 2));
+        Set<String> links = new HashSet<>();
+        Random random = new Random(0L);
+        Instant time = BASE_TIME;
+        for (int i = 0; i < 20000; i++) {
+            if (i == 1000) {
+                router.enableLinkIndex(); // must pick up what's already in the router
+            }
+            
+            time = time.plusMillis(1L);
+            long value = (random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32);
+            Id id = Id.createFromLong(value, 32);
+            String link = random.nextInt(10) == 0 ? "shared" + random.nextInt(5) : Long.toHexString(value);
+            Node node = new Node(id, link);
+            links.add(link);
+            try {
+                switch (random.nextInt(6)) {
+                    case 0: {
+                        List<Node> closest = router.find(id, 1, false);
+                        if (!closest.isEmpty()) {
+                            router.stale(closest.get(0));
+                        }
+                        break;
+                    }
+                    case 1: {
+                        List<Node> closest = router.find(id, 1, false);
+                        if (!closest.isEmpty()) {
+                            router.unresponsive(time, closest.get(0));
+                        }
+                        break;
+                    }
+                    case 2: {
+                        TouchBatch batch = new TouchBatch();
+                        batch.add(time, node);
+                        batch.add(time, new Node(Id.createFromLong(value ^ 1L, 32), Long.toHexString(value ^ 1L)));
+                        links.add(Long.toHexString(value ^ 1L));
+                        router.touchAll(batch);
+                        break;
+                    }
+                    case 3:
+                        router.touch(InternalTime.toNanos(time), node, new ChangeListener() { });
+                        break;
+                    default:
+                        router.touch(time, node);
+                        break;
+                }
+            } catch (LinkMismatchException | BaseIdMatchException e) {
+                // ignore -- touched an existing node with a different link, or touched self
+            }
+            router.unlockExpired(time);
+            
+            if (i >= 1000 && i % 100 == 0) {
+                Map<String, List<Node>> expected = new HashMap<>();
+                for (KBucket bucket : router.getRouteTree().dumpBuckets()) {
+                    List<Activity> activities = new ArrayList<>(bucket.dumpBucket(true, true, true));
+                    activities.addAll(bucket.dumpCache());
+                    activities.forEach(x -> expected.computeIfAbsent(x.getNode().getLink(), k -> new ArrayList<>()).add(x.getNode()));
+                }
+                for (String checkLink : links) {
+                    Node actual = router.getByLink(checkLink);
+                    List<Node> expectedNodes = expected.getOrDefault(checkLink, emptyList());
+                    if (expectedNodes.isEmpty()) {
+                        assertNull(actual);
+                    } else if (expectedNodes.size() == 1) {
+                        assertEquals(expectedNodes.get(0), actual);
+                    } else {
+                        assertTrue(expectedNodes.contains(actual)); // link shared by multiple nodes, any of them is fine
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void mustFailToGetByLinkIfLinksNotIndexed() throws Throwable {
+        expectedException.expect(IllegalStateException.class);
+        fixture.getByLink("1");
+    }
+    
+    @Test
+    public void mustFailTouchingNodeWithDifferentInetLink() throws Throwable {
+        Node node = new Node(NODE_1000.getId(), InetLink.parse("10.0.0.1:6881"));
+        fixture.touch(BASE_TIME, node);
+        fixture.touch(BASE_TIME, new Node(NODE_1000.getId(), InetLink.parse("10.0.0.1:6881"))); // equal link, so no mismatch
+        
+        try {
+            fixture.touch(BASE_TIME, new Node(NODE_1000.getId(), InetLink.parse("10.0.0.1:6882")));
+            fail();
+        } catch (LinkMismatchException lme) {
+            assertEquals(node.getTypedLink(), lme.getExpectedTypedLink());
+            assertEquals("10.0.0.1:6881", lme.getExpectedLink());
+        }
+
+        expectedException.expect(LinkMismatchException.class);
+        fixture.touch(BASE_TIME, new Node(NODE_1000.getId(), "10.0.0.1:6881")); // string link is never equal to an InetLink
+    }
+
+    @Test
+    public void mustGetByInetLink() throws Throwable {
+        Node node = new Node(NODE_1000.getId(), InetLink.parse("[fe80::1]:6881"));
+        fixture.enableLinkIndex();
+        fixture.touch(BASE_TIME, node);
+        
+        assertEquals(node, fixture.getByLink(InetLink.createIpv6(0xFE80000000000000L, 1L, 6881)));
+        assertNull(fixture.getByLink(node.getLink()));
+    }
+
+    @Test
+    public void mustRestoreInetLinksFromWrittenState() throws Throwable {
+        Node ipv4Node = new Node(NODE_1000.getId(), InetLink.parse("10.0.0.1:6881"));
+        Node ipv6Node = new Node(NODE_0100.getId(), InetLink.parse("[fe80::1]:6881"));
+        Node stringNode = new Node(NODE_0010.getId(), "10.0.0.2:6881");
+        fixture.touch(BASE_TIME, ipv4Node);
+        fixture.touch(BASE_TIME, ipv6Node);
+        fixture.touch(BASE_TIME, stringNode);
+        
+        Router restored = Router.readState(
+                Channels.newChannel(new ByteArrayInputStream(writeState(fixture))),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2));
+        
+        assertEquals(fixture.find(NODE_0000.getId(), 100, true), restored.find(NODE_0000.getId(), 100, true));
+        assertEquals(ipv4Node, restored.get(ipv4Node.getId()).getNode());
+        assertEquals(ipv6Node, restored.get(ipv6Node.getId()).getNode());
+        assertEquals(stringNode, restored.get(stringNode.getId()).getNode());
+    }
+    
+    private static Router createBackoffRouter() {
+        return new Router(NODE_0000.getId(),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2),
+                new SimpleRouteTreeStrategy(NODE_0000.getId(), 2, 2, 2),
+                new BackoffParameters(Duration.ofSeconds(10L), Duration.ofSeconds(30L), 4));
+    }
+
+    private static byte[] writeState(Router router) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        router.writeState(Channels.newChannel(os));
+        return os.toByteArray();
+    }
+    
+    // applies the same random touch/stale to router1 and router2 (if not null), making sure that both report the same changes
+    private static void randomOperation(Random random, Instant time, Router router1, Router router2) {
+        long value = (random.nextInt() & 0xFFFFFFFFL) >>> random.nextInt(32);
+        Id id = Id.createFromLong(value, 32);
+        if (random.nextInt(4) == 0) {
+            List<Node> closest = router1.find(id, 1, false);
+            if (!closest.isEmpty()) {
+                RouterChangeSet changeSet = router1.stale(closest.get(0));
+                if (router2 != null) {
+                    assertEquals(changeSet, router2.stale(closest.get(0)));
+                }
+            }
+        } else if (!id.equals(router1.getBaseId())) {
+            Node node = new Node(id, Long.toHexString(value));
+            RouterChangeSet changeSet = router1.touch(time, node);
+            if (router2 != null) {
+                assertEquals(changeSet, router2.touch(time, node));
+            }
+        }
+    }
 }
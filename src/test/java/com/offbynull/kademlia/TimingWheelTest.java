@@ -0,0 +1,126 @@
+package com.offbynull.kademlia;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void mustPollKeysAtOrBeforeTick() {
+        TimingWheel fixture = new TimingWheel(4, 0L);
+        fixture.schedule(0, 10L);
+        fixture.schedule(1, 20L);
+        fixture.schedule(2, 30L);
+        
+        assertEquals(0, fixture.poll(9L));
+        assertEquals(asSet(0), polled(fixture, fixture.poll(10L)));
+        assertEquals(asSet(1, 2), polled(fixture, fixture.poll(1000L)));
+        assertEquals(0, fixture.size());
+    }
+
+    @Test
+    public void mustPollKeysScheduledInThePastOnNextPoll() {
+        TimingWheel fixture = new TimingWheel(2, 100L);
+        fixture.schedule(0, 50L);
+        fixture.schedule(1, 100L);
+        
+        assertEquals(asSet(0, 1), polled(fixture, fixture.poll(0L))); // poll time before current tick doesn't matter
+    }
+
+    @Test
+    public void mustReplaceExistingDeadlineWhenRescheduling() {
+        TimingWheel fixture = new TimingWheel(1, 0L);
+        fixture.schedule(0, 10L);
+        fixture.schedule(0, 1000L);
+        
+        assertEquals(1, fixture.size());
+        assertEquals(0, fixture.poll(999L));
+        assertEquals(asSet(0), polled(fixture, fixture.poll(1000L)));
+    }
+
+    @Test
+    public void mustNotPollCancelledKeys() {
+        TimingWheel fixture = new TimingWheel(2, 0L);
+        fixture.schedule(0, 10L);
+        fixture.schedule(1, 10L);
+        fixture.cancel(0);
+        
+        assertFalse(fixture.isScheduled(0));
+        assertTrue(fixture.isScheduled(1));
+        assertEquals(asSet(1), polled(fixture, fixture.poll(10L)));
+    }
+
+    @Test
+    public void mustHandleFullRangeOfTicks() {
+        TimingWheel fixture = new TimingWheel(3, Long.MIN_VALUE);
+        fixture.schedule(0, Long.MIN_VALUE);
+        fixture.schedule(1, 0L);
+        fixture.schedule(2, Long.MAX_VALUE);
+        
+        assertEquals(asSet(0), polled(fixture, fixture.poll(Long.MIN_VALUE)));
+        assertEquals(asSet(1), polled(fixture, fixture.poll(0L)));
+        assertEquals(0, fixture.poll(Long.MAX_VALUE - 1L));
+        assertEquals(asSet(2), polled(fixture, fixture.poll(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void mustMatchBruteForceForRandomOperations() {
+        Random random = new Random(0L);
+        int capacity = 64;
+        TimingWheel fixture = new TimingWheel(capacity, 0L);
+        long[] expected = new long[capacity];
+        Arrays.fill(expected, -1L); // -1 means not scheduled
+        
+        long now = 0L;
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(capacity);
+            switch (random.nextInt(4)) {
+                case 0: {
+                    long deadline = now + randomDelta(random);
+                    fixture.schedule(key, deadline);
+                    expected[key] = Math.max(deadline, 0L);
+                    break;
+                }
+                case 1:
+                    fixture.cancel(key);
+                    expected[key] = -1L;
+                    break;
+                default: {
+                    now += randomDelta(random);
+                    Set<Integer> expectedPolled = new HashSet<>();
+                    for (int j = 0; j < capacity; j++) {
+                        if (expected[j] != -1L && expected[j] <= now) {
+                            expectedPolled.add(j);
+                            expected[j] = -1L;
+                        }
+                    }
+                    assertEquals(expectedPolled, polled(fixture, fixture.poll(now)));
+                    break;
+                }
+            }
+        }
+    }
+
+    private static long randomDelta(Random random) {
+        return random.nextInt(4) == 0 ? random.nextInt(1 << 20) : random.nextInt(100); // mostly small jumps, sometimes large ones
+    }
+
+    private static Set<Integer> polled(TimingWheel wheel, int count) {
+        Set<Integer> ret = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            ret.add(wheel.getPolled(i));
+        }
+        assertEquals(count, ret.size());
+        return ret;
+    }
+
+    private static Set<Integer> asSet(Integer... keys) {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+}
@@ -0,0 +1,129 @@
+package com.offbynull.kademlia;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Router.touch() called for each node in a burst vs Router.touchAll() for the same burst (160-bit IDs, k = 20). Each burst is a random
+// selection out of a pool of nodes that were all touched in during setup, so most touches update nodes already in the table.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TouchBatchBenchmark {
+
+    private static final int BIT_LENGTH = 160;
+    private static final int BUCKET_SIZE = 20;
+    private static final int NODE_COUNT = 4096;
+
+    @Param({"16", "256"})
+    public int batchSize;
+
+    private Router router;
+    private Node[] burst;
+    private TouchBatch batch;
+    private long time;
+    private final CountingListener countingListener = new CountingListener();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        Id baseId = randomId(random);
+        router = new Router(baseId, 2, BUCKET_SIZE, BUCKET_SIZE);
+        Node[] nodes = new Node[NODE_COUNT];
+        for (int i = 0; i < NODE_COUNT; i++) {
+            nodes[i] = new Node(randomId(random), "" + i);
+            router.touch(0L, nodes[i]);
+        }
+
+        burst = new Node[batchSize];
+        batch = new TouchBatch(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            burst[i] = nodes[random.nextInt(NODE_COUNT)];
+        }
+    }
+
+    @Benchmark
+    public RouterChangeSet touch() {
+        time++;
+        RouterChangeSet ret = null;
+        for (Node node : burst) {
+            ret = router.touch(time, node);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public List<RouterChangeSet> touchAll() {
+        time++;
+        batch.clear();
+        for (Node node : burst) {
+            batch.add(time, node);
+        }
+        return router.touchAll(batch);
+    }
+
+    @Benchmark
+    public int touchAllListener() {
+        time++;
+        batch.clear();
+        for (Node node : burst) {
+            batch.add(time, node);
+        }
+        router.touchAll(batch, countingListener);
+        return countingListener.count;
+    }
+
+    private static Id randomId(Random random) {
+        byte[] data = new byte[(BIT_LENGTH + 7) / 8];
+        random.nextBytes(data);
+        return Id.create(BitString.createReadOrder(data, 0, BIT_LENGTH));
+    }
+    
+    private static final class CountingListener implements ChangeListener {
+        private int count;
+
+        @Override
+        public void bucketAdded(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void bucketRemoved(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void bucketUpdated(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void cacheAdded(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void cacheRemoved(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+
+        @Override
+        public void cacheUpdated(BitString kBucketPrefix, Activity activity) {
+            count++;
+        }
+    }
+}